@@ -0,0 +1,106 @@
+package cc.databus.netool.benchmark;
+
+import cc.databus.netool.pcap.PcapFileWriter;
+import cc.databus.netool.utils.FilePacketSink;
+import cc.databus.netool.utils.OverflowPolicy;
+import cc.databus.netool.utils.PacketRecord;
+import cc.databus.netool.utils.PacketRingBuffer;
+import cc.databus.netool.utils.PacketSink;
+import cc.databus.netool.utils.PacketWriter;
+import org.openjdk.jmh.annotations.*;
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The path a captured packet takes in {@code NetworkCapture}: the listener offers the raw bytes to the
+ * {@link PacketRingBuffer}, the {@link PacketWriter} thread drains it in batches into a sink. With the
+ * blocking policy the offer rate is bounded by the writer, so the score is the end to end throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CapturePipelineBenchmark {
+
+    private static final int BATCH_SIZE = 256;
+
+    @Param({"imix", "small", "large"})
+    public String mix;
+
+    /**
+     * null discards the records in the writer thread, pcap writes them to a file
+     */
+    @Param({"null", "pcap"})
+    public String sink;
+
+    @Param({"65536"})
+    public int queueCapacity;
+
+    private PacketRingBuffer ringBuffer;
+    private PacketWriter writer;
+    private PacketSink packetSink;
+    private Path file;
+
+    @State(Scope.Thread)
+    public static class Producer {
+        private SyntheticPackets packets;
+        private long timestampNanos = 1500000000000000000L;
+
+        @Setup
+        public void setUp(CapturePipelineBenchmark benchmark) {
+            packets = new SyntheticPackets(benchmark.mix, 1024);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        if ("pcap".equals(sink)) {
+            file = Files.createTempFile("netools-bench", ".pcap");
+            packetSink = new FilePacketSink(new PcapFileWriter(file, 1, 65536, false, 4 * 1024 * 1024, false));
+        }
+        else {
+            packetSink = new NullSink();
+        }
+        ringBuffer = new PacketRingBuffer(queueCapacity, OverflowPolicy.BLOCK);
+        writer = new PacketWriter(ringBuffer, Collections.singleton(packetSink), BATCH_SIZE);
+        writer.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        writer.close();
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    public boolean offer(Producer producer) {
+        byte[] frame = producer.packets.next();
+        return ringBuffer.offer(packetSink, frame, DataLinkType.EN10MB, frame.length, producer.timestampNanos += 1000, 1);
+    }
+
+    private static class NullSink implements PacketSink {
+
+        private long bytes;
+
+        @Override
+        public void write(PacketRecord record) {
+            bytes += record.getData().length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package cc.databus.netool.benchmark;
+
+import cc.databus.netool.packet.PacketView;
+import org.openjdk.jmh.annotations.*;
+import org.pcap4j.packet.Packet;
+import org.pcap4j.packet.factory.PacketFactories;
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the capture thread pays per packet: a full pcap4j decode, as {@code PacketListener} did, versus
+ * reading the headers in place with {@link PacketView} versus keeping the bytes only.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    @Param({"imix", "small", "large"})
+    public String mix;
+
+    private SyntheticPackets packets;
+    private final PacketView view = new PacketView();
+
+    @Setup
+    public void setUp() {
+        packets = new SyntheticPackets(mix, 1024);
+    }
+
+    @Benchmark
+    public Packet pcap4jDecode() {
+        byte[] frame = packets.next();
+        return PacketFactories.getFactory(Packet.class, DataLinkType.class).newInstance(frame, 0, frame.length, DataLinkType.EN10MB);
+    }
+
+    @Benchmark
+    public int packetView() {
+        byte[] frame = packets.next();
+        view.wrap(frame, frame.length, PacketView.LINKTYPE_ETHERNET);
+        return view.sourcePort() ^ view.destinationPort();
+    }
+
+    @Benchmark
+    public byte[] raw() {
+        return packets.next();
+    }
+}
@@ -0,0 +1,124 @@
+package cc.databus.netool.benchmark;
+
+import cc.databus.netool.pcap.BlockCompressor;
+import cc.databus.netool.pcap.CaptureFileWriter;
+import cc.databus.netool.pcap.PcapFileWriter;
+import cc.databus.netool.pcap.PcapngFileWriter;
+import org.openjdk.jmh.annotations.*;
+import org.pcap4j.core.PcapDumper;
+import org.pcap4j.core.PcapHandle;
+import org.pcap4j.core.Pcaps;
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing packets to a capture file with the java writers, buffered, memory mapped or gzipped on a
+ * {@link BlockCompressor} of one thread per core, and with libpcap's dumper. The file is recreated for every iteration in {@code java.io.tmpdir}, so the results include the
+ * page cache but normally not the disk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PcapWriteBenchmark {
+
+    private static final int SNAP_LEN = 65536;
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * pcap, pcap-mmap, pcap-gzip, pcapng or libpcap
+     */
+    @Param({"pcap", "pcap-mmap", "pcap-gzip", "pcapng", "libpcap"})
+    public String writer;
+
+    @Param({"imix"})
+    public String mix;
+
+    private SyntheticPackets packets;
+    private Path file;
+    private CaptureFileWriter fileWriter;
+    private PcapHandle deadHandle;
+    private PcapDumper dumper;
+    private BlockCompressor compressor;
+    private Timestamp timestamp;
+    private long timestampNanos = 1500000000000000000L;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        packets = new SyntheticPackets(mix, 1024);
+        if ("libpcap".equals(writer)) {
+            deadHandle = Pcaps.openDead(DataLinkType.EN10MB, SNAP_LEN);
+        }
+        if ("pcap-gzip".equals(writer)) {
+            compressor = new BlockCompressor(Runtime.getRuntime().availableProcessors(), 1);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws Exception {
+        file = Files.createTempFile("netools-bench", ".pcap");
+        switch (writer) {
+            case "pcap":
+                fileWriter = new PcapFileWriter(file, 1, SNAP_LEN, false, BUFFER_SIZE, false);
+                break;
+            case "pcap-mmap":
+                fileWriter = new PcapFileWriter(file, 1, SNAP_LEN, false, BUFFER_SIZE, true);
+                break;
+            case "pcap-gzip":
+                fileWriter = new PcapFileWriter(file, 1, SNAP_LEN, false, BUFFER_SIZE, false, compressor);
+                break;
+            case "pcapng":
+                PcapngFileWriter pcapng = new PcapngFileWriter(file, false, BUFFER_SIZE, false);
+                pcapng.addInterface("bench0", 1, SNAP_LEN);
+                fileWriter = pcapng;
+                break;
+            case "libpcap":
+                dumper = deadHandle.dumpOpen(file.toString());
+                timestamp = new Timestamp(System.currentTimeMillis());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown writer " + writer);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws IOException {
+        if (fileWriter != null) {
+            fileWriter.close();
+            fileWriter = null;
+        }
+        if (dumper != null) {
+            dumper.close();
+            dumper = null;
+        }
+        Files.deleteIfExists(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        if (deadHandle != null) {
+            deadHandle.close();
+        }
+        if (compressor != null) {
+            compressor.close();
+        }
+    }
+
+    @Benchmark
+    public void write() throws Exception {
+        byte[] frame = packets.next();
+        if (dumper != null) {
+            dumper.dumpRaw(frame, timestamp);
+        }
+        else {
+            fileWriter.write(frame, 0, frame.length, frame.length, timestampNanos += 1000);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package cc.databus.netool.benchmark;
+
+import cc.databus.netool.flow.FlowTable;
+import cc.databus.netool.packet.PacketView;
+import cc.databus.netool.utils.ShardedStage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flow accounting of one capture thread, done on that thread (0 workers) or handed to {@link ShardedStage}
+ * workers by flow hash. The stage blocks on full rings, so the score is the end to end throughput and should
+ * grow with the workers as long as there are cores for them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedFlowBenchmark {
+
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final long TABLE_MEMORY = 64L * 1024 * 1024;
+
+    @Param({"0", "1", "2", "4"})
+    public int workers;
+
+    @Param({"imix"})
+    public String mix;
+
+    @Param({"8192"})
+    public int ringCapacity;
+
+    private SyntheticPackets packets;
+    private FlowTable inline;
+    private final PacketView view = new PacketView();
+    private ShardedStage stage;
+    private ShardedStage.Input input;
+    private long timestampNanos = 1500000000000000000L;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        packets = new SyntheticPackets(mix, 65536);
+        if (workers == 0) {
+            inline = new FlowTable(TABLE_MEMORY);
+            return;
+        }
+        FlowTable[] tables = new FlowTable[workers];
+        for (int i = 0; i < workers; i++) {
+            tables[i] = new FlowTable(TABLE_MEMORY / workers);
+        }
+        stage = new ShardedStage(new int[]{LINKTYPE_ETHERNET}, workers, ringCapacity, true,
+                worker -> (from, packet, originalLength, timestampNanos, sampleRate) ->
+                        tables[worker].update(packet, originalLength, timestampNanos, sampleRate));
+        stage.start();
+        input = stage.input(0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        if (stage != null) {
+            stage.close();
+            stage = null;
+        }
+    }
+
+    @Benchmark
+    public boolean account() {
+        byte[] frame = packets.next();
+        timestampNanos += 1000;
+        if (input == null) {
+            return inline.update(view.wrap(frame, frame.length, LINKTYPE_ETHERNET), frame.length, timestampNanos, 1);
+        }
+        return input.offer(frame, frame.length, timestampNanos, 1);
+    }
+}
@@ -0,0 +1,57 @@
+package cc.databus.netool.benchmark;
+
+import cc.databus.netool.packet.PacketSummaryFormatter;
+import cc.databus.netool.packet.PacketView;
+import org.openjdk.jmh.annotations.*;
+import org.pcap4j.packet.Packet;
+import org.pcap4j.packet.factory.PacketFactories;
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a captured packet into the text printed to stdout when no -w is given: the multi-line pcap4j
+ * dump of --verbose, and the one line summary written straight from a {@link PacketView}. pcap4j caches
+ * {@link Packet#toString()}, so every operation decodes the raw bytes again, exactly like the stdout sink does.
+ * Run with {@code -prof gc} to see the summary allocate nothing per packet.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StdoutFormatBenchmark {
+
+    @Param({"imix"})
+    public String mix;
+
+    private SyntheticPackets packets;
+    private final PacketView view = new PacketView();
+    private final byte[] data = new byte[2048];
+    private final PacketSummaryFormatter formatter = new PacketSummaryFormatter(false);
+    private long timestampNanos = 1700000000000000000L;
+
+    @Setup
+    public void setUp() {
+        packets = new SyntheticPackets(mix, 1024);
+    }
+
+    @Benchmark
+    public String verbose() {
+        byte[] frame = packets.next();
+        return PacketFactories.getFactory(Packet.class, DataLinkType.class)
+                .newInstance(frame, 0, frame.length, DataLinkType.EN10MB).toString();
+    }
+
+    @Benchmark
+    public int summary() {
+        byte[] frame = packets.next();
+        // copied as SummaryPacketSink does, a new array would be wrapped in a new buffer
+        System.arraycopy(frame, 0, data, 0, frame.length);
+        view.wrap(data, frame.length, PacketView.LINKTYPE_ETHERNET);
+        // a new microsecond every packet, so the timestamp is formatted for real
+        timestampNanos += 1000;
+        return formatter.format(view, frame.length, timestampNanos, 1);
+    }
+}
@@ -0,0 +1,87 @@
+package cc.databus.netool.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Ethernet/IPv4 TCP and UDP frames with valid headers and a given size mix, generated once per trial.
+ */
+final class SyntheticPackets {
+
+    /**
+     * frame sizes of the mixes; "imix" is the simple 7:4:1 internet mix
+     */
+    private static final int[] IMIX = {64, 64, 64, 64, 64, 64, 64, 594, 594, 594, 594, 1518};
+    private static final int[] SMALL = {64};
+    private static final int[] LARGE = {1518};
+
+    private final byte[][] frames;
+    private int next = 0;
+
+    /**
+     * @param mix   imix, small or large
+     * @param count number of distinct frames, a power of two
+     */
+    SyntheticPackets(String mix, int count) {
+        int[] sizes;
+        switch (mix) {
+            case "imix":
+                sizes = IMIX;
+                break;
+            case "small":
+                sizes = SMALL;
+                break;
+            case "large":
+                sizes = LARGE;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown size mix " + mix);
+        }
+        Random random = new Random(42);
+        frames = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            frames[i] = frame(random, sizes[random.nextInt(sizes.length)]);
+        }
+    }
+
+    byte[] next() {
+        byte[] frame = frames[next];
+        next = (next + 1) & (frames.length - 1);
+        return frame;
+    }
+
+    private static byte[] frame(Random random, int size) {
+        boolean tcp = random.nextInt(4) != 0;
+        int transportLength = tcp ? 20 : 8;
+        size = Math.max(size, 14 + 20 + transportLength);
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+
+        // ethernet
+        buffer.put(new byte[]{0, 0x1b, 0x21, 1, 2, 3, 0, 0x1b, 0x21, 4, 5, 6});
+        buffer.putShort((short) 0x0800);
+
+        // ipv4
+        buffer.put((byte) 0x45).put((byte) 0).putShort((short) (size - 14));
+        buffer.putShort((short) random.nextInt()).putShort((short) 0x4000);
+        buffer.put((byte) 64).put((byte) (tcp ? 6 : 17)).putShort((short) 0);
+        buffer.putInt(0x0a000000 | random.nextInt(1 << 16));
+        buffer.putInt(0xc0a80000 | random.nextInt(256));
+
+        // transport
+        int sourcePort = 1024 + random.nextInt(60000);
+        int destinationPort = tcp ? 443 : 53;
+        buffer.putShort((short) sourcePort).putShort((short) destinationPort);
+        if (tcp) {
+            buffer.putInt(random.nextInt()).putInt(random.nextInt());
+            buffer.put((byte) 0x50).put((byte) 0x18).putShort((short) 502).putInt(0);
+        }
+        else {
+            buffer.putShort((short) (size - 14 - 20)).putShort((short) 0);
+        }
+
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) random.nextInt());
+        }
+        return buffer.array();
+    }
+}
@@ -1,7 +1,12 @@
 package cc.databus.netool;
 
+import cc.databus.netool.utils.CaptureDirection;
 import cc.databus.netool.utils.CaptureOptions;
+import cc.databus.netool.utils.Compression;
 import cc.databus.netool.utils.NetworkUtils;
+import cc.databus.netool.utils.OutputFormat;
+import cc.databus.netool.utils.OverflowPolicy;
+import cc.databus.netool.utils.SamplingMode;
 import cc.databus.netool.utils.SystemOutHelper;
 import org.apache.commons.cli.*;
 import org.pcap4j.core.NotOpenException;
@@ -21,12 +26,83 @@ public class Main {
                 .addOption("S", "silently", true, "only show stdout of netool")
                 .addOption("l", false, "list all interfaces")
                 .addOption("w", true, "file path to dump packets")
+                .addOption("r", true, "read packets from a pcap file instead of capturing")
+                .addOption(null, "summary", false, "with -r, print packet counts by protocol and time interval instead of the packets")
+                .addOption(null, "interval", true, "histogram interval of --summary in seconds, default 1")
+                .addOption(null, "threads", true, "worker threads of --summary, default the number of cores")
+                .addOption(null, "replay", true, "replay a pcap file through the capture pipeline instead of capturing")
+                .addOption(null, "speed", true, "rate multiplier of --replay, 0 for as fast as possible, default 1")
+                .addOption(null, "synthetic", false, "feed the capture pipeline with generated packets instead of capturing")
+                .addOption(null, "synthetic-size", true, "size of the generated packets in bytes, or imix, default imix")
+                .addOption(null, "synthetic-flows", true, "number of flows of the generated packets, default 1024")
+                .addOption(null, "rate", true, "generated packets per second, 0 for as fast as possible, default 0")
+                .addOption(null, "verbose", false, "print every decoded header of the packets instead of one line each")
                 .addOption("f", true, "filter")
-                .addOption("i", true, "interface name")
+                .addOption("i", true, "interface name, or a glob such as veth*; repeat for more interfaces")
                 .addOption("c", true, "packet counts")
                 .addOption("s", true, "snap length")
                 .addOption("t", true, "packet reading timeout in milliseconds")
                 .addOption("G", true,"seconds to keep running")
+                .addOption(null, "buffer-size", true, "kernel capture buffer size of each interface in MB, default libpcap's")
+                .addOption(null, "immediate", false, "deliver every packet immediately instead of in buffered batches")
+                .addOption(null, "nano", false, "capture and dump with nanosecond timestamps")
+                .addOption(null, "direction", true, "capture in, out or inout packets, default inout")
+                .addOption(null, "no-promisc", false, "do not put the interfaces into promiscuous mode")
+                .addOption(null, "event-loops", true, "poll all interfaces from this many threads instead of one thread per interface")
+                .addOption(null, "sample", true, "keep 1 in this many packets, default 1")
+                .addOption(null, "sample-by", true, "what --sample keeps: packet (every n-th) or flow (whole flows), default packet")
+                .addOption(null, "sample-adaptive", false, "raise the sample rate while the writer queue fills up or packets are dropped")
+                .addOption(null, "sample-max", true, "highest rate --sample-adaptive raises to, default 1024")
+                .addOption(null, "sample-queue", true, "writer queue fill in percent making --sample-adaptive raise the rate, default 50")
+                .addOption(null, "queue-size", true, "max packets waiting for the writer, default 65536")
+                .addOption(null, "overflow", true, "when the writer queue is full: block, drop-newest or drop-oldest, default block")
+                .addOption(null, "format", true, "dump file format: pcap, pcapng or libpcap (written by libpcap itself), default pcap")
+                .addOption(null, "write-buffer", true, "write buffer size of the pcap/pcapng writers in KB, default 4096")
+                .addOption(null, "mmap", false, "let the pcap/pcapng writers write through memory mapped file segments")
+                .addOption(null, "merge", false, "with -w, write all interfaces into one pcapng file in timestamp order")
+                .addOption(null, "merge-window", true, "milliseconds a packet may be held back by --merge, default 100")
+                .addOption(null, "merge-buffer", true, "max packets held back by --merge, default 65536")
+                .addOption(null, "rotate-size", true, "start a new -w file after this many MB")
+                .addOption(null, "rotate-interval", true, "start a new -w file after this many seconds of capture time")
+                .addOption(null, "rotate-files", true, "keep only the last this many rotated files per interface")
+                .addOption(null, "compress", true, "compress rotated files: none, gzip, zstd or lz4, default none")
+                .addOption(null, "recorder", false, "with -w, keep the last packets in memory and write them only when triggered")
+                .addOption(null, "recorder-memory", true, "memory of the --recorder buffers in MB, default 64")
+                .addOption(null, "recorder-seconds", true, "keep at most this many seconds of packets in the --recorder buffers")
+                .addOption(null, "recorder-after", true, "seconds --recorder keeps writing after a trigger, default 0")
+                .addOption(null, "trigger-signal", true, "signal triggering --recorder, default USR2")
+                .addOption(null, "trigger-file", true, "trigger --recorder whenever this file appears")
+                .addOption(null, "trigger-filter", true, "trigger --recorder on packets matching this filter")
+                .addOption(null, "trigger-holdoff", true, "min seconds between two --trigger-filter dumps, default 10")
+                .addOption(null, "flows", false, "report the top flows by bytes periodically instead of dumping packets")
+                .addOption(null, "flows-top", true, "flows per interface in each --flows report, default 20")
+                .addOption(null, "flows-interval", true, "seconds between two --flows reports, default 10")
+                .addOption(null, "flows-idle", true, "seconds after which an idle flow is evicted, default 60")
+                .addOption(null, "flows-memory", true, "memory cap of the flow tables in MB, default 64")
+                .addOption(null, "streams", false, "reassemble TCP streams and print a line per connection instead of the packets")
+                .addOption(null, "streams-memory", true, "memory for out of order segments of all --streams in MB, default 64")
+                .addOption(null, "streams-flow-memory", true, "out of order data one --streams direction may hold in KB, default 1024")
+                .addOption(null, "streams-idle", true, "seconds after which a silent --streams connection is closed, default 60")
+                .addOption(null, "tls", false, "reassemble TCP streams and print the TLS handshakes with their latency, with -r too")
+                .addOption(null, "snmp", false, "match SNMP requests to responses and report loss, retries and latency per agent periodically")
+                .addOption(null, "snmp-timeout", true, "seconds after which an unanswered --snmp request is lost, default 5")
+                .addOption(null, "snmp-interval", true, "seconds between two --snmp reports, default 10")
+                .addOption(null, "snmp-top", true, "agents in each --snmp report, default 20")
+                .addOption(null, "snmp-memory", true, "memory cap of the outstanding --snmp requests in MB, default 64")
+                .addOption(null, "index", false, "write a sidecar time and flow index next to each -w pcap file, or with -r and no -w build one for the file read")
+                .addOption(null, "from", true, "with -r only read packets captured from this time on: seconds since epoch, yyyy-MM-dd HH:mm[:ss] or HH:mm[:ss] on the day of the first packet")
+                .addOption(null, "to", true, "with -r only read packets captured before this time, same formats as --from")
+                .addOption(null, "flow", true, "with -r only read the packets of one flow, both directions, such as 'tcp 10.0.0.1:443 10.0.0.2:51000'")
+                .addOption(null, "workers", true, "spread the --flows accounting over this many threads by flow hash, default 0 for the capture threads")
+                .addOption(null, "dedup", false, "drop packets captured again, such as on a bond and its slaves, ignoring TTL and checksum")
+                .addOption(null, "dedup-window", true, "milliseconds within which a --dedup copy is dropped, default 10")
+                .addOption(null, "compress-threads", true, "gzip the -w output while writing it, one write buffer per block on this many threads, default 0")
+                .addOption(null, "compress-level", true, "deflate level of --compress-threads, 1 fastest to 9 smallest, default 1")
+                .addOption(null, "match", true, "keep only packets matching this payload expression, e.g. 'tls.sni == *.example.com', after -f")
+                .addOption(null, "metrics", true, "emit capture metrics as JSON lines to stderr or to the given file")
+                .addOption(null, "metrics-interval", true, "seconds between two metrics samples, default 1")
+                .addOption(null, "metrics-jmx", false, "expose the capture metrics as MXBeans")
+                .addOption(null, "metrics-http", true, "serve the capture metrics on http://127.0.0.1:<port>/metrics")
                 .addOption("v", false, "show version information");
 
         CommandLineParser parser = new DefaultParser();
@@ -48,6 +124,10 @@ public class Main {
         else if (cmd.hasOption("l")) {
             println(NetworkUtils.listInterfaces());
         }
+        else if (cmd.hasOption("r")) {
+            CaptureOptions captureOptions = parseCaptureOptions(cmd);
+            NetworkUtils.readPackets(captureOptions);
+        }
         else {
             CaptureOptions captureOptions = parseCaptureOptions(cmd);
             NetworkUtils.capturePackets(captureOptions);
@@ -59,6 +139,28 @@ public class Main {
         if (cmd.hasOption("w")) {
             builder.filePath(cmd.getOptionValue("w"));
         }
+        if (cmd.hasOption("r")) {
+            builder.readFilePath(cmd.getOptionValue("r"));
+        }
+        if (cmd.hasOption("replay")) {
+            builder.replayFilePath(cmd.getOptionValue("replay"));
+        }
+        if (cmd.hasOption("speed")) {
+            builder.replaySpeed(Double.parseDouble(cmd.getOptionValue("speed")));
+        }
+        builder.synthetic(cmd.hasOption("synthetic"));
+        if (cmd.hasOption("synthetic-size")) {
+            builder.syntheticSize(cmd.getOptionValue("synthetic-size"));
+        }
+        if (cmd.hasOption("synthetic-flows")) {
+            builder.syntheticFlows(Integer.parseInt(cmd.getOptionValue("synthetic-flows")));
+        }
+        if (cmd.hasOption("rate")) {
+            builder.syntheticRate(Long.parseLong(cmd.getOptionValue("rate")));
+        }
+        if (cmd.hasOption("event-loops")) {
+            builder.eventLoops(Integer.parseInt(cmd.getOptionValue("event-loops")));
+        }
         if (cmd.hasOption("i")) {
             builder.interfaceNames(cmd.getOptionValues("i"));
         }
@@ -78,10 +180,172 @@ public class Main {
             builder.timeout(Integer.parseInt(cmd.getOptionValue("t", "10")));
         }
 
+        builder.verbose(cmd.hasOption("verbose"));
+        if (cmd.hasOption("sample")) {
+            builder.sampleRate(Integer.parseInt(cmd.getOptionValue("sample")));
+        }
+        if (cmd.hasOption("sample-by")) {
+            builder.samplingMode(SamplingMode.parse(cmd.getOptionValue("sample-by")));
+        }
+        builder.sampleAdaptive(cmd.hasOption("sample-adaptive"));
+        if (cmd.hasOption("sample-max")) {
+            builder.sampleMaxRate(Integer.parseInt(cmd.getOptionValue("sample-max")));
+        }
+        if (cmd.hasOption("sample-queue")) {
+            builder.sampleQueuePercent(Integer.parseInt(cmd.getOptionValue("sample-queue")));
+        }
         if (cmd.hasOption("f")) {
             builder.filter(cmd.getOptionValue("f", ""));
         }
 
+        if (cmd.hasOption("buffer-size")) {
+            builder.bufferSize(Math.toIntExact(Long.parseLong(cmd.getOptionValue("buffer-size")) * 1024 * 1024));
+        }
+
+        builder.immediateMode(cmd.hasOption("immediate"));
+        builder.nanoPrecision(cmd.hasOption("nano"));
+        builder.promiscuous(!cmd.hasOption("no-promisc"));
+
+        if (cmd.hasOption("direction")) {
+            builder.direction(CaptureDirection.parse(cmd.getOptionValue("direction")));
+        }
+
+        if (cmd.hasOption("queue-size")) {
+            builder.queueCapacity(Integer.parseInt(cmd.getOptionValue("queue-size")));
+        }
+
+        if (cmd.hasOption("overflow")) {
+            builder.overflowPolicy(OverflowPolicy.parse(cmd.getOptionValue("overflow")));
+        }
+
+        if (cmd.hasOption("format")) {
+            builder.outputFormat(OutputFormat.parse(cmd.getOptionValue("format")));
+        }
+
+        if (cmd.hasOption("write-buffer")) {
+            builder.writeBufferSize(Integer.parseInt(cmd.getOptionValue("write-buffer")) * 1024);
+        }
+
+        builder.memoryMapped(cmd.hasOption("mmap"));
+        builder.merge(cmd.hasOption("merge"));
+        if (cmd.hasOption("merge-window")) {
+            builder.mergeWindow(Integer.parseInt(cmd.getOptionValue("merge-window")));
+        }
+        if (cmd.hasOption("merge-buffer")) {
+            builder.mergeBuffer(Integer.parseInt(cmd.getOptionValue("merge-buffer")));
+        }
+        if (cmd.hasOption("rotate-size")) {
+            builder.rotateSize(Long.parseLong(cmd.getOptionValue("rotate-size")) * 1024 * 1024);
+        }
+        if (cmd.hasOption("rotate-interval")) {
+            builder.rotateInterval(Integer.parseInt(cmd.getOptionValue("rotate-interval")));
+        }
+        if (cmd.hasOption("rotate-files")) {
+            builder.rotateFiles(Integer.parseInt(cmd.getOptionValue("rotate-files")));
+        }
+        if (cmd.hasOption("compress")) {
+            builder.compression(Compression.parse(cmd.getOptionValue("compress")));
+        }
+        builder.recorder(cmd.hasOption("recorder"));
+        if (cmd.hasOption("recorder-memory")) {
+            builder.recorderMemory(Long.parseLong(cmd.getOptionValue("recorder-memory")) * 1024 * 1024);
+        }
+        if (cmd.hasOption("recorder-seconds")) {
+            builder.recorderSeconds(Integer.parseInt(cmd.getOptionValue("recorder-seconds")));
+        }
+        if (cmd.hasOption("recorder-after")) {
+            builder.recorderAfter(Integer.parseInt(cmd.getOptionValue("recorder-after")));
+        }
+        if (cmd.hasOption("trigger-signal")) {
+            builder.triggerSignal(cmd.getOptionValue("trigger-signal"));
+        }
+        if (cmd.hasOption("trigger-file")) {
+            builder.triggerFile(cmd.getOptionValue("trigger-file"));
+        }
+        if (cmd.hasOption("trigger-filter")) {
+            builder.triggerFilter(cmd.getOptionValue("trigger-filter"));
+        }
+        if (cmd.hasOption("trigger-holdoff")) {
+            builder.triggerHoldOff(Integer.parseInt(cmd.getOptionValue("trigger-holdoff")));
+        }
+
+        builder.summary(cmd.hasOption("summary"));
+        if (cmd.hasOption("interval")) {
+            builder.summaryInterval(Long.parseLong(cmd.getOptionValue("interval")));
+        }
+        if (cmd.hasOption("threads")) {
+            builder.threads(Integer.parseInt(cmd.getOptionValue("threads")));
+        }
+
+        builder.flows(cmd.hasOption("flows"));
+        if (cmd.hasOption("flows-top")) {
+            builder.flowsTop(Integer.parseInt(cmd.getOptionValue("flows-top")));
+        }
+        if (cmd.hasOption("flows-interval")) {
+            builder.flowsInterval(Long.parseLong(cmd.getOptionValue("flows-interval")));
+        }
+        if (cmd.hasOption("flows-idle")) {
+            builder.flowsIdleTimeout(Long.parseLong(cmd.getOptionValue("flows-idle")));
+        }
+        if (cmd.hasOption("flows-memory")) {
+            builder.flowsMemory(Long.parseLong(cmd.getOptionValue("flows-memory")) * 1024 * 1024);
+        }
+        builder.streams(cmd.hasOption("streams"));
+        if (cmd.hasOption("streams-memory")) {
+            builder.streamsMemory(Long.parseLong(cmd.getOptionValue("streams-memory")) * 1024 * 1024);
+        }
+        if (cmd.hasOption("streams-flow-memory")) {
+            builder.streamsFlowMemory(Integer.parseInt(cmd.getOptionValue("streams-flow-memory")) * 1024);
+        }
+        if (cmd.hasOption("streams-idle")) {
+            builder.streamsIdleTimeout(Integer.parseInt(cmd.getOptionValue("streams-idle")));
+        }
+        builder.tls(cmd.hasOption("tls"));
+        builder.snmp(cmd.hasOption("snmp"));
+        if (cmd.hasOption("snmp-timeout")) {
+            builder.snmpTimeout(Integer.parseInt(cmd.getOptionValue("snmp-timeout")));
+        }
+        if (cmd.hasOption("snmp-interval")) {
+            builder.snmpInterval(Long.parseLong(cmd.getOptionValue("snmp-interval")));
+        }
+        if (cmd.hasOption("snmp-top")) {
+            builder.snmpTop(Integer.parseInt(cmd.getOptionValue("snmp-top")));
+        }
+        if (cmd.hasOption("snmp-memory")) {
+            builder.snmpMemory(Long.parseLong(cmd.getOptionValue("snmp-memory")) * 1024 * 1024);
+        }
+        builder.index(cmd.hasOption("index"));
+        builder.from(cmd.getOptionValue("from"));
+        builder.to(cmd.getOptionValue("to"));
+        builder.flow(cmd.getOptionValue("flow"));
+        if (cmd.hasOption("workers")) {
+            builder.workers(Integer.parseInt(cmd.getOptionValue("workers")));
+        }
+        builder.dedup(cmd.hasOption("dedup"));
+        if (cmd.hasOption("dedup-window")) {
+            builder.dedupWindow(Long.parseLong(cmd.getOptionValue("dedup-window")));
+        }
+        if (cmd.hasOption("compress-threads")) {
+            builder.compressThreads(Integer.parseInt(cmd.getOptionValue("compress-threads")));
+        }
+        if (cmd.hasOption("compress-level")) {
+            builder.compressLevel(Integer.parseInt(cmd.getOptionValue("compress-level")));
+        }
+        if (cmd.hasOption("match")) {
+            builder.match(cmd.getOptionValue("match"));
+        }
+
+        if (cmd.hasOption("metrics")) {
+            builder.metricsTarget(cmd.getOptionValue("metrics"));
+        }
+        if (cmd.hasOption("metrics-interval")) {
+            builder.metricsInterval(Long.parseLong(cmd.getOptionValue("metrics-interval")));
+        }
+        builder.metricsJmx(cmd.hasOption("metrics-jmx"));
+        if (cmd.hasOption("metrics-http")) {
+            builder.metricsHttpPort(Integer.parseInt(cmd.getOptionValue("metrics-http")));
+        }
+
         return builder.build();
     }
 }
@@ -0,0 +1,219 @@
+package cc.databus.netool.analysis;
+
+import cc.databus.netool.packet.PacketView;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Packet and byte counts of a capture, broken down by protocol and by time interval.
+ *
+ * Summaries of disjoint parts of a capture can be {@link #merge(CaptureSummary) merged}, and since every
+ * figure is a plain sum, min or max the result does not depend on how the capture was split.
+ */
+public class CaptureSummary {
+
+    private static final String[] NETWORK_PROTOCOLS = {"ipv4", "ipv6", "arp", "other"};
+    private static final String[] TRANSPORT_PROTOCOLS = {"tcp", "udp", "icmp", "icmpv6", "other", "none"};
+    private static final String[] APPLICATION_PROTOCOLS = {"http", "tls", "dns", "snmp", "ssh", "other"};
+
+    private final long intervalNanos;
+
+    private long packets = 0;
+    private long bytes = 0;
+    private long capturedBytes = 0;
+    private long firstTimestamp = Long.MAX_VALUE;
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    private final long[][] network = new long[NETWORK_PROTOCOLS.length][2];
+    private final long[][] transport = new long[TRANSPORT_PROTOCOLS.length][2];
+    private final long[][] application = new long[APPLICATION_PROTOCOLS.length][2];
+
+    /**
+     * interval start in nanoseconds -> packets, bytes
+     */
+    private final TreeMap<Long, long[]> histogram = new TreeMap<>();
+    private long currentInterval = Long.MIN_VALUE;
+    private long[] currentCounts;
+
+    /**
+     * @param intervalNanos width of the histogram intervals
+     */
+    public CaptureSummary(long intervalNanos) {
+        if (intervalNanos <= 0) {
+            throw new IllegalArgumentException("Interval must be positive, but was " + intervalNanos);
+        }
+        this.intervalNanos = intervalNanos;
+    }
+
+    /**
+     * Account one packet, {@code view} must already wrap it.
+     */
+    public void add(PacketView view, int originalLength, long timestampNanos) {
+        packets++;
+        bytes += originalLength;
+        capturedBytes += view.length();
+        firstTimestamp = Math.min(firstTimestamp, timestampNanos);
+        lastTimestamp = Math.max(lastTimestamp, timestampNanos);
+
+        count(network[networkIndex(view)], originalLength);
+        count(transport[transportIndex(view)], originalLength);
+        if (view.hasTransport() && (view.ipProtocol() == PacketView.PROTO_TCP || view.ipProtocol() == PacketView.PROTO_UDP)) {
+            count(application[applicationIndex(view.sourcePort(), view.destinationPort())], originalLength);
+        }
+
+        long interval = Math.floorDiv(timestampNanos, intervalNanos) * intervalNanos;
+        if (interval != currentInterval) {
+            currentInterval = interval;
+            currentCounts = histogram.get(interval);
+            if (currentCounts == null) {
+                currentCounts = new long[2];
+                histogram.put(interval, currentCounts);
+            }
+        }
+        count(currentCounts, originalLength);
+    }
+
+    public void merge(CaptureSummary other) {
+        if (other.intervalNanos != intervalNanos) {
+            throw new IllegalArgumentException("Cannot merge summaries of different intervals.");
+        }
+        packets += other.packets;
+        bytes += other.bytes;
+        capturedBytes += other.capturedBytes;
+        firstTimestamp = Math.min(firstTimestamp, other.firstTimestamp);
+        lastTimestamp = Math.max(lastTimestamp, other.lastTimestamp);
+        add(network, other.network);
+        add(transport, other.transport);
+        add(application, other.application);
+        for (Map.Entry<Long, long[]> entry : other.histogram.entrySet()) {
+            long[] counts = histogram.get(entry.getKey());
+            if (counts == null) {
+                histogram.put(entry.getKey(), entry.getValue().clone());
+            }
+            else {
+                counts[0] += entry.getValue()[0];
+                counts[1] += entry.getValue()[1];
+            }
+        }
+        currentInterval = Long.MIN_VALUE;
+    }
+
+    public long getPackets() {
+        return packets;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getCapturedBytes() {
+        return capturedBytes;
+    }
+
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Packets: %d, bytes: %d, captured bytes: %d\n", packets, bytes, capturedBytes));
+        if (packets > 0) {
+            sb.append(String.format("First: %s, last: %s, duration: %.3fs\n",
+                    formatTime(firstTimestamp), formatTime(lastTimestamp), (lastTimestamp - firstTimestamp) / 1e9));
+        }
+        format(sb, "Network", NETWORK_PROTOCOLS, network);
+        format(sb, "Transport", TRANSPORT_PROTOCOLS, transport);
+        format(sb, "Application (by port)", APPLICATION_PROTOCOLS, application);
+
+        sb.append(String.format("Per %.3fs interval:\n", intervalNanos / 1e9));
+        for (Map.Entry<Long, long[]> entry : histogram.entrySet()) {
+            sb.append(String.format("  %s %12d pkts %15d bytes\n", formatTime(entry.getKey()), entry.getValue()[0], entry.getValue()[1]));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+
+    private static void format(StringBuilder sb, String title, String[] names, long[][] counts) {
+        sb.append(title).append(":\n");
+        for (int i = 0; i < names.length; i++) {
+            if (counts[i][0] > 0) {
+                sb.append(String.format("  %-8s %12d pkts %15d bytes\n", names[i], counts[i][0], counts[i][1]));
+            }
+        }
+    }
+
+    private static String formatTime(long nanos) {
+        return String.format("%tF %<tT.%06d", Math.floorDiv(nanos, 1000000L), Math.floorMod(nanos, 1000000000L) / 1000);
+    }
+
+    private static int networkIndex(PacketView view) {
+        switch (view.etherType()) {
+            case PacketView.ETHERTYPE_IPV4:
+                return 0;
+            case PacketView.ETHERTYPE_IPV6:
+                return 1;
+            case PacketView.ETHERTYPE_ARP:
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
+    private static int transportIndex(PacketView view) {
+        if (!view.isIp()) {
+            return 5;
+        }
+        switch (view.ipProtocol()) {
+            case PacketView.PROTO_TCP:
+                return 0;
+            case PacketView.PROTO_UDP:
+                return 1;
+            case PacketView.PROTO_ICMP:
+                return 2;
+            case PacketView.PROTO_ICMPV6:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+
+    private static int applicationIndex(int sourcePort, int destinationPort) {
+        int index = portIndex(destinationPort);
+        if (index < 0) {
+            index = portIndex(sourcePort);
+        }
+        return index < 0 ? APPLICATION_PROTOCOLS.length - 1 : index;
+    }
+
+    private static int portIndex(int port) {
+        switch (port) {
+            case 80:
+            case 8080:
+                return 0;
+            case 443:
+                return 1;
+            case 53:
+                return 2;
+            case 161:
+            case 162:
+                return 3;
+            case 22:
+                return 4;
+            default:
+                return -1;
+        }
+    }
+
+    private static void count(long[] counts, int bytes) {
+        counts[0]++;
+        counts[1] += bytes;
+    }
+
+    private static void add(long[][] to, long[][] from) {
+        for (int i = 0; i < to.length; i++) {
+            to[i][0] += from[i][0];
+            to[i][1] += from[i][1];
+        }
+    }
+}
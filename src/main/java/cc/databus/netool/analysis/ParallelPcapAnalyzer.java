@@ -0,0 +1,177 @@
+package cc.databus.netool.analysis;
+
+import cc.databus.netool.packet.PacketView;
+import cc.databus.netool.pcap.BpfFilter;
+import cc.databus.netool.pcap.PcapChunker;
+import cc.databus.netool.pcap.PcapFileReader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Summarizes a pcap file on a {@link ForkJoinPool}.
+ *
+ * The file is cut into chunks at nominal offsets, every chunk resynchronizes on the first plausible record
+ * header after its offset and summarizes the records starting before the next chunk's offset. The chunk
+ * results are then merged in file order. A chunk whose start does not match the end of the previous one
+ * means the resynchronization was fooled, so that range is summarized again from the known boundary and
+ * the result is always exactly the one of a sequential scan.
+ */
+public class ParallelPcapAnalyzer {
+
+    private static final long MIN_CHUNK_SIZE = 16L * 1024 * 1024;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final Path path;
+    private final BpfFilter filter;
+    private final long intervalNanos;
+    private final int parallelism;
+
+    private int resyncFailures = 0;
+
+    /**
+     * @param filter      records to count, or null for all
+     * @param parallelism number of worker threads, 1 for a sequential scan
+     */
+    public ParallelPcapAnalyzer(Path path, BpfFilter filter, long intervalNanos, int parallelism) {
+        this.path = path;
+        this.filter = filter;
+        this.intervalNanos = intervalNanos;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public CaptureSummary analyze() throws IOException {
+        try (PcapChunker chunker = new PcapChunker(path)) {
+            long fileSize = chunker.getFileSize();
+            int chunkCount = parallelism == 1 ? 1
+                    : (int) Math.max(1, Math.min((long) parallelism * CHUNKS_PER_THREAD, fileSize / MIN_CHUNK_SIZE));
+            long[] nominal = new long[chunkCount + 1];
+            for (int i = 0; i <= chunkCount; i++) {
+                nominal[i] = i == chunkCount ? fileSize : fileSize / chunkCount * i;
+            }
+
+            List<Chunk> chunks;
+            if (chunkCount == 1) {
+                chunks = new ArrayList<>();
+                chunks.add(summarize(PcapFileReader.FIRST_RECORD_OFFSET, nominal[1]));
+            }
+            else {
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    chunks = pool.invoke(new ChunkTask(chunker, nominal, 0, chunkCount));
+                }
+                catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                finally {
+                    pool.shutdown();
+                }
+            }
+
+            CaptureSummary total = new CaptureSummary(intervalNanos);
+            long expected = PcapFileReader.FIRST_RECORD_OFFSET;
+            for (int i = 0; i < chunks.size(); i++) {
+                Chunk chunk = chunks.get(i);
+                long chunkEnd = nominal[i + 1];
+                if (expected >= chunkEnd) {
+                    // the previous chunk's last record covers this whole range
+                    continue;
+                }
+                if (chunk.start != expected) {
+                    resyncFailures++;
+                    chunk = summarize(expected, chunkEnd);
+                }
+                total.merge(chunk.summary);
+                expected = chunk.end;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * @return number of chunks that had to be summarized again because their start was not a record boundary
+     */
+    public int getResyncFailures() {
+        return resyncFailures;
+    }
+
+    private Chunk summarize(long start, long end) throws IOException {
+        CaptureSummary summary = new CaptureSummary(intervalNanos);
+        PacketView view = new PacketView();
+        try (PcapFileReader reader = new PcapFileReader(path, PcapFileReader.DEFAULT_WINDOW_SIZE, start, end)) {
+            int linkType = reader.getLinkType();
+            while (reader.next()) {
+                if (filter != null
+                        && !filter.matches(reader.buffer(), reader.dataOffset(), reader.capturedLength(), reader.originalLength())) {
+                    continue;
+                }
+                view.wrap(reader.buffer(), reader.dataOffset(), reader.capturedLength(), linkType);
+                summary.add(view, reader.originalLength(), reader.timestampNanos());
+            }
+            return new Chunk(start, Math.max(start, reader.nextOffset()), summary);
+        }
+    }
+
+    private static class Chunk {
+        private final long start;
+        private final long end;
+        private final CaptureSummary summary;
+
+        private Chunk(long start, long end, CaptureSummary summary) {
+            this.start = start;
+            this.end = end;
+            this.summary = summary;
+        }
+    }
+
+    private class ChunkTask extends RecursiveTask<List<Chunk>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final PcapChunker chunker;
+        private final long[] nominal;
+        private final int from;
+        private final int to;
+
+        private ChunkTask(PcapChunker chunker, long[] nominal, int from, int to) {
+            this.chunker = chunker;
+            this.nominal = nominal;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Chunk> compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                ChunkTask left = new ChunkTask(chunker, nominal, from, middle);
+                ChunkTask right = new ChunkTask(chunker, nominal, middle, to);
+                right.fork();
+                List<Chunk> result = left.compute();
+                result.addAll(right.join());
+                return result;
+            }
+
+            try {
+                long start = chunker.findRecordBoundary(nominal[from]);
+                List<Chunk> result = new ArrayList<>();
+                if (start < 0 || start >= nominal[to]) {
+                    // no boundary found, or none inside this chunk: leave it to the merge step
+                    result.add(new Chunk(start, start, new CaptureSummary(intervalNanos)));
+                }
+                else {
+                    result.add(summarize(start, nominal[to]));
+                }
+                return result;
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package cc.databus.netool.filter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A string compared with bytes of a packet where they lie, either as a glob where {@code *} stands for any
+ * run of bytes, or as a literal searched for. Case is ignored for ASCII letters only, field values are
+ * protocol text, not natural language.
+ */
+final class BytePattern {
+
+    /**
+     * the parts between the stars, lower case if case is ignored
+     */
+    private final byte[][] segments;
+    private final boolean leadingStar;
+    private final boolean trailingStar;
+    private final boolean ignoreCase;
+
+    private BytePattern(byte[][] segments, boolean leadingStar, boolean trailingStar, boolean ignoreCase) {
+        this.segments = segments;
+        this.leadingStar = leadingStar;
+        this.trailingStar = trailingStar;
+        this.ignoreCase = ignoreCase;
+    }
+
+    static BytePattern glob(byte[] pattern, boolean ignoreCase) {
+        List<byte[]> segments = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= pattern.length; i++) {
+            if (i == pattern.length || pattern[i] == '*') {
+                if (i > start) {
+                    segments.add(normalize(pattern, start, i, ignoreCase));
+                }
+                start = i + 1;
+            }
+        }
+        boolean leadingStar = pattern.length > 0 && pattern[0] == '*';
+        boolean trailingStar = pattern.length > 0 && pattern[pattern.length - 1] == '*';
+        return new BytePattern(segments.toArray(new byte[0][]), leadingStar, trailingStar, ignoreCase);
+    }
+
+    /**
+     * A pattern found anywhere, stars included literally.
+     */
+    static BytePattern literal(byte[] pattern, boolean ignoreCase) {
+        byte[][] segments = pattern.length == 0 ? new byte[0][] : new byte[][]{normalize(pattern, 0, pattern.length, ignoreCase)};
+        return new BytePattern(segments, true, true, ignoreCase);
+    }
+
+    /**
+     * @return whether the {@code length} bytes at {@code offset} match the whole pattern
+     */
+    boolean matches(ByteBuffer buffer, int offset, int length) {
+        int end = offset + length;
+        if (segments.length == 0) {
+            return length == 0 || leadingStar;
+        }
+        int at = offset;
+        int first = 0;
+        int last = segments.length - 1;
+        if (!leadingStar) {
+            if (!regionMatches(buffer, at, end, segments[0])) {
+                return false;
+            }
+            at += segments[0].length;
+            first = 1;
+            if (segments.length == 1 && !trailingStar) {
+                return at == end;
+            }
+        }
+        if (!trailingStar && first <= last) {
+            // the last segment is anchored at the end
+            int tail = end - segments[last].length;
+            if (tail < at || !regionMatches(buffer, tail, end, segments[last])) {
+                return false;
+            }
+            end = tail;
+            last--;
+        }
+        // the segments between stars, each as early as it can be
+        for (int i = first; i <= last; i++) {
+            at = indexOf(buffer, at, end, segments[i]);
+            if (at < 0) {
+                return false;
+            }
+            at += segments[i].length;
+        }
+        return true;
+    }
+
+    private int indexOf(ByteBuffer buffer, int from, int end, byte[] segment) {
+        int first = segment[0];
+        for (int at = from; at + segment.length <= end; at++) {
+            if (fold(buffer.get(at)) == first && regionMatches(buffer, at, end, segment)) {
+                return at;
+            }
+        }
+        return -1;
+    }
+
+    private boolean regionMatches(ByteBuffer buffer, int at, int end, byte[] segment) {
+        if (at + segment.length > end) {
+            return false;
+        }
+        for (int i = 0; i < segment.length; i++) {
+            if (fold(buffer.get(at + i)) != segment[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int fold(byte b) {
+        return ignoreCase && b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    private static byte[] normalize(byte[] pattern, int from, int to, boolean ignoreCase) {
+        byte[] segment = new byte[to - from];
+        for (int i = 0; i < segment.length; i++) {
+            byte b = pattern[from + i];
+            segment[i] = ignoreCase && b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+        }
+        return segment;
+    }
+}
@@ -0,0 +1,103 @@
+package cc.databus.netool.filter;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Payload fields a {@link PayloadFilter} compares, each with the BPF that passes every packet that may carry it.
+ */
+enum Field {
+    /**
+     * host_name of the server_name extension of a TLS ClientHello
+     */
+    TLS_SNI("tls.sni", true, Prefilters.TLS),
+    /**
+     * value of the Host header of an HTTP/1.x request, without a port
+     */
+    HTTP_HOST("http.host", true, Prefilters.HTTP),
+    HTTP_METHOD("http.method", false, Prefilters.HTTP),
+    /**
+     * request-target of an HTTP/1.x request
+     */
+    HTTP_PATH("http.path", false, Prefilters.HTTP),
+    /**
+     * community of an SNMPv1 or v2c message to or from the standard ports
+     */
+    SNMP_COMMUNITY("snmp.community", false, "udp port 161 or udp port 162"),
+    /**
+     * captured TCP or UDP payload
+     */
+    PAYLOAD("payload", false, "tcp or udp");
+
+    private final String name;
+    private final boolean ignoreCase;
+    private final String prefilter;
+
+    Field(String name, boolean ignoreCase, String prefilter) {
+        this.name = name;
+        this.ignoreCase = ignoreCase;
+        this.prefilter = prefilter;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return whether comparisons ignore ASCII case, as for host names
+     */
+    boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    String getPrefilter() {
+        return prefilter;
+    }
+
+    /**
+     * @return null if there is no field of that name
+     */
+    static Field byName(String name) {
+        for (Field field : values()) {
+            if (field.name.equals(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * BPF shared by several fields, apart so the constants can use them
+     */
+    static final class Prefilters {
+
+        /**
+         * methods recognized as the start of an HTTP request, the prefilter checks their first four bytes
+         */
+        static final String[] HTTP_METHODS = {"GET", "POST", "PUT", "HEAD", "DELETE", "OPTIONS", "PATCH", "CONNECT", "TRACE"};
+
+        /**
+         * offset of the TCP payload; the BPF of libpcap only indexes IPv4 transport headers, IPv6 is let through
+         */
+        private static final String TCP_PAYLOAD = "((tcp[12:1] & 0xf0) >> 2)";
+
+        /**
+         * a handshake record starting with a ClientHello
+         */
+        static final String TLS = "tcp and (ip6 or (tcp[" + TCP_PAYLOAD + ":1] = 0x16 and tcp[" + TCP_PAYLOAD + " + 5:1] = 0x01))";
+
+        static final String HTTP = http();
+
+        private Prefilters() {
+        }
+
+        private static String http() {
+            StringBuilder filter = new StringBuilder("tcp and (ip6");
+            for (String method : HTTP_METHODS) {
+                byte[] start = (method + "    ").substring(0, 4).getBytes(StandardCharsets.US_ASCII);
+                int word = (start[0] & 0xff) << 24 | (start[1] & 0xff) << 16 | (start[2] & 0xff) << 8 | start[3] & 0xff;
+                filter.append(String.format(" or tcp[%s:4] = 0x%08x", TCP_PAYLOAD, word));
+            }
+            return filter.append(')').toString();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package cc.databus.netool.filter;
+
+import cc.databus.netool.packet.PacketView;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Recursive descent parser of the {@link PayloadFilter} language:
+ *
+ * <pre>
+ * expression := term { ("or" | "||") term }
+ * term       := factor { ("and" | "&&") factor }
+ * factor     := ("not" | "!") factor | "(" expression ")" | "tcp" | "udp" | "port" number
+ *             | field ("==" | "!=" | "contains") value
+ * value      := a word without blanks, or a quoted string with \", \\ and \xNN escapes
+ * </pre>
+ */
+final class FilterParser {
+
+    private final String text;
+    private int at = 0;
+
+    /**
+     * the current token, null at the end, and where it starts
+     */
+    private String token;
+    private int tokenStart;
+    private boolean quoted;
+
+    FilterParser(String text) {
+        this.text = text;
+        next();
+    }
+
+    MatchNode parse() {
+        MatchNode node = expression();
+        if (token != null) {
+            throw error("and, or or the end");
+        }
+        return node;
+    }
+
+    private MatchNode expression() {
+        MatchNode node = term();
+        while (accept("or") || accept("||")) {
+            node = new MatchNode.Or(node, term());
+        }
+        return node;
+    }
+
+    private MatchNode term() {
+        MatchNode node = factor();
+        while (accept("and") || accept("&&")) {
+            node = new MatchNode.And(node, factor());
+        }
+        return node;
+    }
+
+    private MatchNode factor() {
+        if (accept("not") || accept("!")) {
+            return new MatchNode.Not(factor());
+        }
+        if (accept("(")) {
+            MatchNode node = expression();
+            expect(")");
+            return node;
+        }
+        if (accept("tcp")) {
+            return new MatchNode.Protocol(PacketView.PROTO_TCP, "tcp");
+        }
+        if (accept("udp")) {
+            return new MatchNode.Protocol(PacketView.PROTO_UDP, "udp");
+        }
+        if (accept("port")) {
+            int port = number();
+            return new MatchNode.Port(port);
+        }
+        Field field = token == null || quoted ? null : Field.byName(token);
+        if (field == null) {
+            throw error("a field, tcp, udp, port, not or (");
+        }
+        next();
+        String operator = token;
+        boolean contains = accept("contains");
+        if (!contains && !accept("==") && !accept("!=")) {
+            throw error("==, != or contains");
+        }
+        if (token == null) {
+            throw error("a value");
+        }
+        String value = token;
+        byte[] bytes = quoted ? unescape(value) : value.getBytes(StandardCharsets.UTF_8);
+        String shown = quoted ? "\"" + value + "\"" : value;
+        next();
+        BytePattern pattern = contains ? BytePattern.literal(bytes, field.isIgnoreCase()) : BytePattern.glob(bytes, field.isIgnoreCase());
+        return new MatchNode.Compare(field, operator, pattern, "!=".equals(operator), shown);
+    }
+
+    private int number() {
+        int port;
+        try {
+            port = token == null || quoted ? -1 : Integer.parseInt(token);
+        }
+        catch (NumberFormatException e) {
+            port = -1;
+        }
+        if (port < 0 || port > 65535) {
+            throw error("a port number");
+        }
+        next();
+        return port;
+    }
+
+    private boolean accept(String expected) {
+        if (token != null && !quoted && token.equals(expected)) {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String expected) {
+        if (!accept(expected)) {
+            throw error(expected);
+        }
+    }
+
+    private IllegalArgumentException error(String expected) {
+        return new IllegalArgumentException(String.format("Cannot parse the match expression [%s] at %d: expected %s, found %s.",
+                text, tokenStart, expected, token == null ? "the end" : "[" + token + "]"));
+    }
+
+    private void next() {
+        while (at < text.length() && Character.isWhitespace(text.charAt(at))) {
+            at++;
+        }
+        tokenStart = at;
+        quoted = false;
+        if (at == text.length()) {
+            token = null;
+            return;
+        }
+        char c = text.charAt(at);
+        if (c == '(' || c == ')') {
+            token = String.valueOf(c);
+            at++;
+            return;
+        }
+        for (String operator : new String[]{"==", "!=", "&&", "||"}) {
+            if (text.startsWith(operator, at)) {
+                token = operator;
+                at += 2;
+                return;
+            }
+        }
+        if (c == '!') {
+            token = "!";
+            at++;
+            return;
+        }
+        if (c == '"') {
+            StringBuilder value = new StringBuilder();
+            at++;
+            while (at < text.length() && text.charAt(at) != '"') {
+                if (text.charAt(at) == '\\' && at + 1 < text.length()) {
+                    // kept for unescape, only the quote must not end the string
+                    value.append(text.charAt(at++));
+                }
+                value.append(text.charAt(at++));
+            }
+            if (at == text.length()) {
+                throw new IllegalArgumentException(String.format("Unterminated string in the match expression [%s] at %d.", text, tokenStart));
+            }
+            at++;
+            token = value.toString();
+            quoted = true;
+            return;
+        }
+        int start = at;
+        while (at < text.length() && !Character.isWhitespace(text.charAt(at)) && "()\"=!&|".indexOf(text.charAt(at)) < 0) {
+            at++;
+        }
+        if (at == start) {
+            // a lone =, & or |
+            at++;
+        }
+        token = text.substring(start, at);
+    }
+
+    /**
+     * @return the bytes of a quoted string, characters in UTF-8 and {@code \xNN} as the byte itself
+     */
+    private byte[] unescape(String value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                int end = i + 1;
+                while (end < value.length() && value.charAt(end) != '\\') {
+                    end++;
+                }
+                byte[] utf8 = value.substring(i, end).getBytes(StandardCharsets.UTF_8);
+                bytes.write(utf8, 0, utf8.length);
+                i = end;
+                continue;
+            }
+            char escaped = value.charAt(i + 1);
+            if (escaped == 'x') {
+                if (i + 4 > value.length()) {
+                    throw error("two hex digits after \\x");
+                }
+                try {
+                    bytes.write(Integer.parseInt(value.substring(i + 2, i + 4), 16));
+                }
+                catch (NumberFormatException e) {
+                    throw error("two hex digits after \\x");
+                }
+                i += 4;
+            }
+            else {
+                bytes.write(escaped);
+                i += 2;
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
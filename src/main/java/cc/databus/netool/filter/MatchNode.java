@@ -0,0 +1,202 @@
+package cc.databus.netool.filter;
+
+import cc.databus.netool.packet.PacketView;
+
+/**
+ * A node of a compiled {@link PayloadFilter}. There are only the few final kinds below, each with its operands
+ * in final fields, so the calls from a node into its children see one or two receiver classes and the JIT
+ * inlines the whole tree of a short expression; all byte level work is in loops without virtual calls.
+ */
+abstract class MatchNode {
+
+    abstract boolean matches(PayloadFields fields);
+
+    /**
+     * @return BPF passing at least every packet this node matches, null if that may be any packet
+     */
+    abstract String prefilter();
+
+    static final class And extends MatchNode {
+
+        private final MatchNode left;
+        private final MatchNode right;
+
+        And(MatchNode left, MatchNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean matches(PayloadFields fields) {
+            return left.matches(fields) && right.matches(fields);
+        }
+
+        @Override
+        String prefilter() {
+            String l = left.prefilter();
+            String r = right.prefilter();
+            // either side alone still passes every match
+            if (l == null || r == null) {
+                return l != null ? l : r;
+            }
+            return l.equals(r) ? l : "(" + l + ") and (" + r + ")";
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " and " + right + ")";
+        }
+    }
+
+    static final class Or extends MatchNode {
+
+        private final MatchNode left;
+        private final MatchNode right;
+
+        Or(MatchNode left, MatchNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean matches(PayloadFields fields) {
+            return left.matches(fields) || right.matches(fields);
+        }
+
+        @Override
+        String prefilter() {
+            String l = left.prefilter();
+            String r = right.prefilter();
+            if (l == null || r == null) {
+                return null;
+            }
+            return l.equals(r) ? l : "(" + l + ") or (" + r + ")";
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " or " + right + ")";
+        }
+    }
+
+    static final class Not extends MatchNode {
+
+        private final MatchNode operand;
+
+        Not(MatchNode operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean matches(PayloadFields fields) {
+            return !operand.matches(fields);
+        }
+
+        @Override
+        String prefilter() {
+            // the BPF of the operand passes more than it matches, its negation would lose packets
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "not " + operand;
+        }
+    }
+
+    /**
+     * tcp or udp
+     */
+    static final class Protocol extends MatchNode {
+
+        private final int protocol;
+        private final String name;
+
+        Protocol(int protocol, String name) {
+            this.protocol = protocol;
+            this.name = name;
+        }
+
+        @Override
+        boolean matches(PayloadFields fields) {
+            return fields.view().ipProtocol() == protocol;
+        }
+
+        @Override
+        String prefilter() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * TCP or UDP source or destination port
+     */
+    static final class Port extends MatchNode {
+
+        private final int port;
+
+        Port(int port) {
+            this.port = port;
+        }
+
+        @Override
+        boolean matches(PayloadFields fields) {
+            PacketView view = fields.view();
+            int protocol = view.ipProtocol();
+            return (protocol == PacketView.PROTO_TCP || protocol == PacketView.PROTO_UDP)
+                    && (view.sourcePort() == port || view.destinationPort() == port);
+        }
+
+        @Override
+        String prefilter() {
+            return "port " + port;
+        }
+
+        @Override
+        public String toString() {
+            return "port " + port;
+        }
+    }
+
+    /**
+     * A field compared with a pattern: {@code ==} and {@code !=} a glob, or {@code contains} a literal. Packets
+     * without the field match none of them.
+     */
+    static final class Compare extends MatchNode {
+
+        private final Field field;
+        private final String operator;
+        private final BytePattern pattern;
+        private final boolean negate;
+        private final String text;
+
+        Compare(Field field, String operator, BytePattern pattern, boolean negate, String text) {
+            this.field = field;
+            this.operator = operator;
+            this.pattern = pattern;
+            this.negate = negate;
+            this.text = text;
+        }
+
+        @Override
+        boolean matches(PayloadFields fields) {
+            return fields.locate(field)
+                    && pattern.matches(fields.buffer(), fields.offset(field), fields.length(field)) != negate;
+        }
+
+        @Override
+        String prefilter() {
+            return field.getPrefilter();
+        }
+
+        @Override
+        public String toString() {
+            return field.getName() + " " + operator + " " + text;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package cc.databus.netool.filter;
+
+import cc.databus.netool.packet.PacketView;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Locates the {@link Field}s in the packet a {@link PacketView} wraps, each only when first asked for and at
+ * most once per packet, however often the filter compares it. A field is a range of the packet buffer, it is
+ * never copied, so looking one up allocates nothing.
+ *
+ * Only the packet itself is looked at, nothing is reassembled: a field counts as absent unless its start and
+ * all of it lie in the captured bytes of one packet, as they do in the first segment of a request or hello.
+ * Not thread safe, every capture thread has its own.
+ */
+final class PayloadFields {
+
+    private static final int TLS_HANDSHAKE = 22;
+    private static final int TLS_CLIENT_HELLO = 1;
+    private static final int TLS_SERVER_NAME = 0;
+
+    private static final int BER_INTEGER = 0x02;
+    private static final int BER_OCTET_STRING = 0x04;
+    private static final int BER_SEQUENCE = 0x30;
+    private static final int SNMP_PORT = 161;
+    private static final int SNMP_TRAP_PORT = 162;
+
+    /**
+     * longest HTTP request head searched for the Host header
+     */
+    private static final int MAX_HTTP_HEAD = 8192;
+
+    private static final byte[][] HTTP_METHODS = new byte[Field.Prefilters.HTTP_METHODS.length][];
+
+    static {
+        for (int i = 0; i < HTTP_METHODS.length; i++) {
+            HTTP_METHODS[i] = Field.Prefilters.HTTP_METHODS[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private PacketView view;
+    private ByteBuffer buffer;
+
+    /**
+     * bit per field: looked up for the current packet, and found
+     */
+    private int looked;
+    private int found;
+    private final int[] offsets = new int[Field.values().length];
+    private final int[] lengths = new int[Field.values().length];
+
+    /**
+     * content length of the last {@link #berContents(int, int, int)}
+     */
+    private int berLength;
+
+    void reset(PacketView view) {
+        this.view = view;
+        this.buffer = view.buffer();
+        this.looked = 0;
+        this.found = 0;
+    }
+
+    PacketView view() {
+        return view;
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return whether the packet carries {@code field}, then at {@link #offset(Field)} of {@link #buffer()}
+     */
+    boolean locate(Field field) {
+        int bit = 1 << field.ordinal();
+        if ((looked & bit) == 0) {
+            switch (field) {
+                case TLS_SNI:
+                    decodeTls();
+                    break;
+                case HTTP_HOST:
+                case HTTP_METHOD:
+                case HTTP_PATH:
+                    decodeHttp();
+                    break;
+                case SNMP_COMMUNITY:
+                    decodeSnmp();
+                    break;
+                default:
+                    decodePayload();
+                    break;
+            }
+        }
+        return (found & bit) != 0;
+    }
+
+    int offset(Field field) {
+        return offsets[field.ordinal()];
+    }
+
+    int length(Field field) {
+        return lengths[field.ordinal()];
+    }
+
+    private void set(Field field, int offset, int length) {
+        offsets[field.ordinal()] = offset;
+        lengths[field.ordinal()] = length;
+        found |= 1 << field.ordinal();
+    }
+
+    private void decodePayload() {
+        looked |= 1 << Field.PAYLOAD.ordinal();
+        int protocol = view.ipProtocol();
+        if ((protocol == PacketView.PROTO_TCP || protocol == PacketView.PROTO_UDP) && view.payloadOffset() >= 0) {
+            set(Field.PAYLOAD, view.base() + view.payloadOffset(), view.capturedPayloadLength());
+        }
+    }
+
+    /**
+     * record header, handshake header, then legacy_version, random, session_id, cipher_suites,
+     * compression_methods and the extensions of the ClientHello
+     */
+    private void decodeTls() {
+        looked |= 1 << Field.TLS_SNI.ordinal();
+        if (view.ipProtocol() != PacketView.PROTO_TCP || view.payloadOffset() < 0) {
+            return;
+        }
+        int start = view.base() + view.payloadOffset();
+        int end = start + view.capturedPayloadLength();
+        if (start + 9 > end || u8(start) != TLS_HANDSHAKE || u8(start + 1) != 3 || u8(start + 5) != TLS_CLIENT_HELLO) {
+            return;
+        }
+        int at = start + 9 + 2 + 32;
+        if (at + 1 > end) {
+            return;
+        }
+        at += 1 + u8(at);
+        if (at + 2 > end) {
+            return;
+        }
+        at += 2 + u16(at);
+        if (at + 1 > end) {
+            return;
+        }
+        at += 1 + u8(at);
+        if (at + 2 > end) {
+            return;
+        }
+        // the extensions may go on in the next segment, those captured are walked
+        int extensionsEnd = Math.min(end, at + 2 + u16(at));
+        at += 2;
+        while (at + 4 <= extensionsEnd) {
+            int type = u16(at);
+            int length = u16(at + 2);
+            at += 4;
+            if (type == TLS_SERVER_NAME) {
+                // server_name_list with a host_name first
+                if (length >= 5 && at + 5 <= extensionsEnd && u8(at + 2) == 0) {
+                    int nameLength = u16(at + 3);
+                    if (5 + nameLength <= length && at + 5 + nameLength <= extensionsEnd) {
+                        set(Field.TLS_SNI, at + 5, nameLength);
+                    }
+                }
+                return;
+            }
+            at += length;
+        }
+    }
+
+    /**
+     * request line, then the header lines up to the empty one
+     */
+    private void decodeHttp() {
+        looked |= 1 << Field.HTTP_HOST.ordinal() | 1 << Field.HTTP_METHOD.ordinal() | 1 << Field.HTTP_PATH.ordinal();
+        if (view.ipProtocol() != PacketView.PROTO_TCP || view.payloadOffset() < 0) {
+            return;
+        }
+        int start = view.base() + view.payloadOffset();
+        int end = start + Math.min(MAX_HTTP_HEAD, view.capturedPayloadLength());
+        int methodLength = httpMethod(start, end);
+        if (methodLength < 0) {
+            return;
+        }
+        set(Field.HTTP_METHOD, start, methodLength);
+        int at = start + methodLength + 1;
+        int pathStart = at;
+        while (at < end && buffer.get(at) != ' ' && buffer.get(at) != '\r' && buffer.get(at) != '\n') {
+            at++;
+        }
+        if (at == end) {
+            return;
+        }
+        set(Field.HTTP_PATH, pathStart, at - pathStart);
+
+        while (true) {
+            // the start of the next line
+            while (at < end && buffer.get(at) != '\n') {
+                at++;
+            }
+            at++;
+            if (at >= end || buffer.get(at) == '\r' || buffer.get(at) == '\n') {
+                return;
+            }
+            if (at + 5 <= end && isHostHeader(at)) {
+                int valueStart = at + 5;
+                while (valueStart < end && (buffer.get(valueStart) == ' ' || buffer.get(valueStart) == '\t')) {
+                    valueStart++;
+                }
+                int valueEnd = valueStart;
+                while (valueEnd < end && buffer.get(valueEnd) != '\r' && buffer.get(valueEnd) != '\n') {
+                    valueEnd++;
+                }
+                if (valueEnd == end) {
+                    // cut off, the value may go on
+                    return;
+                }
+                while (valueEnd > valueStart && (buffer.get(valueEnd - 1) == ' ' || buffer.get(valueEnd - 1) == '\t')) {
+                    valueEnd--;
+                }
+                set(Field.HTTP_HOST, valueStart, withoutPort(valueStart, valueEnd) - valueStart);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return length of the method the request starts with, followed by a space, or -1
+     */
+    private int httpMethod(int start, int end) {
+        for (byte[] method : HTTP_METHODS) {
+            if (start + method.length + 1 > end || buffer.get(start + method.length) != ' ') {
+                continue;
+            }
+            int i = 0;
+            while (i < method.length && buffer.get(start + i) == method[i]) {
+                i++;
+            }
+            if (i == method.length) {
+                return method.length;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isHostHeader(int at) {
+        return (buffer.get(at) | 0x20) == 'h' && (buffer.get(at + 1) | 0x20) == 'o' && (buffer.get(at + 2) | 0x20) == 's'
+                && (buffer.get(at + 3) | 0x20) == 't' && buffer.get(at + 4) == ':';
+    }
+
+    /**
+     * @return the end of a host without its {@code :port}, brackets of an IPv6 literal are kept
+     */
+    private int withoutPort(int start, int end) {
+        for (int at = end - 1; at > start; at--) {
+            byte b = buffer.get(at);
+            if (b == ':') {
+                return at;
+            }
+            if (b < '0' || b > '9') {
+                return end;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * SEQUENCE { version INTEGER, community OCTET STRING, ... } of SNMPv1 and v2c
+     */
+    private void decodeSnmp() {
+        looked |= 1 << Field.SNMP_COMMUNITY.ordinal();
+        if (view.ipProtocol() != PacketView.PROTO_UDP || view.payloadOffset() < 0) {
+            return;
+        }
+        int source = view.sourcePort();
+        int destination = view.destinationPort();
+        if (source != SNMP_PORT && source != SNMP_TRAP_PORT && destination != SNMP_PORT && destination != SNMP_TRAP_PORT) {
+            return;
+        }
+        int start = view.base() + view.payloadOffset();
+        int end = start + view.capturedPayloadLength();
+        int at = berContents(start, end, BER_SEQUENCE);
+        if (at < 0) {
+            return;
+        }
+        int versionAt = berContents(at, end, BER_INTEGER);
+        if (versionAt < 0 || berLength != 1 || u8(versionAt) > 1) {
+            // SNMPv3 has no community
+            return;
+        }
+        int communityAt = berContents(versionAt + 1, end, BER_OCTET_STRING);
+        if (communityAt < 0 || communityAt + berLength > end) {
+            return;
+        }
+        set(Field.SNMP_COMMUNITY, communityAt, berLength);
+    }
+
+    /**
+     * @return offset of the contents of the element with {@code tag} at {@code at}, or -1
+     */
+    private int berContents(int at, int end, int tag) {
+        if (at + 2 > end || u8(at) != tag) {
+            return -1;
+        }
+        int first = u8(at + 1);
+        at += 2;
+        if (first < 0x80) {
+            berLength = first;
+            return at;
+        }
+        int bytes = first & 0x7f;
+        if (bytes == 0 || bytes > 3 || at + bytes > end) {
+            return -1;
+        }
+        int length = 0;
+        for (int i = 0; i < bytes; i++) {
+            length = length << 8 | u8(at + i);
+        }
+        berLength = length;
+        return at + bytes;
+    }
+
+    private int u8(int at) {
+        return buffer.get(at) & 0xff;
+    }
+
+    private int u16(int at) {
+        return (buffer.get(at) & 0xff) << 8 | buffer.get(at + 1) & 0xff;
+    }
+}
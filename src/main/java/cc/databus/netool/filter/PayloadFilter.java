@@ -0,0 +1,99 @@
+package cc.databus.netool.filter;
+
+import cc.databus.netool.packet.PacketView;
+
+/**
+ * A filter on what the packets carry, for what BPF cannot express: the server name of a TLS ClientHello, the
+ * Host, method or path of an HTTP request, the community of an SNMP message or bytes anywhere in the payload.
+ *
+ * <pre>
+ * tls.sni == *.example.com
+ * http.host == api.example.com and not http.method == GET
+ * snmp.community != public or payload contains "\xde\xad"
+ * </pre>
+ *
+ * Fields are compared with {@code ==} and {@code !=} a glob, {@code *} standing for any run of bytes, or with
+ * {@code contains}; host names ignore case. A packet without the field matches no comparison of it. {@code tcp},
+ * {@code udp} and {@code port N} restrict the transport, and terms combine with and, or, not and parentheses.
+ *
+ * The expression is compiled once into a tree of matchers that look at the packet bytes where they are, see
+ * {@link PayloadFields}, and it runs on the capture threads after the kernel filter. Most of the traffic
+ * should not get that far: {@link #getPrefilter()} is a BPF passing every packet that can match, such as
+ * handshake records for the server name, to be added to the kernel filter.
+ */
+public final class PayloadFilter {
+
+    private final String expression;
+    private final MatchNode root;
+    private final String prefilter;
+
+    private PayloadFilter(String expression, MatchNode root) {
+        this.expression = expression;
+        this.root = root;
+        this.prefilter = root.prefilter();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the expression is not valid
+     */
+    public static PayloadFilter compile(String expression) {
+        return new PayloadFilter(expression, new FilterParser(expression).parse());
+    }
+
+    /**
+     * @return BPF passing at least every packet this filter matches, null if none narrower than all packets
+     */
+    public String getPrefilter() {
+        return prefilter;
+    }
+
+    /**
+     * @return {@code filter} and the prefilter, for the kernel; either may be null
+     */
+    public String combine(String filter) {
+        if (filter == null || filter.trim().isEmpty()) {
+            return prefilter;
+        }
+        return prefilter == null ? filter : "(" + filter + ") and (" + prefilter + ")";
+    }
+
+    /**
+     * @return a matcher of this filter for one thread
+     */
+    public Matcher newMatcher() {
+        return new Matcher();
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * Applies the filter on one thread, with the decoding state of the current packet.
+     */
+    public final class Matcher {
+
+        private final PayloadFields fields = new PayloadFields();
+        private long rejected;
+
+        private Matcher() {
+        }
+
+        public boolean matches(PacketView view) {
+            fields.reset(view);
+            if (root.matches(fields)) {
+                return true;
+            }
+            rejected++;
+            return false;
+        }
+
+        /**
+         * @return packets that did not match, read by another thread only once this one stopped matching
+         */
+        public long getRejected() {
+            return rejected;
+        }
+    }
+}
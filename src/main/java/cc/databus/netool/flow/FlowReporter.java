@@ -0,0 +1,101 @@
+package cc.databus.netool.flow;
+
+import cc.databus.netool.utils.SystemOutHelper;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically evicts idle flows and prints the top talkers of every interface's {@link FlowTable}s. An interface
+ * has one table per analysis worker, each holding the flows sharded to it, which are merged for the report.
+ */
+public class FlowReporter implements Closeable {
+
+    private final Map<String, List<FlowTable>> tables;
+    private final int top;
+    private final long idleNanos;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param tables    flow tables of each interface
+     * @param top       number of flows reported per interface
+     * @param idleNanos flows not seen for this long are evicted before each report
+     */
+    public FlowReporter(Map<String, List<FlowTable>> tables, int top, long idleNanos) {
+        this.tables = tables;
+        this.top = top;
+        this.idleNanos = idleNanos;
+    }
+
+    public void start(long intervalSeconds) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "netools-flows");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::reportSafely, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the periodic reports and print a last one.
+     */
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        report();
+    }
+
+    public void report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, List<FlowTable>> entry : tables.entrySet()) {
+            int evicted = 0;
+            int size = 0;
+            long untracked = 0;
+            int capacity = 0;
+            // a flow lives in one shard only, so the top of all shards is among the tops of each
+            List<FlowStats> flows = new ArrayList<>();
+            for (FlowTable table : entry.getValue()) {
+                evicted += table.evictIdle(idleNanos);
+                size += table.size();
+                untracked += table.getUntrackedPackets();
+                capacity += table.capacity();
+                flows.addAll(table.top(top));
+            }
+            flows.sort(Comparator.comparingLong(FlowStats::getBytes).reversed());
+            if (flows.size() > top) {
+                flows = flows.subList(0, top);
+            }
+            sb.append(String.format("Top %d of %d flows on [%s] (evicted %d idle, %d packets untracked, table capacity %d):\n",
+                    flows.size(), size, entry.getKey(), evicted, untracked, capacity));
+            for (FlowStats flow : flows) {
+                sb.append("  ").append(flow.format()).append('\n');
+            }
+        }
+        SystemOutHelper.println(sb.toString());
+    }
+
+    private void reportSafely() {
+        try {
+            report();
+        }
+        catch (RuntimeException e) {
+            // an exception would cancel all further reports
+            SystemOutHelper.println(String.format("Flow report failed - %s:%s", e.getClass().getCanonicalName(), e.getMessage()));
+        }
+    }
+}
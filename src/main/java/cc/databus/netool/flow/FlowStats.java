@@ -0,0 +1,124 @@
+package cc.databus.netool.flow;
+
+import cc.databus.netool.packet.PacketView;
+
+/**
+ * Snapshot of one flow taken out of a {@link FlowTable}.
+ */
+public class FlowStats {
+
+    private final int ipVersion;
+    private final int protocol;
+    private final long sourceHigh;
+    private final long sourceLow;
+    private final int sourcePort;
+    private final long destinationHigh;
+    private final long destinationLow;
+    private final int destinationPort;
+    private final long packets;
+    private final long bytes;
+    private final long firstSeen;
+    private final long lastSeen;
+    private final int tcpFlags;
+
+    FlowStats(int ipVersion, int protocol, long sourceHigh, long sourceLow, int sourcePort,
+              long destinationHigh, long destinationLow, int destinationPort,
+              long packets, long bytes, long firstSeen, long lastSeen, int tcpFlags) {
+        this.ipVersion = ipVersion;
+        this.protocol = protocol;
+        this.sourceHigh = sourceHigh;
+        this.sourceLow = sourceLow;
+        this.sourcePort = sourcePort;
+        this.destinationHigh = destinationHigh;
+        this.destinationLow = destinationLow;
+        this.destinationPort = destinationPort;
+        this.packets = packets;
+        this.bytes = bytes;
+        this.firstSeen = firstSeen;
+        this.lastSeen = lastSeen;
+        this.tcpFlags = tcpFlags;
+    }
+
+    public int getProtocol() {
+        return protocol;
+    }
+
+    public long getPackets() {
+        return packets;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getFirstSeen() {
+        return firstSeen;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public int getTcpFlags() {
+        return tcpFlags;
+    }
+
+    public String format() {
+        return String.format("%-6s %s -> %s %10d pkts %14d bytes %9.3fs %s",
+                protocolName(protocol),
+                endpoint(sourceHigh, sourceLow, sourcePort),
+                endpoint(destinationHigh, destinationLow, destinationPort),
+                packets, bytes, (lastSeen - firstSeen) / 1e9,
+                protocol == PacketView.PROTO_TCP ? "[" + tcpFlagsToString(tcpFlags) + "]" : "");
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+
+    private String endpoint(long high, long low, int port) {
+        if (protocol != PacketView.PROTO_TCP && protocol != PacketView.PROTO_UDP) {
+            return PacketView.addressToString(ipVersion, high, low);
+        }
+        return PacketView.endpointToString(ipVersion, high, low, port);
+    }
+
+    static String protocolName(int protocol) {
+        switch (protocol) {
+            case PacketView.PROTO_TCP:
+                return "tcp";
+            case PacketView.PROTO_UDP:
+                return "udp";
+            case PacketView.PROTO_ICMP:
+                return "icmp";
+            case PacketView.PROTO_ICMPV6:
+                return "icmp6";
+            default:
+                return "ip/" + protocol;
+        }
+    }
+
+    static String tcpFlagsToString(int flags) {
+        StringBuilder sb = new StringBuilder();
+        if ((flags & PacketView.TCP_SYN) != 0) {
+            sb.append('S');
+        }
+        if ((flags & PacketView.TCP_FIN) != 0) {
+            sb.append('F');
+        }
+        if ((flags & PacketView.TCP_RST) != 0) {
+            sb.append('R');
+        }
+        if ((flags & PacketView.TCP_PSH) != 0) {
+            sb.append('P');
+        }
+        if ((flags & PacketView.TCP_ACK) != 0) {
+            sb.append('.');
+        }
+        if ((flags & PacketView.TCP_URG) != 0) {
+            sb.append('U');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,240 @@
+package cc.databus.netool.flow;
+
+import cc.databus.netool.packet.PacketView;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Per 5-tuple packet/byte accounting in a single preallocated {@code long[]}.
+ *
+ * Flows are unidirectional, keyed on source and destination address, ports and IP protocol, and stored by
+ * open addressing with linear probing. Every entry takes {@link #STRIDE} longs, so the memory cap given to the
+ * constructor translates directly into a fixed capacity. Updating a flow allocates nothing; when the table
+ * is full new flows are not tracked and only counted. Entries are removed by {@link #evictIdle(long)}
+ * with backward shift deletion, so no tombstones accumulate.
+ *
+ * Methods are synchronized: the owning capture thread updates the table while the reporter reads it.
+ */
+public class FlowTable {
+
+    static final int STRIDE = 10;
+
+    private static final int SOURCE_HIGH = 0;
+    private static final int SOURCE_LOW = 1;
+    private static final int DESTINATION_HIGH = 2;
+    private static final int DESTINATION_LOW = 3;
+    /**
+     * occupied bit 62, ip version bits 40-43, protocol bits 32-39, source port bits 16-31, destination port bits 0-15
+     */
+    private static final int KEY = 4;
+    private static final int PACKETS = 5;
+    private static final int BYTES = 6;
+    private static final int FIRST_SEEN = 7;
+    private static final int LAST_SEEN = 8;
+    private static final int TCP_FLAGS = 9;
+
+    private static final long OCCUPIED = 1L << 62;
+
+    private final long[] table;
+    private final int mask;
+    private final int maxFlows;
+
+    private int size = 0;
+    private long untrackedPackets = 0;
+    private long evictedFlows = 0;
+    private long lastCaptureNanos = Long.MIN_VALUE;
+    private long lastCaptureWallNanos;
+
+    /**
+     * @param maxMemoryBytes upper bound of the memory used by the table
+     */
+    public FlowTable(long maxMemoryBytes) {
+        long entries = Math.max(16, maxMemoryBytes / (STRIDE * 8L));
+        // largest power of two whose table still fits into one java array
+        int capacity = Integer.highestOneBit((int) Math.min(entries, 1 << 27));
+        this.table = new long[capacity * STRIDE];
+        this.mask = capacity - 1;
+        this.maxFlows = capacity / 4 * 3;
+    }
+
+    /**
+     * Account one packet, {@code view} must already wrap it. Non IP packets are ignored.
+     *
+     * @param sampleRate the packet is accounted this many times, as it was kept as one of every {@code sampleRate}
+     * @return false if the packet belongs to a new flow and the table is full
+     */
+    public synchronized boolean update(PacketView view, int bytes, long timestampNanos, int sampleRate) {
+        if (!view.isIp()) {
+            return true;
+        }
+        if (timestampNanos - lastCaptureNanos > 0 || lastCaptureNanos == Long.MIN_VALUE) {
+            lastCaptureNanos = timestampNanos;
+            lastCaptureWallNanos = System.nanoTime();
+        }
+        long sourceHigh = view.sourceHigh();
+        long sourceLow = view.sourceLow();
+        long destinationHigh = view.destinationHigh();
+        long destinationLow = view.destinationLow();
+        long key = OCCUPIED | ((long) view.ipVersion() << 40) | ((long) (view.ipProtocol() & 0xff) << 32)
+                | ((long) Math.max(0, view.sourcePort()) << 16) | Math.max(0, view.destinationPort());
+
+        int slot = (int) (hash(sourceHigh, sourceLow, destinationHigh, destinationLow, key) & mask);
+        while (true) {
+            int at = slot * STRIDE;
+            long k = table[at + KEY];
+            if (k == 0) {
+                if (size >= maxFlows) {
+                    untrackedPackets += sampleRate;
+                    return false;
+                }
+                table[at + SOURCE_HIGH] = sourceHigh;
+                table[at + SOURCE_LOW] = sourceLow;
+                table[at + DESTINATION_HIGH] = destinationHigh;
+                table[at + DESTINATION_LOW] = destinationLow;
+                table[at + KEY] = key;
+                table[at + PACKETS] = sampleRate;
+                table[at + BYTES] = (long) bytes * sampleRate;
+                table[at + FIRST_SEEN] = timestampNanos;
+                table[at + LAST_SEEN] = timestampNanos;
+                table[at + TCP_FLAGS] = view.tcpFlags();
+                size++;
+                return true;
+            }
+            if (k == key && table[at + SOURCE_LOW] == sourceLow && table[at + DESTINATION_LOW] == destinationLow
+                    && table[at + SOURCE_HIGH] == sourceHigh && table[at + DESTINATION_HIGH] == destinationHigh) {
+                table[at + PACKETS] += sampleRate;
+                table[at + BYTES] += (long) bytes * sampleRate;
+                table[at + LAST_SEEN] = Math.max(table[at + LAST_SEEN], timestampNanos);
+                table[at + TCP_FLAGS] |= view.tcpFlags();
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Remove flows not seen for {@code idleNanos} of capture time. The capture clock is taken to have advanced
+     * with the wall clock since the last packet, so flows still go idle when the traffic stops, and a replayed
+     * file keeps its flows however old its timestamps are.
+     *
+     * @return number of flows removed
+     */
+    public synchronized int evictIdle(long idleNanos) {
+        if (lastCaptureNanos == Long.MIN_VALUE) {
+            return 0;
+        }
+        long nowNanos = lastCaptureNanos + (System.nanoTime() - lastCaptureWallNanos);
+        int removed = 0;
+        int capacity = mask + 1;
+        int slot = 0;
+        while (slot < capacity) {
+            int at = slot * STRIDE;
+            if (table[at + KEY] != 0 && nowNanos - table[at + LAST_SEEN] > idleNanos) {
+                delete(slot);
+                removed++;
+                // the slot now holds a shifted entry, look at it again
+                continue;
+            }
+            slot++;
+        }
+        evictedFlows += removed;
+        return removed;
+    }
+
+    /**
+     * @return the {@code n} flows with the most bytes, largest first
+     */
+    public synchronized List<FlowStats> top(int n) {
+        PriorityQueue<FlowStats> heap = new PriorityQueue<>(Math.max(1, Math.min(n, size)), Comparator.comparingLong(FlowStats::getBytes));
+        int capacity = mask + 1;
+        for (int slot = 0; slot < capacity; slot++) {
+            int at = slot * STRIDE;
+            if (table[at + KEY] == 0) {
+                continue;
+            }
+            if (heap.size() < n) {
+                heap.add(snapshot(at));
+            }
+            else if (n > 0 && table[at + BYTES] > heap.peek().getBytes()) {
+                heap.poll();
+                heap.add(snapshot(at));
+            }
+        }
+        List<FlowStats> result = new ArrayList<>(heap);
+        result.sort(Comparator.comparingLong(FlowStats::getBytes).reversed());
+        return result;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return maxFlows;
+    }
+
+    /**
+     * @return bytes held by the table
+     */
+    public long memoryBytes() {
+        return table.length * 8L;
+    }
+
+    public synchronized long getUntrackedPackets() {
+        return untrackedPackets;
+    }
+
+    public synchronized long getEvictedFlows() {
+        return evictedFlows;
+    }
+
+    private FlowStats snapshot(int at) {
+        long key = table[at + KEY];
+        return new FlowStats((int) (key >>> 40) & 0x0f, (int) (key >>> 32) & 0xff,
+                table[at + SOURCE_HIGH], table[at + SOURCE_LOW], (int) (key >>> 16) & 0xffff,
+                table[at + DESTINATION_HIGH], table[at + DESTINATION_LOW], (int) key & 0xffff,
+                table[at + PACKETS], table[at + BYTES], table[at + FIRST_SEEN], table[at + LAST_SEEN], (int) table[at + TCP_FLAGS]);
+    }
+
+    private void delete(int slot) {
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        while (true) {
+            int at = next * STRIDE;
+            if (table[at + KEY] == 0) {
+                break;
+            }
+            int home = (int) (hash(table[at + SOURCE_HIGH], table[at + SOURCE_LOW], table[at + DESTINATION_HIGH],
+                    table[at + DESTINATION_LOW], table[at + KEY]) & mask);
+            // move the entry into the hole unless its home lies cyclically in (hole, next]
+            boolean stays = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+            if (!stays) {
+                System.arraycopy(table, at, table, hole * STRIDE, STRIDE);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        int at = hole * STRIDE;
+        for (int i = 0; i < STRIDE; i++) {
+            table[at + i] = 0;
+        }
+        size--;
+    }
+
+    static long hash(long a, long b, long c, long d, long e) {
+        long h = mix(a) ^ Long.rotateLeft(mix(b), 13) ^ Long.rotateLeft(mix(c), 27) ^ Long.rotateLeft(mix(d), 41) ^ mix(e);
+        return mix(h);
+    }
+
+    private static long mix(long v) {
+        v ^= v >>> 33;
+        v *= 0xff51afd7ed558ccdL;
+        v ^= v >>> 33;
+        v *= 0xc4ceb9fe1a85ec53L;
+        v ^= v >>> 33;
+        return v;
+    }
+}
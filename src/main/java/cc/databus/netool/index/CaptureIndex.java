@@ -0,0 +1,188 @@
+package cc.databus.netool.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Sidecar index of a pcap file, written next to it by a {@link CaptureIndexWriter}.
+ *
+ * The records of the capture are grouped into blocks of consecutive records. The index is a header followed
+ * by one entry per block, appended as each block is finished:
+ * <pre>
+ *   offset of the first record     8 bytes
+ *   offset after the last record   8 bytes
+ *   earliest capture time, ns      8 bytes
+ *   latest capture time, ns        8 bytes
+ *   records                        4 bytes
+ *   flows                          4 bytes
+ *   folded flow hash               4 bytes each, see {@link #foldFlowHash(long)}, sorted
+ * </pre>
+ * all little endian. The block offsets are the sparse time checkpoints, the flow hashes of a block are its
+ * postings: the blocks to read for a flow are the ones listing its hash. An entry cut short because the writer
+ * died is ignored, so is everything after it, and the records past the last block are simply not indexed.
+ */
+public final class CaptureIndex {
+
+    public static final String SUFFIX = ".idx";
+
+    static final int MAGIC = 0x5849544e;
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 8;
+    static final int ENTRY_LENGTH = 40;
+
+    private final int blocks;
+    private final long[] starts;
+    private final long[] ends;
+    private final long[] firstNanos;
+    private final long[] lastNanos;
+    private final long records;
+    /**
+     * the hashes of block i are {@code hashes[hashStarts[i]]} up to {@code hashes[hashStarts[i + 1]]}
+     */
+    private final int[] hashStarts;
+    private final int[] hashes;
+
+    private CaptureIndex(int blocks, long[] starts, long[] ends, long[] firstNanos, long[] lastNanos, long records,
+                         int[] hashStarts, int[] hashes) {
+        this.blocks = blocks;
+        this.starts = starts;
+        this.ends = ends;
+        this.firstNanos = firstNanos;
+        this.lastNanos = lastNanos;
+        this.records = records;
+        this.hashStarts = hashStarts;
+        this.hashes = hashes;
+    }
+
+    /**
+     * @return path of the index of the capture file {@code capture}
+     */
+    public static Path sidecar(Path capture) {
+        return capture.resolveSibling(capture.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Fold a {@link cc.databus.netool.packet.PacketView#flowHash()} to the 32 bits kept in the index. Never 0,
+     * which marks packets without a flow.
+     */
+    public static int foldFlowHash(long flowHash) {
+        int folded = (int) (flowHash ^ (flowHash >>> 32));
+        return folded == 0 ? 1 : folded;
+    }
+
+    public static CaptureIndex load(Path path) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("%s is too large for an index.", path));
+            }
+            data = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            while (data.hasRemaining() && channel.read(data) >= 0) {
+                // keep reading
+            }
+            data.flip();
+        }
+        if (data.remaining() < HEADER_LENGTH || data.getInt() != MAGIC) {
+            throw new IOException(String.format("%s is not a capture index.", path));
+        }
+        int version = data.getInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("%s has the unknown index version %d.", path, version));
+        }
+
+        int capacity = 1024;
+        long[] starts = new long[capacity];
+        long[] ends = new long[capacity];
+        long[] firstNanos = new long[capacity];
+        long[] lastNanos = new long[capacity];
+        int[] hashStarts = new int[capacity + 1];
+        int[] hashes = new int[Math.max(16, data.remaining() / 4)];
+        int blocks = 0;
+        long records = 0;
+        int hashCount = 0;
+        while (data.remaining() >= ENTRY_LENGTH) {
+            int entry = data.position();
+            long start = data.getLong();
+            long end = data.getLong();
+            long first = data.getLong();
+            long last = data.getLong();
+            int count = data.getInt();
+            int flows = data.getInt();
+            if (flows < 0 || flows > data.remaining() / 4 || end < start || count < 0) {
+                data.position(entry);
+                break;
+            }
+            if (blocks == capacity) {
+                capacity *= 2;
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                firstNanos = Arrays.copyOf(firstNanos, capacity);
+                lastNanos = Arrays.copyOf(lastNanos, capacity);
+                hashStarts = Arrays.copyOf(hashStarts, capacity + 1);
+            }
+            starts[blocks] = start;
+            ends[blocks] = end;
+            firstNanos[blocks] = first;
+            lastNanos[blocks] = last;
+            hashStarts[blocks] = hashCount;
+            data.asIntBuffer().get(hashes, hashCount, flows);
+            data.position(data.position() + 4 * flows);
+            hashCount += flows;
+            records += count;
+            blocks++;
+        }
+        hashStarts[blocks] = hashCount;
+        return new CaptureIndex(blocks, starts, ends, firstNanos, lastNanos, records, hashStarts, hashes);
+    }
+
+    public int getBlocks() {
+        return blocks;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * @return offset after the last indexed record, records from there on are not in the index
+     */
+    public long getIndexedEnd() {
+        return blocks > 0 ? ends[blocks - 1] : 0;
+    }
+
+    /**
+     * Find the blocks that may hold records captured in [{@code fromNanos}, {@code toNanos}) of the flow
+     * with the given hash, or of any flow if it is 0.
+     *
+     * @return file ranges holding these blocks, as start and end offset pairs, adjacent blocks merged into one range
+     */
+    public long[] select(long fromNanos, long toNanos, long flowHash) {
+        int folded = foldFlowHash(flowHash);
+        long[] ranges = new long[16];
+        int n = 0;
+        for (int i = 0; i < blocks; i++) {
+            if (lastNanos[i] < fromNanos || firstNanos[i] >= toNanos) {
+                continue;
+            }
+            if (flowHash != 0 && Arrays.binarySearch(hashes, hashStarts[i], hashStarts[i + 1], folded) < 0) {
+                continue;
+            }
+            if (n > 0 && ranges[n - 1] == starts[i]) {
+                ranges[n - 1] = ends[i];
+                continue;
+            }
+            if (n == ranges.length) {
+                ranges = Arrays.copyOf(ranges, n * 2);
+            }
+            ranges[n++] = starts[i];
+            ranges[n++] = ends[i];
+        }
+        return Arrays.copyOf(ranges, n);
+    }
+}
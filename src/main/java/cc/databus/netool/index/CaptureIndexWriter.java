@@ -0,0 +1,161 @@
+package cc.databus.netool.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Builds a {@link CaptureIndex} while the capture file is written, record by record.
+ *
+ * Only the current block is kept in memory: its time bounds and the set of its flow hashes, in a table sized
+ * for the largest block. When the block is full it is appended to the index with one write, so the index is
+ * never more than a block behind the capture file, whatever its size, and a capture cut short by a crash keeps
+ * an index of everything but its last block.
+ *
+ * Not thread safe, records are added by the thread writing the capture file.
+ */
+public class CaptureIndexWriter implements Closeable {
+
+    /**
+     * a block ends after this many records ...
+     */
+    static final int MAX_BLOCK_RECORDS = 4096;
+    /**
+     * ... or file bytes ...
+     */
+    static final long MAX_BLOCK_BYTES = 4L * 1024 * 1024;
+    /**
+     * ... or nanoseconds of capture time, whichever comes first
+     */
+    static final long MAX_BLOCK_NANOS = 1000000000L;
+
+    private final FileChannel channel;
+    private final ByteBuffer entry = ByteBuffer.allocateDirect(CaptureIndex.ENTRY_LENGTH + 4 * MAX_BLOCK_RECORDS)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * open addressing set of the folded flow hashes of the current block, 0 marks a free slot
+     */
+    private final int[] table = new int[2 * MAX_BLOCK_RECORDS];
+    private final int[] flows = new int[MAX_BLOCK_RECORDS];
+    private int flowCount;
+
+    private int records;
+    private long blockStart;
+    private long blockEnd;
+    private long firstNanos;
+    private long lastNanos;
+
+    private long blocks;
+
+    public CaptureIndexWriter(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(CaptureIndex.HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(CaptureIndex.MAGIC).putInt(CaptureIndex.VERSION).flip();
+            write(header);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Index one record. Records must be added in file order, a record that does not start where the previous one
+     * ended starts a new block.
+     *
+     * @param offset   offset of the record header in the capture file
+     * @param length   length of the record including its header
+     * @param flowHash {@link cc.databus.netool.packet.PacketView#flowHash()} of the packet, 0 if it has none
+     */
+    public void add(long offset, int length, long timestampNanos, long flowHash) throws IOException {
+        if (records > 0 && (records == MAX_BLOCK_RECORDS || offset != blockEnd || offset + length - blockStart > MAX_BLOCK_BYTES
+                || timestampNanos - firstNanos >= MAX_BLOCK_NANOS)) {
+            endBlock();
+        }
+        if (records == 0) {
+            blockStart = offset;
+            firstNanos = timestampNanos;
+            lastNanos = timestampNanos;
+        }
+        records++;
+        blockEnd = offset + length;
+        // capture times of merged or replayed packets need not be in order
+        firstNanos = Math.min(firstNanos, timestampNanos);
+        lastNanos = Math.max(lastNanos, timestampNanos);
+        if (flowHash != 0) {
+            addFlow(CaptureIndex.foldFlowHash(flowHash));
+        }
+    }
+
+    /**
+     * @return blocks written so far
+     */
+    public long getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Write the last block and close the index.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (records > 0) {
+                endBlock();
+            }
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    private void addFlow(int hash) {
+        int mask = table.length - 1;
+        int slot = (hash * 0x9e3779b9) >>> 19 & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == hash) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = hash;
+        flows[flowCount++] = hash;
+    }
+
+    private void endBlock() throws IOException {
+        Arrays.sort(flows, 0, flowCount);
+        entry.clear();
+        entry.putLong(blockStart).putLong(blockEnd).putLong(firstNanos).putLong(lastNanos).putInt(records).putInt(flowCount);
+        for (int i = 0; i < flowCount; i++) {
+            entry.putInt(flows[i]);
+        }
+        entry.flip();
+        write(entry);
+
+        // clearing only the used slots is cheaper than clearing the table when blocks have few flows
+        int mask = table.length - 1;
+        for (int i = 0; i < flowCount; i++) {
+            int slot = (flows[i] * 0x9e3779b9) >>> 19 & mask;
+            while (table[slot] != 0) {
+                table[slot] = 0;
+                slot = (slot + 1) & mask;
+            }
+        }
+        flowCount = 0;
+        records = 0;
+        blocks++;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
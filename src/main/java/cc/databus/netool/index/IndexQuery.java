@@ -0,0 +1,198 @@
+package cc.databus.netool.index;
+
+import cc.databus.netool.packet.PacketView;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Time range and flow a read of a capture file is restricted to, by --from, --to and --flow.
+ *
+ * Times are seconds since epoch, a local date and time such as {@code 2024-05-01 10:02:30} or a local time of day
+ * such as {@code 10:02}, which is taken on the day of the first record. A flow is given as protocol and both
+ * endpoints, {@code tcp 10.0.0.1:443 10.0.0.2:51000}, IPv6 addresses in brackets, and matches both directions.
+ */
+public final class IndexQuery {
+
+    private final String from;
+    private final String to;
+    private final long flowHash;
+
+    private long fromNanos = Long.MIN_VALUE;
+    private long toNanos = Long.MAX_VALUE;
+
+    /**
+     * @param from start of the time range, inclusive, or null
+     * @param to   end of the time range, exclusive, or null
+     * @param flow the flow, or null for all packets
+     * @throws IllegalArgumentException if a time or the flow cannot be parsed
+     */
+    public IndexQuery(String from, String to, String flow) {
+        this.from = from;
+        this.to = to;
+        this.flowHash = flow == null ? 0 : parseFlow(flow);
+        // catch malformed times before anything is read
+        resolve(0);
+    }
+
+    /**
+     * Resolve times of day against the day of {@code firstNanos}, the capture time of the first record.
+     */
+    public void resolve(long firstNanos) {
+        if (from != null) {
+            fromNanos = parseTime(from, firstNanos);
+        }
+        if (to != null) {
+            toNanos = parseTime(to, firstNanos);
+        }
+    }
+
+    public long getFromNanos() {
+        return fromNanos;
+    }
+
+    public long getToNanos() {
+        return toNanos;
+    }
+
+    /**
+     * @return hash of the flow as by {@link PacketView#flowHash()}, 0 for all packets
+     */
+    public long getFlowHash() {
+        return flowHash;
+    }
+
+    public boolean matchesTime(long timestampNanos) {
+        return timestampNanos >= fromNanos && timestampNanos < toNanos;
+    }
+
+    public boolean hasFlow() {
+        return flowHash != 0;
+    }
+
+    private static long parseTime(String text, long firstNanos) {
+        String value = text.trim();
+        try {
+            if (value.matches("\\d+(\\.\\d{1,9})?")) {
+                int dot = value.indexOf('.');
+                if (dot < 0) {
+                    return Long.parseLong(value) * 1000000000L;
+                }
+                String fraction = (value.substring(dot + 1) + "000000000").substring(0, 9);
+                return Long.parseLong(value.substring(0, dot)) * 1000000000L + Long.parseLong(fraction);
+            }
+            ZoneId zone = ZoneId.systemDefault();
+            Instant instant;
+            if (value.length() > 10 && Character.isDigit(value.charAt(0)) && value.charAt(4) == '-') {
+                instant = LocalDateTime.parse(value.replace(' ', 'T')).atZone(zone).toInstant();
+            }
+            else {
+                LocalDate day = Instant.ofEpochSecond(0, firstNanos).atZone(zone).toLocalDate();
+                instant = LocalTime.parse(value).atDate(day).atZone(zone).toInstant();
+            }
+            return instant.getEpochSecond() * 1000000000L + instant.getNano();
+        }
+        catch (DateTimeParseException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException(String.format("Invalid time %s, expected seconds since epoch, yyyy-MM-dd HH:mm[:ss] or HH:mm[:ss].", text));
+        }
+    }
+
+    private static long parseFlow(String text) {
+        String[] parts = text.trim().split("\\s+");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException(String.format("Invalid flow %s, expected protocol and two endpoints such as 'tcp 10.0.0.1:443 10.0.0.2:51000'.", text));
+        }
+        int protocol;
+        switch (parts[0].toLowerCase()) {
+            case "tcp":
+                protocol = PacketView.PROTO_TCP;
+                break;
+            case "udp":
+                protocol = PacketView.PROTO_UDP;
+                break;
+            case "icmp":
+                protocol = PacketView.PROTO_ICMP;
+                break;
+            case "icmp6":
+                protocol = PacketView.PROTO_ICMPV6;
+                break;
+            default:
+                try {
+                    protocol = Integer.parseInt(parts[0]);
+                }
+                catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(String.format("Unknown protocol %s in flow %s.", parts[0], text));
+                }
+        }
+        // the port is part of a tcp or udp flow, 0 would match none of them
+        boolean portRequired = protocol == PacketView.PROTO_TCP || protocol == PacketView.PROTO_UDP;
+        long[] source = parseEndpoint(parts[1], text, portRequired);
+        long[] destination = parseEndpoint(parts[2], text, portRequired);
+        return PacketView.flowHash(protocol, source[0], source[1], (int) source[2], destination[0], destination[1], (int) destination[2]);
+    }
+
+    /**
+     * @return upper and lower 64 bits of the address, then the port, 0 if none is given
+     * @throws IllegalArgumentException if the endpoint is invalid, or has no port though {@code portRequired}
+     */
+    private static long[] parseEndpoint(String endpoint, String flow, boolean portRequired) {
+        String host = endpoint;
+        int port = 0;
+        int colon = endpoint.lastIndexOf(':');
+        if (endpoint.startsWith("[")) {
+            int bracket = endpoint.indexOf(']');
+            if (bracket < 0) {
+                throw new IllegalArgumentException(String.format("Invalid endpoint %s in flow %s.", endpoint, flow));
+            }
+            host = endpoint.substring(1, bracket);
+            colon = bracket + 1 < endpoint.length() && endpoint.charAt(bracket + 1) == ':' ? bracket + 1 : -1;
+        }
+        else if (colon >= 0 && endpoint.indexOf(':') != colon) {
+            // a bare IPv6 address
+            colon = -1;
+        }
+        else if (colon >= 0) {
+            host = endpoint.substring(0, colon);
+        }
+        if (colon < 0 && portRequired) {
+            throw new IllegalArgumentException(String.format("Missing port in endpoint %s of flow %s, such as %s.", endpoint, flow,
+                    host.indexOf(':') >= 0 ? "[" + host + "]:443" : host + ":443"));
+        }
+        try {
+            if (colon >= 0) {
+                port = Integer.parseInt(endpoint.substring(colon + 1));
+                if (port < 0 || port > 65535) {
+                    throw new NumberFormatException();
+                }
+            }
+            // only literals, a flow names addresses as seen on the wire
+            if (!host.matches("[0-9a-fA-F:.]+")) {
+                throw new UnknownHostException(host);
+            }
+            byte[] address = InetAddress.getByName(host).getAddress();
+            long high = 0;
+            long low = 0;
+            if (address.length == 4) {
+                for (byte b : address) {
+                    low = (low << 8) | (b & 0xff);
+                }
+            }
+            else {
+                for (int i = 0; i < 8; i++) {
+                    high = (high << 8) | (address[i] & 0xff);
+                    low = (low << 8) | (address[i + 8] & 0xff);
+                }
+            }
+            return new long[]{high, low, port};
+        }
+        catch (NumberFormatException | UnknownHostException e) {
+            throw new IllegalArgumentException(String.format("Invalid endpoint %s in flow %s.", endpoint, flow));
+        }
+    }
+}
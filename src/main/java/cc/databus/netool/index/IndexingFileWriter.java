@@ -0,0 +1,74 @@
+package cc.databus.netool.index;
+
+import cc.databus.netool.packet.PacketView;
+import cc.databus.netool.pcap.CaptureFileWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Writes records through a pcap {@link CaptureFileWriter} and indexes them into the sidecar of the file.
+ * The offset of each record is the size of the file before it is written, the flow hash is taken by
+ * parsing the headers in place, so indexing a record allocates nothing.
+ */
+public class IndexingFileWriter implements CaptureFileWriter {
+
+    private final CaptureFileWriter writer;
+    private final CaptureIndexWriter index;
+    private final int linkType;
+    private final PacketView view = new PacketView();
+
+    private byte[] wrappedArray;
+    private ByteBuffer wrapped;
+
+    /**
+     * @param writer   a writer of classic pcap files, whose offsets are those of the records
+     * @param path     the file written by {@code writer}
+     */
+    public IndexingFileWriter(CaptureFileWriter writer, Path path, int linkType) throws IOException {
+        this.writer = writer;
+        this.index = new CaptureIndexWriter(CaptureIndex.sidecar(path));
+        this.linkType = linkType;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length, int originalLength, long timestampNanos) throws IOException {
+        long recordOffset = writer.size();
+        writer.write(data, offset, length, originalLength, timestampNanos);
+        if (data != wrappedArray) {
+            wrappedArray = data;
+            wrapped = ByteBuffer.wrap(data);
+        }
+        view.wrap(wrapped, offset, length, linkType);
+        index.add(recordOffset, (int) (writer.size() - recordOffset), timestampNanos, view.flowHash());
+    }
+
+    @Override
+    public void write(ByteBuffer data, int originalLength, long timestampNanos) throws IOException {
+        long recordOffset = writer.size();
+        writer.write(data, originalLength, timestampNanos);
+        view.wrap(data, data.position(), data.remaining(), linkType);
+        index.add(recordOffset, (int) (writer.size() - recordOffset), timestampNanos, view.flowHash());
+    }
+
+    @Override
+    public long size() {
+        return writer.size();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.close();
+        }
+        finally {
+            index.close();
+        }
+    }
+}
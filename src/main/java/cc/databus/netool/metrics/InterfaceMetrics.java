@@ -0,0 +1,122 @@
+package cc.databus.netool.metrics;
+
+import cc.databus.netool.source.PacketSource;
+import org.pcap4j.core.PcapStat;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one capturing interface. {@link #record(int)} is called by the capture thread for every
+ * packet, everything else by {@link MetricsReporter} once per interval.
+ */
+public class InterfaceMetrics implements InterfaceMetricsMXBean {
+
+    private final String interfaceName;
+    private final PacketSource source;
+
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    private volatile double packetsPerSecond = 0;
+    private volatile double bytesPerSecond = 0;
+    private volatile long received = 0;
+    private volatile long dropped = 0;
+    private volatile long interfaceDropped = 0;
+
+    public InterfaceMetrics(String interfaceName, PacketSource source) {
+        this.interfaceName = interfaceName;
+        this.source = source;
+    }
+
+    public void record(int length) {
+        packets.increment();
+        bytes.add(length);
+    }
+
+    /**
+     * Count a packet captured but not kept by sampling. It was counted by {@link #record(int)} already.
+     */
+    public void recordSampledOut() {
+        sampledOut.increment();
+    }
+
+    /**
+     * Count a packet dropped as a copy of one captured before. It was counted by {@link #record(int)} already.
+     */
+    public void recordDuplicate() {
+        duplicates.increment();
+    }
+
+    @Override
+    public String getInterfaceName() {
+        return interfaceName;
+    }
+
+    @Override
+    public long getPackets() {
+        return packets.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getSampledOut() {
+        return sampledOut.sum();
+    }
+
+    @Override
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    @Override
+    public double getPacketsPerSecond() {
+        return packetsPerSecond;
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    @Override
+    public long getReceived() {
+        return received;
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public long getInterfaceDropped() {
+        return interfaceDropped;
+    }
+
+    void updateRates(double packetsPerSecond, double bytesPerSecond) {
+        this.packetsPerSecond = packetsPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Read the kernel counters of the source.
+     *
+     * @return false if the source has none
+     */
+    boolean updateStats() {
+        PcapStat stat = source.getStats();
+        if (stat == null) {
+            return false;
+        }
+        received = stat.getNumPacketsReceived();
+        dropped = stat.getNumPacketsDropped();
+        interfaceDropped = stat.getNumPacketsDroppedByIf();
+        return true;
+    }
+}
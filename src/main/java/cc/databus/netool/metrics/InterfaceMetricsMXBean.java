@@ -0,0 +1,48 @@
+package cc.databus.netool.metrics;
+
+/**
+ * JMX view of one capturing interface, registered as {@code cc.databus.netool:type=Interface,name=<interface>}.
+ */
+public interface InterfaceMetricsMXBean {
+
+    String getInterfaceName();
+
+    long getPackets();
+
+    long getBytes();
+
+    /**
+     * @return packets captured but left out by sampling, included in {@link #getPackets()}
+     */
+    long getSampledOut();
+
+    /**
+     * @return packets captured but dropped as duplicates, included in {@link #getPackets()}
+     */
+    long getDuplicates();
+
+    /**
+     * @return packets per second over the last metrics interval
+     */
+    double getPacketsPerSecond();
+
+    /**
+     * @return bytes per second over the last metrics interval
+     */
+    double getBytesPerSecond();
+
+    /**
+     * @return packets received by the kernel filter, as of the last sample
+     */
+    long getReceived();
+
+    /**
+     * @return packets the kernel dropped for lack of buffer space, as of the last sample
+     */
+    long getDropped();
+
+    /**
+     * @return packets the interface or its driver dropped, as of the last sample
+     */
+    long getInterfaceDropped();
+}
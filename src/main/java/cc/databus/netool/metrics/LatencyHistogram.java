@@ -0,0 +1,87 @@
+package cc.databus.netool.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of nanosecond latencies in power of two buckets.
+ *
+ * Recording is a bucket index computation and one {@link LongAdder} increment, so it can stay on the
+ * write path. Percentiles are therefore exact to within a factor of two, which is enough to tell a
+ * slow disk from a fast one.
+ */
+public class LatencyHistogram {
+
+    /**
+     * bucket i holds values in [2^(i-1), 2^i), bucket 0 holds 0
+     */
+    public static final int BUCKETS = 64;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+        max.accumulate(nanos);
+    }
+
+    /**
+     * Copy the current counts into {@code into}, which must have {@link #BUCKETS} elements.
+     */
+    public void snapshot(long[] into) {
+        for (int i = 0; i < BUCKETS; i++) {
+            into[i] = counts[i].sum();
+        }
+    }
+
+    /**
+     * @return the largest value recorded so far
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param counts bucket counts, eg: a {@link #snapshot(long[]) snapshot}
+     * @param max    the largest value seen, bucket bounds above it are shown as it
+     * @return p50, p90 and p99 as bucket bounds and the maximum, in milliseconds
+     */
+    public static String formatPercentiles(long[] counts, long max) {
+        return String.format("p50 <= %.3f ms, p90 <= %.3f ms, p99 <= %.3f ms, max %.3f ms",
+                Math.min(max, percentile(counts, 50)) / 1e6, Math.min(max, percentile(counts, 90)) / 1e6,
+                Math.min(max, percentile(counts, 99)) / 1e6, max / 1e6);
+    }
+
+    /**
+     * @param counts     bucket counts, eg: the difference of two {@link #snapshot(long[]) snapshots}
+     * @param percentile in (0, 100]
+     * @return upper bound of the bucket holding the percentile, 0 if nothing was counted
+     */
+    public static long percentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,278 @@
+package cc.databus.netool.metrics;
+
+import cc.databus.netool.utils.PacketRingBuffer;
+import cc.databus.netool.utils.PacketWriter;
+import cc.databus.netool.utils.SystemOutHelper;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the interface and writer counters once per interval and emits them as JSON lines, one per
+ * interface plus one for the writer, eg:
+ * <pre>
+ * {"ts":1700000000000,"type":"interface","interface":"eth0","packets":1200,"bytes":960000,"sampled_out":0,"pps":1000.0,"bps":800000.0,"received":1210,"dropped":10,"ifdropped":0}
+ * {"ts":1700000000000,"type":"writer","queue_depth":3,"queue_capacity":65536,"queue_dropped":0,"written":1200,"failed":0,"write_latency_ns":{"p50":1023,"p90":2047,"p99":8191,"max":40211}}
+ * </pre>
+ * Rates and latency percentiles cover the last interval only. The same figures can be exposed through
+ * JMX and served by a local HTTP endpoint.
+ */
+public class MetricsReporter implements Closeable {
+
+    private final List<InterfaceMetrics> interfaces;
+    private final PacketRingBuffer ringBuffer;
+    private final PacketWriter writer;
+    private final PrintStream out;
+    private final WriterMetrics writerMetrics = new WriterMetrics();
+
+    private final long[] previousPackets;
+    private final long[] previousBytes;
+    private final long[] previousLatency = new long[LatencyHistogram.BUCKETS];
+    private final long[] latency = new long[LatencyHistogram.BUCKETS];
+    private long previousSampleNanos = System.nanoTime();
+
+    private final List<ObjectName> registeredBeans = new ArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private HttpServer httpServer;
+    private volatile String lastReport = "";
+
+    /**
+     * @param out where to print the JSON lines, or null to only keep them for JMX and HTTP
+     */
+    public MetricsReporter(List<InterfaceMetrics> interfaces, PacketRingBuffer ringBuffer, PacketWriter writer, PrintStream out) {
+        this.interfaces = new ArrayList<>(interfaces);
+        this.ringBuffer = ringBuffer;
+        this.writer = writer;
+        this.out = out;
+        this.previousPackets = new long[interfaces.size()];
+        this.previousBytes = new long[interfaces.size()];
+    }
+
+    public void start(long intervalSeconds) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "netools-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::reportSafely, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Register one MXBean per interface and one for the writer with the platform MBean server.
+     */
+    public void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (InterfaceMetrics metrics : interfaces) {
+                ObjectName name = new ObjectName("cc.databus.netool:type=Interface,name=" + ObjectName.quote(metrics.getInterfaceName()));
+                server.registerMBean(metrics, name);
+                registeredBeans.add(name);
+            }
+            ObjectName name = new ObjectName("cc.databus.netool:type=Writer");
+            server.registerMBean(writerMetrics, name);
+            registeredBeans.add(name);
+        }
+        catch (JMException e) {
+            throw new IllegalStateException("Cannot register metrics MBeans - " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Serve the last report on {@code http://127.0.0.1:<port>/metrics}.
+     */
+    public void startHttpServer(int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext("/metrics", exchange -> {
+            byte[] body = lastReport.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        httpServer.start();
+        SystemOutHelper.println(String.format("Serving metrics on http://%s:%d/metrics",
+                httpServer.getAddress().getHostString(), httpServer.getAddress().getPort()));
+    }
+
+    /**
+     * Stop sampling, emit a last report and unregister everything.
+     */
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        report();
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registeredBeans) {
+            try {
+                server.unregisterMBean(name);
+            }
+            catch (JMException ignore) {
+            }
+        }
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    public synchronized void report() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - previousSampleNanos) / 1e9);
+        previousSampleNanos = now;
+        long timestamp = System.currentTimeMillis();
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < interfaces.size(); i++) {
+            InterfaceMetrics metrics = interfaces.get(i);
+            long packets = metrics.getPackets();
+            long bytes = metrics.getBytes();
+            metrics.updateRates((packets - previousPackets[i]) / seconds, (bytes - previousBytes[i]) / seconds);
+            previousPackets[i] = packets;
+            previousBytes[i] = bytes;
+            boolean hasStats = metrics.updateStats();
+
+            sb.append("{\"ts\":").append(timestamp)
+                    .append(",\"type\":\"interface\",\"interface\":\"").append(escape(metrics.getInterfaceName()))
+                    .append("\",\"packets\":").append(packets)
+                    .append(",\"bytes\":").append(bytes)
+                    .append(",\"sampled_out\":").append(metrics.getSampledOut())
+                    .append(",\"duplicates\":").append(metrics.getDuplicates())
+                    .append(",\"pps\":").append(round(metrics.getPacketsPerSecond()))
+                    .append(",\"bps\":").append(round(metrics.getBytesPerSecond()));
+            if (hasStats) {
+                sb.append(",\"received\":").append(metrics.getReceived())
+                        .append(",\"dropped\":").append(metrics.getDropped())
+                        .append(",\"ifdropped\":").append(metrics.getInterfaceDropped());
+            }
+            sb.append("}\n");
+        }
+
+        writer.getWriteLatency().snapshot(latency);
+        long[] interval = new long[LatencyHistogram.BUCKETS];
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            interval[i] = latency[i] - previousLatency[i];
+            previousLatency[i] = latency[i];
+        }
+        writerMetrics.update(LatencyHistogram.percentile(interval, 50), LatencyHistogram.percentile(interval, 90),
+                LatencyHistogram.percentile(interval, 99));
+        sb.append("{\"ts\":").append(timestamp)
+                .append(",\"type\":\"writer\",\"queue_depth\":").append(ringBuffer.size())
+                .append(",\"queue_capacity\":").append(ringBuffer.capacity())
+                .append(",\"queue_dropped\":").append(ringBuffer.getDroppedCount())
+                .append(",\"written\":").append(writer.getWrittenCount())
+                .append(",\"failed\":").append(writer.getFailedCount())
+                .append(",\"write_latency_ns\":{\"p50\":").append(writerMetrics.getWriteLatencyP50Nanos())
+                .append(",\"p90\":").append(writerMetrics.getWriteLatencyP90Nanos())
+                .append(",\"p99\":").append(writerMetrics.getWriteLatencyP99Nanos())
+                .append(",\"max\":").append(writerMetrics.getWriteLatencyMaxNanos())
+                .append("}}\n");
+
+        lastReport = sb.toString();
+        if (out != null) {
+            out.print(lastReport);
+            out.flush();
+        }
+    }
+
+    private void reportSafely() {
+        try {
+            report();
+        }
+        catch (RuntimeException e) {
+            // an exception would cancel all further reports
+            SystemOutHelper.println(String.format("Metrics report failed - %s:%s", e.getClass().getCanonicalName(), e.getMessage()));
+        }
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private class WriterMetrics implements WriterMetricsMXBean {
+
+        private volatile long p50 = 0;
+        private volatile long p90 = 0;
+        private volatile long p99 = 0;
+
+        private void update(long p50, long p90, long p99) {
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return ringBuffer.size();
+        }
+
+        @Override
+        public int getQueueCapacity() {
+            return ringBuffer.capacity();
+        }
+
+        @Override
+        public long getQueueDropped() {
+            return ringBuffer.getDroppedCount();
+        }
+
+        @Override
+        public long getWritten() {
+            return writer.getWrittenCount();
+        }
+
+        @Override
+        public long getFailed() {
+            return writer.getFailedCount();
+        }
+
+        @Override
+        public long getWriteLatencyP50Nanos() {
+            return p50;
+        }
+
+        @Override
+        public long getWriteLatencyP90Nanos() {
+            return p90;
+        }
+
+        @Override
+        public long getWriteLatencyP99Nanos() {
+            return p99;
+        }
+
+        @Override
+        public long getWriteLatencyMaxNanos() {
+            return writer.getWriteLatency().getMax();
+        }
+    }
+}
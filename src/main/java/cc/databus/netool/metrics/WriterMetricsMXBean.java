@@ -0,0 +1,37 @@
+package cc.databus.netool.metrics;
+
+/**
+ * JMX view of the writer queue and the writer thread, registered as {@code cc.databus.netool:type=Writer}.
+ */
+public interface WriterMetricsMXBean {
+
+    int getQueueDepth();
+
+    int getQueueCapacity();
+
+    long getQueueDropped();
+
+    long getWritten();
+
+    long getFailed();
+
+    /**
+     * @return median time of writing one packet over the last metrics interval, as a power of two bucket bound
+     */
+    long getWriteLatencyP50Nanos();
+
+    /**
+     * @return 90th percentile of writing one packet over the last metrics interval, as a power of two bucket bound
+     */
+    long getWriteLatencyP90Nanos();
+
+    /**
+     * @return 99th percentile of writing one packet over the last metrics interval, as a power of two bucket bound
+     */
+    long getWriteLatencyP99Nanos();
+
+    /**
+     * @return longest time of writing one packet since the start
+     */
+    long getWriteLatencyMaxNanos();
+}
@@ -0,0 +1,304 @@
+package cc.databus.netool.packet;
+
+import java.util.TimeZone;
+
+/**
+ * Formats one line per packet in the manner of tcpdump, eg:
+ * <pre>
+ * 12:34:56.789012 IP 10.0.0.1.443 > 10.0.0.2.51234: Flags [P.], length 517
+ * 12:34:56.789100 IP6 fe80::1.53 > fe80::2.40000: UDP, length 64
+ * </pre>
+ *
+ * The line is written as ASCII into a buffer owned by the formatter, straight from a {@link PacketView},
+ * so no strings and no {@link org.pcap4j.packet.Packet} are built. The buffer is overwritten by the next call.
+ */
+public final class PacketSummaryFormatter {
+
+    /**
+     * long enough for two full IPv6 addresses with ports and every field
+     */
+    private static final int MAX_LINE_LENGTH = 256;
+    /**
+     * the local time offset is looked up again when the timestamp leaves the quarter hour it was looked up in
+     */
+    private static final long OFFSET_PERIOD_MILLIS = 15 * 60 * 1000L;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+
+    private final byte[] line = new byte[MAX_LINE_LENGTH];
+    private final boolean nanos;
+    private final TimeZone timeZone;
+
+    private long offsetPeriod = Long.MIN_VALUE;
+    private long offsetMillis;
+    private int position;
+
+    /**
+     * @param nanos print nanoseconds instead of microseconds
+     */
+    public PacketSummaryFormatter(boolean nanos) {
+        this.nanos = nanos;
+        this.timeZone = TimeZone.getDefault();
+    }
+
+    /**
+     * @return the line written by the last {@link #format(PacketView, int, long, int)}
+     */
+    public byte[] line() {
+        return line;
+    }
+
+    /**
+     * Format the packet wrapped by {@code view} into {@link #line()}, terminated by a newline.
+     *
+     * @param sampleRate noted at the end of the line if the packet was kept as 1 of more
+     * @return length of the line
+     */
+    public int format(PacketView view, int originalLength, long timestampNanos, int sampleRate) {
+        position = 0;
+        appendTime(timestampNanos);
+        append(' ');
+        if (view.isIp()) {
+            appendIp(view);
+        }
+        else if (view.etherType() == PacketView.ETHERTYPE_ARP) {
+            append("ARP, length ");
+            append(originalLength);
+        }
+        else if (view.etherType() >= 0) {
+            append("ethertype 0x");
+            appendHex(view.etherType(), 4);
+            append(", length ");
+            append(originalLength);
+        }
+        else {
+            append("unknown link, length ");
+            append(originalLength);
+        }
+        if (sampleRate > 1) {
+            append(", sampled 1/");
+            append(sampleRate);
+        }
+        append('\n');
+        return position;
+    }
+
+    private void appendIp(PacketView view) {
+        append(view.ipVersion() == 4 ? "IP " : "IP6 ");
+        appendAddress(view.ipVersion(), view.sourceHigh(), view.sourceLow());
+        boolean ports = view.hasTransport()
+                && (view.ipProtocol() == PacketView.PROTO_TCP || view.ipProtocol() == PacketView.PROTO_UDP);
+        if (ports) {
+            append('.');
+            append(view.sourcePort());
+        }
+        append(" > ");
+        appendAddress(view.ipVersion(), view.destinationHigh(), view.destinationLow());
+        if (ports) {
+            append('.');
+            append(view.destinationPort());
+        }
+        append(": ");
+
+        int protocol = view.ipProtocol();
+        if (!view.hasTransport()) {
+            // a later fragment, or a header cut by the snap length
+            appendProtocol(protocol);
+            append(view.isFragment() ? " fragment, length " : ", length ");
+            append(view.payloadLength());
+            return;
+        }
+        switch (protocol) {
+            case PacketView.PROTO_TCP:
+                append("Flags [");
+                appendTcpFlags(view.tcpFlags());
+                append("], length ");
+                break;
+            case PacketView.PROTO_UDP:
+                append("UDP, length ");
+                break;
+            case PacketView.PROTO_ICMP:
+            case PacketView.PROTO_ICMPV6:
+                append(protocol == PacketView.PROTO_ICMP ? "ICMP type " : "ICMP6 type ");
+                append(view.sourcePort());
+                append(" code ");
+                append(view.destinationPort());
+                append(", length ");
+                break;
+            default:
+                appendProtocol(protocol);
+                append(", length ");
+                break;
+        }
+        append(view.payloadLength());
+    }
+
+    private void appendProtocol(int protocol) {
+        switch (protocol) {
+            case PacketView.PROTO_TCP:
+                append("TCP");
+                break;
+            case PacketView.PROTO_UDP:
+                append("UDP");
+                break;
+            case PacketView.PROTO_ICMP:
+                append("ICMP");
+                break;
+            case PacketView.PROTO_ICMPV6:
+                append("ICMP6");
+                break;
+            default:
+                append("ip-proto-");
+                append(protocol);
+                break;
+        }
+    }
+
+    /**
+     * Flag letters as tcpdump prints them, "." standing for ACK.
+     */
+    private void appendTcpFlags(int flags) {
+        if ((flags & 0x1ff) == 0) {
+            append("none");
+            return;
+        }
+        if ((flags & PacketView.TCP_SYN) != 0) {
+            append('S');
+        }
+        if ((flags & PacketView.TCP_FIN) != 0) {
+            append('F');
+        }
+        if ((flags & PacketView.TCP_RST) != 0) {
+            append('R');
+        }
+        if ((flags & PacketView.TCP_PSH) != 0) {
+            append('P');
+        }
+        if ((flags & PacketView.TCP_URG) != 0) {
+            append('U');
+        }
+        if ((flags & 0x40) != 0) {
+            append('E');
+        }
+        if ((flags & 0x80) != 0) {
+            append('W');
+        }
+        if ((flags & PacketView.TCP_ACK) != 0) {
+            append('.');
+        }
+    }
+
+    private void appendTime(long timestampNanos) {
+        long millis = Math.floorDiv(timestampNanos, 1000000L);
+        long period = Math.floorDiv(millis, OFFSET_PERIOD_MILLIS);
+        if (period != offsetPeriod) {
+            offsetPeriod = period;
+            offsetMillis = timeZone.getOffset(millis);
+        }
+        long local = Math.floorDiv(timestampNanos + offsetMillis * 1000000L, 1000000000L);
+        long secondOfDay = Math.floorMod(local, 86400L);
+        appendPadded(secondOfDay / 3600, 2);
+        append(':');
+        appendPadded(secondOfDay / 60 % 60, 2);
+        append(':');
+        appendPadded(secondOfDay % 60, 2);
+        append('.');
+        long fraction = Math.floorMod(timestampNanos, 1000000000L);
+        if (nanos) {
+            appendPadded(fraction, 9);
+        }
+        else {
+            appendPadded(fraction / 1000, 6);
+        }
+    }
+
+    private void appendAddress(int version, long high, long low) {
+        if (version == 4) {
+            append((int) (low >>> 24) & 0xff);
+            append('.');
+            append((int) (low >>> 16) & 0xff);
+            append('.');
+            append((int) (low >>> 8) & 0xff);
+            append('.');
+            append((int) low & 0xff);
+            return;
+        }
+
+        // RFC 5952: the longest run of two or more zero groups, the first one on a tie, becomes "::"
+        int runStart = -1;
+        int runLength = 1;
+        int start = -1;
+        for (int i = 0; i <= 8; i++) {
+            if (i < 8 && group(high, low, i) == 0) {
+                if (start < 0) {
+                    start = i;
+                }
+            }
+            else if (start >= 0) {
+                if (i - start > runLength) {
+                    runStart = start;
+                    runLength = i - start;
+                }
+                start = -1;
+            }
+        }
+        for (int i = 0; i < 8; i++) {
+            if (i == runStart) {
+                append("::");
+                i += runLength - 1;
+                continue;
+            }
+            if (i > 0 && i != runStart + runLength) {
+                append(':');
+            }
+            int group = group(high, low, i);
+            appendHex(group, group > 0xfff ? 4 : group > 0xff ? 3 : group > 0xf ? 2 : 1);
+        }
+    }
+
+    private static int group(long high, long low, int index) {
+        long half = index < 4 ? high : low;
+        return (int) (half >>> ((3 - (index & 3)) * 16)) & 0xffff;
+    }
+
+    private void appendHex(int value, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            line[position++] = HEX[(value >>> shift) & 0xf];
+        }
+    }
+
+    private void append(long value) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        appendPadded(value, digits);
+    }
+
+    /**
+     * Append the last {@code digits} decimal digits of a non-negative {@code value}, zero padded.
+     */
+    private void appendPadded(long value, int digits) {
+        for (int i = position + digits - 1; i >= position; i--) {
+            line[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position += digits;
+    }
+
+    private void append(char c) {
+        line[position++] = (byte) c;
+    }
+
+    private void append(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            line[position++] = (byte) text.charAt(i);
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package cc.databus.netool.packet;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the link, network and transport headers of a raw packet in place.
+ *
+ * A view is reused from packet to packet: {@link #wrap(ByteBuffer, int, int, int)} parses the headers and
+ * the accessors then read from the wrapped bytes. Nothing is allocated and no {@link org.pcap4j.packet.Packet}
+ * object graph is built, so it is cheap enough to run on every captured packet.
+ *
+ * Offsets returned by the accessors are relative to the start of the packet.
+ */
+public final class PacketView {
+
+    public static final int LINKTYPE_NULL = 0;
+    public static final int LINKTYPE_ETHERNET = 1;
+    public static final int LINKTYPE_RAW = 101;
+    public static final int LINKTYPE_LOOP = 108;
+    public static final int LINKTYPE_LINUX_SLL = 113;
+    public static final int LINKTYPE_LINUX_SLL2 = 276;
+    /**
+     * raw IP written with the platform DLT_RAW instead of LINKTYPE_RAW: 12 on most systems, 14 on OpenBSD
+     */
+    public static final int DLT_RAW = 12;
+    public static final int DLT_RAW_OPENBSD = 14;
+
+    public static final int ETHERTYPE_IPV4 = 0x0800;
+    public static final int ETHERTYPE_ARP = 0x0806;
+    public static final int ETHERTYPE_VLAN = 0x8100;
+    public static final int ETHERTYPE_QINQ = 0x88a8;
+    public static final int ETHERTYPE_IPV6 = 0x86dd;
+
+    public static final int PROTO_ICMP = 1;
+    public static final int PROTO_TCP = 6;
+    public static final int PROTO_UDP = 17;
+    public static final int PROTO_ICMPV6 = 58;
+
+    public static final int TCP_FIN = 0x01;
+    public static final int TCP_SYN = 0x02;
+    public static final int TCP_RST = 0x04;
+    public static final int TCP_PSH = 0x08;
+    public static final int TCP_ACK = 0x10;
+    public static final int TCP_URG = 0x20;
+
+    private static final int MAX_IPV6_EXTENSION_HEADERS = 8;
+
+    private ByteBuffer buffer;
+    private byte[] wrappedArray;
+    private int base;
+    private int length;
+
+    private int etherType;
+    private int vlanId;
+    private int networkOffset;
+    private int ipVersion;
+    private int ipProtocol;
+    private int ipHeaderLength;
+    private int ipTotalLength;
+    private int ttl;
+    private boolean fragment;
+    private long sourceHigh;
+    private long sourceLow;
+    private long destinationHigh;
+    private long destinationLow;
+    private int transportOffset;
+    private int sourcePort;
+    private int destinationPort;
+    private int tcpFlags;
+    private int payloadOffset;
+    private int payloadLength;
+
+    /**
+     * Parse a packet held in a heap array.
+     */
+    public PacketView wrap(byte[] data, int capturedLength, int linkType) {
+        if (data != wrappedArray) {
+            wrappedArray = data;
+            buffer = ByteBuffer.wrap(data);
+        }
+        return parse(buffer, 0, capturedLength, linkType);
+    }
+
+    /**
+     * Parse the {@code capturedLength} bytes starting at {@code offset} of {@code buffer}. Position and limit are ignored.
+     */
+    public PacketView wrap(ByteBuffer buffer, int offset, int capturedLength, int linkType) {
+        this.wrappedArray = null;
+        return parse(buffer, offset, capturedLength, linkType);
+    }
+
+    private PacketView parse(ByteBuffer buffer, int offset, int capturedLength, int linkType) {
+        this.buffer = buffer;
+        this.base = offset;
+        this.length = capturedLength;
+        this.etherType = -1;
+        this.vlanId = -1;
+        this.networkOffset = -1;
+        this.ipVersion = 0;
+        this.ipProtocol = -1;
+        this.ipHeaderLength = 0;
+        this.ipTotalLength = 0;
+        this.ttl = 0;
+        this.fragment = false;
+        this.sourceHigh = 0;
+        this.sourceLow = 0;
+        this.destinationHigh = 0;
+        this.destinationLow = 0;
+        this.transportOffset = -1;
+        this.sourcePort = -1;
+        this.destinationPort = -1;
+        this.tcpFlags = 0;
+        this.payloadOffset = -1;
+        this.payloadLength = 0;
+
+        parseLink(linkType);
+        if (etherType == ETHERTYPE_IPV4) {
+            parseIpv4();
+        }
+        else if (etherType == ETHERTYPE_IPV6) {
+            parseIpv6();
+        }
+        if (transportOffset >= 0) {
+            parseTransport();
+        }
+        return this;
+    }
+
+    private void parseLink(int linkType) {
+        int at;
+        switch (linkType) {
+            case LINKTYPE_ETHERNET:
+                if (length < 14) {
+                    return;
+                }
+                etherType = u16(12);
+                at = 14;
+                while ((etherType == ETHERTYPE_VLAN || etherType == ETHERTYPE_QINQ) && at + 4 <= length) {
+                    if (vlanId < 0) {
+                        vlanId = u16(at) & 0x0fff;
+                    }
+                    etherType = u16(at + 2);
+                    at += 4;
+                }
+                break;
+            case LINKTYPE_LINUX_SLL:
+                if (length < 16) {
+                    return;
+                }
+                etherType = u16(14);
+                at = 16;
+                break;
+            case LINKTYPE_LINUX_SLL2:
+                if (length < 20) {
+                    return;
+                }
+                etherType = u16(0);
+                at = 20;
+                break;
+            case LINKTYPE_NULL:
+            case LINKTYPE_LOOP:
+                if (length < 4) {
+                    return;
+                }
+                // address family, host byte order for NULL, network byte order for LOOP
+                int family = u32(0);
+                if (linkType == LINKTYPE_NULL && (family & 0xffff0000) != 0) {
+                    family = Integer.reverseBytes(family);
+                }
+                etherType = family == 2 ? ETHERTYPE_IPV4 : (family == 24 || family == 28 || family == 30 ? ETHERTYPE_IPV6 : -1);
+                at = 4;
+                break;
+            case LINKTYPE_RAW:
+            case DLT_RAW:
+            case DLT_RAW_OPENBSD:
+                if (length < 1) {
+                    return;
+                }
+                int version = u8(0) >>> 4;
+                etherType = version == 4 ? ETHERTYPE_IPV4 : (version == 6 ? ETHERTYPE_IPV6 : -1);
+                at = 0;
+                break;
+            default:
+                return;
+        }
+        networkOffset = at;
+    }
+
+    private void parseIpv4() {
+        int at = networkOffset;
+        if (at + 20 > length || (u8(at) >>> 4) != 4) {
+            return;
+        }
+        int headerLength = (u8(at) & 0x0f) * 4;
+        if (headerLength < 20 || at + headerLength > length) {
+            return;
+        }
+        ipVersion = 4;
+        ipHeaderLength = headerLength;
+        ipTotalLength = u16(at + 2);
+        ttl = u8(at + 8);
+        ipProtocol = u8(at + 9);
+        sourceLow = u32(at + 12) & 0xffffffffL;
+        destinationLow = u32(at + 16) & 0xffffffffL;
+        int flagsAndOffset = u16(at + 6);
+        fragment = (flagsAndOffset & 0x3fff) != 0;
+        if ((flagsAndOffset & 0x1fff) == 0) {
+            transportOffset = at + headerLength;
+        }
+    }
+
+    private void parseIpv6() {
+        int at = networkOffset;
+        if (at + 40 > length || (u8(at) >>> 4) != 6) {
+            return;
+        }
+        ipVersion = 6;
+        ipTotalLength = u16(at + 4) + 40;
+        ttl = u8(at + 7);
+        sourceHigh = u64(at + 8);
+        sourceLow = u64(at + 16);
+        destinationHigh = u64(at + 24);
+        destinationLow = u64(at + 32);
+
+        int next = u8(at + 6);
+        int offset = at + 40;
+        for (int i = 0; i < MAX_IPV6_EXTENSION_HEADERS; i++) {
+            if (next == 0 || next == 43 || next == 60) {
+                if (offset + 8 > length) {
+                    break;
+                }
+                int headerNext = u8(offset);
+                offset += (u8(offset + 1) + 1) * 8;
+                next = headerNext;
+            }
+            else if (next == 44) {
+                if (offset + 8 > length) {
+                    break;
+                }
+                fragment = true;
+                int headerNext = u8(offset);
+                boolean first = (u16(offset + 2) & 0xfff8) == 0;
+                offset += 8;
+                next = headerNext;
+                if (!first) {
+                    ipProtocol = next;
+                    ipHeaderLength = offset - at;
+                    return;
+                }
+            }
+            else if (next == 51) {
+                if (offset + 8 > length) {
+                    break;
+                }
+                int headerNext = u8(offset);
+                offset += (u8(offset + 1) + 2) * 4;
+                next = headerNext;
+            }
+            else {
+                break;
+            }
+        }
+        ipProtocol = next;
+        ipHeaderLength = offset - at;
+        if (offset <= length) {
+            transportOffset = offset;
+        }
+    }
+
+    private void parseTransport() {
+        int at = transportOffset;
+        // a zero IPv4 total length comes from TSO, trust the capture then
+        int ipEnd = ipTotalLength > ipHeaderLength ? networkOffset + ipTotalLength : length;
+        switch (ipProtocol) {
+            case PROTO_TCP:
+                if (at + 20 > length) {
+                    return;
+                }
+                sourcePort = u16(at);
+                destinationPort = u16(at + 2);
+                tcpFlags = u8(at + 13) | ((u8(at + 12) & 0x01) << 8);
+                int dataOffset = (u8(at + 12) >>> 4) * 4;
+                payloadOffset = Math.min(at + Math.max(dataOffset, 20), length);
+                break;
+            case PROTO_UDP:
+                if (at + 8 > length) {
+                    return;
+                }
+                sourcePort = u16(at);
+                destinationPort = u16(at + 2);
+                payloadOffset = at + 8;
+                break;
+            case PROTO_ICMP:
+            case PROTO_ICMPV6:
+                if (at + 4 > length) {
+                    return;
+                }
+                // type and code in place of the ports, as most flow tools do
+                sourcePort = u8(at);
+                destinationPort = u8(at + 1);
+                payloadOffset = Math.min(at + 8, length);
+                break;
+            default:
+                payloadOffset = at;
+                break;
+        }
+        payloadLength = Math.max(0, ipEnd - payloadOffset);
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return offset of the packet start in {@link #buffer()}
+     */
+    public int base() {
+        return base;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int etherType() {
+        return etherType;
+    }
+
+    /**
+     * @return outer VLAN id, or -1
+     */
+    public int vlanId() {
+        return vlanId;
+    }
+
+    public int networkOffset() {
+        return networkOffset;
+    }
+
+    /**
+     * @return 4, 6 or 0 if there is no valid IP header
+     */
+    public int ipVersion() {
+        return ipVersion;
+    }
+
+    public boolean isIp() {
+        return ipVersion != 0;
+    }
+
+    /**
+     * @return the upper layer protocol number, after IPv6 extension headers, or -1
+     */
+    public int ipProtocol() {
+        return ipProtocol;
+    }
+
+    public int ipHeaderLength() {
+        return ipHeaderLength;
+    }
+
+    public int ttl() {
+        return ttl;
+    }
+
+    /**
+     * @return true if the packet is any fragment, including the first one
+     */
+    public boolean isFragment() {
+        return fragment;
+    }
+
+    /**
+     * Upper 64 bits of the source address. Always 0 for IPv4.
+     */
+    public long sourceHigh() {
+        return sourceHigh;
+    }
+
+    /**
+     * Lower 64 bits of the source address. The IPv4 address itself for IPv4.
+     */
+    public long sourceLow() {
+        return sourceLow;
+    }
+
+    public long destinationHigh() {
+        return destinationHigh;
+    }
+
+    public long destinationLow() {
+        return destinationLow;
+    }
+
+    public boolean hasTransport() {
+        return sourcePort >= 0;
+    }
+
+    public int transportOffset() {
+        return transportOffset;
+    }
+
+    /**
+     * @return source port, ICMP type for ICMP, or -1
+     */
+    public int sourcePort() {
+        return sourcePort;
+    }
+
+    /**
+     * @return destination port, ICMP code for ICMP, or -1
+     */
+    public int destinationPort() {
+        return destinationPort;
+    }
+
+    /**
+     * @return TCP flags including NS in bit 8, or 0
+     */
+    public int tcpFlags() {
+        return tcpFlags;
+    }
+
+    public long tcpSequence() {
+        return u32(transportOffset + 4) & 0xffffffffL;
+    }
+
+    public long tcpAcknowledgement() {
+        return u32(transportOffset + 8) & 0xffffffffL;
+    }
+
+    public int tcpWindow() {
+        return u16(transportOffset + 14);
+    }
+
+    /**
+     * @return offset of the transport payload, or -1
+     */
+    public int payloadOffset() {
+        return payloadOffset;
+    }
+
+    /**
+     * @return payload length according to the IP header, may exceed the captured bytes
+     */
+    public int payloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * @return payload bytes actually present in the capture
+     */
+    public int capturedPayloadLength() {
+        return payloadOffset < 0 ? 0 : Math.max(0, Math.min(payloadLength, length - payloadOffset));
+    }
+
+    /**
+     * Hash of protocol, addresses and ports that is the same for both directions of a flow, 0 if there is no
+     * valid IP header. Only TCP and UDP ports count, the ICMP type differs between request and reply.
+     */
+    public long flowHash() {
+        if (ipVersion == 0) {
+            return 0;
+        }
+        return flowHash(ipProtocol, sourceHigh, sourceLow, sourcePort, destinationHigh, destinationLow, destinationPort);
+    }
+
+    /**
+     * {@link #flowHash()} of a flow given by its fields, addresses split as by {@link #sourceHigh()} and
+     * {@link #sourceLow()}.
+     */
+    public static long flowHash(int protocol, long sourceHigh, long sourceLow, int sourcePort,
+                                long destinationHigh, long destinationLow, int destinationPort) {
+        boolean hasPorts = protocol == PROTO_TCP || protocol == PROTO_UDP;
+        long ports = hasPorts ? Math.max(0, sourcePort) : 0;
+        long otherPorts = hasPorts ? Math.max(0, destinationPort) : 0;
+        long forward = mix(mix(sourceHigh) ^ sourceLow ^ (ports << 48));
+        long backward = mix(mix(destinationHigh) ^ destinationLow ^ (otherPorts << 48));
+        return mix(forward + backward + protocol);
+    }
+
+    /**
+     * @return the address split as by {@link #sourceHigh()} and {@link #sourceLow()} as text, dotted for IPv4
+     */
+    public static String addressToString(int ipVersion, long high, long low) {
+        if (ipVersion != 6) {
+            int address = (int) low;
+            return (address >>> 24) + "." + ((address >>> 16) & 0xff) + "." + ((address >>> 8) & 0xff) + "." + (address & 0xff);
+        }
+        byte[] address = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            address[i] = (byte) (high >>> (56 - i * 8));
+            address[i + 8] = (byte) (low >>> (56 - i * 8));
+        }
+        try {
+            return InetAddress.getByAddress(address).getHostAddress();
+        }
+        catch (UnknownHostException e) {
+            // only thrown for addresses of illegal length
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return address and port, an IPv6 address in brackets
+     */
+    public static String endpointToString(int ipVersion, long high, long low, int port) {
+        String address = addressToString(ipVersion, high, low);
+        return ipVersion == 6 ? "[" + address + "]:" + port : address + ":" + port;
+    }
+
+    private static long mix(long v) {
+        v ^= v >>> 33;
+        v *= 0xff51afd7ed558ccdL;
+        v ^= v >>> 33;
+        v *= 0xc4ceb9fe1a85ec53L;
+        v ^= v >>> 33;
+        return v;
+    }
+
+    public int u8(int offset) {
+        return buffer.get(base + offset) & 0xff;
+    }
+
+    public int u16(int offset) {
+        int at = base + offset;
+        return ((buffer.get(at) & 0xff) << 8) | (buffer.get(at + 1) & 0xff);
+    }
+
+    public int u32(int offset) {
+        int at = base + offset;
+        return ((buffer.get(at) & 0xff) << 24) | ((buffer.get(at + 1) & 0xff) << 16)
+                | ((buffer.get(at + 2) & 0xff) << 8) | (buffer.get(at + 3) & 0xff);
+    }
+
+    public long u64(int offset) {
+        return ((u32(offset) & 0xffffffffL) << 32) | (u32(offset + 4) & 0xffffffffL);
+    }
+}
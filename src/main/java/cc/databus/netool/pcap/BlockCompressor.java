@@ -0,0 +1,176 @@
+package cc.databus.netool.pcap;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Worker threads gzipping the blocks of capture files while they are written, as pigz does, shared by all
+ * files of a capture.
+ *
+ * Each block becomes a gzip member of its own, and a gzip file may hold any number of members one after the
+ * other, so the blocks are compressed independently on any thread and the output is still a plain gzip file:
+ * gunzip, zcat and wireshark read it as the capture file it holds. The writer thread hands a full block over
+ * and goes on filling the next one, it only waits when every block it may have in flight is still being
+ * compressed. The capture threads never wait for it, they only ever hand packets to the writer thread.
+ */
+public class BlockCompressor implements Closeable {
+
+    public static final String SUFFIX = ".gz";
+
+    /**
+     * blocks in flight per file and thread, one being compressed and one waiting
+     */
+    static final int BLOCKS_PER_THREAD = 2;
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+    private static final int HEADER_LENGTH = 10;
+    private static final int TRAILER_LENGTH = 8;
+
+    private final int threads;
+    private final int level;
+    private final ExecutorService workers;
+    private final ThreadLocal<Deflater> deflaters;
+
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    /**
+     * @param threads worker threads
+     * @param level   deflate level, 1 the fastest to 9 the smallest
+     */
+    public BlockCompressor(int threads, int level) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Compression threads must be positive, but was " + threads);
+        }
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between 1 and 9, but was " + level);
+        }
+        this.threads = threads;
+        this.level = level;
+        AtomicInteger next = new AtomicInteger(0);
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "netools-gzip-" + next.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // raw deflate, the gzip header and trailer are written around it
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return bytes handed over for compression so far
+     */
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    /**
+     * @return gzip bytes produced so far
+     */
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * Stop the workers, the files must have been closed.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Compress the data of {@code block} into its gzip member on a worker thread.
+     */
+    Future<?> submit(Block block) {
+        return workers.submit(() -> compress(block));
+    }
+
+    private void compress(Block block) {
+        byte[] data = block.data.array();
+        int length = block.data.position();
+
+        // the bound of zlib's compressBound, deflate never grows data by more
+        int bound = HEADER_LENGTH + length + (length >>> 12) + (length >>> 14) + (length >>> 25) + 13 + TRAILER_LENGTH;
+        if (block.member == null || block.member.length < bound) {
+            block.member = new byte[bound];
+        }
+        byte[] member = block.member;
+        member[0] = 0x1f;
+        member[1] = (byte) 0x8b;
+        // deflate, no flags, no modification time
+        member[2] = 8;
+        for (int i = 3; i < 8; i++) {
+            member[i] = 0;
+        }
+        // extra flags: fastest or best, then os unknown
+        member[8] = (byte) (level == Deflater.BEST_SPEED ? 4 : level == Deflater.BEST_COMPRESSION ? 2 : 0);
+        member[9] = (byte) 0xff;
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        int at = HEADER_LENGTH;
+        while (!deflater.finished()) {
+            if (at == member.length - TRAILER_LENGTH) {
+                byte[] larger = new byte[member.length * 2];
+                System.arraycopy(member, 0, larger, 0, at);
+                member = larger;
+                block.member = larger;
+            }
+            at += deflater.deflate(member, at, member.length - TRAILER_LENGTH - at);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        putIntLittleEndian(member, at, (int) crc.getValue());
+        putIntLittleEndian(member, at + 4, length);
+        block.memberLength = at + TRAILER_LENGTH;
+
+        bytesIn.add(length);
+        bytesOut.add(block.memberLength);
+    }
+
+    private static void putIntLittleEndian(byte[] array, int at, int value) {
+        array[at] = (byte) value;
+        array[at + 1] = (byte) (value >>> 8);
+        array[at + 2] = (byte) (value >>> 16);
+        array[at + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * One block of a file: the records put into {@link #data} by the writer thread, then the gzip member a
+     * worker made of them. Blocks are reused, so neither array is allocated again once it is large enough.
+     */
+    static final class Block {
+
+        final ByteBuffer data;
+        byte[] member;
+        int memberLength;
+        Future<?> done;
+
+        Block(int size) {
+            this.data = ChannelOutput.littleEndian(ByteBuffer.allocate(size));
+        }
+    }
+}
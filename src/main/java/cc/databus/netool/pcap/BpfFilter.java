@@ -0,0 +1,328 @@
+package cc.databus.netool.pcap;
+
+import com.sun.jna.Memory;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A BPF program compiled once by libpcap and then evaluated in java.
+ *
+ * {@link org.pcap4j.core.BpfProgram#applyFilter(byte[], int, int)} copies the packet into native memory on
+ * every call. Running the instructions here instead works on heap arrays and mapped buffers in place,
+ * which is what the offline paths need to filter millions of records per second.
+ */
+public final class BpfFilter {
+
+    private static final int BPF_LD = 0x00;
+    private static final int BPF_LDX = 0x01;
+    private static final int BPF_ST = 0x02;
+    private static final int BPF_STX = 0x03;
+    private static final int BPF_ALU = 0x04;
+    private static final int BPF_JMP = 0x05;
+    private static final int BPF_RET = 0x06;
+    private static final int BPF_MISC = 0x07;
+
+    private static final int BPF_W = 0x00;
+    private static final int BPF_H = 0x08;
+    private static final int BPF_B = 0x10;
+
+    private static final int BPF_IMM = 0x00;
+    private static final int BPF_ABS = 0x20;
+    private static final int BPF_IND = 0x40;
+    private static final int BPF_MEM = 0x60;
+    private static final int BPF_LEN = 0x80;
+    private static final int BPF_MSH = 0xa0;
+
+    private static final int BPF_ADD = 0x00;
+    private static final int BPF_SUB = 0x10;
+    private static final int BPF_MUL = 0x20;
+    private static final int BPF_DIV = 0x30;
+    private static final int BPF_OR = 0x40;
+    private static final int BPF_AND = 0x50;
+    private static final int BPF_LSH = 0x60;
+    private static final int BPF_RSH = 0x70;
+    private static final int BPF_NEG = 0x80;
+    private static final int BPF_MOD = 0x90;
+    private static final int BPF_XOR = 0xa0;
+
+    private static final int BPF_JA = 0x00;
+    private static final int BPF_JEQ = 0x10;
+    private static final int BPF_JGT = 0x20;
+    private static final int BPF_JGE = 0x30;
+    private static final int BPF_JSET = 0x40;
+
+    private static final int BPF_X = 0x08;
+    private static final int BPF_A = 0x10;
+
+    private static final int BPF_MEMWORDS = 16;
+
+    private static final int PCAP_NETMASK_UNKNOWN = 0xffffffff;
+
+    private final String expression;
+    private final int[] codes;
+    private final int[] jt;
+    private final int[] jf;
+    private final int[] k;
+
+    /**
+     * scratch memory of each thread running the program, null if it never stores; a filter may be shared
+     */
+    private final ThreadLocal<int[]> scratch;
+
+    BpfFilter(String expression, int[] codes, int[] jt, int[] jf, int[] k) {
+        this.expression = expression;
+        this.codes = codes;
+        this.jt = jt;
+        this.jf = jf;
+        this.k = k;
+        boolean stores = false;
+        for (int code : codes) {
+            stores |= (code & 0x07) == BPF_ST || (code & 0x07) == BPF_STX;
+        }
+        this.scratch = stores ? ThreadLocal.withInitial(() -> new int[BPF_MEMWORDS]) : null;
+    }
+
+    /**
+     * Compile {@code expression} for packets of the given link type with libpcap's pcap_compile.
+     *
+     * @throws IllegalArgumentException if libpcap rejects the expression
+     */
+    public static BpfFilter compile(String expression, int linkType, int snapLen) {
+        NativeLibrary pcap = NativeLibrary.getInstance(
+                System.getProperty("org.pcap4j.core.pcapLibName", Platform.isWindows() ? "wpcap" : "pcap"));
+        Pointer handle = pcap.getFunction("pcap_open_dead").invokePointer(new Object[]{linkType, snapLen});
+        if (handle == null) {
+            throw new IllegalStateException("pcap_open_dead failed.");
+        }
+        try {
+            // struct bpf_program { u_int bf_len; struct bpf_insn *bf_insns; }
+            Memory program = new Memory(2L * Native.POINTER_SIZE);
+            program.clear();
+            int rc = pcap.getFunction("pcap_compile").invokeInt(new Object[]{handle, program, expression, 1, PCAP_NETMASK_UNKNOWN});
+            if (rc != 0) {
+                String error = pcap.getFunction("pcap_geterr").invokeString(new Object[]{handle}, false);
+                throw new IllegalArgumentException(String.format("Invalid filter [%s] - %s", expression, error));
+            }
+            try {
+                int length = program.getInt(0);
+                Pointer instructions = program.getPointer(Native.POINTER_SIZE);
+                int[] codes = new int[length];
+                int[] jt = new int[length];
+                int[] jf = new int[length];
+                int[] k = new int[length];
+                // struct bpf_insn { u_short code; u_char jt; u_char jf; bpf_u_int32 k; }
+                for (int i = 0; i < length; i++) {
+                    long at = i * 8L;
+                    codes[i] = instructions.getShort(at) & 0xffff;
+                    jt[i] = instructions.getByte(at + 2) & 0xff;
+                    jf[i] = instructions.getByte(at + 3) & 0xff;
+                    k[i] = instructions.getInt(at + 4);
+                }
+                return new BpfFilter(expression, codes, jt, jf, k);
+            }
+            finally {
+                pcap.getFunction("pcap_freecode").invokeVoid(new Object[]{program});
+            }
+        }
+        finally {
+            pcap.getFunction("pcap_close").invokeVoid(new Object[]{handle});
+        }
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public boolean matches(byte[] packet, int capturedLength, int originalLength) {
+        return run(packet, null, 0, capturedLength, originalLength) != 0;
+    }
+
+    /**
+     * Evaluate the filter on the packet stored at {@code offset} in {@code buffer}, without touching position or limit.
+     */
+    public boolean matches(ByteBuffer buffer, int offset, int capturedLength, int originalLength) {
+        return run(null, buffer, offset, capturedLength, originalLength) != 0;
+    }
+
+    /**
+     * Same semantics as libpcap's bpf_filter: out of bounds loads reject the packet.
+     */
+    private int run(byte[] array, ByteBuffer buffer, int base, int buflen, int wirelen) {
+        int a = 0;
+        int x = 0;
+        int[] mem = null;
+        if (scratch != null) {
+            mem = scratch.get();
+            // what an earlier packet stored reads as 0, as in a fresh array
+            Arrays.fill(mem, 0);
+        }
+        int pc = 0;
+        while (true) {
+            int code = codes[pc];
+            int kk = k[pc];
+            switch (code & 0x07) {
+                case BPF_RET:
+                    return (code & 0x18) == BPF_A ? a : ((code & 0x18) == BPF_X ? x : kk);
+
+                case BPF_LD:
+                case BPF_LDX: {
+                    boolean toX = (code & 0x07) == BPF_LDX;
+                    int mode = code & 0xe0;
+                    int value;
+                    if (mode == BPF_IMM) {
+                        value = kk;
+                    }
+                    else if (mode == BPF_LEN) {
+                        value = wirelen;
+                    }
+                    else if (mode == BPF_MEM) {
+                        value = mem == null ? 0 : mem[kk];
+                    }
+                    else if (mode == BPF_MSH) {
+                        if (kk < 0 || kk >= buflen) {
+                            return 0;
+                        }
+                        value = (byteAt(array, buffer, base + kk) & 0x0f) << 2;
+                    }
+                    else {
+                        long at = (mode == BPF_IND ? (x & 0xffffffffL) : 0L) + (kk & 0xffffffffL);
+                        int size = code & 0x18;
+                        int width = size == BPF_W ? 4 : (size == BPF_H ? 2 : 1);
+                        if (at + width > buflen) {
+                            return 0;
+                        }
+                        int i = base + (int) at;
+                        if (width == 4) {
+                            value = (byteAt(array, buffer, i) << 24) | (byteAt(array, buffer, i + 1) << 16)
+                                    | (byteAt(array, buffer, i + 2) << 8) | byteAt(array, buffer, i + 3);
+                        }
+                        else if (width == 2) {
+                            value = (byteAt(array, buffer, i) << 8) | byteAt(array, buffer, i + 1);
+                        }
+                        else {
+                            value = byteAt(array, buffer, i);
+                        }
+                    }
+                    if (toX) {
+                        x = value;
+                    }
+                    else {
+                        a = value;
+                    }
+                    pc++;
+                    break;
+                }
+
+                case BPF_ST:
+                case BPF_STX:
+                    mem[kk] = (code & 0x07) == BPF_ST ? a : x;
+                    pc++;
+                    break;
+
+                case BPF_JMP: {
+                    int op = code & 0xf0;
+                    if (op == BPF_JA) {
+                        pc += 1 + kk;
+                        break;
+                    }
+                    int operand = (code & BPF_X) != 0 ? x : kk;
+                    boolean taken;
+                    if (op == BPF_JEQ) {
+                        taken = a == operand;
+                    }
+                    else if (op == BPF_JGT) {
+                        taken = Integer.compareUnsigned(a, operand) > 0;
+                    }
+                    else if (op == BPF_JGE) {
+                        taken = Integer.compareUnsigned(a, operand) >= 0;
+                    }
+                    else if (op == BPF_JSET) {
+                        taken = (a & operand) != 0;
+                    }
+                    else {
+                        return 0;
+                    }
+                    pc += 1 + (taken ? jt[pc] : jf[pc]);
+                    break;
+                }
+
+                case BPF_ALU: {
+                    int op = code & 0xf0;
+                    int operand = (code & BPF_X) != 0 ? x : kk;
+                    switch (op) {
+                        case BPF_ADD:
+                            a += operand;
+                            break;
+                        case BPF_SUB:
+                            a -= operand;
+                            break;
+                        case BPF_MUL:
+                            a *= operand;
+                            break;
+                        case BPF_DIV:
+                            if (operand == 0) {
+                                return 0;
+                            }
+                            a = Integer.divideUnsigned(a, operand);
+                            break;
+                        case BPF_MOD:
+                            if (operand == 0) {
+                                return 0;
+                            }
+                            a = Integer.remainderUnsigned(a, operand);
+                            break;
+                        case BPF_AND:
+                            a &= operand;
+                            break;
+                        case BPF_OR:
+                            a |= operand;
+                            break;
+                        case BPF_XOR:
+                            a ^= operand;
+                            break;
+                        case BPF_LSH:
+                            a = operand >= 32 || operand < 0 ? 0 : a << operand;
+                            break;
+                        case BPF_RSH:
+                            a = operand >= 32 || operand < 0 ? 0 : a >>> operand;
+                            break;
+                        case BPF_NEG:
+                            a = -a;
+                            break;
+                        default:
+                            return 0;
+                    }
+                    pc++;
+                    break;
+                }
+
+                case BPF_MISC:
+                    if ((code & 0xf8) == 0) {
+                        x = a;
+                    }
+                    else {
+                        a = x;
+                    }
+                    pc++;
+                    break;
+
+                default:
+                    return 0;
+            }
+        }
+    }
+
+    private static int byteAt(byte[] array, ByteBuffer buffer, int index) {
+        return (array != null ? array[index] : buffer.get(index)) & 0xff;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
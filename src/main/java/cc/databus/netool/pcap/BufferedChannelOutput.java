@@ -0,0 +1,59 @@
+package cc.databus.netool.pcap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Accumulates records in one large direct buffer and hands it to the channel in a single write when full.
+ */
+class BufferedChannelOutput extends ChannelOutput {
+
+    private long flushed = 0;
+
+    BufferedChannelOutput(FileChannel channel, int bufferSize) {
+        super(channel);
+        this.buffer = littleEndian(ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    @Override
+    boolean reserve(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        flush();
+        return buffer.remaining() >= bytes;
+    }
+
+    @Override
+    void writeThrough(ByteBuffer data) throws IOException {
+        flush();
+        while (data.hasRemaining()) {
+            flushed += channel.write(data);
+        }
+    }
+
+    @Override
+    long position() {
+        return flushed + buffer.position();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushed += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        }
+        finally {
+            channel.close();
+        }
+    }
+}
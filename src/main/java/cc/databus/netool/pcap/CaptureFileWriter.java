@@ -0,0 +1,33 @@
+package cc.databus.netool.pcap;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes packet records into a capture file.
+ */
+public interface CaptureFileWriter extends Closeable, Flushable {
+
+    /**
+     * Append one record.
+     *
+     * @param data           packet bytes
+     * @param offset         offset of the first byte in {@code data}
+     * @param length         captured length
+     * @param originalLength length of the packet on the wire
+     * @param timestampNanos capture time in nanoseconds since epoch
+     */
+    void write(byte[] data, int offset, int length, int originalLength, long timestampNanos) throws IOException;
+
+    /**
+     * Append one record taking the bytes between position and limit of {@code data}. The buffer position is not changed.
+     */
+    void write(ByteBuffer data, int originalLength, long timestampNanos) throws IOException;
+
+    /**
+     * @return bytes written so far, including the file header and anything still buffered
+     */
+    long size();
+}
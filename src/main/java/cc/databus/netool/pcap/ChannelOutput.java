@@ -0,0 +1,70 @@
+package cc.databus.netool.pcap;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Output file written through a reusable {@link ByteBuffer}. Callers reserve room with {@link #reserve(int)}
+ * and then put into {@link #buffer()} directly, so a record costs no allocation and no system call.
+ */
+abstract class ChannelOutput implements Closeable, Flushable {
+
+    protected final FileChannel channel;
+    protected ByteBuffer buffer;
+
+    ChannelOutput(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * @param compressor gzips the file while it is written, null to write it as is
+     */
+    static ChannelOutput open(Path path, int bufferSize, boolean memoryMapped, BlockCompressor compressor) throws IOException {
+        if (memoryMapped && compressor != null) {
+            throw new IllegalArgumentException("A compressed file cannot be memory mapped.");
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE, StandardOpenOption.READ);
+        try {
+            if (compressor != null) {
+                return new GzipChannelOutput(channel, bufferSize, compressor);
+            }
+            return memoryMapped ? new MappedChannelOutput(channel, bufferSize) : new BufferedChannelOutput(channel, bufferSize);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Make sure {@link #buffer()} has at least {@code bytes} remaining.
+     *
+     * @return false if the request is larger than the buffer itself, see {@link #writeThrough(ByteBuffer)}
+     */
+    abstract boolean reserve(int bytes) throws IOException;
+
+    /**
+     * Write {@code data} bypassing the buffer. Only for records that do not fit into it.
+     */
+    abstract void writeThrough(ByteBuffer data) throws IOException;
+
+    /**
+     * @return bytes written so far, buffered ones included
+     */
+    abstract long position();
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    static ByteBuffer littleEndian(ByteBuffer buffer) {
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
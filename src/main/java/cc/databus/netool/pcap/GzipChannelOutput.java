@@ -0,0 +1,137 @@
+package cc.databus.netool.pcap;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Writes a gzip file of concatenated members, one per buffer of records, compressed by a {@link BlockCompressor}.
+ *
+ * A full buffer is handed to the compressor and the writer goes on with another one; the finished members are
+ * written in the order of their buffers whenever the writer comes by. A buffer is only cut when full, so a
+ * flush writes the members done so far but not the records of the current buffer, the file lags behind by up
+ * to one buffer until it is closed. Positions are those of the uncompressed data.
+ */
+class GzipChannelOutput extends ChannelOutput {
+
+    private final BlockCompressor compressor;
+    private final int blockSize;
+    private final int maxPending;
+
+    /**
+     * blocks handed to the compressor, in file order
+     */
+    private final Deque<BlockCompressor.Block> pending = new ArrayDeque<>();
+    private final Deque<BlockCompressor.Block> free = new ArrayDeque<>();
+    private BlockCompressor.Block current;
+
+    private long submitted = 0;
+
+    GzipChannelOutput(FileChannel channel, int blockSize, BlockCompressor compressor) {
+        super(channel);
+        this.compressor = compressor;
+        this.blockSize = blockSize;
+        this.maxPending = BlockCompressor.BLOCKS_PER_THREAD * compressor.getThreads();
+        this.current = new BlockCompressor.Block(blockSize);
+        this.buffer = current.data;
+    }
+
+    @Override
+    boolean reserve(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        submit();
+        return buffer.remaining() >= bytes;
+    }
+
+    @Override
+    void writeThrough(ByteBuffer data) throws IOException {
+        submit();
+        // a member of its own, the caller may reuse data once this returns
+        BlockCompressor.Block block = new BlockCompressor.Block(data.remaining());
+        block.data.put(data);
+        submit(block);
+    }
+
+    @Override
+    long position() {
+        return submitted + buffer.position();
+    }
+
+    /**
+     * Write the members compressed so far, without waiting for any.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty() && pending.peekFirst().done.isDone()) {
+            writeFirst();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            submit();
+            while (!pending.isEmpty()) {
+                writeFirst();
+            }
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Hand the current buffer to the compressor, if it holds anything, and continue with a free one.
+     */
+    private void submit() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        submit(current);
+        current = free.isEmpty() ? new BlockCompressor.Block(blockSize) : free.removeFirst();
+        current.data.clear();
+        buffer = current.data;
+    }
+
+    private void submit(BlockCompressor.Block block) throws IOException {
+        submitted += block.data.position();
+        block.done = compressor.submit(block);
+        pending.addLast(block);
+        flush();
+        // bounds the memory of a file when the workers fall behind, only the writer thread waits
+        while (pending.size() > maxPending) {
+            writeFirst();
+        }
+    }
+
+    /**
+     * Wait for the oldest pending member and write it.
+     */
+    private void writeFirst() throws IOException {
+        BlockCompressor.Block block = pending.removeFirst();
+        try {
+            block.done.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for compression");
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Compression failed - " + e.getCause(), e.getCause());
+        }
+        ByteBuffer member = ByteBuffer.wrap(block.member, 0, block.memberLength);
+        while (member.hasRemaining()) {
+            channel.write(member);
+        }
+        block.done = null;
+        if (block.data.capacity() == blockSize) {
+            free.addLast(block);
+        }
+    }
+}
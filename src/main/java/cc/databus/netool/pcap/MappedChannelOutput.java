@@ -0,0 +1,68 @@
+package cc.databus.netool.pcap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes records straight into memory mapped segments of the file, leaving the write back to the page cache.
+ * Each new segment is mapped at the current end of data, and the file is truncated to the real size on close.
+ */
+class MappedChannelOutput extends ChannelOutput {
+
+    private final int segmentSize;
+    private long segmentStart = 0;
+
+    MappedChannelOutput(FileChannel channel, int segmentSize) throws IOException {
+        super(channel);
+        this.segmentSize = segmentSize;
+        map(0);
+    }
+
+    @Override
+    boolean reserve(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        map(position());
+        return buffer.remaining() >= bytes;
+    }
+
+    @Override
+    void writeThrough(ByteBuffer data) throws IOException {
+        long at = position();
+        while (data.hasRemaining()) {
+            at += channel.write(data, at);
+        }
+        map(at);
+    }
+
+    @Override
+    long position() {
+        return segmentStart + buffer.position();
+    }
+
+    @Override
+    public void flush() {
+        // mapped pages are already visible to other readers of the file
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            long size = position();
+            ((MappedByteBuffer) buffer).force();
+            buffer = null;
+            channel.truncate(size);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    private void map(long start) throws IOException {
+        buffer = littleEndian(channel.map(FileChannel.MapMode.READ_WRITE, start, segmentSize));
+        segmentStart = start;
+    }
+}
@@ -0,0 +1,104 @@
+package cc.databus.netool.pcap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Finds record boundaries at arbitrary offsets of a pcap file, so that it can be cut into chunks
+ * processed independently.
+ *
+ * pcap has no sync markers. An offset is taken as a boundary when the record header found there and the
+ * headers of the {@link #CHAIN_LENGTH} records following it all look plausible: sane lengths, a valid
+ * sub-second field and timestamps close to each other. Callers that need exact results must still check
+ * that chunks line up, see {@code ParallelPcapAnalyzer}.
+ */
+public class PcapChunker implements Closeable {
+
+    static final int CHAIN_LENGTH = 8;
+
+    /**
+     * max distance between two consecutive timestamps of a chain
+     */
+    private static final long MAX_GAP_SECONDS = 24 * 3600;
+
+    private static final int MAX_SPAN = PcapFileReader.MAX_RECORD_LENGTH + PcapFileWriter.RECORD_HEADER_LENGTH;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final ByteOrder byteOrder;
+    private final boolean nanos;
+    private final long firstSeconds;
+
+    public PcapChunker(Path path) throws IOException {
+        try (PcapFileReader reader = new PcapFileReader(path, 0)) {
+            this.byteOrder = reader.getByteOrder();
+            this.nanos = reader.isNanos();
+            this.firstSeconds = reader.next() ? reader.timestampNanos() / 1000000000L : 0;
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * @return the first offset at or after {@code from} that looks like a record boundary, or -1 if none is found
+     * within the length of the longest possible record
+     */
+    public long findRecordBoundary(long from) throws IOException {
+        if (from <= PcapFileWriter.FILE_HEADER_LENGTH) {
+            return PcapFileWriter.FILE_HEADER_LENGTH;
+        }
+        if (from >= fileSize) {
+            return fileSize;
+        }
+        long size = Math.min((long) MAX_SPAN * (CHAIN_LENGTH + 2), fileSize - from);
+        ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, from, size).order(byteOrder);
+        int scan = (int) Math.min(MAX_SPAN, size);
+        for (int at = 0; at < scan; at++) {
+            if (isChain(window, at, from)) {
+                return from + at;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isChain(ByteBuffer window, int at, long windowStart) {
+        long previousSeconds = -1;
+        for (int i = 0; i < CHAIN_LENGTH; i++) {
+            if (windowStart + at == fileSize) {
+                return true;
+            }
+            if (at + PcapFileWriter.RECORD_HEADER_LENGTH > window.limit()) {
+                // ran out of window, or a truncated last record
+                return i > 0 || windowStart + at + PcapFileWriter.RECORD_HEADER_LENGTH > fileSize;
+            }
+            long seconds = window.getInt(at) & 0xffffffffL;
+            long fraction = window.getInt(at + 4) & 0xffffffffL;
+            int capLength = window.getInt(at + 8);
+            int origLength = window.getInt(at + 12);
+            if (fraction >= (nanos ? 1000000000L : 1000000L)
+                    || capLength < 0 || capLength > PcapFileReader.MAX_RECORD_LENGTH
+                    || origLength < capLength || origLength > PcapFileReader.MAX_RECORD_LENGTH
+                    || seconds < firstSeconds - MAX_GAP_SECONDS
+                    || (previousSeconds >= 0 && Math.abs(seconds - previousSeconds) > MAX_GAP_SECONDS)) {
+                return false;
+            }
+            previousSeconds = seconds;
+            at += PcapFileWriter.RECORD_HEADER_LENGTH + capLength;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
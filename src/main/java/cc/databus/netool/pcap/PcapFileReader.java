@@ -0,0 +1,261 @@
+package cc.databus.netool.pcap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Iterates over the records of a classic pcap file through a sliding memory mapped window.
+ *
+ * The reader is a flyweight: {@link #next()} moves it to the following record and the accessors describe
+ * that record in place, inside {@link #buffer()}. Nothing is copied or allocated per record, and memory use
+ * is bounded by the window size whatever the file size is.
+ */
+public class PcapFileReader implements Closeable {
+
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * the first record follows the file header
+     */
+    public static final long FIRST_RECORD_OFFSET = PcapFileWriter.FILE_HEADER_LENGTH;
+
+    /**
+     * largest record accepted as valid, same limit as libpcap's
+     */
+    static final int MAX_RECORD_LENGTH = 262144;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private long end;
+    private final int windowSize;
+
+    private final ByteOrder byteOrder;
+    private final boolean nanos;
+    private final int snapLen;
+    private final int linkType;
+
+    private ByteBuffer window;
+    private ByteBuffer view;
+    private long windowStart;
+
+    private long nextOffset;
+    private long recordOffset = -1;
+    private int dataOffset;
+    private int capturedLength;
+    private int originalLength;
+    private long timestampNanos;
+    private boolean truncated = false;
+
+    public PcapFileReader(Path path) throws IOException {
+        this(path, DEFAULT_WINDOW_SIZE);
+    }
+
+    public PcapFileReader(Path path, int windowSize) throws IOException {
+        this(path, windowSize, PcapFileWriter.FILE_HEADER_LENGTH, Long.MAX_VALUE);
+    }
+
+    /**
+     * Read only the records starting inside [{@code start}, {@code end}). {@code start} must be a record boundary.
+     */
+    public PcapFileReader(Path path, int windowSize, long start, long end) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.fileSize = channel.size();
+            this.end = Math.min(end, fileSize);
+            this.windowSize = (int) Math.max(windowSize, 2L * (MAX_RECORD_LENGTH + PcapFileWriter.RECORD_HEADER_LENGTH));
+
+            if (fileSize < PcapFileWriter.FILE_HEADER_LENGTH) {
+                throw new IOException(String.format("%s is too short to be a pcap file.", path));
+            }
+            ByteBuffer header = ByteBuffer.allocate(PcapFileWriter.FILE_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // keep reading
+            }
+            header.flip();
+
+            int magic = header.getInt(0);
+            if (magic == PcapFileWriter.MAGIC_MICROS || magic == PcapFileWriter.MAGIC_NANOS) {
+                byteOrder = ByteOrder.LITTLE_ENDIAN;
+            }
+            else if (Integer.reverseBytes(magic) == PcapFileWriter.MAGIC_MICROS || Integer.reverseBytes(magic) == PcapFileWriter.MAGIC_NANOS) {
+                byteOrder = ByteOrder.BIG_ENDIAN;
+                magic = Integer.reverseBytes(magic);
+                header.order(byteOrder);
+            }
+            else if (magic == PcapngFileWriter.SECTION_HEADER_BLOCK) {
+                throw new IOException(String.format("%s is a pcapng file, only pcap files can be read.", path));
+            }
+            else {
+                throw new IOException(String.format("%s is not a pcap file, unknown magic %08x.", path, magic));
+            }
+            this.nanos = magic == PcapFileWriter.MAGIC_NANOS;
+            this.snapLen = header.getInt(16);
+            this.linkType = header.getInt(20) & 0x0fffffff;
+            this.nextOffset = Math.max(start, PcapFileWriter.FILE_HEADER_LENGTH);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Move to the next record.
+     *
+     * @return false at the end of the file or range, or if the last record is cut short (see {@link #isTruncated()})
+     */
+    public boolean next() throws IOException {
+        long offset = nextOffset;
+        if (offset >= end) {
+            return false;
+        }
+        if (offset + PcapFileWriter.RECORD_HEADER_LENGTH > fileSize) {
+            truncated = true;
+            return false;
+        }
+        ensureMapped(offset, PcapFileWriter.RECORD_HEADER_LENGTH);
+
+        int at = (int) (offset - windowStart);
+        int seconds = window.getInt(at);
+        int fraction = window.getInt(at + 4);
+        int capLength = window.getInt(at + 8);
+        int origLength = window.getInt(at + 12);
+        if (capLength < 0 || capLength > MAX_RECORD_LENGTH) {
+            throw new IOException(String.format("Corrupted record at offset %d, captured length %d.", offset, capLength));
+        }
+        if (offset + PcapFileWriter.RECORD_HEADER_LENGTH + capLength > fileSize) {
+            truncated = true;
+            return false;
+        }
+        if (ensureMapped(offset, PcapFileWriter.RECORD_HEADER_LENGTH + capLength)) {
+            at = (int) (offset - windowStart);
+        }
+
+        recordOffset = offset;
+        dataOffset = at + PcapFileWriter.RECORD_HEADER_LENGTH;
+        capturedLength = capLength;
+        originalLength = origLength;
+        timestampNanos = (seconds & 0xffffffffL) * 1000000000L + (nanos ? (fraction & 0xffffffffL) : (fraction & 0xffffffffL) * 1000L);
+        nextOffset = offset + PcapFileWriter.RECORD_HEADER_LENGTH + capLength;
+        return true;
+    }
+
+    /**
+     * Continue with the records starting inside [{@code start}, {@code end}) instead, the mapped window is kept
+     * if it covers them. {@code start} must be a record boundary.
+     */
+    public void seek(long start, long end) {
+        this.end = Math.min(end, fileSize);
+        this.nextOffset = Math.max(start, PcapFileWriter.FILE_HEADER_LENGTH);
+    }
+
+    /**
+     * @return the mapped window holding the current record, in the byte order of the file
+     */
+    public ByteBuffer buffer() {
+        return window;
+    }
+
+    /**
+     * @return a reusable view whose position and limit frame the packet bytes of the current record
+     */
+    public ByteBuffer data() {
+        view.limit(dataOffset + capturedLength).position(dataOffset);
+        return view;
+    }
+
+    /**
+     * @return offset of the packet bytes of the current record inside {@link #buffer()}
+     */
+    public int dataOffset() {
+        return dataOffset;
+    }
+
+    public int capturedLength() {
+        return capturedLength;
+    }
+
+    public int originalLength() {
+        return originalLength;
+    }
+
+    public long timestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * @return offset of the current record header in the file
+     */
+    public long recordOffset() {
+        return recordOffset;
+    }
+
+    /**
+     * @return offset right after the current record, where {@link #next()} will continue
+     */
+    public long nextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * Copy the packet bytes of the current record into {@code dest}.
+     *
+     * @return number of bytes copied
+     */
+    public int copyTo(byte[] dest) {
+        int n = Math.min(capturedLength, dest.length);
+        view.limit(dataOffset + n).position(dataOffset);
+        view.get(dest, 0, n);
+        return n;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public ByteOrder getByteOrder() {
+        return byteOrder;
+    }
+
+    public boolean isNanos() {
+        return nanos;
+    }
+
+    public int getSnapLen() {
+        return snapLen;
+    }
+
+    public int getLinkType() {
+        return linkType;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        view = null;
+        channel.close();
+    }
+
+    /**
+     * @return true if a new window had to be mapped
+     */
+    private boolean ensureMapped(long offset, int length) throws IOException {
+        if (window != null && offset >= windowStart && offset + length <= windowStart + window.capacity()) {
+            return false;
+        }
+        long size = Math.min(windowSize, fileSize - offset);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(byteOrder);
+        view = window.duplicate();
+        windowStart = offset;
+        return true;
+    }
+}
@@ -0,0 +1,109 @@
+package cc.databus.netool.pcap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Writes the classic libpcap file format (the one tcpdump -w produces) without going through libpcap.
+ */
+public class PcapFileWriter implements CaptureFileWriter {
+
+    public static final int MAGIC_MICROS = 0xa1b2c3d4;
+    public static final int MAGIC_NANOS = 0xa1b23c4d;
+
+    static final int FILE_HEADER_LENGTH = 24;
+    static final int RECORD_HEADER_LENGTH = 16;
+
+    private final ChannelOutput output;
+    private final boolean nanos;
+    private final int snapLen;
+
+    public PcapFileWriter(Path path, int linkType, int snapLen, boolean nanos, int bufferSize, boolean memoryMapped) throws IOException {
+        this(path, linkType, snapLen, nanos, bufferSize, memoryMapped, null);
+    }
+
+    /**
+     * @param compressor gzips the file while it is written, in blocks of {@code bufferSize}; null to write it as is
+     */
+    public PcapFileWriter(Path path, int linkType, int snapLen, boolean nanos, int bufferSize, boolean memoryMapped,
+                          BlockCompressor compressor) throws IOException {
+        this.output = ChannelOutput.open(path, bufferSize, memoryMapped, compressor);
+        this.nanos = nanos;
+        this.snapLen = snapLen;
+
+        output.reserve(FILE_HEADER_LENGTH);
+        output.buffer()
+                .putInt(nanos ? MAGIC_NANOS : MAGIC_MICROS)
+                .putShort((short) 2)
+                .putShort((short) 4)
+                // thiszone, sigfigs
+                .putInt(0)
+                .putInt(0)
+                .putInt(snapLen)
+                .putInt(linkType);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length, int originalLength, long timestampNanos) throws IOException {
+        int capLength = Math.min(length, snapLen);
+        if (output.reserve(RECORD_HEADER_LENGTH + capLength)) {
+            putHeader(output.buffer(), capLength, originalLength, timestampNanos);
+            output.buffer().put(data, offset, capLength);
+        }
+        else {
+            ByteBuffer record = ChannelOutput.littleEndian(ByteBuffer.allocate(RECORD_HEADER_LENGTH + capLength));
+            putHeader(record, capLength, originalLength, timestampNanos);
+            record.put(data, offset, capLength).flip();
+            output.writeThrough(record);
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer data, int originalLength, long timestampNanos) throws IOException {
+        int position = data.position();
+        int limit = data.limit();
+        int capLength = Math.min(limit - position, snapLen);
+        data.limit(position + capLength);
+        try {
+            if (output.reserve(RECORD_HEADER_LENGTH + capLength)) {
+                putHeader(output.buffer(), capLength, originalLength, timestampNanos);
+                output.buffer().put(data);
+            }
+            else {
+                ByteBuffer header = ChannelOutput.littleEndian(ByteBuffer.allocate(RECORD_HEADER_LENGTH));
+                putHeader(header, capLength, originalLength, timestampNanos);
+                header.flip();
+                output.writeThrough(header);
+                output.writeThrough(data);
+            }
+        }
+        finally {
+            data.limit(limit).position(position);
+        }
+    }
+
+    @Override
+    public long size() {
+        return output.position();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+
+    private void putHeader(ByteBuffer buffer, int capLength, int originalLength, long timestampNanos) {
+        long seconds = Math.floorDiv(timestampNanos, 1000000000L);
+        int fraction = (int) Math.floorMod(timestampNanos, 1000000000L);
+        buffer.putInt((int) seconds)
+                .putInt(nanos ? fraction : fraction / 1000)
+                .putInt(capLength)
+                .putInt(Math.max(originalLength, capLength));
+    }
+}
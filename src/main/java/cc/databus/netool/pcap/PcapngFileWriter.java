@@ -0,0 +1,194 @@
+package cc.databus.netool.pcap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the pcapng format: one section header, one interface description block per
+ * {@link #addInterface(String, int, int) added interface} and an enhanced packet block per record.
+ */
+public class PcapngFileWriter implements CaptureFileWriter {
+
+    static final int SECTION_HEADER_BLOCK = 0x0A0D0D0A;
+    static final int INTERFACE_DESCRIPTION_BLOCK = 0x00000001;
+    static final int ENHANCED_PACKET_BLOCK = 0x00000006;
+    static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+
+    static final int OPT_ENDOFOPT = 0;
+    static final int IF_NAME = 2;
+    static final int IF_TSRESOL = 9;
+
+    /**
+     * block type, block length, interface id, timestamp (high/low), captured length, original length
+     */
+    static final int EPB_HEADER_LENGTH = 28;
+
+    private final ChannelOutput output;
+    private final boolean nanos;
+    private final List<Integer> snapLens = new ArrayList<>();
+
+    public PcapngFileWriter(Path path, boolean nanos, int bufferSize, boolean memoryMapped) throws IOException {
+        this(path, nanos, bufferSize, memoryMapped, null);
+    }
+
+    /**
+     * @param compressor gzips the file while it is written, in blocks of {@code bufferSize}; null to write it as is
+     */
+    public PcapngFileWriter(Path path, boolean nanos, int bufferSize, boolean memoryMapped, BlockCompressor compressor) throws IOException {
+        this.output = ChannelOutput.open(path, bufferSize, memoryMapped, compressor);
+        this.nanos = nanos;
+
+        output.reserve(28);
+        output.buffer()
+                .putInt(SECTION_HEADER_BLOCK)
+                .putInt(28)
+                .putInt(BYTE_ORDER_MAGIC)
+                .putShort((short) 1)
+                .putShort((short) 0)
+                // section length unknown
+                .putLong(-1L)
+                .putInt(28);
+    }
+
+    /**
+     * Describe one more interface. Must be called before any packet of that interface is written.
+     *
+     * @return the interface id to pass to {@link #write(int, byte[], int, int, int, long)}
+     */
+    public int addInterface(String name, int linkType, int snapLen) throws IOException {
+        byte[] nameBytes = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+        int nameOption = nameBytes.length == 0 ? 0 : 4 + pad(nameBytes.length);
+        // tsresol option: header + 1 byte padded to 4
+        int blockLength = 16 + nameOption + 8 + 4 + 4;
+
+        output.reserve(blockLength);
+        ByteBuffer buffer = output.buffer()
+                .putInt(INTERFACE_DESCRIPTION_BLOCK)
+                .putInt(blockLength)
+                .putShort((short) linkType)
+                .putShort((short) 0)
+                .putInt(snapLen);
+        if (nameOption > 0) {
+            putOption(buffer, IF_NAME, nameBytes, 0, nameBytes.length);
+        }
+        buffer.putShort((short) IF_TSRESOL)
+                .putShort((short) 1)
+                .putInt(nanos ? 9 : 6)
+                .putInt(OPT_ENDOFOPT)
+                .putInt(blockLength);
+
+        snapLens.add(snapLen);
+        return snapLens.size() - 1;
+    }
+
+    /**
+     * Write a record for the first interface.
+     */
+    @Override
+    public void write(byte[] data, int offset, int length, int originalLength, long timestampNanos) throws IOException {
+        write(0, data, offset, length, originalLength, timestampNanos);
+    }
+
+    @Override
+    public void write(ByteBuffer data, int originalLength, long timestampNanos) throws IOException {
+        write(0, data, originalLength, timestampNanos);
+    }
+
+    public void write(int interfaceId, byte[] data, int offset, int length, int originalLength, long timestampNanos) throws IOException {
+        int capLength = Math.min(length, snapLens.get(interfaceId));
+        int blockLength = EPB_HEADER_LENGTH + pad(capLength) + 4;
+        if (output.reserve(blockLength)) {
+            ByteBuffer buffer = output.buffer();
+            putBlockHeader(buffer, blockLength, interfaceId, capLength, originalLength, timestampNanos);
+            buffer.put(data, offset, capLength);
+            putTrailer(buffer, capLength, blockLength);
+        }
+        else {
+            ByteBuffer block = ChannelOutput.littleEndian(ByteBuffer.allocate(blockLength));
+            putBlockHeader(block, blockLength, interfaceId, capLength, originalLength, timestampNanos);
+            block.put(data, offset, capLength);
+            putTrailer(block, capLength, blockLength);
+            block.flip();
+            output.writeThrough(block);
+        }
+    }
+
+    public void write(int interfaceId, ByteBuffer data, int originalLength, long timestampNanos) throws IOException {
+        int position = data.position();
+        int limit = data.limit();
+        int capLength = Math.min(limit - position, snapLens.get(interfaceId));
+        int blockLength = EPB_HEADER_LENGTH + pad(capLength) + 4;
+        data.limit(position + capLength);
+        try {
+            if (output.reserve(blockLength)) {
+                ByteBuffer buffer = output.buffer();
+                putBlockHeader(buffer, blockLength, interfaceId, capLength, originalLength, timestampNanos);
+                buffer.put(data);
+                putTrailer(buffer, capLength, blockLength);
+            }
+            else {
+                ByteBuffer block = ChannelOutput.littleEndian(ByteBuffer.allocate(blockLength));
+                putBlockHeader(block, blockLength, interfaceId, capLength, originalLength, timestampNanos);
+                block.put(data);
+                putTrailer(block, capLength, blockLength);
+                block.flip();
+                output.writeThrough(block);
+            }
+        }
+        finally {
+            data.limit(limit).position(position);
+        }
+    }
+
+    public int getInterfaceCount() {
+        return snapLens.size();
+    }
+
+    @Override
+    public long size() {
+        return output.position();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+
+    private void putBlockHeader(ByteBuffer buffer, int blockLength, int interfaceId, int capLength, int originalLength, long timestampNanos) {
+        long units = nanos ? timestampNanos : Math.floorDiv(timestampNanos, 1000L);
+        buffer.putInt(ENHANCED_PACKET_BLOCK)
+                .putInt(blockLength)
+                .putInt(interfaceId)
+                .putInt((int) (units >>> 32))
+                .putInt((int) units)
+                .putInt(capLength)
+                .putInt(Math.max(originalLength, capLength));
+    }
+
+    private static void putTrailer(ByteBuffer buffer, int capLength, int blockLength) {
+        for (int i = capLength; i < pad(capLength); i++) {
+            buffer.put((byte) 0);
+        }
+        buffer.putInt(blockLength);
+    }
+
+    private static void putOption(ByteBuffer buffer, int code, byte[] value, int offset, int length) {
+        buffer.putShort((short) code).putShort((short) length).put(value, offset, length);
+        for (int i = length; i < pad(length); i++) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    static int pad(int length) {
+        return (length + 3) & ~3;
+    }
+}
@@ -0,0 +1,71 @@
+package cc.databus.netool.snmp;
+
+import cc.databus.netool.metrics.LatencyHistogram;
+import cc.databus.netool.packet.PacketView;
+
+/**
+ * Counters of one SNMP agent, or of the receiver of informs, kept by a {@link SnmpMatcher} under its lock.
+ */
+final class SnmpAgentStats {
+
+    /**
+     * position in the agent list of the matcher
+     */
+    final int index;
+    private final int ipVersion;
+    private final long addressHigh;
+    private final long addressLow;
+    private final int port;
+
+    final LatencyHistogram latency = new LatencyHistogram();
+    /**
+     * requests seen, not counting retries
+     */
+    long requests;
+    /**
+     * requests sent again with an id still outstanding
+     */
+    long retries;
+    long responses;
+    /**
+     * responses with an error-status
+     */
+    long errors;
+    /**
+     * requests without a response within the timeout
+     */
+    long lost;
+    /**
+     * responses without an outstanding request, usually arriving after the timeout
+     */
+    long unmatched;
+    long traps;
+
+    SnmpAgentStats(int index, int ipVersion, long addressHigh, long addressLow, int port) {
+        this.index = index;
+        this.ipVersion = ipVersion;
+        this.addressHigh = addressHigh;
+        this.addressLow = addressLow;
+        this.port = port;
+    }
+
+    /**
+     * @return share of the requests resolved so far, by a response or the timeout, that were lost
+     */
+    double lossRate() {
+        long resolved = responses + lost;
+        return resolved > 0 ? (double) lost / resolved : 0;
+    }
+
+    String format() {
+        StringBuilder line = new StringBuilder(256);
+        line.append(String.format("%-22s requests %d, retries %d, responses %d, lost %d (%.2f%%), errors %d, unmatched %d, traps %d",
+                PacketView.endpointToString(ipVersion, addressHigh, addressLow, port), requests, retries, responses, lost, lossRate() * 100, errors, unmatched, traps));
+        if (responses > 0) {
+            long[] counts = new long[LatencyHistogram.BUCKETS];
+            latency.snapshot(counts);
+            line.append(", latency ").append(LatencyHistogram.formatPercentiles(counts, latency.getMax()));
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,196 @@
+package cc.databus.netool.snmp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes just enough BER of an SNMP message to match requests and responses: the version, the PDU type,
+ * the request-id and the error-status. For SNMPv3 the msgID is used as the id, it is echoed by the response
+ * and readable even when the scoped PDU is encrypted, which leaves the PDU type {@link #UNKNOWN}.
+ *
+ * Reads straight from the packet buffer with absolute gets and keeps its results in fields, so decoding
+ * allocates nothing. Not thread safe.
+ */
+final class SnmpDecoder {
+
+    static final int GET_REQUEST = 0;
+    static final int GET_NEXT_REQUEST = 1;
+    static final int RESPONSE = 2;
+    static final int SET_REQUEST = 3;
+    static final int TRAP = 4;
+    static final int GET_BULK_REQUEST = 5;
+    static final int INFORM_REQUEST = 6;
+    static final int TRAP_V2 = 7;
+    static final int REPORT = 8;
+    /**
+     * encrypted SNMPv3 scoped PDU
+     */
+    static final int UNKNOWN = -1;
+
+    private static final int INTEGER = 0x02;
+    private static final int OCTET_STRING = 0x04;
+    private static final int SEQUENCE = 0x30;
+    private static final int PDU_BASE = 0xa0;
+
+    private ByteBuffer buffer;
+    private int end;
+    /**
+     * offset of the next byte to read, after a successful {@link #header(int)} the start of the contents
+     */
+    private int at;
+    private int contentLength;
+
+    private int version;
+    private int pduType;
+    private int requestId;
+    private int errorStatus;
+
+    /**
+     * Decode the UDP payload of {@code length} bytes at {@code offset}.
+     *
+     * @return false if it is not an SNMP message or cut short before the fields needed
+     */
+    boolean decode(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.at = offset;
+        this.end = offset + length;
+        this.errorStatus = 0;
+        if (!header(SEQUENCE) || !header(INTEGER)) {
+            return false;
+        }
+        version = (int) integer();
+        if (version == 3) {
+            // msgGlobalData: msgID, msgMaxSize, msgFlags, msgSecurityModel
+            if (!header(SEQUENCE)) {
+                return false;
+            }
+            int globalEnd = at + contentLength;
+            if (!header(INTEGER)) {
+                return false;
+            }
+            requestId = (int) integer();
+            at = globalEnd;
+            // msgSecurityParameters
+            if (!header(OCTET_STRING)) {
+                return false;
+            }
+            at += contentLength;
+            if (at < end && (buffer.get(at) & 0xff) == OCTET_STRING) {
+                pduType = UNKNOWN;
+                return true;
+            }
+            // plaintext scopedPDU: contextEngineID, contextName, PDU
+            if (!header(SEQUENCE) || !header(OCTET_STRING)) {
+                return false;
+            }
+            at += contentLength;
+            if (!header(OCTET_STRING)) {
+                return false;
+            }
+            at += contentLength;
+            return pdu(false);
+        }
+        if (version != 0 && version != 1) {
+            return false;
+        }
+        // community
+        if (!header(OCTET_STRING)) {
+            return false;
+        }
+        at += contentLength;
+        return pdu(true);
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    int getPduType() {
+        return pduType;
+    }
+
+    /**
+     * @return the request-id, or the msgID for SNMPv3
+     */
+    int getRequestId() {
+        return requestId;
+    }
+
+    int getErrorStatus() {
+        return errorStatus;
+    }
+
+    /**
+     * @param readId take the request-id of the PDU, for SNMPv3 the msgID is used instead
+     */
+    private boolean pdu(boolean readId) {
+        if (at >= end) {
+            return false;
+        }
+        int tag = buffer.get(at) & 0xff;
+        if (tag < PDU_BASE || tag > PDU_BASE + REPORT || !header(tag)) {
+            return false;
+        }
+        pduType = tag - PDU_BASE;
+        if (pduType == TRAP) {
+            // the SNMPv1 trap has no request-id
+            return true;
+        }
+        if (!header(INTEGER)) {
+            return false;
+        }
+        int id = (int) integer();
+        if (readId) {
+            requestId = id;
+        }
+        if (header(INTEGER)) {
+            errorStatus = (int) integer();
+        }
+        return true;
+    }
+
+    /**
+     * Read the tag and length of the element at {@link #at} and move to its contents.
+     *
+     * @return false if the tag is not {@code expected} or the element does not fit
+     */
+    private boolean header(int expected) {
+        if (at + 2 > end || (buffer.get(at) & 0xff) != expected) {
+            return false;
+        }
+        int first = buffer.get(at + 1) & 0xff;
+        int position = at + 2;
+        int length;
+        if (first < 0x80) {
+            length = first;
+        }
+        else {
+            int octets = first & 0x7f;
+            if (octets == 0 || octets > 3 || position + octets > end) {
+                return false;
+            }
+            length = 0;
+            for (int i = 0; i < octets; i++) {
+                length = (length << 8) | (buffer.get(position++) & 0xff);
+            }
+        }
+        // constructed elements may be cut by the snap length, their leading fields are all that is needed
+        if (expected != SEQUENCE && expected < PDU_BASE && position + length > end) {
+            return false;
+        }
+        at = position;
+        contentLength = length;
+        return true;
+    }
+
+    /**
+     * Read the contents of the INTEGER whose header was just read, at most its low 64 bits.
+     */
+    private long integer() {
+        long value = contentLength > 0 && buffer.get(at) < 0 ? -1 : 0;
+        for (int i = 0; i < contentLength; i++) {
+            value = (value << 8) | (buffer.get(at + i) & 0xff);
+        }
+        at += contentLength;
+        return value;
+    }
+}
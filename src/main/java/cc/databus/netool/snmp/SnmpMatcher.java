@@ -0,0 +1,385 @@
+package cc.databus.netool.snmp;
+
+import cc.databus.netool.packet.PacketView;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Matches SNMP requests to their responses to measure loss, retries and response latency per agent.
+ *
+ * Outstanding requests are keyed on manager and agent address and port and the request-id (the msgID for
+ * SNMPv3), and stored in a preallocated {@code long[]} by open addressing with linear probing, {@link #STRIDE}
+ * longs per entry, like the {@link cc.databus.netool.flow.FlowTable}. A response removes its request with
+ * backward shift deletion and records the time since the last transmission of the request; a request sent
+ * again with its id still outstanding is counted as a retry. Requests outstanding longer than the timeout, by
+ * capture time, are lost: a late response is then unmatched and a late retry a new request, whether or not
+ * {@link #expire()} removed the request already, so the counts do not depend on how often it runs. Nothing
+ * is allocated per packet, so hundreds of thousands of outstanding requests cost only their table slots.
+ *
+ * A request goes to UDP port 161, or 162 for informs, and the response comes from there. Responses sent from
+ * another address than the request went to are not matched. Methods are synchronized: the capture threads
+ * update the matcher while the reporter reads it.
+ */
+public class SnmpMatcher {
+
+    public static final String DEFAULT_FILTER = "udp port 161 or udp port 162";
+
+    static final int STRIDE = 7;
+
+    private static final int MANAGER_HIGH = 0;
+    private static final int MANAGER_LOW = 1;
+    private static final int AGENT_HIGH = 2;
+    private static final int AGENT_LOW = 3;
+    /**
+     * occupied bit 62, agent index bits 32-55, manager port bits 16-31, agent port bits 0-15
+     */
+    private static final int KEY = 4;
+    private static final int REQUEST_ID = 5;
+    private static final int LAST_SENT = 6;
+
+    private static final long OCCUPIED = 1L << 62;
+
+    private static final int AGENT_PORT = 161;
+    private static final int TRAP_PORT = 162;
+    private static final int MAX_AGENTS = 1 << 16;
+
+    private final long[] table;
+    private final int mask;
+    private final int maxOutstanding;
+    private final long timeoutNanos;
+    private final SnmpDecoder decoder = new SnmpDecoder();
+
+    /**
+     * agents by address and port: address high, address low, occupied | ip version << 40 | port << 24 | index
+     */
+    private long[] agentTable = new long[3 * 1024];
+    private final List<SnmpAgentStats> agents = new ArrayList<>();
+
+    private int size = 0;
+    private long untracked = 0;
+    private long undecoded = 0;
+    private long lastCaptureNanos = Long.MIN_VALUE;
+    private long lastCaptureWallNanos;
+
+    /**
+     * @param maxMemoryBytes upper bound of the memory used by the outstanding requests
+     * @param timeoutNanos   capture time after which a request without response is lost
+     */
+    public SnmpMatcher(long maxMemoryBytes, long timeoutNanos) {
+        long entries = Math.max(16, maxMemoryBytes / (STRIDE * 8L));
+        // largest power of two whose table still fits into one java array
+        int capacity = Integer.highestOneBit((int) Math.min(entries, 1 << 27));
+        this.table = new long[capacity * STRIDE];
+        this.mask = capacity - 1;
+        this.maxOutstanding = capacity / 4 * 3;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Account one packet, {@code view} must already wrap it. Anything but SNMP over UDP is ignored.
+     */
+    public synchronized void update(PacketView view, long timestampNanos) {
+        if (view.ipProtocol() != PacketView.PROTO_UDP || !view.hasTransport() || view.isFragment()) {
+            return;
+        }
+        int sourcePort = view.sourcePort();
+        int destinationPort = view.destinationPort();
+        boolean toAgent = destinationPort == AGENT_PORT || destinationPort == TRAP_PORT;
+        boolean fromAgent = sourcePort == AGENT_PORT || sourcePort == TRAP_PORT;
+        if (!toAgent && !fromAgent) {
+            return;
+        }
+        if (!decoder.decode(view.buffer(), view.base() + view.payloadOffset(), view.capturedPayloadLength())) {
+            undecoded++;
+            return;
+        }
+        if (timestampNanos - lastCaptureNanos > 0 || lastCaptureNanos == Long.MIN_VALUE) {
+            lastCaptureNanos = timestampNanos;
+            lastCaptureWallNanos = System.nanoTime();
+        }
+
+        switch (decoder.getPduType()) {
+            case SnmpDecoder.GET_REQUEST:
+            case SnmpDecoder.GET_NEXT_REQUEST:
+            case SnmpDecoder.SET_REQUEST:
+            case SnmpDecoder.GET_BULK_REQUEST:
+            case SnmpDecoder.INFORM_REQUEST:
+                request(view, timestampNanos);
+                break;
+            case SnmpDecoder.RESPONSE:
+            case SnmpDecoder.REPORT:
+                response(view, timestampNanos);
+                break;
+            case SnmpDecoder.TRAP:
+            case SnmpDecoder.TRAP_V2:
+                // sent from any port, counted with the agent at the sending address
+                SnmpAgentStats sender = agent(view.ipVersion(), view.sourceHigh(), view.sourceLow(), AGENT_PORT);
+                if (sender != null) {
+                    sender.traps++;
+                }
+                break;
+            default:
+                // encrypted SNMPv3, the direction tells
+                if (toAgent && !fromAgent) {
+                    request(view, timestampNanos);
+                }
+                else if (fromAgent && !toAgent) {
+                    response(view, timestampNanos);
+                }
+        }
+    }
+
+    /**
+     * Remove the requests outstanding for longer than the timeout and count them as lost. The capture clock
+     * is taken to have advanced with the wall clock since the last packet, so requests still expire when the
+     * traffic stops.
+     *
+     * @return number of requests removed
+     */
+    public synchronized int expire() {
+        if (lastCaptureNanos == Long.MIN_VALUE) {
+            return 0;
+        }
+        long nowNanos = lastCaptureNanos + (System.nanoTime() - lastCaptureWallNanos);
+        int removed = 0;
+        int capacity = mask + 1;
+        int slot = 0;
+        while (slot < capacity) {
+            int at = slot * STRIDE;
+            long key = table[at + KEY];
+            if (key != 0 && nowNanos - table[at + LAST_SENT] > timeoutNanos) {
+                agents.get((int) (key >>> 32) & 0xffffff).lost++;
+                delete(slot);
+                removed++;
+                // the slot now holds a shifted entry, look at it again
+                continue;
+            }
+            slot++;
+        }
+        return removed;
+    }
+
+    /**
+     * @return report lines of the {@code n} agents with the most requests and traps
+     */
+    public synchronized List<String> top(int n) {
+        List<SnmpAgentStats> sorted = new ArrayList<>(agents);
+        sorted.sort(Comparator.comparingLong((SnmpAgentStats agent) -> agent.requests + agent.traps).reversed());
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < Math.min(n, sorted.size()); i++) {
+            lines.add(sorted.get(i).format());
+        }
+        return lines;
+    }
+
+    public synchronized int getAgentCount() {
+        return agents.size();
+    }
+
+    public synchronized int getOutstanding() {
+        return size;
+    }
+
+    public int capacity() {
+        return maxOutstanding;
+    }
+
+    /**
+     * @return requests not tracked because the table was full
+     */
+    public synchronized long getUntracked() {
+        return untracked;
+    }
+
+    /**
+     * @return packets to or from the SNMP ports that could not be decoded
+     */
+    public synchronized long getUndecoded() {
+        return undecoded;
+    }
+
+    private void request(PacketView view, long timestampNanos) {
+        SnmpAgentStats agent = agent(view.ipVersion(), view.destinationHigh(), view.destinationLow(), view.destinationPort());
+        if (agent == null) {
+            untracked++;
+            return;
+        }
+        long managerHigh = view.sourceHigh();
+        long managerLow = view.sourceLow();
+        long agentHigh = view.destinationHigh();
+        long agentLow = view.destinationLow();
+        long key = key(agent, view.sourcePort(), view.destinationPort());
+        long requestId = decoder.getRequestId();
+        int slot = find(managerHigh, managerLow, agentHigh, agentLow, key, requestId);
+        int at = slot * STRIDE;
+        if (table[at + KEY] != 0) {
+            if (timestampNanos - table[at + LAST_SENT] > timeoutNanos) {
+                // the request timed out before expire() came round, this is a new one with the same id
+                agent.lost++;
+                agent.requests++;
+                table[at + LAST_SENT] = timestampNanos;
+                return;
+            }
+            agent.retries++;
+            table[at + LAST_SENT] = Math.max(table[at + LAST_SENT], timestampNanos);
+            return;
+        }
+        if (size >= maxOutstanding) {
+            untracked++;
+            return;
+        }
+        agent.requests++;
+        table[at + MANAGER_HIGH] = managerHigh;
+        table[at + MANAGER_LOW] = managerLow;
+        table[at + AGENT_HIGH] = agentHigh;
+        table[at + AGENT_LOW] = agentLow;
+        table[at + KEY] = key;
+        table[at + REQUEST_ID] = requestId;
+        table[at + LAST_SENT] = timestampNanos;
+        size++;
+    }
+
+    private void response(PacketView view, long timestampNanos) {
+        SnmpAgentStats agent = agent(view.ipVersion(), view.sourceHigh(), view.sourceLow(), view.sourcePort());
+        if (agent == null) {
+            untracked++;
+            return;
+        }
+        int slot = find(view.destinationHigh(), view.destinationLow(), view.sourceHigh(), view.sourceLow(),
+                key(agent, view.destinationPort(), view.sourcePort()), decoder.getRequestId());
+        int at = slot * STRIDE;
+        if (table[at + KEY] == 0) {
+            agent.unmatched++;
+            return;
+        }
+        if (timestampNanos - table[at + LAST_SENT] > timeoutNanos) {
+            // too late, as if expire() had removed the request already
+            agent.lost++;
+            agent.unmatched++;
+            delete(slot);
+            return;
+        }
+        agent.responses++;
+        if (decoder.getErrorStatus() != 0) {
+            agent.errors++;
+        }
+        // from the last transmission, as the response cannot tell which one it answers
+        agent.latency.record(timestampNanos - table[at + LAST_SENT]);
+        delete(slot);
+    }
+
+    private static long key(SnmpAgentStats agent, int managerPort, int agentPort) {
+        return OCCUPIED | ((long) agent.index << 32) | ((long) managerPort << 16) | agentPort;
+    }
+
+    /**
+     * @return the slot holding the request, or the empty slot ending its probe sequence
+     */
+    private int find(long managerHigh, long managerLow, long agentHigh, long agentLow, long key, long requestId) {
+        int slot = (int) (hash(managerHigh ^ agentHigh, managerLow, agentLow, key, requestId) & mask);
+        while (true) {
+            int at = slot * STRIDE;
+            long k = table[at + KEY];
+            if (k == 0 || (k == key && table[at + REQUEST_ID] == requestId && table[at + MANAGER_LOW] == managerLow
+                    && table[at + AGENT_LOW] == agentLow && table[at + MANAGER_HIGH] == managerHigh
+                    && table[at + AGENT_HIGH] == agentHigh)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return the stats of the agent, created on first sight, null if there are too many agents
+     */
+    private SnmpAgentStats agent(int ipVersion, long high, long low, int port) {
+        long tag = OCCUPIED | ((long) ipVersion << 40) | ((long) port << 24);
+        int agentMask = agentTable.length / 3 - 1;
+        int slot = (int) (hash(high, low, tag, 0, 0) & agentMask);
+        while (true) {
+            int at = slot * 3;
+            long entry = agentTable[at + 2];
+            if (entry == 0) {
+                break;
+            }
+            if ((entry & ~0xffffffL) == tag && agentTable[at] == high && agentTable[at + 1] == low) {
+                return agents.get((int) entry & 0xffffff);
+            }
+            slot = (slot + 1) & agentMask;
+        }
+        if (agents.size() >= MAX_AGENTS) {
+            return null;
+        }
+        SnmpAgentStats agent = new SnmpAgentStats(agents.size(), ipVersion, high, low, port);
+        agents.add(agent);
+        int at = slot * 3;
+        agentTable[at] = high;
+        agentTable[at + 1] = low;
+        agentTable[at + 2] = tag | agent.index;
+        if (agents.size() > (agentMask + 1) / 4 * 3) {
+            growAgents();
+        }
+        return agent;
+    }
+
+    private void growAgents() {
+        long[] old = agentTable;
+        agentTable = new long[old.length * 2];
+        int agentMask = agentTable.length / 3 - 1;
+        for (int at = 0; at < old.length; at += 3) {
+            long entry = old[at + 2];
+            if (entry == 0) {
+                continue;
+            }
+            int slot = (int) (hash(old[at], old[at + 1], entry & ~0xffffffL, 0, 0) & agentMask);
+            while (agentTable[slot * 3 + 2] != 0) {
+                slot = (slot + 1) & agentMask;
+            }
+            System.arraycopy(old, at, agentTable, slot * 3, 3);
+        }
+    }
+
+    private void delete(int slot) {
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        while (true) {
+            int at = next * STRIDE;
+            if (table[at + KEY] == 0) {
+                break;
+            }
+            int home = (int) (hash(table[at + MANAGER_HIGH] ^ table[at + AGENT_HIGH], table[at + MANAGER_LOW],
+                    table[at + AGENT_LOW], table[at + KEY], table[at + REQUEST_ID]) & mask);
+            // move the entry into the hole unless its home lies cyclically in (hole, next]
+            boolean stays = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+            if (!stays) {
+                System.arraycopy(table, at, table, hole * STRIDE, STRIDE);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        int at = hole * STRIDE;
+        for (int i = 0; i < STRIDE; i++) {
+            table[at + i] = 0;
+        }
+        size--;
+    }
+
+    /**
+     * package private for the tests, which place requests in given slots
+     */
+    static long hash(long a, long b, long c, long d, long e) {
+        long h = mix(a) ^ Long.rotateLeft(mix(b), 13) ^ Long.rotateLeft(mix(c), 27) ^ Long.rotateLeft(mix(d), 41) ^ mix(e);
+        return mix(h);
+    }
+
+    private static long mix(long v) {
+        v ^= v >>> 33;
+        v *= 0xff51afd7ed558ccdL;
+        v ^= v >>> 33;
+        v *= 0xc4ceb9fe1a85ec53L;
+        v ^= v >>> 33;
+        return v;
+    }
+}
@@ -0,0 +1,78 @@
+package cc.databus.netool.snmp;
+
+import cc.databus.netool.utils.SystemOutHelper;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically expires the requests of a {@link SnmpMatcher} that timed out and prints the agents with the
+ * most traffic.
+ */
+public class SnmpReporter implements Closeable {
+
+    private final SnmpMatcher matcher;
+    private final int top;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param top number of agents reported
+     */
+    public SnmpReporter(SnmpMatcher matcher, int top) {
+        this.matcher = matcher;
+        this.top = top;
+    }
+
+    public void start(long intervalSeconds) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "netools-snmp");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::reportSafely, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the periodic reports and print a last one.
+     */
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        report();
+    }
+
+    public void report() {
+        int expired = matcher.expire();
+        List<String> agents = matcher.top(top);
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Top %d of %d SNMP agents (%d requests outstanding, %d just timed out, %d untracked, %d not decoded, capacity %d):\n",
+                agents.size(), matcher.getAgentCount(), matcher.getOutstanding(), expired, matcher.getUntracked(),
+                matcher.getUndecoded(), matcher.capacity()));
+        for (String agent : agents) {
+            sb.append("  ").append(agent).append('\n');
+        }
+        SystemOutHelper.println(sb.toString());
+    }
+
+    private void reportSafely() {
+        try {
+            report();
+        }
+        catch (RuntimeException e) {
+            // an exception would cancel all further reports
+            SystemOutHelper.println(String.format("SNMP report failed - %s:%s", e.getClass().getCanonicalName(), e.getMessage()));
+        }
+    }
+}
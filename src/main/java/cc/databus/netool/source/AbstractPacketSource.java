@@ -0,0 +1,67 @@
+package cc.databus.netool.source;
+
+import cc.databus.netool.pcap.BpfFilter;
+import org.pcap4j.core.NotOpenException;
+import org.pcap4j.core.PcapDumper;
+import org.pcap4j.core.PcapHandle;
+import org.pcap4j.core.PcapNativeException;
+import org.pcap4j.core.Pcaps;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base of the sources producing packets in java: filters run through {@link BpfFilter}, libpcap dump files
+ * are opened on a dead handle, and {@link #pace(long)} keeps a given rate.
+ */
+abstract class AbstractPacketSource implements PacketSource {
+
+    protected volatile boolean stopped = false;
+
+    protected BpfFilter filter;
+
+    private PcapHandle deadHandle;
+    private long startedAt = Long.MIN_VALUE;
+
+    @Override
+    public void setFilter(String expression) {
+        filter = BpfFilter.compile(expression, getDataLinkType().value(), getSnapLen());
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public synchronized PcapDumper openDumper(String path) throws PcapNativeException, NotOpenException {
+        if (deadHandle == null) {
+            deadHandle = Pcaps.openDead(getDataLinkType(), getSnapLen(),
+                    isNanoPrecision() ? PcapHandle.TimestampPrecision.NANO : PcapHandle.TimestampPrecision.MICRO);
+        }
+        return deadHandle.dumpOpen(path);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (deadHandle != null) {
+            deadHandle.close();
+            deadHandle = null;
+        }
+    }
+
+    /**
+     * Hold the calling thread back until {@code offsetNanos} after the first call have passed. Packets that are
+     * already late are not delayed at all, so the average rate is kept even when a single park oversleeps.
+     */
+    protected void pace(long offsetNanos) {
+        long now = System.nanoTime();
+        if (startedAt == Long.MIN_VALUE) {
+            startedAt = now;
+        }
+        long due = startedAt + offsetNanos;
+        while (due - now > 0 && !stopped) {
+            LockSupport.parkNanos(this, due - now);
+            now = System.nanoTime();
+        }
+    }
+}
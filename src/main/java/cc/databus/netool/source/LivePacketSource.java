@@ -0,0 +1,138 @@
+package cc.databus.netool.source;
+
+import org.pcap4j.core.BpfProgram;
+import org.pcap4j.core.NotOpenException;
+import org.pcap4j.core.PcapDumper;
+import org.pcap4j.core.PcapHandle;
+import org.pcap4j.core.PcapNativeException;
+import org.pcap4j.core.PcapStat;
+import org.pcap4j.core.RawPacketListener;
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.sql.Timestamp;
+
+/**
+ * Packets captured by libpcap on a live interface. Filters run in the kernel, {@link #stop()} breaks the loop.
+ *
+ * Instead of {@link #run(PacketHandler)} blocking a thread, the source can be registered with a
+ * {@link PacketMultiplexer} that polls it together with other interfaces.
+ */
+public class LivePacketSource implements PacketSource {
+
+    private final String name;
+    private final PcapHandle handle;
+    private final int snapLen;
+
+    private volatile boolean stopped = false;
+
+    /**
+     * @param handle an activated live handle, closed together with the source
+     */
+    public LivePacketSource(String name, PcapHandle handle) throws NotOpenException {
+        this.name = name;
+        this.handle = handle;
+        this.snapLen = handle.getSnapshot();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public DataLinkType getDataLinkType() {
+        return handle.getDlt();
+    }
+
+    @Override
+    public int getSnapLen() {
+        return snapLen;
+    }
+
+    @Override
+    public boolean isNanoPrecision() {
+        return handle.getTimestampPrecision() == PcapHandle.TimestampPrecision.NANO;
+    }
+
+    @Override
+    public void setFilter(String expression) throws PcapNativeException, NotOpenException {
+        handle.setFilter(expression, BpfProgram.BpfCompileMode.OPTIMIZE);
+    }
+
+    @Override
+    public void run(PacketHandler handler) throws PcapNativeException, NotOpenException {
+        try {
+            handle.loop(-1, listener(handler));
+        }
+        catch (InterruptedException e) {
+            // breakLoop() was called
+        }
+    }
+
+    /**
+     * Switch the handle to non-blocking mode.
+     *
+     * @return the descriptor that becomes readable when packets arrive, -1 if the platform has none
+     */
+    int openSelectable() throws PcapNativeException, NotOpenException {
+        handle.setBlockingMode(PcapHandle.BlockingMode.NONBLOCKING);
+        return NativePoll.getSelectableFd(handle);
+    }
+
+    /**
+     * Pass at most {@code max} packets already buffered by libpcap to the listener, without blocking.
+     *
+     * @return number of packets passed, -1 once the source is stopped
+     */
+    int dispatch(RawPacketListener listener, int max) throws PcapNativeException, NotOpenException {
+        // libpcap only looks at the break flag while it has packets, an idle handle would never report it
+        if (stopped) {
+            return -1;
+        }
+        try {
+            return handle.dispatch(max, listener);
+        }
+        catch (InterruptedException e) {
+            return -1;
+        }
+    }
+
+    RawPacketListener listener(PacketHandler handler) {
+        return packet -> {
+            Timestamp timestamp = handle.getTimestamp();
+            long timestampNanos = timestamp.getTime() / 1000L * 1000000000L + timestamp.getNanos();
+            Integer originalLength = handle.getOriginalLength();
+            handler.handle(packet, originalLength != null ? originalLength : packet.length, timestampNanos);
+        };
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        try {
+            handle.breakLoop();
+        }
+        catch (NotOpenException ignore) {
+        }
+    }
+
+    @Override
+    public PcapStat getStats() {
+        try {
+            return handle.getStats();
+        }
+        catch (PcapNativeException | NotOpenException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public PcapDumper openDumper(String path) throws PcapNativeException, NotOpenException {
+        return handle.dumpOpen(path);
+    }
+
+    @Override
+    public void close() {
+        handle.close();
+    }
+}
@@ -0,0 +1,95 @@
+package cc.databus.netool.source;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+import org.pcap4j.core.PcapHandle;
+
+import java.lang.reflect.Field;
+
+/**
+ * The two native calls pcap4j does not expose: {@code pcap_get_selectable_fd} and {@code poll}.
+ *
+ * pcap4j keeps the {@code pcap_t} pointer private, so it is read by reflection. libpcap is loaded under the
+ * same name pcap4j uses, the library is already in memory by then.
+ */
+final class NativePoll {
+
+    /**
+     * size of a {@code struct pollfd}: int fd, short events, short revents
+     */
+    static final int POLLFD_SIZE = 8;
+    static final int EVENTS_OFFSET = 4;
+    static final int REVENTS_OFFSET = 6;
+    static final short POLLIN = 0x0001;
+
+    static final int EINTR = 4;
+
+    private static final String PCAP_LIB_NAME_KEY = "org.pcap4j.core.pcapLibName";
+
+    private interface LibC extends Library {
+        int poll(Pointer fds, NativeLong nfds, int timeout);
+    }
+
+    private interface LibPcap extends Library {
+        int pcap_get_selectable_fd(Pointer p);
+    }
+
+    private static volatile LibC libc;
+    private static volatile LibPcap libpcap;
+
+    private NativePoll() {
+    }
+
+    /**
+     * @return the descriptor to poll for packets of {@code handle}, -1 if the platform has none
+     */
+    static int getSelectableFd(PcapHandle handle) {
+        if (Platform.isWindows()) {
+            return -1;
+        }
+        return libpcap().pcap_get_selectable_fd(pointer(handle));
+    }
+
+    /**
+     * @return number of ready descriptors, 0 on timeout, -1 on error with the cause in {@link Native#getLastError()}
+     */
+    static int poll(Pointer fds, int count, int timeoutMillis) {
+        return libc().poll(fds, new NativeLong(count), timeoutMillis);
+    }
+
+    private static LibC libc() {
+        if (libc == null) {
+            synchronized (NativePoll.class) {
+                if (libc == null) {
+                    libc = (LibC) Native.loadLibrary(Platform.C_LIBRARY_NAME, LibC.class);
+                }
+            }
+        }
+        return libc;
+    }
+
+    private static LibPcap libpcap() {
+        if (libpcap == null) {
+            synchronized (NativePoll.class) {
+                if (libpcap == null) {
+                    libpcap = (LibPcap) Native.loadLibrary(System.getProperty(PCAP_LIB_NAME_KEY, "pcap"), LibPcap.class);
+                }
+            }
+        }
+        return libpcap;
+    }
+
+    private static Pointer pointer(PcapHandle handle) {
+        try {
+            Field field = PcapHandle.class.getDeclaredField("handle");
+            field.setAccessible(true);
+            return (Pointer) field.get(handle);
+        }
+        catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException("Cannot access the native handle of pcap4j - " + e.getMessage(), e);
+        }
+    }
+}
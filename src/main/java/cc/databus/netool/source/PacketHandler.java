@@ -0,0 +1,15 @@
+package cc.databus.netool.source;
+
+/**
+ * Receives the packets of a {@link PacketSource}, on the thread running the source.
+ */
+public interface PacketHandler {
+
+    /**
+     * @param data           the captured bytes, the whole array; read only, the handler may keep it but neither it nor
+     *                       the source writes to it again, and a source may hand out the same array more than once
+     * @param originalLength length of the packet on the wire
+     * @param timestampNanos capture time in nanoseconds since epoch
+     */
+    void handle(byte[] data, int originalLength, long timestampNanos);
+}
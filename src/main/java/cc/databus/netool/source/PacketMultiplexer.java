@@ -0,0 +1,87 @@
+package cc.databus.netool.source;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import org.pcap4j.core.NotOpenException;
+import org.pcap4j.core.PcapNativeException;
+import org.pcap4j.core.RawPacketListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Captures on many live interfaces from the calling thread.
+ *
+ * The handles are switched to non-blocking mode and their selectable descriptors polled together, every
+ * readable handle then dispatches at most {@link #DISPATCH_BATCH} buffered packets so that a busy interface
+ * cannot starve the others. A poll timeout drains every handle as well, since libpcap may hold packets in
+ * its ring without the descriptor becoming readable. {@link LivePacketSource#stop()} ends the source the
+ * same way as in blocking mode, and {@link #run()} returns once all of its sources are stopped.
+ */
+public class PacketMultiplexer {
+
+    static final int POLL_TIMEOUT_MILLIS = 100;
+    static final int DISPATCH_BATCH = 256;
+
+    private final List<LivePacketSource> sources = new ArrayList<>();
+    private final List<RawPacketListener> listeners = new ArrayList<>();
+
+    /**
+     * Must be called before {@link #run()}.
+     */
+    public void register(LivePacketSource source, PacketHandler handler) {
+        sources.add(source);
+        listeners.add(source.listener(handler));
+    }
+
+    public int size() {
+        return sources.size();
+    }
+
+    public void run() throws PcapNativeException, NotOpenException {
+        int count = sources.size();
+        if (count == 0) {
+            return;
+        }
+        Memory fds = new Memory((long) count * NativePoll.POLLFD_SIZE);
+        fds.clear();
+        for (int i = 0; i < count; i++) {
+            int fd = sources.get(i).openSelectable();
+            if (fd < 0) {
+                throw new IllegalStateException(String.format("Interface [%s] cannot be polled on this platform.",
+                        sources.get(i).getName()));
+            }
+            fds.setInt((long) i * NativePoll.POLLFD_SIZE, fd);
+            fds.setShort((long) i * NativePoll.POLLFD_SIZE + NativePoll.EVENTS_OFFSET, NativePoll.POLLIN);
+        }
+
+        boolean[] stopped = new boolean[count];
+        int running = count;
+        while (running > 0) {
+            int ready = NativePoll.poll(fds, count, POLL_TIMEOUT_MILLIS);
+            if (ready < 0) {
+                int errno = Native.getLastError();
+                if (errno == NativePoll.EINTR) {
+                    continue;
+                }
+                throw new IllegalStateException("poll() failed with errno " + errno);
+            }
+            for (int i = 0; i < count; i++) {
+                if (stopped[i]) {
+                    continue;
+                }
+                long revents = (long) i * NativePoll.POLLFD_SIZE + NativePoll.REVENTS_OFFSET;
+                if (ready > 0 && fds.getShort(revents) == 0) {
+                    continue;
+                }
+                fds.setShort(revents, (short) 0);
+                if (sources.get(i).dispatch(listeners.get(i), DISPATCH_BATCH) < 0) {
+                    stopped[i] = true;
+                    running--;
+                    // poll() skips negative descriptors
+                    fds.setInt((long) i * NativePoll.POLLFD_SIZE, -1);
+                }
+            }
+        }
+    }
+}
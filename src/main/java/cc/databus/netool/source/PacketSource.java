@@ -0,0 +1,62 @@
+package cc.databus.netool.source;
+
+import org.pcap4j.core.NotOpenException;
+import org.pcap4j.core.PcapDumper;
+import org.pcap4j.core.PcapNativeException;
+import org.pcap4j.core.PcapStat;
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where the packets of a capture come from: a live interface, a replayed pcap file or a generator.
+ *
+ * {@link #run(PacketHandler)} delivers packets on the calling thread until the source is exhausted or
+ * {@link #stop()} is called from any other thread.
+ */
+public interface PacketSource extends Closeable {
+
+    /**
+     * @return the interface name, or a name describing the source
+     */
+    String getName();
+
+    DataLinkType getDataLinkType();
+
+    int getSnapLen();
+
+    /**
+     * @return whether timestamps carry nanoseconds, so that dump files can keep them
+     */
+    boolean isNanoPrecision();
+
+    /**
+     * Only deliver packets matching the BPF {@code expression}. Must be called before {@link #run(PacketHandler)}.
+     *
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    void setFilter(String expression) throws PcapNativeException, NotOpenException;
+
+    void run(PacketHandler handler) throws IOException, PcapNativeException, NotOpenException;
+
+    /**
+     * Make {@link #run(PacketHandler)} return as soon as possible.
+     */
+    void stop();
+
+    /**
+     * @return the kernel statistics, or null if the source has none
+     */
+    default PcapStat getStats() {
+        return null;
+    }
+
+    /**
+     * Open a libpcap dump file for the packets of this source.
+     */
+    PcapDumper openDumper(String path) throws PcapNativeException, NotOpenException;
+
+    @Override
+    void close();
+}
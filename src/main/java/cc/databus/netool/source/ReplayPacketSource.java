@@ -0,0 +1,93 @@
+package cc.databus.netool.source;
+
+import cc.databus.netool.pcap.PcapFileReader;
+import cc.databus.netool.utils.SystemOutHelper;
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Replays a pcap file, either with the original inter packet gaps scaled by a speed multiplier or as
+ * fast as the pipeline takes the packets. Packets keep their original timestamps.
+ */
+public class ReplayPacketSource extends AbstractPacketSource {
+
+    private final Path path;
+    private final double speed;
+    private final PcapFileReader reader;
+    private final DataLinkType dataLinkType;
+
+    /**
+     * @param speed multiplier of the original rate, eg: 2 replays twice as fast; 0 for as fast as possible
+     */
+    public ReplayPacketSource(Path path, double speed) throws IOException {
+        if (speed < 0) {
+            throw new IllegalArgumentException("Replay speed must not be negative, but was " + speed);
+        }
+        this.path = path;
+        this.speed = speed;
+        this.reader = new PcapFileReader(path);
+        this.dataLinkType = DataLinkType.getInstance(reader.getLinkType());
+    }
+
+    @Override
+    public String getName() {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    @Override
+    public DataLinkType getDataLinkType() {
+        return dataLinkType;
+    }
+
+    @Override
+    public int getSnapLen() {
+        return reader.getSnapLen();
+    }
+
+    @Override
+    public boolean isNanoPrecision() {
+        return reader.isNanos();
+    }
+
+    @Override
+    public void run(PacketHandler handler) throws IOException {
+        long firstTimestamp = Long.MIN_VALUE;
+        while (!stopped && reader.next()) {
+            int capturedLength = reader.capturedLength();
+            int originalLength = reader.originalLength();
+            if (filter != null && !filter.matches(reader.buffer(), reader.dataOffset(), capturedLength, originalLength)) {
+                continue;
+            }
+
+            long timestampNanos = reader.timestampNanos();
+            if (speed > 0) {
+                if (firstTimestamp == Long.MIN_VALUE) {
+                    firstTimestamp = timestampNanos;
+                }
+                pace((long) ((timestampNanos - firstTimestamp) / speed));
+            }
+
+            byte[] data = new byte[capturedLength];
+            reader.copyTo(data);
+            handler.handle(data, originalLength, timestampNanos);
+        }
+        if (reader.isTruncated()) {
+            SystemOutHelper.println(String.format("%s is truncated, the last record is incomplete.", path));
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        try {
+            reader.close();
+        }
+        catch (IOException e) {
+            SystemOutHelper.println(String.format("Failed to close %s - %s", path, e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package cc.databus.netool.source;
+
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Generates Ethernet/IPv4 TCP and UDP packets in memory, at a given rate or as fast as the pipeline takes them.
+ *
+ * A fixed set of frames is built up front over the requested number of flows and then delivered round
+ * robin, so generating allocates nothing and the same arrays are handed out again, which the read only
+ * contract of {@link PacketHandler} allows. Flows are picked with a skew towards the first ones, so that
+ * there are top talkers to find.
+ */
+public class SyntheticPacketSource extends AbstractPacketSource {
+
+    /**
+     * the simple 7:4:1 internet mix of frame sizes
+     */
+    private static final int[] IMIX = {64, 64, 64, 64, 64, 64, 64, 594, 594, 594, 594, 1518};
+
+    private static final int FRAME_COUNT = 4096;
+    private static final int SNAP_LEN = 65536;
+    private static final int MIN_FRAME_SIZE = 14 + 20 + 20;
+
+    private final byte[][] frames = new byte[FRAME_COUNT][];
+    private final long ratePerSecond;
+
+    /**
+     * @param size          frame size in bytes, or "imix"
+     * @param flows         number of distinct 5-tuples
+     * @param ratePerSecond packets per second, 0 for as fast as possible
+     */
+    public SyntheticPacketSource(String size, int flows, long ratePerSecond) {
+        if (flows <= 0) {
+            throw new IllegalArgumentException("Flow count must be positive, but was " + flows);
+        }
+        if (ratePerSecond < 0) {
+            throw new IllegalArgumentException("Rate must not be negative, but was " + ratePerSecond);
+        }
+        int[] sizes = "imix".equalsIgnoreCase(size) ? IMIX : new int[]{parseSize(size)};
+        this.ratePerSecond = ratePerSecond;
+
+        Random random = new Random(42);
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            // cubing a uniform value skews the choice towards low flow numbers
+            double skew = random.nextDouble();
+            int flow = (int) (flows * skew * skew * skew);
+            frames[i] = frame(flow, sizes[random.nextInt(sizes.length)], random);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "synthetic";
+    }
+
+    @Override
+    public DataLinkType getDataLinkType() {
+        return DataLinkType.EN10MB;
+    }
+
+    @Override
+    public int getSnapLen() {
+        return SNAP_LEN;
+    }
+
+    @Override
+    public boolean isNanoPrecision() {
+        return true;
+    }
+
+    @Override
+    public void run(PacketHandler handler) {
+        long epochOffset = System.currentTimeMillis() * 1000000L - System.nanoTime();
+        double intervalNanos = ratePerSecond > 0 ? 1e9 / ratePerSecond : 0;
+        for (long i = 0; !stopped; i++) {
+            if (ratePerSecond > 0) {
+                pace((long) (i * intervalNanos));
+            }
+            byte[] frame = frames[(int) (i & (FRAME_COUNT - 1))];
+            if (filter != null && !filter.matches(frame, frame.length, frame.length)) {
+                continue;
+            }
+            handler.handle(frame, frame.length, epochOffset + System.nanoTime());
+        }
+    }
+
+    private static int parseSize(String size) {
+        int value;
+        try {
+            value = Integer.parseInt(size.trim());
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid packet size [%s], expect a number of bytes or imix", size));
+        }
+        if (value < MIN_FRAME_SIZE || value > SNAP_LEN) {
+            throw new IllegalArgumentException(String.format("Packet size must be in [%d, %d], but was %d", MIN_FRAME_SIZE, SNAP_LEN, value));
+        }
+        return value;
+    }
+
+    /**
+     * Flow {@code flow} always gets the same addresses, ports and protocol: one in four flows is UDP.
+     */
+    private static byte[] frame(int flow, int size, Random random) {
+        boolean tcp = flow % 4 != 3;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+
+        // ethernet
+        buffer.put(new byte[]{0, 0x1b, 0x21, 1, 2, 3, 0, 0x1b, 0x21, 4, 5, 6});
+        buffer.putShort((short) 0x0800);
+
+        // ipv4
+        buffer.put((byte) 0x45).put((byte) 0).putShort((short) (size - 14));
+        buffer.putShort((short) random.nextInt()).putShort((short) 0x4000);
+        buffer.put((byte) 64).put((byte) (tcp ? 6 : 17)).putShort((short) 0);
+        buffer.putInt(0x0a000000 | (flow >>> 8 & 0xffff));
+        buffer.putInt(0xc0a80000 | (flow & 0xff));
+
+        // transport
+        buffer.putShort((short) (1024 + flow % 60000)).putShort((short) (tcp ? 443 : 53));
+        if (tcp) {
+            buffer.putInt(random.nextInt()).putInt(random.nextInt());
+            buffer.put((byte) 0x50).put((byte) 0x18).putShort((short) 502).putInt(0);
+        }
+        else {
+            buffer.putShort((short) (size - 14 - 20)).putShort((short) 0);
+        }
+
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) random.nextInt());
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,112 @@
+package cc.databus.netool.tcp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed size chunks carved out of one preallocated direct buffer. Data longer than a chunk is stored in a
+ * chain of chunks, a chain is identified by the index of its first chunk.
+ *
+ * Allocating and releasing only move indexes between the free list and the chains, so buffering costs one
+ * copy into the pool and no garbage. Not thread safe.
+ */
+class ChunkPool {
+
+    static final int NONE = -1;
+
+    private final ByteBuffer memory;
+    private final ByteBuffer view;
+    private final int chunkSize;
+    private final int[] next;
+
+    private int freeHead;
+    private int freeCount;
+
+    ChunkPool(long maxMemoryBytes, int chunkSize) {
+        int chunks = (int) Math.max(1, Math.min(Integer.MAX_VALUE / chunkSize, maxMemoryBytes / chunkSize));
+        this.memory = ByteBuffer.allocateDirect(chunks * chunkSize);
+        this.view = memory.duplicate();
+        this.chunkSize = chunkSize;
+        this.next = new int[chunks];
+        for (int i = 0; i < chunks; i++) {
+            next[i] = i + 1 < chunks ? i + 1 : NONE;
+        }
+        this.freeHead = 0;
+        this.freeCount = chunks;
+    }
+
+    /**
+     * Copy the bytes between position and limit of {@code data} into a new chain. The position is not changed.
+     *
+     * @return the chain, or {@link #NONE} if there are not enough free chunks
+     */
+    int store(ByteBuffer data) {
+        int length = data.remaining();
+        int needed = Math.max(1, (length + chunkSize - 1) / chunkSize);
+        if (needed > freeCount) {
+            return NONE;
+        }
+        int head = freeHead;
+        int chunk = head;
+        int position = data.position();
+        int limit = data.limit();
+        try {
+            for (int i = 0; i < needed; i++) {
+                int piece = Math.min(chunkSize, length - i * chunkSize);
+                data.limit(position + i * chunkSize + piece).position(position + i * chunkSize);
+                view.limit(chunk * chunkSize + piece).position(chunk * chunkSize);
+                view.put(data);
+                if (i + 1 < needed) {
+                    chunk = next[chunk];
+                }
+            }
+        }
+        finally {
+            data.limit(limit).position(position);
+        }
+        freeHead = next[chunk];
+        next[chunk] = NONE;
+        freeCount -= needed;
+        return head;
+    }
+
+    /**
+     * Point {@code target}, a duplicate of the pool memory, at {@code length} bytes of {@code chunk}.
+     */
+    void slice(ByteBuffer target, int chunk, int offset, int length) {
+        target.limit(chunk * chunkSize + offset + length).position(chunk * chunkSize + offset);
+    }
+
+    /**
+     * @return a buffer sharing the pool memory, for {@link #slice(ByteBuffer, int, int, int)}
+     */
+    ByteBuffer newView() {
+        return memory.duplicate();
+    }
+
+    int next(int chunk) {
+        return next[chunk];
+    }
+
+    void release(int chain) {
+        int chunk = chain;
+        while (chunk != NONE) {
+            int following = next[chunk];
+            next[chunk] = freeHead;
+            freeHead = chunk;
+            freeCount++;
+            chunk = following;
+        }
+    }
+
+    int chunkSize() {
+        return chunkSize;
+    }
+
+    int freeChunks() {
+        return freeCount;
+    }
+
+    int capacity() {
+        return next.length;
+    }
+}
@@ -0,0 +1,78 @@
+package cc.databus.netool.tcp;
+
+import cc.databus.netool.packet.PacketView;
+
+/**
+ * Hash key of a connection, the same for both directions: the endpoints are stored in a fixed order.
+ * {@link TcpReassembler} looks connections up with one reused instance and copies it only for new entries.
+ */
+final class ConnectionKey {
+
+    private long aHigh;
+    private long aLow;
+    private long bHigh;
+    private long bLow;
+    /**
+     * port of endpoint a in the upper, of b in the lower 16 bits
+     */
+    private int ports;
+    private int hash;
+
+    /**
+     * Set to the endpoints of the packet wrapped by {@code view}.
+     */
+    ConnectionKey set(PacketView view) {
+        long sourceHigh = view.sourceHigh();
+        long sourceLow = view.sourceLow();
+        long destinationHigh = view.destinationHigh();
+        long destinationLow = view.destinationLow();
+        int sourcePort = view.sourcePort();
+        int destinationPort = view.destinationPort();
+        boolean sourceFirst = sourceHigh != destinationHigh ? sourceHigh < destinationHigh
+                : sourceLow != destinationLow ? sourceLow < destinationLow : sourcePort <= destinationPort;
+        if (sourceFirst) {
+            aHigh = sourceHigh;
+            aLow = sourceLow;
+            bHigh = destinationHigh;
+            bLow = destinationLow;
+            ports = (sourcePort << 16) | destinationPort;
+        }
+        else {
+            aHigh = destinationHigh;
+            aLow = destinationLow;
+            bHigh = sourceHigh;
+            bLow = sourceLow;
+            ports = (destinationPort << 16) | sourcePort;
+        }
+        hash = (int) view.flowHash();
+        return this;
+    }
+
+    ConnectionKey copy() {
+        ConnectionKey copy = new ConnectionKey();
+        copy.aHigh = aHigh;
+        copy.aLow = aLow;
+        copy.bHigh = bHigh;
+        copy.bLow = bLow;
+        copy.ports = ports;
+        copy.hash = hash;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ConnectionKey)) {
+            return false;
+        }
+        ConnectionKey other = (ConnectionKey) o;
+        return ports == other.ports && aLow == other.aLow && bLow == other.bLow && aHigh == other.aHigh && bHigh == other.bHigh;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,20 @@
+package cc.databus.netool.tcp;
+
+/**
+ * Plugged into a {@link TcpReassembler} to receive reassembled TCP streams.
+ */
+public interface StreamConsumer {
+
+    /**
+     * Called once for every new connection.
+     *
+     * @return the listener receiving the streams of this connection, or null to ignore it
+     */
+    StreamListener open(TcpConnection connection);
+
+    /**
+     * Called once after the last connection was closed, when the {@link TcpReassembler} is closed.
+     */
+    default void onEnd() {
+    }
+}
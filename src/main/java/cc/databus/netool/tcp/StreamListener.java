@@ -0,0 +1,32 @@
+package cc.databus.netool.tcp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the two byte streams of one TCP connection in order. All calls come from the thread feeding the
+ * {@link TcpReassembler}.
+ */
+public interface StreamListener {
+
+    /**
+     * Next bytes of one direction, between position and limit of {@code data}. The buffer is only valid during
+     * the call and the bytes of one segment may arrive in several calls.
+     *
+     * @param fromClient    true for the client to server direction
+     * @param timestampNanos capture time of the segment that carried the bytes
+     */
+    void onData(TcpConnection connection, boolean fromClient, ByteBuffer data, long timestampNanos);
+
+    /**
+     * {@code length} bytes of one direction were never captured or had to be given up, the stream continues
+     * after them.
+     */
+    default void onGap(TcpConnection connection, boolean fromClient, long length) {
+    }
+
+    /**
+     * The connection ended, no more calls follow.
+     */
+    default void onClose(TcpConnection connection, TcpConnection.CloseReason reason) {
+    }
+}
@@ -0,0 +1,35 @@
+package cc.databus.netool.tcp;
+
+import cc.databus.netool.utils.SystemOutHelper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Prints one line per reassembled connection when it closes, eg:
+ * <pre>
+ * tcp 10.0.0.1:51234 > 10.0.0.2:443  fin      0.532s client 517 bytes, server 4321 bytes, gaps 0/0
+ * </pre>
+ * Connections picked up after their handshake are marked "joined".
+ */
+public class StreamSummaryPrinter implements StreamConsumer, StreamListener {
+
+    @Override
+    public StreamListener open(TcpConnection connection) {
+        // stateless, the counts are kept by the connection
+        return this;
+    }
+
+    @Override
+    public void onData(TcpConnection connection, boolean fromClient, ByteBuffer data, long timestampNanos) {
+    }
+
+    @Override
+    public void onClose(TcpConnection connection, TcpConnection.CloseReason reason) {
+        SystemOutHelper.println(String.format("tcp %s  %-7s %9.3fs client %d bytes, server %d bytes, gaps %d/%d%s",
+                connection, reason.name().toLowerCase(),
+                (connection.getLastSeenNanos() - connection.getStartNanos()) / 1e9,
+                connection.getDeliveredBytes(true), connection.getDeliveredBytes(false),
+                connection.getGapBytes(true), connection.getGapBytes(false),
+                connection.isHandshakeSeen() ? "" : " (joined)"));
+    }
+}
@@ -0,0 +1,175 @@
+package cc.databus.netool.tcp;
+
+import cc.databus.netool.packet.PacketView;
+
+/**
+ * One TCP connection tracked by a {@link TcpReassembler}. The client is the side that sent the SYN, or the
+ * sender of the first packet seen if the handshake was missed.
+ */
+public class TcpConnection {
+
+    public enum CloseReason {
+        /**
+         * both sides sent FIN and everything before was delivered
+         */
+        FIN,
+        RESET,
+        /**
+         * no packet for the idle timeout
+         */
+        IDLE,
+        /**
+         * pushed out to make room for other connections
+         */
+        EVICTED,
+        /**
+         * the capture ended
+         */
+        END
+    }
+
+    /**
+     * State of one direction.
+     */
+    static final class Direction {
+        boolean started;
+        /**
+         * sequence number of the next byte to deliver
+         */
+        int nextSeq;
+        boolean finSeen;
+        int finSeq;
+        /**
+         * out of order segments, sorted by sequence number
+         */
+        Segment pending;
+        int pendingBytes;
+        long deliveredBytes;
+        long gapBytes;
+    }
+
+    /**
+     * An out of order segment held in the {@link ChunkPool}.
+     */
+    static final class Segment {
+        int seq;
+        int length;
+        int chain;
+        long timestampNanos;
+        Segment next;
+    }
+
+    final ConnectionKey key;
+    final Direction client = new Direction();
+    final Direction server = new Direction();
+    StreamListener[] listeners;
+    long lastSeenNanos;
+
+    private final int ipVersion;
+    private final long clientHigh;
+    private final long clientLow;
+    private final int clientPort;
+    private final long serverHigh;
+    private final long serverLow;
+    private final int serverPort;
+    private final long startNanos;
+    private final boolean handshakeSeen;
+
+    TcpConnection(ConnectionKey key, int ipVersion, long clientHigh, long clientLow, int clientPort,
+                  long serverHigh, long serverLow, int serverPort, long startNanos, boolean handshakeSeen) {
+        this.key = key;
+        this.ipVersion = ipVersion;
+        this.clientHigh = clientHigh;
+        this.clientLow = clientLow;
+        this.clientPort = clientPort;
+        this.serverHigh = serverHigh;
+        this.serverLow = serverLow;
+        this.serverPort = serverPort;
+        this.startNanos = startNanos;
+        this.lastSeenNanos = startNanos;
+        this.handshakeSeen = handshakeSeen;
+    }
+
+    /**
+     * Stop delivering to {@code listener}, it gets no more calls, not even {@link StreamListener#onClose}. Once
+     * no listener is left the reassembler stops buffering the connection and only tracks its end.
+     */
+    public void removeListener(StreamListener listener) {
+        int index = -1;
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                index = i;
+            }
+        }
+        if (index < 0) {
+            return;
+        }
+        StreamListener[] remaining = new StreamListener[listeners.length - 1];
+        System.arraycopy(listeners, 0, remaining, 0, index);
+        System.arraycopy(listeners, index + 1, remaining, index, remaining.length - index);
+        // a new array, so a delivery loop running over the old one is not disturbed
+        listeners = remaining;
+    }
+
+    boolean isClient(long high, long low, int port) {
+        return port == clientPort && low == clientLow && high == clientHigh;
+    }
+
+    public int getIpVersion() {
+        return ipVersion;
+    }
+
+    public String getClientAddress() {
+        return PacketView.addressToString(ipVersion, clientHigh, clientLow);
+    }
+
+    public int getClientPort() {
+        return clientPort;
+    }
+
+    public String getServerAddress() {
+        return PacketView.addressToString(ipVersion, serverHigh, serverLow);
+    }
+
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    /**
+     * @return capture time of the first packet seen
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getLastSeenNanos() {
+        return lastSeenNanos;
+    }
+
+    /**
+     * @return true if the SYN was captured, so the streams are complete from their first byte
+     */
+    public boolean isHandshakeSeen() {
+        return handshakeSeen;
+    }
+
+    /**
+     * @return bytes delivered so far in one direction
+     */
+    public long getDeliveredBytes(boolean fromClient) {
+        return (fromClient ? client : server).deliveredBytes;
+    }
+
+    /**
+     * @return bytes reported missing so far in one direction
+     */
+    public long getGapBytes(boolean fromClient) {
+        return (fromClient ? client : server).gapBytes;
+    }
+
+    @Override
+    public String toString() {
+        return PacketView.endpointToString(ipVersion, clientHigh, clientLow, clientPort) + " > "
+                + PacketView.endpointToString(ipVersion, serverHigh, serverLow, serverPort);
+    }
+}
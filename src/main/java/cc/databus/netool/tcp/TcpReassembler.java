@@ -0,0 +1,508 @@
+package cc.databus.netool.tcp;
+
+import cc.databus.netool.packet.PacketView;
+import cc.databus.netool.tcp.TcpConnection.CloseReason;
+import cc.databus.netool.tcp.TcpConnection.Direction;
+import cc.databus.netool.tcp.TcpConnection.Segment;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rebuilds the ordered byte streams of TCP connections from captured segments and hands them to
+ * {@link StreamConsumer}s.
+ *
+ * A segment continuing a stream is delivered straight out of the captured packet, without a copy. Segments
+ * arriving ahead of a hole are copied once into a {@link ChunkPool} of off-heap chunks and delivered from
+ * there when the hole is filled. Bytes already delivered or already buffered are ignored, so retransmits and
+ * overlaps are resolved in favour of the first copy seen.
+ *
+ * Memory is bounded three ways: a direction buffers at most {@code maxPendingBytes}, beyond that the oldest
+ * hole is given up and reported as a gap; when the pool runs out, the holes of the least recently active
+ * connections are given up first; and at most {@code maxConnections} connections are tracked, the least
+ * recently active one is evicted for a new one. Connections idle for the idle timeout, by capture time, are
+ * closed. A connection all listeners have removed themselves from is still tracked to its end but no longer
+ * buffered. Not thread safe, all calls must come from one thread.
+ */
+public class TcpReassembler implements Closeable {
+
+    static final int CHUNK_SIZE = 2048;
+    private static final long IDLE_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final List<StreamConsumer> consumers;
+    private final ChunkPool pool;
+    private final ByteBuffer chunkView;
+    private final int maxPendingBytes;
+    private final long idleNanos;
+    private final int maxConnections;
+
+    /**
+     * in access order, so iteration starts with the connection idle the longest
+     */
+    private final LinkedHashMap<ConnectionKey, TcpConnection> connections = new LinkedHashMap<>(1024, 0.75f, true);
+    private final ConnectionKey probe = new ConnectionKey();
+    private Segment freeSegments;
+    private long lastIdleCheck = Long.MIN_VALUE;
+
+    private long connectionsOpened = 0;
+    private long connectionsEvicted = 0;
+    private long gapBytes = 0;
+    private long lostBytes = 0;
+
+    /**
+     * @param maxMemoryBytes  off-heap memory for out of order segments of all connections
+     * @param maxPendingBytes out of order bytes one direction may buffer
+     * @param idleNanos       capture time after which a silent connection is closed
+     * @param maxConnections  connections tracked at most
+     */
+    public TcpReassembler(List<StreamConsumer> consumers, long maxMemoryBytes, int maxPendingBytes, long idleNanos, int maxConnections) {
+        this.consumers = new ArrayList<>(consumers);
+        this.pool = new ChunkPool(maxMemoryBytes, CHUNK_SIZE);
+        this.chunkView = pool.newView();
+        this.maxPendingBytes = maxPendingBytes;
+        this.idleNanos = idleNanos;
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Feed one packet, {@code view} must already wrap it. Anything but unfragmented TCP is ignored.
+     */
+    public void process(PacketView view, long timestampNanos) {
+        if (view.ipProtocol() != PacketView.PROTO_TCP || !view.hasTransport() || view.isFragment()) {
+            return;
+        }
+        if (lastIdleCheck == Long.MIN_VALUE || timestampNanos - lastIdleCheck >= IDLE_CHECK_NANOS) {
+            lastIdleCheck = timestampNanos;
+            closeIdle(timestampNanos);
+        }
+
+        int flags = view.tcpFlags();
+        TcpConnection connection = connections.get(probe.set(view));
+        if (connection == null) {
+            if ((flags & PacketView.TCP_SYN) == 0 && view.payloadLength() == 0) {
+                // a bare ACK, FIN or RST, may well be the end of a connection just closed
+                return;
+            }
+            connection = open(view, flags, timestampNanos);
+        }
+        connection.lastSeenNanos = Math.max(connection.lastSeenNanos, timestampNanos);
+
+        boolean fromClient = connection.isClient(view.sourceHigh(), view.sourceLow(), view.sourcePort());
+        Direction direction = fromClient ? connection.client : connection.server;
+        int seq = (int) view.tcpSequence();
+        if ((flags & PacketView.TCP_SYN) != 0) {
+            // the SYN takes one sequence number, data of a fast open follows it
+            seq++;
+            if (!direction.started) {
+                direction.started = true;
+                direction.nextSeq = seq;
+            }
+        }
+        else if (!direction.started) {
+            direction.started = true;
+            direction.nextSeq = seq;
+        }
+
+        if (connection.listeners.length == 0) {
+            // nobody listens any more: drop what is buffered and only follow the sequence numbers to see the end
+            discard(connection.client);
+            discard(connection.server);
+            int end = seq + view.payloadLength();
+            if (end - direction.nextSeq > 0) {
+                direction.nextSeq = end;
+            }
+        }
+        else if (view.payloadLength() > 0) {
+            segment(connection, direction, fromClient, view, seq, timestampNanos);
+        }
+        if ((flags & PacketView.TCP_RST) != 0) {
+            connections.remove(connection.key);
+            finish(connection, CloseReason.RESET);
+            return;
+        }
+        if ((flags & PacketView.TCP_FIN) != 0 && !direction.finSeen) {
+            direction.finSeen = true;
+            direction.finSeq = seq + view.payloadLength();
+        }
+        if (isClosed(connection.client) && isClosed(connection.server)) {
+            connections.remove(connection.key);
+            finish(connection, CloseReason.FIN);
+        }
+    }
+
+    /**
+     * Close every connection, delivering what is buffered with gaps for the holes.
+     */
+    @Override
+    public void close() {
+        for (TcpConnection connection : connections.values()) {
+            finish(connection, CloseReason.END);
+        }
+        connections.clear();
+        for (StreamConsumer consumer : consumers) {
+            consumer.onEnd();
+        }
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened;
+    }
+
+    /**
+     * @return connections closed early to stay within the connection limit
+     */
+    public long getConnectionsEvicted() {
+        return connectionsEvicted;
+    }
+
+    /**
+     * @return bytes reported as gaps, not captured or given up
+     */
+    public long getGapBytes() {
+        return gapBytes;
+    }
+
+    /**
+     * @return out of order bytes dropped because the pool was exhausted even after giving up holes
+     */
+    public long getLostBytes() {
+        return lostBytes;
+    }
+
+    /**
+     * @return off-heap bytes holding out of order segments
+     */
+    public long getBufferedBytes() {
+        return (long) (pool.capacity() - pool.freeChunks()) * pool.chunkSize();
+    }
+
+    private TcpConnection open(PacketView view, int flags, long timestampNanos) {
+        if (connections.size() >= maxConnections) {
+            Iterator<TcpConnection> eldest = connections.values().iterator();
+            TcpConnection evicted = eldest.next();
+            eldest.remove();
+            connectionsEvicted++;
+            finish(evicted, CloseReason.EVICTED);
+        }
+
+        // the sender of a SYN is the client, the sender of a SYN-ACK the server, otherwise guess the higher port
+        boolean sourceIsClient;
+        if ((flags & PacketView.TCP_SYN) != 0) {
+            sourceIsClient = (flags & PacketView.TCP_ACK) == 0;
+        }
+        else {
+            sourceIsClient = view.sourcePort() >= view.destinationPort();
+        }
+        TcpConnection connection = sourceIsClient
+                ? new TcpConnection(probe.copy(), view.ipVersion(), view.sourceHigh(), view.sourceLow(), view.sourcePort(),
+                view.destinationHigh(), view.destinationLow(), view.destinationPort(), timestampNanos, (flags & PacketView.TCP_SYN) != 0)
+                : new TcpConnection(probe.copy(), view.ipVersion(), view.destinationHigh(), view.destinationLow(), view.destinationPort(),
+                view.sourceHigh(), view.sourceLow(), view.sourcePort(), timestampNanos, (flags & PacketView.TCP_SYN) != 0);
+        connections.put(connection.key, connection);
+        connectionsOpened++;
+
+        List<StreamListener> listeners = new ArrayList<>(consumers.size());
+        for (StreamConsumer consumer : consumers) {
+            StreamListener listener = consumer.open(connection);
+            if (listener != null) {
+                listeners.add(listener);
+            }
+        }
+        connection.listeners = listeners.toArray(new StreamListener[0]);
+        return connection;
+    }
+
+    private void segment(TcpConnection connection, Direction direction, boolean fromClient, PacketView view, int seq, long timestampNanos) {
+        int captured = view.capturedPayloadLength();
+        int end = seq + view.payloadLength();
+        if (end - direction.nextSeq <= 0) {
+            // retransmit of delivered bytes
+            return;
+        }
+
+        if (seq - direction.nextSeq > 0) {
+            // ahead of a hole: make room within the limits or give the hole up
+            while (direction.pending != null && direction.pendingBytes + captured > maxPendingBytes) {
+                skipToPending(connection, direction, fromClient);
+            }
+            if (seq - direction.nextSeq > 0 && direction.pendingBytes + captured > maxPendingBytes) {
+                gap(connection, direction, fromClient, seq - direction.nextSeq);
+                direction.nextSeq = seq;
+            }
+        }
+        if (seq - direction.nextSeq > 0) {
+            int needed = (captured + CHUNK_SIZE - 1) / CHUNK_SIZE + 1;
+            if (pool.freeChunks() < needed) {
+                releaseMemory(connection, needed);
+            }
+            if (pool.freeChunks() < needed) {
+                giveUp(connection, direction, fromClient);
+                if (seq - direction.nextSeq > 0) {
+                    gap(connection, direction, fromClient, seq - direction.nextSeq);
+                    direction.nextSeq = seq;
+                }
+            }
+            else {
+                buffer(direction, view, seq, captured, timestampNanos);
+                return;
+            }
+        }
+
+        if (end - direction.nextSeq <= 0) {
+            // covered entirely by the pending segments just delivered
+            return;
+        }
+
+        // in order: deliver the new captured bytes straight from the packet
+        int skip = direction.nextSeq - seq;
+        if (skip < captured) {
+            ByteBuffer buffer = view.buffer();
+            int at = view.base() + view.payloadOffset();
+            deliver(connection, direction, fromClient, buffer, at + skip, captured - skip, timestampNanos);
+        }
+        int capturedEnd = seq + captured;
+        int deliveredEnd = capturedEnd - direction.nextSeq > 0 ? capturedEnd : direction.nextSeq;
+        if (end - deliveredEnd > 0) {
+            // cut by the snap length
+            gap(connection, direction, fromClient, end - deliveredEnd);
+        }
+        direction.nextSeq = end;
+        drain(connection, direction, fromClient);
+    }
+
+    /**
+     * Copy the parts of the segment not buffered yet into the pool, keeping the pending list sorted.
+     */
+    private void buffer(Direction direction, PacketView view, int seq, int captured, long timestampNanos) {
+        int start = seq;
+        int end = seq + captured;
+        Segment previous = null;
+        Segment current = direction.pending;
+        while (current != null && start - end < 0) {
+            if (start - current.seq < 0) {
+                int pieceEnd = end - current.seq < 0 ? end : current.seq;
+                Segment piece = store(view, seq, start, pieceEnd - start, timestampNanos);
+                if (piece == null) {
+                    lostBytes += end - start;
+                    return;
+                }
+                piece.next = current;
+                if (previous == null) {
+                    direction.pending = piece;
+                }
+                else {
+                    previous.next = piece;
+                }
+                direction.pendingBytes += piece.length;
+            }
+            int currentEnd = current.seq + current.length;
+            if (start - currentEnd < 0) {
+                start = currentEnd;
+            }
+            previous = current;
+            current = current.next;
+        }
+        if (start - end < 0) {
+            Segment piece = store(view, seq, start, end - start, timestampNanos);
+            if (piece == null) {
+                lostBytes += end - start;
+                return;
+            }
+            if (previous == null) {
+                direction.pending = piece;
+            }
+            else {
+                previous.next = piece;
+            }
+            direction.pendingBytes += piece.length;
+        }
+    }
+
+    private Segment store(PacketView view, int seq, int start, int length, long timestampNanos) {
+        ByteBuffer buffer = view.buffer();
+        int at = view.base() + view.payloadOffset() + (start - seq);
+        // PacketView ignores position but reads are bounded by the limit, so both are put back
+        int position = buffer.position();
+        int limit = buffer.limit();
+        buffer.limit(at + length).position(at);
+        int chain = pool.store(buffer);
+        buffer.limit(limit).position(position);
+        if (chain == ChunkPool.NONE) {
+            return null;
+        }
+        Segment segment = freeSegments;
+        if (segment != null) {
+            freeSegments = segment.next;
+        }
+        else {
+            segment = new Segment();
+        }
+        segment.seq = start;
+        segment.length = length;
+        segment.chain = chain;
+        segment.timestampNanos = timestampNanos;
+        segment.next = null;
+        return segment;
+    }
+
+    /**
+     * Deliver the pending segments the stream has reached.
+     */
+    private void drain(TcpConnection connection, Direction direction, boolean fromClient) {
+        while (direction.pending != null && direction.pending.seq - direction.nextSeq <= 0) {
+            Segment segment = direction.pending;
+            int skip = direction.nextSeq - segment.seq;
+            if (skip < segment.length) {
+                deliverChain(connection, direction, fromClient, segment.chain, skip, segment.length - skip, segment.timestampNanos);
+                direction.nextSeq = segment.seq + segment.length;
+            }
+            direction.pending = segment.next;
+            direction.pendingBytes -= segment.length;
+            release(segment);
+        }
+    }
+
+    /**
+     * Give up the hole before the first pending segment.
+     */
+    private void skipToPending(TcpConnection connection, Direction direction, boolean fromClient) {
+        int missing = direction.pending.seq - direction.nextSeq;
+        if (missing > 0) {
+            gap(connection, direction, fromClient, missing);
+            direction.nextSeq = direction.pending.seq;
+        }
+        drain(connection, direction, fromClient);
+    }
+
+    /**
+     * Give up all holes of one direction.
+     */
+    private void giveUp(TcpConnection connection, Direction direction, boolean fromClient) {
+        while (direction.pending != null) {
+            skipToPending(connection, direction, fromClient);
+        }
+    }
+
+    /**
+     * Give up the holes of the least recently active connections until {@code needed} chunks are free.
+     */
+    private void releaseMemory(TcpConnection except, int needed) {
+        for (TcpConnection connection : connections.values()) {
+            if (pool.freeChunks() >= needed) {
+                return;
+            }
+            if (connection != except) {
+                giveUp(connection, connection.client, true);
+                giveUp(connection, connection.server, false);
+            }
+        }
+    }
+
+    /**
+     * Release the pending segments of one direction without delivering them.
+     */
+    private void discard(Direction direction) {
+        while (direction.pending != null) {
+            Segment segment = direction.pending;
+            direction.pending = segment.next;
+            direction.pendingBytes -= segment.length;
+            release(segment);
+        }
+    }
+
+    private void closeIdle(long nowNanos) {
+        Iterator<TcpConnection> iterator = connections.values().iterator();
+        while (iterator.hasNext()) {
+            TcpConnection connection = iterator.next();
+            if (nowNanos - connection.lastSeenNanos <= idleNanos) {
+                // access order: all following ones were active later
+                return;
+            }
+            iterator.remove();
+            finish(connection, CloseReason.IDLE);
+        }
+    }
+
+    /**
+     * Deliver what is buffered and tell the listeners. The connection must already be out of the map.
+     */
+    private void finish(TcpConnection connection, CloseReason reason) {
+        if (connection.listeners.length == 0) {
+            discard(connection.client);
+            discard(connection.server);
+            return;
+        }
+        giveUp(connection, connection.client, true);
+        giveUp(connection, connection.server, false);
+        for (StreamListener listener : connection.listeners) {
+            listener.onClose(connection, reason);
+        }
+    }
+
+    private static boolean isClosed(Direction direction) {
+        return direction.finSeen && direction.pending == null && direction.finSeq - direction.nextSeq <= 0;
+    }
+
+    private void deliver(TcpConnection connection, Direction direction, boolean fromClient, ByteBuffer buffer, int at, int length,
+                         long timestampNanos) {
+        direction.deliveredBytes += length;
+        int position = buffer.position();
+        int limit = buffer.limit();
+        try {
+            for (StreamListener listener : connection.listeners) {
+                buffer.limit(at + length).position(at);
+                listener.onData(connection, fromClient, buffer, timestampNanos);
+            }
+        }
+        finally {
+            // the packet is still parsed by the caller, whose reads are bounded by the limit
+            buffer.limit(limit).position(position);
+        }
+    }
+
+    private void deliverChain(TcpConnection connection, Direction direction, boolean fromClient, int chain, int offset, int length,
+                              long timestampNanos) {
+        int chunk = chain;
+        while (offset >= CHUNK_SIZE) {
+            chunk = pool.next(chunk);
+            offset -= CHUNK_SIZE;
+        }
+        direction.deliveredBytes += length;
+        while (length > 0) {
+            int piece = Math.min(length, CHUNK_SIZE - offset);
+            for (StreamListener listener : connection.listeners) {
+                pool.slice(chunkView, chunk, offset, piece);
+                listener.onData(connection, fromClient, chunkView, timestampNanos);
+            }
+            length -= piece;
+            offset = 0;
+            chunk = pool.next(chunk);
+        }
+    }
+
+    private void gap(TcpConnection connection, Direction direction, boolean fromClient, long length) {
+        if (length <= 0) {
+            return;
+        }
+        direction.gapBytes += length;
+        gapBytes += length;
+        for (StreamListener listener : connection.listeners) {
+            listener.onGap(connection, fromClient, length);
+        }
+    }
+
+    private void release(Segment segment) {
+        pool.release(segment.chain);
+        segment.next = freeSegments;
+        freeSegments = segment;
+    }
+}
@@ -0,0 +1,142 @@
+package cc.databus.netool.tls;
+
+import cc.databus.netool.metrics.LatencyHistogram;
+import cc.databus.netool.tcp.StreamConsumer;
+import cc.databus.netool.tcp.StreamListener;
+import cc.databus.netool.tcp.TcpConnection;
+import cc.databus.netool.utils.SystemOutHelper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the TLS handshakes of reassembled TCP connections and prints one line per handshake, eg:
+ * <pre>
+ * tls 10.0.0.1:51234 > 10.0.0.2:443  ok      12:00:01.123456 sni example.com TLSv1.3 TLS_AES_128_GCM_SHA256
+ *     offered TLSv1.3,TLSv1.2 31 ciphers  hello 1.204 ms  certificate -  total 3.870 ms
+ * </pre>
+ * all on one line. Times are measured from the ClientHello at the capture point: to the ServerHello, to the
+ * Certificate (not visible from TLS 1.3 on, it is encrypted) and to the end of the handshake, see
+ * {@link TlsSession}. Handshakes ending with an alert, a gap in the capture or the connection closing are
+ * printed with that outcome instead of "ok". At the end the latency percentiles of all complete handshakes
+ * are printed.
+ *
+ * Only record and handshake headers are parsed and connections are dropped by the reassembler once their
+ * handshake is over, so long lived connections cost nothing after their first round trips.
+ */
+public class TlsHandshakeAnalyzer implements StreamConsumer {
+
+    private final LatencyHistogram helloLatency = new LatencyHistogram();
+    private final LatencyHistogram certificateLatency = new LatencyHistogram();
+    private final LatencyHistogram totalLatency = new LatencyHistogram();
+
+    private long complete = 0;
+    private long failed = 0;
+    private long incomplete = 0;
+    private long ignored = 0;
+
+    @Override
+    public StreamListener open(TcpConnection connection) {
+        return new TlsSession(this);
+    }
+
+    /**
+     * Print the totals and latency percentiles.
+     */
+    @Override
+    public void onEnd() {
+        SystemOutHelper.println(String.format("TLS handshakes: %d complete, %d failed, %d incomplete, %d connections not TLS.",
+                complete, failed, incomplete, ignored));
+        if (complete > 0) {
+            SystemOutHelper.println(percentiles("hello", helloLatency));
+            SystemOutHelper.println(percentiles("certificate", certificateLatency));
+            SystemOutHelper.println(percentiles("total", totalLatency));
+        }
+    }
+
+    void ignored() {
+        ignored++;
+    }
+
+    /**
+     * @param outcome "ok", "alert", "gap", "malformed" or the reason the connection closed early
+     */
+    void report(TlsSession session, String outcome) {
+        long clientHello = session.getClientHelloNanos();
+        if ("ok".equals(outcome)) {
+            complete++;
+            if (session.getServerHelloNanos() != 0) {
+                helloLatency.record(session.getServerHelloNanos() - clientHello);
+            }
+            if (session.getCertificateNanos() != 0) {
+                certificateLatency.record(session.getCertificateNanos() - clientHello);
+            }
+            totalLatency.record(session.getCompleteNanos() - clientHello);
+        }
+        else if ("alert".equals(outcome) || "malformed".equals(outcome)) {
+            failed++;
+        }
+        else {
+            incomplete++;
+        }
+
+        StringBuilder line = new StringBuilder(256);
+        line.append("tls ").append(endpoints(session)).append("  ");
+        line.append(String.format("%-9s ", outcome));
+        long millis = TimeUnit.NANOSECONDS.toMillis(clientHello);
+        line.append(String.format("%tT.%06d", millis, TimeUnit.NANOSECONDS.toMicros(clientHello) % 1000000));
+        line.append(" sni ").append(session.getServerName() != null ? session.getServerName() : "-");
+        if (session.getSelectedCipher() >= 0) {
+            line.append(' ').append(TlsNames.version(session.getSelectedVersion()))
+                    .append(' ').append(TlsNames.cipher(session.getSelectedCipher()));
+        }
+        if (session.isHelloRetry()) {
+            line.append(" (retried)");
+        }
+        line.append("  offered ").append(session.getOfferedVersions() != null ? session.getOfferedVersions() : "-")
+                .append(' ').append(session.getOfferedCiphers()).append(" ciphers");
+        line.append("  hello ").append(latency(clientHello, session.getServerHelloNanos()))
+                .append("  certificate ").append(latency(clientHello, session.getCertificateNanos()))
+                .append("  total ").append(latency(clientHello, session.getCompleteNanos()));
+        if (session.getAlertDescription() >= 0 || session.isAlertEncrypted()) {
+            line.append("  alert from ").append(session.isAlertFromClient() ? "client " : "server ");
+            if (session.isAlertEncrypted()) {
+                line.append("encrypted");
+            }
+            else {
+                line.append(session.getAlertLevel() == 2 ? "fatal " : "warning ").append(TlsNames.alert(session.getAlertDescription()));
+            }
+        }
+        SystemOutHelper.println(line.toString());
+    }
+
+    /**
+     * @return client to server, which may be the reverse of the TCP connection if its SYN was missed
+     */
+    private static String endpoints(TlsSession session) {
+        TcpConnection connection = session.getConnection();
+        if (session.isClientTcpClient()) {
+            return connection.toString();
+        }
+        String format = connection.getIpVersion() == 6 ? "[%s]:%d > [%s]:%d" : "%s:%d > %s:%d";
+        return String.format(format, connection.getServerAddress(), connection.getServerPort(),
+                connection.getClientAddress(), connection.getClientPort());
+    }
+
+    private static String latency(long from, long to) {
+        return to != 0 ? String.format("%.3f ms", (to - from) / 1e6) : "-";
+    }
+
+    private static String percentiles(String name, LatencyHistogram histogram) {
+        long[] counts = new long[LatencyHistogram.BUCKETS];
+        histogram.snapshot(counts);
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        if (count == 0) {
+            return String.format("TLS %s latency: none seen.", name);
+        }
+        return String.format("TLS %s latency of %d handshakes: %s.", name, count,
+                LatencyHistogram.formatPercentiles(counts, histogram.getMax()));
+    }
+}
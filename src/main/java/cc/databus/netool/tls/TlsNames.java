@@ -0,0 +1,110 @@
+package cc.databus.netool.tls;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Printable names of TLS protocol versions, cipher suites and alerts. Values without a name are printed in hex.
+ */
+final class TlsNames {
+
+    private static final Map<Integer, String> CIPHERS = new HashMap<>();
+    private static final Map<Integer, String> ALERTS = new HashMap<>();
+
+    static {
+        CIPHERS.put(0x1301, "TLS_AES_128_GCM_SHA256");
+        CIPHERS.put(0x1302, "TLS_AES_256_GCM_SHA384");
+        CIPHERS.put(0x1303, "TLS_CHACHA20_POLY1305_SHA256");
+        CIPHERS.put(0x1304, "TLS_AES_128_CCM_SHA256");
+        CIPHERS.put(0x1305, "TLS_AES_128_CCM_8_SHA256");
+        CIPHERS.put(0xc02b, "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256");
+        CIPHERS.put(0xc02c, "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384");
+        CIPHERS.put(0xc02f, "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256");
+        CIPHERS.put(0xc030, "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384");
+        CIPHERS.put(0xcca8, "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256");
+        CIPHERS.put(0xcca9, "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256");
+        CIPHERS.put(0xccaa, "TLS_DHE_RSA_WITH_CHACHA20_POLY1305_SHA256");
+        CIPHERS.put(0xc009, "TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA");
+        CIPHERS.put(0xc00a, "TLS_ECDHE_ECDSA_WITH_AES_256_CBC_SHA");
+        CIPHERS.put(0xc013, "TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA");
+        CIPHERS.put(0xc014, "TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA");
+        CIPHERS.put(0xc023, "TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA256");
+        CIPHERS.put(0xc024, "TLS_ECDHE_ECDSA_WITH_AES_256_CBC_SHA384");
+        CIPHERS.put(0xc027, "TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA256");
+        CIPHERS.put(0xc028, "TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA384");
+        CIPHERS.put(0x009e, "TLS_DHE_RSA_WITH_AES_128_GCM_SHA256");
+        CIPHERS.put(0x009f, "TLS_DHE_RSA_WITH_AES_256_GCM_SHA384");
+        CIPHERS.put(0x009c, "TLS_RSA_WITH_AES_128_GCM_SHA256");
+        CIPHERS.put(0x009d, "TLS_RSA_WITH_AES_256_GCM_SHA384");
+        CIPHERS.put(0x002f, "TLS_RSA_WITH_AES_128_CBC_SHA");
+        CIPHERS.put(0x0035, "TLS_RSA_WITH_AES_256_CBC_SHA");
+        CIPHERS.put(0x003c, "TLS_RSA_WITH_AES_128_CBC_SHA256");
+        CIPHERS.put(0x003d, "TLS_RSA_WITH_AES_256_CBC_SHA256");
+        CIPHERS.put(0x000a, "TLS_RSA_WITH_3DES_EDE_CBC_SHA");
+
+        ALERTS.put(0, "close_notify");
+        ALERTS.put(10, "unexpected_message");
+        ALERTS.put(20, "bad_record_mac");
+        ALERTS.put(22, "record_overflow");
+        ALERTS.put(40, "handshake_failure");
+        ALERTS.put(42, "bad_certificate");
+        ALERTS.put(43, "unsupported_certificate");
+        ALERTS.put(44, "certificate_revoked");
+        ALERTS.put(45, "certificate_expired");
+        ALERTS.put(46, "certificate_unknown");
+        ALERTS.put(47, "illegal_parameter");
+        ALERTS.put(48, "unknown_ca");
+        ALERTS.put(49, "access_denied");
+        ALERTS.put(50, "decode_error");
+        ALERTS.put(51, "decrypt_error");
+        ALERTS.put(70, "protocol_version");
+        ALERTS.put(71, "insufficient_security");
+        ALERTS.put(80, "internal_error");
+        ALERTS.put(86, "inappropriate_fallback");
+        ALERTS.put(90, "user_canceled");
+        ALERTS.put(109, "missing_extension");
+        ALERTS.put(110, "unsupported_extension");
+        ALERTS.put(112, "unrecognized_name");
+        ALERTS.put(113, "bad_certificate_status_response");
+        ALERTS.put(115, "unknown_psk_identity");
+        ALERTS.put(116, "certificate_required");
+        ALERTS.put(120, "no_application_protocol");
+    }
+
+    private TlsNames() {
+    }
+
+    static String version(int version) {
+        switch (version) {
+            case 0x0300:
+                return "SSLv3";
+            case 0x0301:
+                return "TLSv1.0";
+            case 0x0302:
+                return "TLSv1.1";
+            case 0x0303:
+                return "TLSv1.2";
+            case 0x0304:
+                return "TLSv1.3";
+            default:
+                return String.format("0x%04x", version);
+        }
+    }
+
+    static String cipher(int cipher) {
+        String name = CIPHERS.get(cipher);
+        return name != null ? name : String.format("0x%04x", cipher);
+    }
+
+    static String alert(int description) {
+        String name = ALERTS.get(description);
+        return name != null ? name : "alert_" + description;
+    }
+
+    /**
+     * @return true for the reserved GREASE values clients mix into their lists (RFC 8701)
+     */
+    static boolean isGrease(int value) {
+        return (value & 0x0f0f) == 0x0a0a && (value >>> 8) == (value & 0xff);
+    }
+}
@@ -0,0 +1,190 @@
+package cc.databus.netool.tls;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits one direction of a TLS stream into records and the plaintext handshake records into handshake
+ * messages, reporting them to a {@link TlsSession}.
+ *
+ * Only record and message headers are read byte by byte. Record bodies are skipped without looking at them,
+ * except the two bytes of plaintext alerts and the bodies of ClientHello and ServerHello, which are collected
+ * into an array because they may be split over several records and segments.
+ */
+final class TlsRecordParser {
+
+    static final int CHANGE_CIPHER_SPEC = 20;
+    static final int ALERT = 21;
+    static final int HANDSHAKE = 22;
+    static final int APPLICATION_DATA = 23;
+
+    static final int CLIENT_HELLO = 1;
+    static final int SERVER_HELLO = 2;
+    static final int CERTIFICATE = 11;
+
+    /**
+     * largest record allowed for any version: 2^14 plaintext bytes plus 2048 of expansion
+     */
+    private static final int MAX_RECORD_LENGTH = 16384 + 2048;
+    /**
+     * larger hellos are timed but not parsed
+     */
+    private static final int MAX_HELLO_LENGTH = 64 * 1024;
+
+    private final TlsSession session;
+    private final boolean client;
+
+    private final byte[] header = new byte[5];
+    private int headerFill;
+    private int recordType;
+    private int recordRemaining;
+    /**
+     * after the ChangeCipherSpec of this direction, below TLS 1.3
+     */
+    private boolean encrypted;
+    private boolean firstRecord = true;
+
+    private final byte[] messageHeader = new byte[4];
+    private int messageHeaderFill;
+    private int messageRemaining;
+    private long messageNanos;
+    /**
+     * body of the hello being collected, null while skipping a message
+     */
+    private byte[] message;
+    private int messageFill;
+
+    private final byte[] alert = new byte[2];
+    private int alertFill;
+
+    TlsRecordParser(TlsSession session, boolean client) {
+        this.session = session;
+        this.client = client;
+    }
+
+    boolean isClient() {
+        return client;
+    }
+
+    boolean isEncrypted() {
+        return encrypted;
+    }
+
+    /**
+     * Parse the bytes between position and limit of {@code data}, moving the position, until they are used up
+     * or the session has finished.
+     */
+    void feed(ByteBuffer data, long timestampNanos) {
+        while (data.hasRemaining() && !session.isFinished()) {
+            if (headerFill < header.length) {
+                header[headerFill++] = data.get();
+                if (headerFill == header.length && !startRecord(timestampNanos)) {
+                    return;
+                }
+                continue;
+            }
+
+            int n = Math.min(recordRemaining, data.remaining());
+            if (recordType == HANDSHAKE && !encrypted) {
+                handshake(data, n, timestampNanos);
+            }
+            else if (recordType == ALERT && !encrypted) {
+                for (int i = 0; i < n; i++) {
+                    byte b = data.get();
+                    if (alertFill < alert.length) {
+                        alert[alertFill++] = b;
+                    }
+                }
+            }
+            else {
+                data.position(data.position() + n);
+            }
+            recordRemaining -= n;
+            if (recordRemaining == 0) {
+                endRecord();
+            }
+        }
+    }
+
+    /**
+     * @return false if the header is not one of a TLS record
+     */
+    private boolean startRecord(long timestampNanos) {
+        recordType = header[0] & 0xff;
+        int major = header[1] & 0xff;
+        recordRemaining = ((header[3] & 0xff) << 8) | (header[4] & 0xff);
+        if (recordType < CHANGE_CIPHER_SPEC || recordType > APPLICATION_DATA || major != 3 || recordRemaining > MAX_RECORD_LENGTH
+                || (firstRecord && client && recordType != HANDSHAKE)) {
+            session.notTls();
+            return false;
+        }
+        firstRecord = false;
+        alertFill = 0;
+        session.onRecord(this, recordType, timestampNanos);
+        if (recordRemaining == 0) {
+            endRecord();
+        }
+        return true;
+    }
+
+    private void endRecord() {
+        headerFill = 0;
+        if (recordType == CHANGE_CIPHER_SPEC && !session.isTls13()) {
+            encrypted = true;
+        }
+        else if (recordType == ALERT && alertFill == alert.length) {
+            session.onAlert(this, alert[0] & 0xff, alert[1] & 0xff);
+        }
+    }
+
+    /**
+     * Handshake messages may span records, so their state carries over from one record to the next.
+     */
+    private void handshake(ByteBuffer data, int n, long timestampNanos) {
+        int end = data.position() + n;
+        while (data.position() < end && !session.isFinished()) {
+            if (messageHeaderFill < messageHeader.length) {
+                messageHeader[messageHeaderFill++] = data.get();
+                if (messageHeaderFill == messageHeader.length) {
+                    startMessage(timestampNanos);
+                }
+                continue;
+            }
+            int m = Math.min(messageRemaining, end - data.position());
+            if (message != null) {
+                data.get(message, messageFill, m);
+                messageFill += m;
+            }
+            else {
+                data.position(data.position() + m);
+            }
+            messageRemaining -= m;
+            if (messageRemaining == 0) {
+                endMessage();
+            }
+        }
+    }
+
+    private void startMessage(long timestampNanos) {
+        int type = messageHeader[0] & 0xff;
+        messageRemaining = ((messageHeader[1] & 0xff) << 16) | ((messageHeader[2] & 0xff) << 8) | (messageHeader[3] & 0xff);
+        messageNanos = timestampNanos;
+        message = null;
+        if ((type == CLIENT_HELLO || type == SERVER_HELLO) && messageRemaining <= MAX_HELLO_LENGTH) {
+            message = new byte[messageRemaining];
+            messageFill = 0;
+        }
+        session.onHandshake(this, type, timestampNanos);
+        if (messageRemaining == 0) {
+            endMessage();
+        }
+    }
+
+    private void endMessage() {
+        messageHeaderFill = 0;
+        if (message != null) {
+            byte[] body = message;
+            message = null;
+            session.onHello(this, messageHeader[0] & 0xff, body, messageNanos);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package cc.databus.netool.tls;
+
+import cc.databus.netool.tcp.StreamListener;
+import cc.databus.netool.tcp.TcpConnection;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Handshake of one TLS connection, fed by the reassembled streams of one TCP connection.
+ *
+ * The side sending the first bytes must send a ClientHello, otherwise the connection is not TLS. The handshake
+ * is complete when the client sends its first encrypted record after a TLS 1.3 ServerHello, for older versions
+ * when both sides have sent ChangeCipherSpec. Once the handshake completes or fails the session is reported and
+ * removes itself from the connection, so the rest of the connection is not even buffered.
+ */
+final class TlsSession implements StreamListener {
+
+    private static final int TLS13 = 0x0304;
+    private static final int SUPPORTED_VERSIONS = 43;
+    private static final int SERVER_NAME = 0;
+    private static final int FATAL = 2;
+    private static final int CLOSE_NOTIFY = 0;
+    /**
+     * the random of a ServerHello asking for another ClientHello (RFC 8446, 4.1.3)
+     */
+    private static final byte[] HELLO_RETRY_RANDOM = {
+            (byte) 0xcf, 0x21, (byte) 0xad, 0x74, (byte) 0xe5, (byte) 0x9a, 0x61, 0x11,
+            (byte) 0xbe, 0x1d, (byte) 0x8c, 0x02, 0x1e, 0x65, (byte) 0xb8, (byte) 0x91,
+            (byte) 0xc2, (byte) 0xa2, 0x11, 0x16, 0x7a, (byte) 0xbb, (byte) 0x8c, 0x5e,
+            0x07, (byte) 0x9e, 0x09, (byte) 0xe2, (byte) 0xc8, (byte) 0xa8, 0x33, (byte) 0x9c};
+
+    private final TlsHandshakeAnalyzer analyzer;
+    private final TlsRecordParser clientParser = new TlsRecordParser(this, true);
+    private final TlsRecordParser serverParser = new TlsRecordParser(this, false);
+
+    private TcpConnection connection;
+    /**
+     * true if the TLS client is the client of the TCP connection, decided by the first bytes
+     */
+    private boolean clientIsTcpClient;
+    private boolean finished;
+
+    private long clientHelloNanos;
+    private long serverHelloNanos;
+    private long certificateNanos;
+    private long clientChangeCipherNanos;
+    private long serverChangeCipherNanos;
+    private long completeNanos;
+
+    private String serverName;
+    private String offeredVersions;
+    private int offeredCiphers;
+    private int selectedVersion;
+    private int selectedCipher = -1;
+    private boolean helloRetry;
+
+    private boolean alertFromClient;
+    private int alertLevel;
+    private int alertDescription = -1;
+    private boolean alertEncrypted;
+
+    TlsSession(TlsHandshakeAnalyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    @Override
+    public void onData(TcpConnection connection, boolean fromClient, ByteBuffer data, long timestampNanos) {
+        if (this.connection == null) {
+            this.connection = connection;
+            this.clientIsTcpClient = fromClient;
+        }
+        (fromClient == clientIsTcpClient ? clientParser : serverParser).feed(data, timestampNanos);
+    }
+
+    @Override
+    public void onGap(TcpConnection connection, boolean fromClient, long length) {
+        if (this.connection == null) {
+            // the start of the stream is missing, the first bytes seen would be mistaken for record headers
+            this.connection = connection;
+            notTls();
+            return;
+        }
+        finish("gap");
+    }
+
+    @Override
+    public void onClose(TcpConnection connection, TcpConnection.CloseReason reason) {
+        if (finished || clientHelloNanos == 0) {
+            return;
+        }
+        finished = true;
+        analyzer.report(this, reason.name().toLowerCase());
+    }
+
+    /**
+     * @return true once the server chose TLS 1.3, whose ChangeCipherSpec records are only for middleboxes
+     */
+    boolean isTls13() {
+        return selectedVersion == TLS13;
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    void notTls() {
+        finished = true;
+        analyzer.ignored();
+        connection.removeListener(this);
+    }
+
+    void onRecord(TlsRecordParser parser, int type, long timestampNanos) {
+        if (type == TlsRecordParser.CHANGE_CIPHER_SPEC) {
+            if (parser.isClient()) {
+                clientChangeCipherNanos = timestampNanos;
+            }
+            else {
+                serverChangeCipherNanos = timestampNanos;
+            }
+            if (!isTls13() && serverHelloNanos != 0 && clientChangeCipherNanos != 0 && serverChangeCipherNanos != 0) {
+                complete(timestampNanos);
+            }
+        }
+        else if (type == TlsRecordParser.APPLICATION_DATA) {
+            // in TLS 1.3 the first encrypted record of the client after the ServerHello carries its Finished
+            if (parser.isClient() && serverHelloNanos != 0 && isTls13()) {
+                complete(timestampNanos);
+            }
+        }
+        else if (type == TlsRecordParser.ALERT && parser.isEncrypted()) {
+            alertFromClient = parser.isClient();
+            alertEncrypted = true;
+            finish("alert");
+        }
+    }
+
+    void onHandshake(TlsRecordParser parser, int type, long timestampNanos) {
+        if (parser.isClient()) {
+            if (clientHelloNanos == 0) {
+                if (type != TlsRecordParser.CLIENT_HELLO) {
+                    notTls();
+                    return;
+                }
+                clientHelloNanos = timestampNanos;
+            }
+        }
+        else if (type == TlsRecordParser.CERTIFICATE && certificateNanos == 0) {
+            certificateNanos = timestampNanos;
+        }
+    }
+
+    void onHello(TlsRecordParser parser, int type, byte[] body, long timestampNanos) {
+        if (type == TlsRecordParser.CLIENT_HELLO && parser.isClient()) {
+            // the second ClientHello after a retry request offers the same
+            if (offeredVersions == null && !parseClientHello(body)) {
+                finish("malformed");
+            }
+        }
+        else if (type == TlsRecordParser.SERVER_HELLO && !parser.isClient()) {
+            if (!parseServerHello(body, timestampNanos)) {
+                finish("malformed");
+            }
+        }
+    }
+
+    void onAlert(TlsRecordParser parser, int level, int description) {
+        alertFromClient = parser.isClient();
+        alertLevel = level;
+        alertDescription = description;
+        if (level == FATAL || description == CLOSE_NOTIFY) {
+            finish("alert");
+        }
+    }
+
+    private void complete(long timestampNanos) {
+        completeNanos = timestampNanos;
+        finish("ok");
+    }
+
+    private void finish(String outcome) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (clientHelloNanos != 0) {
+            analyzer.report(this, outcome);
+        }
+        else {
+            analyzer.ignored();
+        }
+        connection.removeListener(this);
+    }
+
+    /**
+     * legacy_version, random, session_id, cipher_suites, compression_methods, extensions
+     */
+    private boolean parseClientHello(byte[] body) {
+        int at = 2 + 32;
+        if (at + 1 > body.length) {
+            return false;
+        }
+        at += 1 + (body[at] & 0xff);
+        if (at + 2 > body.length) {
+            return false;
+        }
+        int ciphersLength = readShort(body, at);
+        at += 2;
+        if (at + ciphersLength > body.length) {
+            return false;
+        }
+        for (int i = 0; i + 1 < ciphersLength; i += 2) {
+            if (!TlsNames.isGrease(readShort(body, at + i))) {
+                offeredCiphers++;
+            }
+        }
+        at += ciphersLength;
+        if (at + 1 > body.length) {
+            return false;
+        }
+        at += 1 + (body[at] & 0xff);
+        offeredVersions = TlsNames.version(readShort(body, 0));
+
+        if (at + 2 > body.length) {
+            // no extensions
+            return at <= body.length;
+        }
+        int end = at + 2 + readShort(body, at);
+        at += 2;
+        if (end > body.length) {
+            return false;
+        }
+        while (at + 4 <= end) {
+            int type = readShort(body, at);
+            int length = readShort(body, at + 2);
+            at += 4;
+            if (at + length > end) {
+                return false;
+            }
+            if (type == SERVER_NAME && length >= 5 && (body[at + 2] & 0xff) == 0) {
+                // server_name_list with a host_name first
+                int nameLength = readShort(body, at + 3);
+                if (5 + nameLength <= length) {
+                    serverName = new String(body, at + 5, nameLength, StandardCharsets.US_ASCII);
+                }
+            }
+            else if (type == SUPPORTED_VERSIONS && length >= 1) {
+                StringBuilder versions = new StringBuilder();
+                int count = Math.min(body[at] & 0xff, length - 1);
+                for (int i = 0; i + 1 < count; i += 2) {
+                    int version = readShort(body, at + 1 + i);
+                    if (!TlsNames.isGrease(version)) {
+                        if (versions.length() > 0) {
+                            versions.append(',');
+                        }
+                        versions.append(TlsNames.version(version));
+                    }
+                }
+                if (versions.length() > 0) {
+                    offeredVersions = versions.toString();
+                }
+            }
+            at += length;
+        }
+        return true;
+    }
+
+    /**
+     * legacy_version, random, session_id, cipher_suite, compression_method, extensions
+     */
+    private boolean parseServerHello(byte[] body, long timestampNanos) {
+        if (2 + 32 + 1 > body.length) {
+            return false;
+        }
+        boolean retry = true;
+        for (int i = 0; i < HELLO_RETRY_RANDOM.length; i++) {
+            if (body[2 + i] != HELLO_RETRY_RANDOM[i]) {
+                retry = false;
+                break;
+            }
+        }
+        int at = 2 + 32;
+        at += 1 + (body[at] & 0xff);
+        if (at + 3 > body.length) {
+            return false;
+        }
+        selectedVersion = readShort(body, 0);
+        if (retry) {
+            // the version is already settled, the rest is timed by the ServerHello answering the second ClientHello
+            helloRetry = true;
+        }
+        else {
+            serverHelloNanos = timestampNanos;
+            selectedCipher = readShort(body, at);
+        }
+        at += 3;
+        if (at + 2 > body.length) {
+            return true;
+        }
+        int end = Math.min(body.length, at + 2 + readShort(body, at));
+        at += 2;
+        while (at + 4 <= end) {
+            int type = readShort(body, at);
+            int length = readShort(body, at + 2);
+            at += 4;
+            if (type == SUPPORTED_VERSIONS && length == 2 && at + 2 <= end) {
+                selectedVersion = readShort(body, at);
+            }
+            at += length;
+        }
+        return true;
+    }
+
+    private static int readShort(byte[] bytes, int at) {
+        return ((bytes[at] & 0xff) << 8) | (bytes[at + 1] & 0xff);
+    }
+
+    TcpConnection getConnection() {
+        return connection;
+    }
+
+    boolean isClientTcpClient() {
+        return clientIsTcpClient;
+    }
+
+    long getClientHelloNanos() {
+        return clientHelloNanos;
+    }
+
+    long getServerHelloNanos() {
+        return serverHelloNanos;
+    }
+
+    long getCertificateNanos() {
+        return certificateNanos;
+    }
+
+    long getCompleteNanos() {
+        return completeNanos;
+    }
+
+    String getServerName() {
+        return serverName;
+    }
+
+    String getOfferedVersions() {
+        return offeredVersions;
+    }
+
+    int getOfferedCiphers() {
+        return offeredCiphers;
+    }
+
+    int getSelectedVersion() {
+        return selectedVersion;
+    }
+
+    int getSelectedCipher() {
+        return selectedCipher;
+    }
+
+    boolean isHelloRetry() {
+        return helloRetry;
+    }
+
+    boolean isAlertFromClient() {
+        return alertFromClient;
+    }
+
+    int getAlertLevel() {
+        return alertLevel;
+    }
+
+    int getAlertDescription() {
+        return alertDescription;
+    }
+
+    boolean isAlertEncrypted() {
+        return alertEncrypted;
+    }
+}
@@ -0,0 +1,119 @@
+package cc.databus.netool.utils;
+
+import cc.databus.netool.source.PacketSource;
+import org.pcap4j.core.PcapStat;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raises the sample rate of all {@link PacketSampler}s when the capture falls behind and lowers it again
+ * once it has caught up, so overload costs a known fraction of the packets instead of random losses.
+ *
+ * Every tick the writer queue depth and the packets dropped by the queue or the kernel since the last tick
+ * are looked at. A queue filled beyond the threshold or any new drop doubles the rate, up to the maximum.
+ * The rate is halved, down to the configured one, after a couple of ticks with the queue below a quarter
+ * of the threshold and no drops.
+ */
+public class AdaptiveSampler implements Closeable {
+
+    private static final long TICK_MILLIS = 250;
+    /**
+     * quiet ticks before the rate is lowered, lowering is slower than raising to avoid flapping
+     */
+    private static final int CALM_TICKS = 8;
+
+    private final List<PacketSampler> samplers;
+    private final PacketRingBuffer ringBuffer;
+    private final List<PacketSource> sources;
+    private final int minRate;
+    private final int maxRate;
+    private final int queueThreshold;
+
+    private int rate;
+    private long previousDrops = -1;
+    private int calmTicks = 0;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param minRate      rate in effect without load
+     * @param maxRate      highest rate to raise to, rounded down to the rate times a power of two
+     * @param queuePercent queue fill, in percent of its capacity, that counts as falling behind
+     */
+    public AdaptiveSampler(Collection<PacketSampler> samplers, PacketRingBuffer ringBuffer, Collection<PacketSource> sources,
+                           int minRate, int maxRate, int queuePercent) {
+        this.samplers = new ArrayList<>(samplers);
+        this.ringBuffer = ringBuffer;
+        this.sources = new ArrayList<>(sources);
+        this.minRate = minRate;
+        this.maxRate = Math.max(minRate, maxRate);
+        this.queueThreshold = (int) Math.max(1, (long) ringBuffer.capacity() * queuePercent / 100);
+        this.rate = minRate;
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "netools-sampling");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::tickSafely, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void tickSafely() {
+        try {
+            tick();
+        }
+        catch (RuntimeException e) {
+            SystemOutHelper.println(String.format("Adaptive sampling failed - %s:%s", e.getClass().getCanonicalName(), e.getMessage()));
+        }
+    }
+
+    private void tick() {
+        int depth = ringBuffer.size();
+        long drops = ringBuffer.getDroppedCount();
+        for (PacketSource source : sources) {
+            PcapStat stat = source.getStats();
+            if (stat != null) {
+                drops += stat.getNumPacketsDropped() + stat.getNumPacketsDroppedByIf();
+            }
+        }
+        long newDrops = previousDrops < 0 ? 0 : drops - previousDrops;
+        previousDrops = drops;
+
+        if (depth >= queueThreshold || newDrops > 0) {
+            calmTicks = 0;
+            // stay on powers of two times the configured rate, see PacketSampler
+            if (rate * 2L <= maxRate) {
+                setRate(rate * 2, depth, newDrops);
+            }
+        }
+        else if (depth < queueThreshold / 4 && ++calmTicks >= CALM_TICKS) {
+            calmTicks = 0;
+            if (rate > minRate) {
+                setRate(rate / 2, depth, newDrops);
+            }
+        }
+    }
+
+    private void setRate(int rate, int depth, long newDrops) {
+        SystemOutHelper.println(String.format("Sampling 1 in %d packets, was 1 in %d (queue %d of %d, %d new drops).",
+                rate, this.rate, depth, ringBuffer.capacity(), newDrops));
+        this.rate = rate;
+        for (PacketSampler sampler : samplers) {
+            sampler.setRate(rate);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package cc.databus.netool.utils;
+
+import org.pcap4j.core.PcapHandle;
+
+/**
+ * Which packets of an interface to capture, by the direction they travel.
+ */
+public enum CaptureDirection {
+    /**
+     * packets received by the interface
+     */
+    IN(PcapHandle.PcapDirection.IN),
+    /**
+     * packets sent by the interface
+     */
+    OUT(PcapHandle.PcapDirection.OUT),
+    /**
+     * both directions, libpcap's default
+     */
+    INOUT(PcapHandle.PcapDirection.INOUT);
+
+    private final PcapHandle.PcapDirection pcapDirection;
+
+    CaptureDirection(PcapHandle.PcapDirection pcapDirection) {
+        this.pcapDirection = pcapDirection;
+    }
+
+    public PcapHandle.PcapDirection getPcapDirection() {
+        return pcapDirection;
+    }
+
+    public static CaptureDirection parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Unknown direction [%s], expect one of in, out, inout", name));
+        }
+    }
+}
@@ -14,6 +14,46 @@ public class CaptureOptions {
      */
     private String filePath = "";
 
+    /**
+     * pcap file to read packets from instead of capturing on interfaces
+     */
+    private String readFilePath = "";
+
+    /**
+     * threads polling all live interfaces together, 0 for one blocking thread per interface
+     */
+    private int eventLoops = 0;
+
+    /**
+     * pcap file to replay through the capture pipeline instead of capturing on interfaces
+     */
+    private String replayFilePath = "";
+
+    /**
+     * multiplier of the original packet rate when replaying, 0 for as fast as possible
+     */
+    private double replaySpeed = 1;
+
+    /**
+     * feed the capture pipeline with generated packets instead of capturing on interfaces
+     */
+    private boolean synthetic = false;
+
+    /**
+     * size of the generated packets in bytes, or imix
+     */
+    private String syntheticSize = "imix";
+
+    /**
+     * number of flows the generated packets belong to
+     */
+    private int syntheticFlows = 1024;
+
+    /**
+     * generated packets per second, 0 for as fast as possible
+     */
+    private long syntheticRate = 0;
+
     private int snapLen = 65536;
 
     /**
@@ -21,6 +61,31 @@ public class CaptureOptions {
      */
     private int timeout = 10;
 
+    /**
+     * kernel capture buffer size of each handle in bytes, 0 for the libpcap default
+     */
+    private int bufferSize = 0;
+
+    /**
+     * deliver packets as soon as they arrive instead of waiting for the buffer to fill or the timeout
+     */
+    private boolean immediateMode = false;
+
+    /**
+     * ask for nanosecond timestamps, the dump files are then written with nanosecond resolution too
+     */
+    private boolean nanoPrecision = false;
+
+    /**
+     * directions of the packets to capture
+     */
+    private CaptureDirection direction = CaptureDirection.INOUT;
+
+    /**
+     * put the interfaces into promiscuous mode
+     */
+    private boolean promiscuous = true;
+
     /**
      * Interface names. If this is not empty, will choose the first one
      */
@@ -41,10 +106,332 @@ public class CaptureOptions {
      */
     private String filter = "";
 
+    /**
+     * number of packets the writer queue can hold
+     */
+    private int queueCapacity = 65536;
+
+    /**
+     * what to do with new packets when the writer queue is full
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    /**
+     * format and writer of the dump files
+     */
+    private OutputFormat outputFormat = OutputFormat.PCAP;
+
+    /**
+     * size of the write buffer, or of each mapped segment, of the java writers in bytes
+     */
+    private int writeBufferSize = 4 * 1024 * 1024;
+
+    /**
+     * let the java writers write into memory mapped file segments instead of a buffer
+     */
+    private boolean memoryMapped = false;
+
+    /**
+     * write the packets of all interfaces into one pcapng file in timestamp order
+     */
+    private boolean merge = false;
+
+    /**
+     * milliseconds a packet may be held back to be merged in order
+     */
+    private int mergeWindow = 100;
+
+    /**
+     * max packets held back by the merge over all interfaces
+     */
+    private int mergeBuffer = 65536;
+
+    /**
+     * bytes after which the -w files are rotated, 0 for no limit
+     */
+    private long rotateSize = 0;
+
+    /**
+     * seconds of capture time after which the -w files are rotated, 0 for no limit
+     */
+    private int rotateInterval = 0;
+
+    /**
+     * rotated files kept per interface, 0 to keep all
+     */
+    private int rotateFiles = 0;
+
+    /**
+     * how rotated files are compressed
+     */
+    private Compression compression = Compression.NONE;
+
+    /**
+     * keep the last packets in memory and write them to -w files only when triggered
+     */
+    private boolean recorder = false;
+
+    /**
+     * bytes of the flight recorder buffers, over all interfaces
+     */
+    private long recorderMemory = 64L * 1024 * 1024;
+
+    /**
+     * seconds of packets the flight recorder keeps at most, 0 for as many as fit
+     */
+    private int recorderSeconds = 0;
+
+    /**
+     * seconds the flight recorder keeps writing after a trigger
+     */
+    private int recorderAfter = 0;
+
+    /**
+     * signal triggering the flight recorder, empty for none
+     */
+    private String triggerSignal = "USR2";
+
+    /**
+     * file whose appearance triggers the flight recorder, empty for none
+     */
+    private String triggerFile = "";
+
+    /**
+     * filter of the packets triggering the flight recorder, empty for none
+     */
+    private String triggerFilter = "";
+
+    /**
+     * reassemble TCP streams and print a line per connection instead of the packets
+     */
+    private boolean streams = false;
+
+    /**
+     * off-heap memory in bytes for out of order segments of all streams
+     */
+    private long streamsMemory = 64L * 1024 * 1024;
+
+    /**
+     * out of order bytes one stream direction may buffer
+     */
+    private int streamsFlowMemory = 1024 * 1024;
+
+    /**
+     * seconds after which a silent connection is closed
+     */
+    private int streamsIdleTimeout = 60;
+
+    /**
+     * follow the TLS handshakes of the reassembled streams and print a line per handshake
+     */
+    private boolean tls = false;
+
+    /**
+     * match SNMP requests to responses and report loss and latency per agent instead of dumping packets
+     */
+    private boolean snmp = false;
+
+    /**
+     * seconds after which a request without response is lost
+     */
+    private int snmpTimeout = 5;
+
+    /**
+     * seconds between two SNMP reports
+     */
+    private long snmpInterval = 10;
+
+    /**
+     * number of agents in each SNMP report
+     */
+    private int snmpTop = 20;
+
+    /**
+     * memory cap in bytes of the outstanding SNMP requests
+     */
+    private long snmpMemory = 64L * 1024 * 1024;
+
+    /**
+     * write a sidecar index next to the -w file, or next to the -r file when reading without -w
+     */
+    private boolean index = false;
+
+    /**
+     * start of the time range of a -r read, null for the first record
+     */
+    private String from = null;
+
+    /**
+     * end of the time range of a -r read, exclusive, null for the last record
+     */
+    private String to = null;
+
+    /**
+     * the only flow of a -r read, both directions, null for all
+     */
+    private String flow = null;
+
+    /**
+     * threads the --flows accounting is sharded over by flow hash, 0 to account on the capture threads
+     */
+    private int workers = 0;
+
+    /**
+     * drop packets captured again within the dedup window, on any interface
+     */
+    private boolean dedup = false;
+
+    /**
+     * milliseconds within which a packet captured again is a duplicate
+     */
+    private long dedupWindow = 10;
+
+    /**
+     * threads gzipping the -w output while it is written, 0 to write it uncompressed
+     */
+    private int compressThreads = 0;
+
+    /**
+     * deflate level of the gzipped -w output, 1 to 9
+     */
+    private int compressLevel = 1;
+
+    /**
+     * payload filter expression applied after -f, null for none
+     */
+    private String match;
+
+    /**
+     * keep 1 in this many packets
+     */
+    private int sampleRate = 1;
+
+    /**
+     * which packets sampling keeps
+     */
+    private SamplingMode samplingMode = SamplingMode.PACKET;
+
+    /**
+     * raise the sample rate while the capture falls behind
+     */
+    private boolean sampleAdaptive = false;
+
+    /**
+     * highest rate adaptive sampling raises to
+     */
+    private int sampleMaxRate = 1024;
+
+    /**
+     * writer queue fill in percent at which adaptive sampling raises the rate
+     */
+    private int sampleQueuePercent = 50;
+
+    /**
+     * print packets to stdout with pcap4j's multi-line decoding instead of one summary line each
+     */
+    private boolean verbose = false;
+
+    /**
+     * minimum seconds between two dumps triggered by packets
+     */
+    private int triggerHoldOff = 10;
+
+    /**
+     * print a protocol and time summary of the read file instead of its packets
+     */
+    private boolean summary = false;
+
+    /**
+     * width of the summary histogram intervals in seconds
+     */
+    private long summaryInterval = 1;
+
+    /**
+     * worker threads of the offline analysis
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * account packets per flow and report the top talkers instead of dumping packets
+     */
+    private boolean flows = false;
+
+    /**
+     * number of flows in each report
+     */
+    private int flowsTop = 20;
+
+    /**
+     * seconds between two flow reports
+     */
+    private long flowsInterval = 10;
+
+    /**
+     * seconds after which a flow without packets is evicted
+     */
+    private long flowsIdleTimeout = 60;
+
+    /**
+     * memory cap of the flow tables of all interfaces together in bytes
+     */
+    private long flowsMemory = 64L * 1024 * 1024;
+
+    /**
+     * where to emit metrics JSON lines: "stderr" or a file path, empty for none
+     */
+    private String metricsTarget = "";
+
+    /**
+     * seconds between two metrics samples
+     */
+    private long metricsInterval = 1;
+
+    /**
+     * expose the metrics as MXBeans
+     */
+    private boolean metricsJmx = false;
+
+    /**
+     * local port serving the metrics over HTTP, -1 for none
+     */
+    private int metricsHttpPort = -1;
+
     public String getFilePath() {
         return filePath;
     }
 
+    public String getReadFilePath() {
+        return readFilePath;
+    }
+
+    public String getReplayFilePath() {
+        return replayFilePath;
+    }
+
+    public double getReplaySpeed() {
+        return replaySpeed;
+    }
+
+    public boolean isSynthetic() {
+        return synthetic;
+    }
+
+    public String getSyntheticSize() {
+        return syntheticSize;
+    }
+
+    public int getSyntheticFlows() {
+        return syntheticFlows;
+    }
+
+    public long getSyntheticRate() {
+        return syntheticRate;
+    }
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
     public int getSnapLen() {
         return snapLen;
     }
@@ -69,49 +456,626 @@ public class CaptureOptions {
         return timeout;
     }
 
-    public static Builder newBuilder() {
-        return new Builder();
+    public int getBufferSize() {
+        return bufferSize;
     }
 
-    private void setFilePath(String filePath) {
-        this.filePath = filePath;
+    public boolean isImmediateMode() {
+        return immediateMode;
     }
 
-    private void setSnapLen(int snapLen) {
-        this.snapLen = snapLen;
+    public boolean isNanoPrecision() {
+        return nanoPrecision;
     }
 
-    private void addInterfaceName(String interfaceName) {
-        this.interfaceNames.add(interfaceName);
+    public CaptureDirection getDirection() {
+        return direction;
     }
 
-    private void setDuration(long duration) {
-        this.duration = duration;
+    public boolean isPromiscuous() {
+        return promiscuous;
     }
 
-    private void setCount(int count) {
-        this.count = count;
+    public int getQueueCapacity() {
+        return queueCapacity;
     }
 
-    private void setFilter(String filter) {
-        this.filter = filter;
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
     }
 
-    private void setTimeout(int timeout) {
-        this.timeout = timeout;
+    public OutputFormat getOutputFormat() {
+        return outputFormat;
     }
-    public static class Builder {
 
-        private CaptureOptions inner = new CaptureOptions();
-        private Builder() {}
+    public int getWriteBufferSize() {
+        return writeBufferSize;
+    }
 
-        public Builder filePath(String filePath) {
-            inner.setFilePath(filePath);
-            return this;
-        }
+    public boolean isMerge() {
+        return merge;
+    }
 
-        public Builder snapLength(int snapLen) {
-            inner.setSnapLen(snapLen);
+    public int getMergeWindow() {
+        return mergeWindow;
+    }
+
+    public int getMergeBuffer() {
+        return mergeBuffer;
+    }
+
+    public long getRotateSize() {
+        return rotateSize;
+    }
+
+    public int getRotateInterval() {
+        return rotateInterval;
+    }
+
+    public int getRotateFiles() {
+        return rotateFiles;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public boolean isRecorder() {
+        return recorder;
+    }
+
+    public long getRecorderMemory() {
+        return recorderMemory;
+    }
+
+    public int getRecorderSeconds() {
+        return recorderSeconds;
+    }
+
+    public int getRecorderAfter() {
+        return recorderAfter;
+    }
+
+    public String getTriggerSignal() {
+        return triggerSignal;
+    }
+
+    public String getTriggerFile() {
+        return triggerFile;
+    }
+
+    public String getTriggerFilter() {
+        return triggerFilter;
+    }
+
+    public int getTriggerHoldOff() {
+        return triggerHoldOff;
+    }
+
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public SamplingMode getSamplingMode() {
+        return samplingMode;
+    }
+
+    public boolean isSampleAdaptive() {
+        return sampleAdaptive;
+    }
+
+    public int getSampleMaxRate() {
+        return sampleMaxRate;
+    }
+
+    public int getSampleQueuePercent() {
+        return sampleQueuePercent;
+    }
+
+    public boolean isStreams() {
+        return streams;
+    }
+
+    public long getStreamsMemory() {
+        return streamsMemory;
+    }
+
+    public int getStreamsFlowMemory() {
+        return streamsFlowMemory;
+    }
+
+    public int getStreamsIdleTimeout() {
+        return streamsIdleTimeout;
+    }
+
+    public boolean isTls() {
+        return tls;
+    }
+
+    public boolean isSnmp() {
+        return snmp;
+    }
+
+    public int getSnmpTimeout() {
+        return snmpTimeout;
+    }
+
+    public long getSnmpInterval() {
+        return snmpInterval;
+    }
+
+    public int getSnmpTop() {
+        return snmpTop;
+    }
+
+    public long getSnmpMemory() {
+        return snmpMemory;
+    }
+
+    public boolean isIndex() {
+        return index;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public String getFlow() {
+        return flow;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public boolean isDedup() {
+        return dedup;
+    }
+
+    public long getDedupWindow() {
+        return dedupWindow;
+    }
+
+    public int getCompressThreads() {
+        return compressThreads;
+    }
+
+    public int getCompressLevel() {
+        return compressLevel;
+    }
+
+    public String getMatch() {
+        return match;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    public boolean isSummary() {
+        return summary;
+    }
+
+    public long getSummaryInterval() {
+        return summaryInterval;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public boolean isFlows() {
+        return flows;
+    }
+
+    public int getFlowsTop() {
+        return flowsTop;
+    }
+
+    public long getFlowsInterval() {
+        return flowsInterval;
+    }
+
+    public long getFlowsIdleTimeout() {
+        return flowsIdleTimeout;
+    }
+
+    public long getFlowsMemory() {
+        return flowsMemory;
+    }
+
+    public String getMetricsTarget() {
+        return metricsTarget;
+    }
+
+    public long getMetricsInterval() {
+        return metricsInterval;
+    }
+
+    public boolean isMetricsJmx() {
+        return metricsJmx;
+    }
+
+    public int getMetricsHttpPort() {
+        return metricsHttpPort;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    private void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+
+    private void setReadFilePath(String readFilePath) {
+        this.readFilePath = readFilePath;
+    }
+
+    private void setReplayFilePath(String replayFilePath) {
+        this.replayFilePath = replayFilePath;
+    }
+
+    private void setReplaySpeed(double replaySpeed) {
+        this.replaySpeed = replaySpeed;
+    }
+
+    private void setSynthetic(boolean synthetic) {
+        this.synthetic = synthetic;
+    }
+
+    private void setSyntheticSize(String syntheticSize) {
+        this.syntheticSize = syntheticSize;
+    }
+
+    private void setSyntheticFlows(int syntheticFlows) {
+        this.syntheticFlows = syntheticFlows;
+    }
+
+    private void setSyntheticRate(long syntheticRate) {
+        this.syntheticRate = syntheticRate;
+    }
+
+    private void setEventLoops(int eventLoops) {
+        this.eventLoops = eventLoops;
+    }
+
+    private void setSnapLen(int snapLen) {
+        this.snapLen = snapLen;
+    }
+
+    private void addInterfaceName(String interfaceName) {
+        this.interfaceNames.add(interfaceName);
+    }
+
+    private void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    private void setCount(int count) {
+        this.count = count;
+    }
+
+    private void setFilter(String filter) {
+        this.filter = filter;
+    }
+
+    private void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    private void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    private void setImmediateMode(boolean immediateMode) {
+        this.immediateMode = immediateMode;
+    }
+
+    private void setNanoPrecision(boolean nanoPrecision) {
+        this.nanoPrecision = nanoPrecision;
+    }
+
+    private void setDirection(CaptureDirection direction) {
+        this.direction = direction;
+    }
+
+    private void setPromiscuous(boolean promiscuous) {
+        this.promiscuous = promiscuous;
+    }
+
+    private void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    private void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    private void setOutputFormat(OutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    private void setWriteBufferSize(int writeBufferSize) {
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    private void setMerge(boolean merge) {
+        this.merge = merge;
+    }
+
+    private void setMergeWindow(int mergeWindow) {
+        this.mergeWindow = mergeWindow;
+    }
+
+    private void setMergeBuffer(int mergeBuffer) {
+        this.mergeBuffer = mergeBuffer;
+    }
+
+    private void setRotateSize(long rotateSize) {
+        this.rotateSize = rotateSize;
+    }
+
+    private void setRotateInterval(int rotateInterval) {
+        this.rotateInterval = rotateInterval;
+    }
+
+    private void setRotateFiles(int rotateFiles) {
+        this.rotateFiles = rotateFiles;
+    }
+
+    private void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    private void setRecorder(boolean recorder) {
+        this.recorder = recorder;
+    }
+
+    private void setRecorderMemory(long recorderMemory) {
+        this.recorderMemory = recorderMemory;
+    }
+
+    private void setRecorderSeconds(int recorderSeconds) {
+        this.recorderSeconds = recorderSeconds;
+    }
+
+    private void setRecorderAfter(int recorderAfter) {
+        this.recorderAfter = recorderAfter;
+    }
+
+    private void setTriggerSignal(String triggerSignal) {
+        this.triggerSignal = triggerSignal;
+    }
+
+    private void setTriggerFile(String triggerFile) {
+        this.triggerFile = triggerFile;
+    }
+
+    private void setTriggerFilter(String triggerFilter) {
+        this.triggerFilter = triggerFilter;
+    }
+
+    private void setTriggerHoldOff(int triggerHoldOff) {
+        this.triggerHoldOff = triggerHoldOff;
+    }
+
+    private void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    private void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    private void setSamplingMode(SamplingMode samplingMode) {
+        this.samplingMode = samplingMode;
+    }
+
+    private void setSampleAdaptive(boolean sampleAdaptive) {
+        this.sampleAdaptive = sampleAdaptive;
+    }
+
+    private void setSampleMaxRate(int sampleMaxRate) {
+        this.sampleMaxRate = sampleMaxRate;
+    }
+
+    private void setSampleQueuePercent(int sampleQueuePercent) {
+        this.sampleQueuePercent = sampleQueuePercent;
+    }
+
+    private void setStreams(boolean streams) {
+        this.streams = streams;
+    }
+
+    private void setStreamsMemory(long streamsMemory) {
+        this.streamsMemory = streamsMemory;
+    }
+
+    private void setStreamsFlowMemory(int streamsFlowMemory) {
+        this.streamsFlowMemory = streamsFlowMemory;
+    }
+
+    private void setStreamsIdleTimeout(int streamsIdleTimeout) {
+        this.streamsIdleTimeout = streamsIdleTimeout;
+    }
+
+    private void setTls(boolean tls) {
+        this.tls = tls;
+    }
+
+    private void setSnmp(boolean snmp) {
+        this.snmp = snmp;
+    }
+
+    private void setSnmpTimeout(int snmpTimeout) {
+        this.snmpTimeout = snmpTimeout;
+    }
+
+    private void setSnmpInterval(long snmpInterval) {
+        this.snmpInterval = snmpInterval;
+    }
+
+    private void setSnmpTop(int snmpTop) {
+        this.snmpTop = snmpTop;
+    }
+
+    private void setSnmpMemory(long snmpMemory) {
+        this.snmpMemory = snmpMemory;
+    }
+
+    private void setIndex(boolean index) {
+        this.index = index;
+    }
+
+    private void setFrom(String from) {
+        this.from = from;
+    }
+
+    private void setTo(String to) {
+        this.to = to;
+    }
+
+    private void setFlow(String flow) {
+        this.flow = flow;
+    }
+
+    private void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    private void setDedup(boolean dedup) {
+        this.dedup = dedup;
+    }
+
+    private void setDedupWindow(long dedupWindow) {
+        this.dedupWindow = dedupWindow;
+    }
+
+    private void setCompressThreads(int compressThreads) {
+        this.compressThreads = compressThreads;
+    }
+
+    private void setCompressLevel(int compressLevel) {
+        this.compressLevel = compressLevel;
+    }
+
+    private void setMatch(String match) {
+        this.match = match;
+    }
+
+    private void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    private void setSummary(boolean summary) {
+        this.summary = summary;
+    }
+
+    private void setSummaryInterval(long summaryInterval) {
+        this.summaryInterval = summaryInterval;
+    }
+
+    private void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    private void setFlows(boolean flows) {
+        this.flows = flows;
+    }
+
+    private void setFlowsTop(int flowsTop) {
+        this.flowsTop = flowsTop;
+    }
+
+    private void setFlowsInterval(long flowsInterval) {
+        this.flowsInterval = flowsInterval;
+    }
+
+    private void setFlowsIdleTimeout(long flowsIdleTimeout) {
+        this.flowsIdleTimeout = flowsIdleTimeout;
+    }
+
+    private void setFlowsMemory(long flowsMemory) {
+        this.flowsMemory = flowsMemory;
+    }
+
+    private void setMetricsTarget(String metricsTarget) {
+        this.metricsTarget = metricsTarget;
+    }
+
+    private void setMetricsInterval(long metricsInterval) {
+        this.metricsInterval = metricsInterval;
+    }
+
+    private void setMetricsJmx(boolean metricsJmx) {
+        this.metricsJmx = metricsJmx;
+    }
+
+    private void setMetricsHttpPort(int metricsHttpPort) {
+        this.metricsHttpPort = metricsHttpPort;
+    }
+
+    public static class Builder {
+
+        private CaptureOptions inner = new CaptureOptions();
+        private Builder() {}
+
+        public Builder filePath(String filePath) {
+            inner.setFilePath(filePath);
+            return this;
+        }
+
+        public Builder readFilePath(String readFilePath) {
+            inner.setReadFilePath(readFilePath);
+            return this;
+        }
+
+        public Builder replayFilePath(String replayFilePath) {
+            inner.setReplayFilePath(replayFilePath);
+            return this;
+        }
+
+        public Builder replaySpeed(double replaySpeed) {
+            inner.setReplaySpeed(replaySpeed);
+            return this;
+        }
+
+        public Builder synthetic(boolean synthetic) {
+            inner.setSynthetic(synthetic);
+            return this;
+        }
+
+        public Builder syntheticSize(String syntheticSize) {
+            inner.setSyntheticSize(syntheticSize);
+            return this;
+        }
+
+        public Builder syntheticFlows(int syntheticFlows) {
+            inner.setSyntheticFlows(syntheticFlows);
+            return this;
+        }
+
+        public Builder syntheticRate(long syntheticRate) {
+            inner.setSyntheticRate(syntheticRate);
+            return this;
+        }
+
+        public Builder eventLoops(int eventLoops) {
+            inner.setEventLoops(eventLoops);
+            return this;
+        }
+
+        public Builder snapLength(int snapLen) {
+            inner.setSnapLen(snapLen);
             return this;
         }
 
@@ -140,6 +1104,321 @@ public class CaptureOptions {
             return this;
         }
 
+        public Builder bufferSize(int bufferSize) {
+            inner.setBufferSize(bufferSize);
+            return this;
+        }
+
+        public Builder immediateMode(boolean immediateMode) {
+            inner.setImmediateMode(immediateMode);
+            return this;
+        }
+
+        public Builder nanoPrecision(boolean nanoPrecision) {
+            inner.setNanoPrecision(nanoPrecision);
+            return this;
+        }
+
+        public Builder direction(CaptureDirection direction) {
+            inner.setDirection(direction);
+            return this;
+        }
+
+        public Builder promiscuous(boolean promiscuous) {
+            inner.setPromiscuous(promiscuous);
+            return this;
+        }
+
+        public Builder queueCapacity(int queueCapacity) {
+            inner.setQueueCapacity(queueCapacity);
+            return this;
+        }
+
+        public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+            inner.setOverflowPolicy(overflowPolicy);
+            return this;
+        }
+
+        public Builder outputFormat(OutputFormat outputFormat) {
+            inner.setOutputFormat(outputFormat);
+            return this;
+        }
+
+        public Builder writeBufferSize(int writeBufferSize) {
+            inner.setWriteBufferSize(writeBufferSize);
+            return this;
+        }
+
+        public Builder merge(boolean merge) {
+            inner.setMerge(merge);
+            return this;
+        }
+
+        public Builder mergeWindow(int mergeWindow) {
+            inner.setMergeWindow(mergeWindow);
+            return this;
+        }
+
+        public Builder mergeBuffer(int mergeBuffer) {
+            inner.setMergeBuffer(mergeBuffer);
+            return this;
+        }
+
+        public Builder rotateSize(long rotateSize) {
+            inner.setRotateSize(rotateSize);
+            return this;
+        }
+
+        public Builder rotateInterval(int rotateInterval) {
+            inner.setRotateInterval(rotateInterval);
+            return this;
+        }
+
+        public Builder rotateFiles(int rotateFiles) {
+            inner.setRotateFiles(rotateFiles);
+            return this;
+        }
+
+        public Builder compression(Compression compression) {
+            inner.setCompression(compression);
+            return this;
+        }
+
+        public Builder recorder(boolean recorder) {
+            inner.setRecorder(recorder);
+            return this;
+        }
+
+        public Builder recorderMemory(long recorderMemory) {
+            inner.setRecorderMemory(recorderMemory);
+            return this;
+        }
+
+        public Builder recorderSeconds(int recorderSeconds) {
+            inner.setRecorderSeconds(recorderSeconds);
+            return this;
+        }
+
+        public Builder recorderAfter(int recorderAfter) {
+            inner.setRecorderAfter(recorderAfter);
+            return this;
+        }
+
+        public Builder triggerSignal(String triggerSignal) {
+            inner.setTriggerSignal(triggerSignal);
+            return this;
+        }
+
+        public Builder triggerFile(String triggerFile) {
+            inner.setTriggerFile(triggerFile);
+            return this;
+        }
+
+        public Builder triggerFilter(String triggerFilter) {
+            inner.setTriggerFilter(triggerFilter);
+            return this;
+        }
+
+        public Builder triggerHoldOff(int triggerHoldOff) {
+            inner.setTriggerHoldOff(triggerHoldOff);
+            return this;
+        }
+
+        public Builder verbose(boolean verbose) {
+            inner.setVerbose(verbose);
+            return this;
+        }
+
+        public Builder sampleRate(int sampleRate) {
+            inner.setSampleRate(sampleRate);
+            return this;
+        }
+
+        public Builder samplingMode(SamplingMode samplingMode) {
+            inner.setSamplingMode(samplingMode);
+            return this;
+        }
+
+        public Builder sampleAdaptive(boolean sampleAdaptive) {
+            inner.setSampleAdaptive(sampleAdaptive);
+            return this;
+        }
+
+        public Builder sampleMaxRate(int sampleMaxRate) {
+            inner.setSampleMaxRate(sampleMaxRate);
+            return this;
+        }
+
+        public Builder sampleQueuePercent(int sampleQueuePercent) {
+            inner.setSampleQueuePercent(sampleQueuePercent);
+            return this;
+        }
+
+        public Builder streams(boolean streams) {
+            inner.setStreams(streams);
+            return this;
+        }
+
+        public Builder streamsMemory(long streamsMemory) {
+            inner.setStreamsMemory(streamsMemory);
+            return this;
+        }
+
+        public Builder streamsFlowMemory(int streamsFlowMemory) {
+            inner.setStreamsFlowMemory(streamsFlowMemory);
+            return this;
+        }
+
+        public Builder streamsIdleTimeout(int streamsIdleTimeout) {
+            inner.setStreamsIdleTimeout(streamsIdleTimeout);
+            return this;
+        }
+
+        public Builder tls(boolean tls) {
+            inner.setTls(tls);
+            return this;
+        }
+
+        public Builder snmp(boolean snmp) {
+            inner.setSnmp(snmp);
+            return this;
+        }
+
+        public Builder snmpTimeout(int snmpTimeout) {
+            inner.setSnmpTimeout(snmpTimeout);
+            return this;
+        }
+
+        public Builder snmpInterval(long snmpInterval) {
+            inner.setSnmpInterval(snmpInterval);
+            return this;
+        }
+
+        public Builder snmpTop(int snmpTop) {
+            inner.setSnmpTop(snmpTop);
+            return this;
+        }
+
+        public Builder snmpMemory(long snmpMemory) {
+            inner.setSnmpMemory(snmpMemory);
+            return this;
+        }
+
+        public Builder index(boolean index) {
+            inner.setIndex(index);
+            return this;
+        }
+
+        public Builder from(String from) {
+            inner.setFrom(from);
+            return this;
+        }
+
+        public Builder to(String to) {
+            inner.setTo(to);
+            return this;
+        }
+
+        public Builder flow(String flow) {
+            inner.setFlow(flow);
+            return this;
+        }
+
+        public Builder workers(int workers) {
+            inner.setWorkers(workers);
+            return this;
+        }
+
+        public Builder dedup(boolean dedup) {
+            inner.setDedup(dedup);
+            return this;
+        }
+
+        public Builder dedupWindow(long dedupWindow) {
+            inner.setDedupWindow(dedupWindow);
+            return this;
+        }
+
+        public Builder compressThreads(int compressThreads) {
+            inner.setCompressThreads(compressThreads);
+            return this;
+        }
+
+        public Builder compressLevel(int compressLevel) {
+            inner.setCompressLevel(compressLevel);
+            return this;
+        }
+
+        public Builder match(String match) {
+            inner.setMatch(match);
+            return this;
+        }
+
+        public Builder memoryMapped(boolean memoryMapped) {
+            inner.setMemoryMapped(memoryMapped);
+            return this;
+        }
+
+        public Builder summary(boolean summary) {
+            inner.setSummary(summary);
+            return this;
+        }
+
+        public Builder summaryInterval(long summaryInterval) {
+            inner.setSummaryInterval(summaryInterval);
+            return this;
+        }
+
+        public Builder threads(int threads) {
+            inner.setThreads(threads);
+            return this;
+        }
+
+        public Builder flows(boolean flows) {
+            inner.setFlows(flows);
+            return this;
+        }
+
+        public Builder flowsTop(int flowsTop) {
+            inner.setFlowsTop(flowsTop);
+            return this;
+        }
+
+        public Builder flowsInterval(long flowsInterval) {
+            inner.setFlowsInterval(flowsInterval);
+            return this;
+        }
+
+        public Builder flowsIdleTimeout(long flowsIdleTimeout) {
+            inner.setFlowsIdleTimeout(flowsIdleTimeout);
+            return this;
+        }
+
+        public Builder flowsMemory(long flowsMemory) {
+            inner.setFlowsMemory(flowsMemory);
+            return this;
+        }
+
+        public Builder metricsTarget(String metricsTarget) {
+            inner.setMetricsTarget(metricsTarget);
+            return this;
+        }
+
+        public Builder metricsInterval(long metricsInterval) {
+            inner.setMetricsInterval(metricsInterval);
+            return this;
+        }
+
+        public Builder metricsJmx(boolean metricsJmx) {
+            inner.setMetricsJmx(metricsJmx);
+            return this;
+        }
+
+        public Builder metricsHttpPort(int metricsHttpPort) {
+            inner.setMetricsHttpPort(metricsHttpPort);
+            return this;
+        }
+
 
         public CaptureOptions build() {
             return inner;
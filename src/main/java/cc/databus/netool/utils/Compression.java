@@ -0,0 +1,110 @@
+package cc.databus.netool.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * How rotated capture files are compressed. Gzip runs in java, the faster codecs through their command line
+ * tool, which must be on the PATH.
+ */
+public enum Compression {
+    NONE("", null),
+    GZIP(".gz", null),
+    /**
+     * zstd, much faster than gzip at a similar ratio
+     */
+    ZSTD(".zst", "zstd"),
+    /**
+     * lz4, fastest, lowest ratio
+     */
+    LZ4(".lz4", "lz4");
+
+    private static final int GZIP_BUFFER_SIZE = 256 * 1024;
+
+    private final String suffix;
+    private final String command;
+
+    Compression(String suffix, String command) {
+        this.suffix = suffix;
+        this.command = command;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * @return false if the command line tool of this codec cannot be found
+     */
+    public boolean isAvailable() {
+        if (command == null) {
+            return true;
+        }
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return false;
+        }
+        for (String directory : path.split(File.pathSeparator)) {
+            if (new File(directory, command).canExecute()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compress {@code file} into the same path plus {@link #getSuffix()} and delete it.
+     */
+    public void compress(Path file) throws IOException, InterruptedException {
+        if (this == NONE) {
+            return;
+        }
+        Path target = file.resolveSibling(file.getFileName() + suffix);
+        if (command != null) {
+            // zstd names its output with -o, lz4 takes it as second argument
+            ProcessBuilder builder = this == ZSTD
+                    ? new ProcessBuilder(command, "-q", "-f", file.toString(), "-o", target.toString())
+                    : new ProcessBuilder(command, "-q", "-f", file.toString(), target.toString());
+            Process process = builder.redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException(String.format("%s exited with %d on %s", command, exitCode, file));
+            }
+        }
+        else {
+            // write aside and rename, so a half written file never carries the final name
+            Path temporary = file.resolveSibling(file.getFileName() + suffix + ".tmp");
+            try (InputStream in = Files.newInputStream(file);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporary), GZIP_BUFFER_SIZE)) {
+                byte[] buffer = new byte[GZIP_BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            catch (IOException e) {
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.delete(file);
+    }
+
+    public static Compression parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Unknown compression [%s], expect one of none, gzip, zstd, lz4", name));
+        }
+    }
+}
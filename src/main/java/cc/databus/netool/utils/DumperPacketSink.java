@@ -0,0 +1,48 @@
+package cc.databus.netool.utils;
+
+import org.pcap4j.core.NotOpenException;
+import org.pcap4j.core.PcapDumper;
+import org.pcap4j.core.PcapNativeException;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+
+/**
+ * Writes packets through libpcap's {@link PcapDumper}.
+ */
+public class DumperPacketSink implements PacketSink {
+
+    private final PcapDumper dumper;
+
+    public DumperPacketSink(PcapDumper dumper) {
+        this.dumper = dumper;
+    }
+
+    @Override
+    public void write(PacketRecord record) throws IOException {
+        long nanos = record.getTimestampNanos();
+        Timestamp timestamp = new Timestamp(nanos / 1000000L);
+        timestamp.setNanos((int) (nanos % 1000000000L));
+        try {
+            dumper.dumpRaw(record.getData(), timestamp);
+        }
+        catch (NotOpenException e) {
+            throw new IOException("Dumper already closed.", e);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        try {
+            dumper.flush();
+        }
+        catch (PcapNativeException | NotOpenException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        dumper.close();
+    }
+}
@@ -0,0 +1,172 @@
+package cc.databus.netool.utils;
+
+import cc.databus.netool.packet.PacketView;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recognizes a packet captured again, on another interface or the same one, within a short window. This happens
+ * when capturing on a bond and its slaves or a bridge and its ports at the same time.
+ *
+ * Packets are compared by a fingerprint of their network layer, see {@link #fingerprint(PacketView)}, kept in a
+ * fixed table shared by all capture threads. The table is set associative: a fingerprint selects a bucket of
+ * {@link #WAYS} slots and each slot packs the rest of the fingerprint with a coarse capture time into one long,
+ * so a lookup reads four adjacent longs and an insert is a single CAS that replaces the oldest slot of the bucket.
+ * A thread losing the CAS looks at the bucket again, which is how the second of two copies captured at the same
+ * instant still finds the first. Nothing is ever locked, and no packet waits for another.
+ */
+public class DuplicateFilter {
+
+    /**
+     * slots of the table used by a capture, 8 MB
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    static final int WAYS = 4;
+
+    /**
+     * network layer bytes hashed at most, enough for the headers and the start of the payload
+     */
+    private static final int MAX_HASHED_BYTES = 128;
+
+    /**
+     * capture time kept in units of 2^17 ns, about 0.13 ms, in the low bits of a slot
+     */
+    private static final int TICK_SHIFT = 17;
+    private static final int TICK_BITS = 20;
+    private static final int TICK_MASK = (1 << TICK_BITS) - 1;
+    /**
+     * windows must stay well below the half of the range of the ticks, about 68 s
+     */
+    static final long MAX_WINDOW_NANOS = 10000000000L;
+
+    private final AtomicLongArray slots;
+    private final int bucketMask;
+    private final int windowTicks;
+
+    private final LongAdder suppressed = new LongAdder();
+
+    /**
+     * @param capacity    slots of the table, rounded up to a power of two
+     * @param windowNanos copies captured up to this long apart are duplicates
+     */
+    public DuplicateFilter(int capacity, long windowNanos) {
+        if (windowNanos <= 0 || windowNanos > MAX_WINDOW_NANOS) {
+            throw new IllegalArgumentException(String.format("The duplicate window must be between 0 and %d ms, but was %d ns.",
+                    MAX_WINDOW_NANOS / 1000000L, windowNanos));
+        }
+        int size = Integer.highestOneBit(Math.max(WAYS, capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicLongArray(size);
+        this.bucketMask = size / WAYS - 1;
+        this.windowTicks = (int) ((windowNanos + (1L << TICK_SHIFT) - 1) >>> TICK_SHIFT);
+    }
+
+    /**
+     * Fingerprint of the packet {@code view} wraps, from its network header on, so that copies still match when
+     * one was captured with a VLAN tag or another link type. The fields a router or bridge may rewrite are left
+     * out: the IPv4 TTL and header checksum and the IPv6 hop limit.
+     */
+    public static long fingerprint(PacketView view) {
+        ByteBuffer buffer = view.buffer();
+        int start = Math.max(0, view.networkOffset());
+        int end = Math.min(view.length(), start + MAX_HASHED_BYTES);
+        int base = view.base() + start;
+        int length = end - start;
+        int ipVersion = view.ipVersion();
+
+        long hash = 0x9e3779b97f4a7c15L ^ length;
+        int at = 0;
+        for (; at + 8 <= length; at += 8) {
+            long word = buffer.getLong(base + at);
+            if (ipVersion == 4 && at == 8) {
+                // bytes 8 to 15: ttl, protocol, checksum, source address
+                word &= 0x00ff0000ffffffffL;
+            }
+            else if (ipVersion == 6 && at == 0) {
+                // bytes 0 to 7: version, traffic class, flow label, payload length, next header, hop limit
+                word &= 0xffffffffffffff00L;
+            }
+            hash = Long.rotateLeft((hash ^ word) * 0x9e3779b97f4a7c15L, 31);
+        }
+        long rest = 0;
+        for (; at < length; at++) {
+            rest = (rest << 8) | (buffer.get(base + at) & 0xff);
+        }
+        return mix(hash ^ mix(rest ^ length));
+    }
+
+    /**
+     * Check a packet against the copies seen within the window and remember it.
+     *
+     * @param fingerprint see {@link #fingerprint(PacketView)}
+     * @return true if a copy was seen, the packet should be dropped
+     */
+    public boolean isDuplicate(long fingerprint, long timestampNanos) {
+        int bucket = ((int) fingerprint & bucketMask) * WAYS;
+        long tag = fingerprint >>> TICK_BITS;
+        if (tag == 0) {
+            // 0 marks a free slot
+            tag = 1;
+        }
+        int tick = (int) (timestampNanos >>> TICK_SHIFT) & TICK_MASK;
+        long entry = (tag << TICK_BITS) | tick;
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            int victim = bucket;
+            long victimValue = 0;
+            int victimAge = -1;
+            for (int i = bucket; i < bucket + WAYS; i++) {
+                long value = slots.get(i);
+                // a free slot is older than any other
+                int age = value == 0 ? Integer.MAX_VALUE : distance(tick, (int) value & TICK_MASK);
+                if (value != 0 && value >>> TICK_BITS == tag && age <= windowTicks) {
+                    suppressed.increment();
+                    return true;
+                }
+                if (age > victimAge) {
+                    victim = i;
+                    victimValue = value;
+                    victimAge = age;
+                }
+            }
+            if (slots.compareAndSet(victim, victimValue, entry)) {
+                return false;
+            }
+            // another thread took the slot, perhaps for a copy of this very packet
+        }
+        return false;
+    }
+
+    /**
+     * @return packets found to be duplicates so far
+     */
+    public long getSuppressed() {
+        return suppressed.sum();
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * @return ticks between {@code a} and {@code b} either way, as the ticks wrap around
+     */
+    private static int distance(int a, int b) {
+        int d = (a - b) & TICK_MASK;
+        return Math.min(d, TICK_MASK + 1 - d);
+    }
+
+    private static long mix(long v) {
+        v ^= v >>> 33;
+        v *= 0xff51afd7ed558ccdL;
+        v ^= v >>> 33;
+        v *= 0xc4ceb9fe1a85ec53L;
+        v ^= v >>> 33;
+        return v;
+    }
+}
@@ -0,0 +1,33 @@
+package cc.databus.netool.utils;
+
+import cc.databus.netool.pcap.CaptureFileWriter;
+
+import java.io.IOException;
+
+/**
+ * Writes packets through one of the java {@link CaptureFileWriter}s.
+ */
+public class FilePacketSink implements PacketSink {
+
+    private final CaptureFileWriter writer;
+
+    public FilePacketSink(CaptureFileWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void write(PacketRecord record) throws IOException {
+        byte[] data = record.getData();
+        writer.write(data, 0, data.length, record.getOriginalLength(), record.getTimestampNanos());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,131 @@
+package cc.databus.netool.utils;
+
+import cc.databus.netool.pcap.BpfFilter;
+import cc.databus.netool.pcap.CaptureFileWriter;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Keeps the last packets of one interface in an {@link OffHeapPacketRing} and writes them to a file only when
+ * the {@link RecorderTrigger} fires, so the disk is touched around events only.
+ *
+ * The trigger is checked on every packet and on every flush, the writer flushes sinks holding packets back
+ * every few milliseconds even when idle. A packet matching the trigger filter fires the trigger for all
+ * interfaces and is part of the dump. After a dump the following packets keep going into the same file
+ * for {@code afterNanos}, a firing during that time extends it.
+ */
+public class FlightRecorderSink implements PacketSink {
+
+    private final String interfaceName;
+    private final OffHeapPacketRing ring;
+    private final RotatingFileWriter.Opener opener;
+    private final String base;
+    private final String suffix;
+    private final RecorderTrigger trigger;
+    private final BpfFilter triggerFilter;
+    private final long afterNanos;
+
+    private long servedGeneration;
+    private CaptureFileWriter dump;
+    private String dumpName;
+    private long dumpedPackets;
+    private long dumpUntil;
+
+    /**
+     * @param base          dump files are named {@code <base>_<time><suffix>}
+     * @param triggerFilter packets firing the trigger, null for none
+     * @param afterNanos    how long packets are still written after the trigger fired
+     */
+    public FlightRecorderSink(String interfaceName, int capacity, long maxAgeNanos, RotatingFileWriter.Opener opener,
+                              String base, String suffix, RecorderTrigger trigger, BpfFilter triggerFilter, long afterNanos) {
+        this.interfaceName = interfaceName;
+        this.ring = new OffHeapPacketRing(capacity, maxAgeNanos);
+        this.opener = opener;
+        this.base = base;
+        this.suffix = suffix;
+        this.trigger = trigger;
+        this.triggerFilter = triggerFilter;
+        this.afterNanos = afterNanos;
+        this.servedGeneration = trigger.getGeneration();
+    }
+
+    @Override
+    public void write(PacketRecord record) throws IOException {
+        byte[] data = record.getData();
+        ring.add(data, record.getOriginalLength(), record.getTimestampNanos());
+        if (dump != null) {
+            dump.write(data, 0, data.length, record.getOriginalLength(), record.getTimestampNanos());
+            dumpedPackets++;
+        }
+        if (triggerFilter != null && triggerFilter.matches(data, data.length, record.getOriginalLength())) {
+            trigger.fireOnPacket(String.format("packet on [%s] matching [%s]", interfaceName, triggerFilter.getExpression()));
+        }
+        checkTrigger();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        checkTrigger();
+        if (dump != null) {
+            dump.flush();
+        }
+    }
+
+    /**
+     * The buffer is never empty of obligations: a trigger may fire at any time.
+     */
+    @Override
+    public boolean hasPending() {
+        return true;
+    }
+
+    /**
+     * Finish a running dump. Packets only held in the buffer are discarded.
+     */
+    @Override
+    public void close() throws IOException {
+        if (dump != null) {
+            finishDump();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "flight recorder of " + interfaceName;
+    }
+
+    private void checkTrigger() throws IOException {
+        long generation = trigger.getGeneration();
+        if (generation != servedGeneration) {
+            servedGeneration = generation;
+            if (dump == null) {
+                startDump();
+            }
+            dumpUntil = System.nanoTime() + afterNanos;
+        }
+        if (dump != null && System.nanoTime() - dumpUntil >= 0) {
+            finishDump();
+        }
+    }
+
+    private void startDump() throws IOException {
+        dumpName = String.format("%s_%s%s", base, new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()), suffix);
+        SystemOutHelper.println(String.format("Recorder of [%s] triggered by %s, dumping %d packets to %s",
+                interfaceName, trigger.getReason(), ring.size(), dumpName));
+        dump = opener.open(Paths.get(dumpName));
+        dumpedPackets = ring.writeTo(dump);
+    }
+
+    private void finishDump() throws IOException {
+        try {
+            dump.close();
+        }
+        finally {
+            SystemOutHelper.println(String.format("Recorder of [%s] wrote %d packets to %s", interfaceName, dumpedPackets, dumpName));
+            dump = null;
+        }
+    }
+}
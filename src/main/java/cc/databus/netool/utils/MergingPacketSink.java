@@ -0,0 +1,255 @@
+package cc.databus.netool.utils;
+
+import cc.databus.netool.pcap.PcapngFileWriter;
+
+import java.io.IOException;
+
+/**
+ * Writes the packets of several interfaces into one pcapng file in timestamp order.
+ *
+ * Every interface gets its own {@link #input(int) input sink} and a FIFO of held back packets; each FIFO is
+ * in timestamp order already, so a min-heap over the FIFO heads is a k-way merge. The smallest head is
+ * written once every interface has something queued, once it has been held for the merge window, or when
+ * the buffer is full, so one busy interface cannot make the buffer grow and an idle one cannot stall the
+ * output for longer than about the window. All FIFOs share one preallocated pool of {@code capacity}
+ * entries. Like every sink this runs on the writer thread only, the capture threads never see it.
+ */
+public class MergingPacketSink {
+
+    private final PcapngFileWriter writer;
+    private final long windowNanos;
+    private final int capacity;
+
+    // the entry pool, linked into one FIFO per interface and a free list
+    private final byte[][] data;
+    private final int[] originalLengths;
+    private final long[] timestamps;
+    private final long[] arrivals;
+    private final int[] next;
+    private int free;
+    private int count = 0;
+
+    // per interface FIFO head and tail, -1 when empty
+    private final int[] heads;
+    private final int[] tails;
+
+    // min-heap of the interfaces with a non empty FIFO, keyed by the timestamp of their head
+    private final int[] heap;
+    private int heapSize = 0;
+
+    private final Input[] inputs;
+    private boolean closed = false;
+
+    /**
+     * @param writer      receives the merged packets, with one interface already added per input
+     * @param windowNanos how long a packet may be held back waiting for older packets of other interfaces
+     * @param capacity    max packets held back over all interfaces
+     */
+    public MergingPacketSink(PcapngFileWriter writer, long windowNanos, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Merge buffer must be positive, but was " + capacity);
+        }
+        int interfaces = writer.getInterfaceCount();
+        this.writer = writer;
+        this.windowNanos = windowNanos;
+        this.capacity = capacity;
+
+        this.data = new byte[capacity][];
+        this.originalLengths = new int[capacity];
+        this.timestamps = new long[capacity];
+        this.arrivals = new long[capacity];
+        this.next = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            next[i] = i + 1 < capacity ? i + 1 : -1;
+        }
+        this.free = 0;
+
+        this.heads = new int[interfaces];
+        this.tails = new int[interfaces];
+        this.heap = new int[interfaces];
+        this.inputs = new Input[interfaces];
+        for (int i = 0; i < interfaces; i++) {
+            heads[i] = -1;
+            tails[i] = -1;
+            inputs[i] = new Input(i);
+        }
+    }
+
+    /**
+     * @param interfaceId id returned by {@link PcapngFileWriter#addInterface(String, int, int)}
+     * @return the sink taking the packets of that interface
+     */
+    public PacketSink input(int interfaceId) {
+        return inputs[interfaceId];
+    }
+
+    /**
+     * @return packets currently held back
+     */
+    public int size() {
+        return count;
+    }
+
+    private void add(int interfaceId, PacketRecord record) throws IOException {
+        if (count == capacity) {
+            writeFirst();
+        }
+        long now = System.nanoTime();
+        int entry = free;
+        free = next[entry];
+        data[entry] = record.getData();
+        originalLengths[entry] = record.getOriginalLength();
+        timestamps[entry] = record.getTimestampNanos();
+        arrivals[entry] = now;
+        next[entry] = -1;
+        count++;
+
+        if (heads[interfaceId] < 0) {
+            heads[interfaceId] = entry;
+            tails[interfaceId] = entry;
+            heapInsert(interfaceId);
+        }
+        else {
+            next[tails[interfaceId]] = entry;
+            tails[interfaceId] = entry;
+        }
+        writeReady(now);
+    }
+
+    /**
+     * Write the packets that need not be held back any longer.
+     */
+    private void writeReady(long now) throws IOException {
+        while (heapSize > 0) {
+            int first = heads[heap[0]];
+            if (heapSize < heads.length && now - arrivals[first] < windowNanos) {
+                return;
+            }
+            writeFirst();
+        }
+    }
+
+    private void writeFirst() throws IOException {
+        int interfaceId = heap[0];
+        int entry = heads[interfaceId];
+        byte[] bytes = data[entry];
+        try {
+            writer.write(interfaceId, bytes, 0, bytes.length, originalLengths[entry], timestamps[entry]);
+        }
+        finally {
+            heads[interfaceId] = next[entry];
+            if (heads[interfaceId] < 0) {
+                tails[interfaceId] = -1;
+                heapRemoveFirst();
+            }
+            else {
+                // the new head is not older than the one removed
+                siftDown(0);
+            }
+            data[entry] = null;
+            next[entry] = free;
+            free = entry;
+            count--;
+        }
+    }
+
+    private void flush() throws IOException {
+        writeReady(System.nanoTime());
+        writer.flush();
+    }
+
+    private void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            while (heapSize > 0) {
+                writeFirst();
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    private long key(int heapPosition) {
+        return timestamps[heads[heap[heapPosition]]];
+    }
+
+    private void heapInsert(int interfaceId) {
+        int i = heapSize++;
+        heap[i] = interfaceId;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (key(parent) <= key(i)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void heapRemoveFirst() {
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            siftDown(0);
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= heapSize) {
+                return;
+            }
+            int smallest = left + 1 < heapSize && key(left + 1) < key(left) ? left + 1 : left;
+            if (key(i) <= key(smallest)) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int t = heap[a];
+        heap[a] = heap[b];
+        heap[b] = t;
+    }
+
+    private class Input implements PacketSink {
+
+        private final int interfaceId;
+
+        private Input(int interfaceId) {
+            this.interfaceId = interfaceId;
+        }
+
+        @Override
+        public void write(PacketRecord record) throws IOException {
+            add(interfaceId, record);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            MergingPacketSink.this.flush();
+        }
+
+        @Override
+        public boolean hasPending() {
+            return count > 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            MergingPacketSink.this.close();
+        }
+
+        @Override
+        public String toString() {
+            return "merged input " + interfaceId;
+        }
+    }
+}
@@ -1,21 +1,72 @@
 package cc.databus.netool.utils;
 
+import cc.databus.netool.filter.PayloadFilter;
+import cc.databus.netool.flow.FlowReporter;
+import cc.databus.netool.flow.FlowTable;
+import cc.databus.netool.index.IndexingFileWriter;
+import cc.databus.netool.metrics.InterfaceMetrics;
+import cc.databus.netool.metrics.MetricsReporter;
+import cc.databus.netool.packet.PacketView;
+import cc.databus.netool.pcap.BlockCompressor;
+import cc.databus.netool.pcap.BpfFilter;
+import cc.databus.netool.pcap.PcapFileWriter;
+import cc.databus.netool.pcap.PcapngFileWriter;
+import cc.databus.netool.snmp.SnmpMatcher;
+import cc.databus.netool.snmp.SnmpReporter;
+import cc.databus.netool.source.LivePacketSource;
+import cc.databus.netool.source.PacketHandler;
+import cc.databus.netool.source.PacketMultiplexer;
+import cc.databus.netool.source.PacketSource;
+import cc.databus.netool.source.ReplayPacketSource;
+import cc.databus.netool.source.SyntheticPacketSource;
 import org.pcap4j.core.*;
-import org.pcap4j.packet.Packet;
+import org.pcap4j.packet.namednumber.DataLinkType;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.sql.Timestamp;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static cc.databus.netool.utils.NetworkUtils.getFirstInterface;
-import static cc.databus.netool.utils.NetworkUtils.getNetworkInterfance;
+import static cc.databus.netool.utils.NetworkUtils.getNetworkInterfaces;
 
 public class NetworkCapture {
 
+    private static final int WRITE_BATCH_SIZE = 256;
+
+    /**
+     * largest snap length libpcap accepts
+     */
+    private static final int MAX_SNAP_LEN = 262144;
+
+    /**
+     * how long to wait for the capture loops to return after breaking them
+     */
+    private static final long STOP_TIMEOUT_SECONDS = 5;
+
+    /**
+     * how long ctrl-c waits for queued packets to be written
+     */
+    private static final long SHUTDOWN_DRAIN_SECONDS = 10;
+
     private final CaptureOptions options;
 
+    /**
+     * the metrics file, if metrics go to one
+     */
+    private PrintStream metricsOut;
+
+    /**
+     * gzips the -w files while they are written, if asked for
+     */
+    private BlockCompressor blockCompressor;
+
     public NetworkCapture(CaptureOptions options) {
         this.options = options;
     }
@@ -26,236 +77,837 @@ public class NetworkCapture {
     }
 
     private void run() throws PcapNativeException, NotOpenException {
-        // 1. get interface
-        List<PcapNetworkInterface> interfaces = new ArrayList<>();
-        if (options.getInterfaceNames().isEmpty()) {
-            interfaces = Collections.singletonList(getFirstInterface());
+        // 1. open packet sources: interfaces, or a replayed file or generator
+        Map<String, PacketSource> sources = openSources();
+
+        //3. open dumpers, or flow tables
+        Map<String, PacketSink> sinks = new HashMap<>();
+        Map<String, List<FlowTable>> flowTables = new TreeMap<>();
+        SnmpMatcher snmpMatcher = null;
+        RecorderTrigger recorderTrigger = null;
+        ShardedStage shardedStage = null;
+        if (options.getWorkers() < 0 || (options.getWorkers() > 0 && !options.isFlows())) {
+            throw new IllegalArgumentException("--workers spreads the --flows accounting, it needs --flows and must not be negative.");
         }
-        else {
-            for (String name : options.getInterfaceNames()) {
-                interfaces.add(getNetworkInterfance(name));
+        if (options.isFlows()) {
+            int shards = Math.max(1, options.getWorkers());
+            long memoryPerTable = options.getFlowsMemory() / sources.size() / shards;
+            for (String interfaceName : sources.keySet()) {
+                List<FlowTable> tables = new ArrayList<>();
+                for (int i = 0; i < shards; i++) {
+                    tables.add(new FlowTable(memoryPerTable));
+                }
+                flowTables.put(interfaceName, tables);
+            }
+            if (options.getWorkers() > 0) {
+                shardedStage = openShardedStage(sources, flowTables);
             }
         }
-
-        if (interfaces.isEmpty()) {
-            throw new IllegalStateException("No interface selected.");
+        else if (options.isSnmp()) {
+            snmpMatcher = openSnmpMatcher();
         }
-
-        // 2. get Pcap handles
-        Map<String, PcapHandle> handles = new HashMap<>();
-        for (PcapNetworkInterface networkInterface : interfaces) {
-            handles.put(networkInterface.getName(),
-                    networkInterface.openLive(options.getSnapLen(), PcapNetworkInterface.PromiscuousMode.PROMISCUOUS, options.getTimeout()));
+        else if (options.isStreams() || options.isTls()) {
+            PacketSink streams = openStreamSink();
+            for (String interfaceName : sources.keySet()) {
+                sinks.put(interfaceName, streams);
+            }
         }
-
-        //3. open dumpers
-        Map<String, PcapDumper> dumpers = new HashMap<>();
-        if (!StringUtils.isNullOrEmpty(options.getFilePath())) {
+        else if (!StringUtils.isNullOrEmpty(options.getFilePath())) {
+            validateRotateOptions();
+            validateIndexOptions();
+            validateCompressOptions();
             File pathFile = new File(options.getFilePath());
             String path = pathFile.getParent();
             String filename = pathFile.getName();
-            String suffix = ".pcap";
+            String suffix = (options.isMerge() ? OutputFormat.PCAPNG : options.getOutputFormat()).getSuffix();
+            if (options.getCompressThreads() > 0) {
+                if (filename.toLowerCase().endsWith(BlockCompressor.SUFFIX)) {
+                    filename = filename.substring(0, (filename.length() - BlockCompressor.SUFFIX.length()));
+                }
+                blockCompressor = new BlockCompressor(options.getCompressThreads(), options.getCompressLevel());
+                SystemOutHelper.println(String.format("Compressing -w files with gzip level %d on %d threads.",
+                        options.getCompressLevel(), options.getCompressThreads()));
+            }
             if (filename.toLowerCase().endsWith(suffix)) {
                 filename = filename.substring(0, (filename.length() - suffix.length()));
             }
+            if (blockCompressor != null) {
+                suffix += BlockCompressor.SUFFIX;
+            }
 
-            for (Map.Entry<String, PcapHandle> entry : handles.entrySet()) {
-                dumpers.put(entry.getKey(),
-                        entry.getValue().dumpOpen(new File(path, String.format("%s_%s%s", filename, entry.getKey(), suffix)).getPath()));
+            if (options.isRecorder()) {
+                recorderTrigger = openRecorderTrigger();
+                for (Map.Entry<String, PacketSource> entry : sources.entrySet()) {
+                    String base = new File(path, String.format("%s_%s", filename, entry.getKey())).getPath();
+                    sinks.put(entry.getKey(), openRecorderSink(entry.getKey(), entry.getValue(), base, suffix, recorderTrigger, sources.size()));
+                }
+            }
+            else if (options.isMerge()) {
+                MergingPacketSink merged = openMergedSink(sources, new File(path, filename + suffix));
+                int interfaceId = 0;
+                for (String interfaceName : sources.keySet()) {
+                    sinks.put(interfaceName, merged.input(interfaceId++));
+                }
+            }
+            else {
+                for (Map.Entry<String, PacketSource> entry : sources.entrySet()) {
+                    File file = new File(path, String.format("%s_%s%s", filename, entry.getKey(), suffix));
+                    sinks.put(entry.getKey(), openFileSink(entry.getKey(), entry.getValue(), file));
+                }
+            }
+        }
+        else {
+            PacketSink stdout = options.isVerbose() ? new StdoutPacketSink() : new SummaryPacketSink(options.isNanoPrecision());
+            for (String interfaceName : sources.keySet()) {
+                sinks.put(interfaceName, stdout);
             }
         }
 
         // 4. set filter if needed
-        if (!StringUtils.isNullOrEmpty(options.getFilter())) {
-            for (PcapHandle handle : handles.values()) {
-                handle.setFilter(options.getFilter(), BpfProgram.BpfCompileMode.OPTIMIZE);
+        String filter = options.getFilter();
+        if (StringUtils.isNullOrEmpty(filter) && options.isSnmp()) {
+            // leave everything else to the kernel
+            filter = SnmpMatcher.DEFAULT_FILTER;
+        }
+        PayloadFilter payloadFilter = null;
+        if (!StringUtils.isNullOrEmpty(options.getMatch())) {
+            payloadFilter = PayloadFilter.compile(options.getMatch());
+            // let the kernel drop what cannot match
+            filter = payloadFilter.combine(filter);
+            SystemOutHelper.println(String.format("Matching payloads against [%s], prefilter [%s].", payloadFilter,
+                    payloadFilter.getPrefilter() != null ? payloadFilter.getPrefilter() : "none"));
+        }
+        if (!StringUtils.isNullOrEmpty(filter)) {
+            for (PacketSource source : sources.values()) {
+                source.setFilter(filter);
             }
         }
 
         // 5. prepare listener
         Map<String, NetworkPacketListener> listeners = new HashMap<>();
-        ExecutorService dumperExecutor = Executors.newSingleThreadExecutor();
+        PacketRingBuffer ringBuffer = new PacketRingBuffer(options.getQueueCapacity(), options.getOverflowPolicy());
+        PacketWriter writer = new PacketWriter(ringBuffer, new HashSet<>(sinks.values()), WRITE_BATCH_SIZE);
+        writer.start();
+
+        StopSignal stopSignal = new StopSignal();
+        AtomicLong budget = options.getCount() > 0 ? new AtomicLong(options.getCount()) : null;
+        List<InterfaceMetrics> interfaceMetrics = new ArrayList<>();
+        List<PacketSampler> samplers = new ArrayList<>();
+        List<PayloadFilter.Matcher> matchers = new ArrayList<>();
+        DuplicateFilter duplicateFilter = options.isDedup()
+                ? new DuplicateFilter(DuplicateFilter.DEFAULT_CAPACITY, TimeUnit.MILLISECONDS.toNanos(options.getDedupWindow())) : null;
+        int input = 0;
+        for (String interfaceName : sources.keySet()) {
+            InterfaceMetrics metrics = new InterfaceMetrics(interfaceName, sources.get(interfaceName));
+            interfaceMetrics.add(metrics);
+            PacketSampler sampler = options.getSampleRate() > 1 || options.isSampleAdaptive()
+                    ? new PacketSampler(options.getSamplingMode(), options.getSampleRate()) : null;
+            if (sampler != null) {
+                samplers.add(sampler);
+            }
+            FlowTable flowTable = shardedStage == null && flowTables.containsKey(interfaceName) ? flowTables.get(interfaceName).get(0) : null;
+            ShardedStage.Input shardInput = shardedStage != null ? shardedStage.input(input) : null;
+            input++;
+            PayloadFilter.Matcher matcher = payloadFilter != null ? payloadFilter.newMatcher() : null;
+            if (matcher != null) {
+                matchers.add(matcher);
+            }
+            listeners.put(interfaceName, new NetworkPacketListener(sources.get(interfaceName), sinks.get(interfaceName),
+                    flowTable, shardInput, snmpMatcher, ringBuffer, matcher, duplicateFilter, sampler, metrics, budget, stopSignal));
+        }
+        AdaptiveSampler adaptiveSampler = openAdaptiveSampler(samplers, ringBuffer, sources.values());
 
-        CountDownLatch sharedCount = new CountDownLatch(0);
-        if (options.getCount() > 0) {
-           sharedCount = new CountDownLatch(options.getCount());
+        FlowReporter flowReporter = null;
+        if (options.isFlows()) {
+            flowReporter = new FlowReporter(flowTables, options.getFlowsTop(), options.getFlowsIdleTimeout() * 1000000000L);
+            flowReporter.start(options.getFlowsInterval());
         }
-        for (String interfaceName : handles.keySet()) {
-            listeners.put(interfaceName, new NetworkPacketListener(handles.get(interfaceName), dumpers.get(interfaceName), dumperExecutor, sharedCount));
+        SnmpReporter snmpReporter = null;
+        if (snmpMatcher != null) {
+            snmpReporter = new SnmpReporter(snmpMatcher, options.getSnmpTop());
+            snmpReporter.start(options.getSnmpInterval());
         }
 
+        MetricsReporter metricsReporter = openMetricsReporter(interfaceMetrics, ringBuffer, writer);
+
+        // on ctrl-c, stop capturing and let the queued packets be written before the jvm exits
+        CountDownLatch drained = new CountDownLatch(1);
+        Thread shutdownHook = new Thread(() -> {
+            stopSignal.stop("Interrupted by signal, stop all tasks.");
+            try {
+                drained.await(SHUTDOWN_DRAIN_SECONDS, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ignore) {
+            }
+        }, "netools-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
         // 6. start tasks.
-        ExecutorService taskExecutor = Executors.newFixedThreadPool(handles.size());
-        Map<String, CapturingTask> tasks = new HashMap<>();
-        for (String interfaceName : handles.keySet()) {
-            CapturingTask task = new CapturingTask(interfaceName, handles.get(interfaceName), listeners.get(interfaceName), options.getCount(), options.getDuration());
-            tasks.put(interfaceName, task);
+        Map<String, Callable<Void>> tasks = new HashMap<>();
+        if (options.getEventLoops() > 0 && isAllLive(sources.values())) {
+            List<PacketMultiplexer> multiplexers = new ArrayList<>();
+            for (int i = 0; i < Math.min(options.getEventLoops(), sources.size()); i++) {
+                multiplexers.add(new PacketMultiplexer());
+            }
+            int next = 0;
+            for (String interfaceName : sources.keySet()) {
+                multiplexers.get(next++ % multiplexers.size()).register((LivePacketSource) sources.get(interfaceName), listeners.get(interfaceName));
+            }
+            for (int i = 0; i < multiplexers.size(); i++) {
+                String loopName = "event-loop-" + i;
+                tasks.put(loopName, new EventLoopTask(loopName, multiplexers.get(i), stopSignal));
+            }
+            SystemOutHelper.println(String.format("Polling %d interfaces from %d threads.", sources.size(), multiplexers.size()));
         }
+        else {
+            for (String interfaceName : sources.keySet()) {
+                CapturingTask task = new CapturingTask(interfaceName, sources.get(interfaceName), listeners.get(interfaceName), stopSignal);
+                tasks.put(interfaceName, task);
+            }
+        }
+        ExecutorService taskExecutor = Executors.newFixedThreadPool(tasks.size());
+        boolean allStopped = false;
         try {
-            execute(taskExecutor, tasks, sharedCount);
+            allStopped = execute(taskExecutor, tasks, sources.values(), stopSignal);
         }
         finally {
+            taskExecutor.shutdownNow();
+
             try {
-                taskExecutor.shutdownNow();
+                int pending = ringBuffer.size();
+                if (pending > 0) {
+                    SystemOutHelper.println(String.format("Flushing %d queued packets.", pending));
+                }
+                writer.close();
+            }
+            catch (InterruptedException e) {
+                SystemOutHelper.println("Interrupted while flushing queued packets.");
+                Thread.currentThread().interrupt();
+            }
+            if (blockCompressor != null) {
+                // the sinks are closed, every block is written
+                blockCompressor.close();
+                SystemOutHelper.println(String.format("Compressed %d MB into %d MB.", blockCompressor.getBytesIn() / 1024 / 1024,
+                        blockCompressor.getBytesOut() / 1024 / 1024));
             }
-            catch (Exception e) {}
 
+            if (adaptiveSampler != null) {
+                adaptiveSampler.close();
+            }
+            if (metricsReporter != null) {
+                metricsReporter.close();
+                if (metricsOut != null) {
+                    metricsOut.close();
+                }
+            }
+            if (recorderTrigger != null) {
+                recorderTrigger.close();
+            }
+            if (shardedStage != null) {
+                shardedStage.close();
+                StringBuilder handled = new StringBuilder();
+                for (int i = 0; i < shardedStage.getWorkerCount(); i++) {
+                    handled.append(i == 0 ? "" : ", ").append(shardedStage.getHandled(i));
+                }
+                SystemOutHelper.println(String.format("Workers handled %s packets, a full ring stalled the capture %d times, dropped %d.",
+                        handled, shardedStage.getStalls(), shardedStage.getDropped()));
+            }
+            if (flowReporter != null) {
+                flowReporter.close();
+            }
+            else if (snmpReporter != null) {
+                snmpReporter.close();
+            }
+            else {
+                SystemOutHelper.println(String.format("Wrote %d packets, dropped %d (policy %s, newest %d, oldest %d).",
+                        writer.getWrittenCount(), ringBuffer.getDroppedCount(), ringBuffer.getOverflowPolicy(),
+                        ringBuffer.getDroppedNewestCount(), ringBuffer.getDroppedOldestCount()));
+            }
+            if (!matchers.isEmpty()) {
+                long rejected = 0;
+                for (PayloadFilter.Matcher matcher : matchers) {
+                    rejected += matcher.getRejected();
+                }
+                SystemOutHelper.println(String.format("Payload filter dropped %d packets the kernel filter passed.", rejected));
+            }
+            if (duplicateFilter != null) {
+                StringBuilder perInterface = new StringBuilder();
+                for (InterfaceMetrics metrics : interfaceMetrics) {
+                    perInterface.append(perInterface.length() == 0 ? "" : ", ")
+                            .append(String.format("[%s] %d", metrics.getInterfaceName(), metrics.getDuplicates()));
+                }
+                SystemOutHelper.println(String.format("Suppressed %d duplicate packets: %s.", duplicateFilter.getSuppressed(), perInterface));
+            }
+            if (!samplers.isEmpty()) {
+                long sampledOut = 0;
+                for (InterfaceMetrics metrics : interfaceMetrics) {
+                    sampledOut += metrics.getSampledOut();
+                }
+                SystemOutHelper.println(String.format("Sampling left out %d packets.", sampledOut));
+            }
 
-            for (String interName : handles.keySet()) {
-                PcapHandle handle = handles.get(interName);
-                if (handle != null) {
-                    try {
-                        handle.breakLoop();
-                    }
-                    catch (Exception ignore) {
-                    }
+            if (allStopped) {
+                // a source still running must not be closed under its loop
+                for (PacketSource source : sources.values()) {
+                    source.close();
                 }
             }
 
+            drained.countDown();
             try {
-                List<Runnable> runnables = dumperExecutor.shutdownNow();
-                SystemOutHelper.println("Still " +  runnables.size() + " packets not dumped!");
-                for (Runnable runnable : runnables) {
-                    runnable.run();
-                }
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
             }
-            catch (Exception e){
+            catch (IllegalStateException ignore) {
+                // already shutting down
             }
-
         }
     }
 
-    private void execute(final ExecutorService taskExecutor, final Map<String, CapturingTask> capturingTasks, final CountDownLatch sharedCount) {
-        Map<String, Future<Void>> futures = new HashMap<>();
-
-        long startedAt = System.currentTimeMillis();
-        for (String interfacename : capturingTasks.keySet()) {
-            futures.put(interfacename, taskExecutor.submit(capturingTasks.get(interfacename)));
+    private Map<String, PacketSource> openSources() throws PcapNativeException, NotOpenException {
+        Map<String, PacketSource> sources = new LinkedHashMap<>();
+        if (!StringUtils.isNullOrEmpty(options.getReplayFilePath())) {
+            try {
+                PacketSource source = new ReplayPacketSource(Paths.get(options.getReplayFilePath()), options.getReplaySpeed());
+                sources.put(source.getName(), source);
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(String.format("Cannot replay %s - %s", options.getReplayFilePath(), e.getMessage()), e);
+            }
+            SystemOutHelper.println(String.format("Replaying %s at %s.", options.getReplayFilePath(),
+                    options.getReplaySpeed() > 0 ? options.getReplaySpeed() + "x the original speed" : "maximum speed"));
+            return sources;
+        }
+        if (options.isSynthetic()) {
+            PacketSource source = new SyntheticPacketSource(options.getSyntheticSize(), options.getSyntheticFlows(), options.getSyntheticRate());
+            sources.put(source.getName(), source);
+            SystemOutHelper.println(String.format("Generating %s byte packets over %d flows at %s.", options.getSyntheticSize(),
+                    options.getSyntheticFlows(), options.getSyntheticRate() > 0 ? options.getSyntheticRate() + " packets/s" : "maximum speed"));
+            return sources;
         }
 
-        while (true) {
-            boolean hasAnyDone = false;
-            for (Map.Entry<String, Future<Void>> entry : futures.entrySet()) {
-                if (entry.getValue().isDone()) {
-                    hasAnyDone = true;
+        List<PcapNetworkInterface> interfaces = new ArrayList<>();
+        if (options.getInterfaceNames().isEmpty()) {
+            interfaces = Collections.singletonList(getFirstInterface());
+        }
+        else {
+            for (String name : options.getInterfaceNames()) {
+                List<PcapNetworkInterface> matched = getNetworkInterfaces(name);
+                if (matched.isEmpty()) {
+                    throw new IllegalStateException(String.format("No interface matches [%s].", name));
                 }
+                interfaces.addAll(matched);
             }
+        }
+
+        if (interfaces.isEmpty()) {
+            throw new IllegalStateException("No interface selected.");
+        }
 
-            if (hasAnyDone) {
-                SystemOutHelper.println("Some tasks already finished, stop all.");
-                stopRun(futures);
-                break;
+        validateHandleOptions();
+        for (PcapNetworkInterface networkInterface : interfaces) {
+            if (sources.containsKey(networkInterface.getName())) {
+                continue;
             }
+            sources.put(networkInterface.getName(), new LivePacketSource(networkInterface.getName(), openHandle(networkInterface.getName())));
+        }
+        return sources;
+    }
 
-            if (options.getCount() > 0 && sharedCount.getCount() <= 0) {
-                SystemOutHelper.println(String.format("Already captured %d packets, stop all tasks", options.getCount()));
-                stopRun(futures);
-                break;
+    private static boolean isAllLive(Collection<PacketSource> sources) {
+        for (PacketSource source : sources) {
+            if (!(source instanceof LivePacketSource)) {
+                return false;
             }
+        }
+        return true;
+    }
 
-            long durationInMs = options.getDuration() * 1000;
-            if (durationInMs > 0 && (System.currentTimeMillis() - startedAt) > durationInMs) {
-                SystemOutHelper.println("Capturing exceeds given timeout, stop all tasks.");
-                stopRun(futures);
-                break;
+    private void validateHandleOptions() {
+        if (options.getSnapLen() <= 0 || options.getSnapLen() > MAX_SNAP_LEN) {
+            throw new IllegalArgumentException(String.format("Snap length must be in [1, %d], but was %d", MAX_SNAP_LEN, options.getSnapLen()));
+        }
+        if (options.getTimeout() < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative, but was " + options.getTimeout());
+        }
+        if (options.getEventLoops() < 0) {
+            throw new IllegalArgumentException("Event loops must not be negative, but was " + options.getEventLoops());
+        }
+        if (options.getBufferSize() < 0) {
+            throw new IllegalArgumentException("Buffer size must not be negative, but was " + options.getBufferSize());
+        }
+        if (options.getBufferSize() > 0 && options.getBufferSize() < options.getSnapLen()) {
+            throw new IllegalArgumentException(String.format("Buffer size %d cannot hold a single packet of snap length %d",
+                    options.getBufferSize(), options.getSnapLen()));
+        }
+    }
+
+    /**
+     * Open a live handle with all handle options and report the values it actually runs with.
+     */
+    private PcapHandle openHandle(String interfaceName) throws PcapNativeException {
+        PcapHandle.Builder builder = new PcapHandle.Builder(interfaceName)
+                .snaplen(options.getSnapLen())
+                .promiscuousMode(options.isPromiscuous() ? PcapNetworkInterface.PromiscuousMode.PROMISCUOUS
+                        : PcapNetworkInterface.PromiscuousMode.NONPROMISCUOUS)
+                .timeoutMillis(options.getTimeout())
+                .immediateMode(options.isImmediateMode())
+                .direction(options.getDirection().getPcapDirection());
+        if (options.getBufferSize() > 0) {
+            builder.bufferSize(options.getBufferSize());
+        }
+        if (options.isNanoPrecision()) {
+            builder.timestampPrecision(PcapHandle.TimestampPrecision.NANO);
+        }
+
+        PcapHandle handle;
+        try {
+            handle = builder.build();
+        }
+        catch (PcapNativeException e) {
+            throw new PcapNativeException(String.format("Cannot open [%s] - %s", interfaceName, e.getMessage()), e.getReturnCode());
+        }
+
+        int snapLen;
+        try {
+            snapLen = handle.getSnapshot();
+        }
+        catch (NotOpenException e) {
+            throw new IllegalStateException(e);
+        }
+        if (options.isNanoPrecision() && handle.getTimestampPrecision() != PcapHandle.TimestampPrecision.NANO) {
+            SystemOutHelper.println(String.format("Warning: [%s] does not support nanosecond timestamps, using %s.",
+                    interfaceName, handle.getTimestampPrecision()));
+        }
+        SystemOutHelper.println(String.format("Opened [%s]: link type %s, snap length %d, %s, timeout %dms, buffer %s, "
+                        + "immediate mode %s, timestamp precision %s, direction %s",
+                interfaceName, handle.getDlt(), snapLen, options.isPromiscuous() ? "promiscuous" : "non promiscuous",
+                options.getTimeout(), options.getBufferSize() > 0 ? options.getBufferSize() / 1024 + "KB" : "default",
+                options.isImmediateMode() ? "on" : "off", handle.getTimestampPrecision(), options.getDirection()));
+        return handle;
+    }
+
+    /**
+     * @return null if no metrics output is enabled
+     */
+    private MetricsReporter openMetricsReporter(List<InterfaceMetrics> interfaceMetrics, PacketRingBuffer ringBuffer, PacketWriter writer) {
+        String target = options.getMetricsTarget();
+        if (StringUtils.isNullOrEmpty(target) && !options.isMetricsJmx() && options.getMetricsHttpPort() < 0) {
+            return null;
+        }
+
+        PrintStream out = null;
+        if ("stderr".equals(target)) {
+            out = System.err;
+        }
+        else if (!StringUtils.isNullOrEmpty(target)) {
+            try {
+                metricsOut = new PrintStream(new BufferedOutputStream(new FileOutputStream(target)), false, "UTF-8");
             }
+            catch (IOException e) {
+                throw new IllegalStateException(String.format("Cannot open metrics file %s - %s", target, e.getMessage()), e);
+            }
+            out = metricsOut;
+        }
 
+        MetricsReporter reporter = new MetricsReporter(interfaceMetrics, ringBuffer, writer, out);
+        if (options.isMetricsJmx()) {
+            reporter.registerMBeans();
+        }
+        if (options.getMetricsHttpPort() >= 0) {
             try {
-                Thread.sleep(200);
+                reporter.startHttpServer(options.getMetricsHttpPort());
             }
-            catch (InterruptedException e) {
-                SystemOutHelper.println("Interrupted.");
-                stopRun(futures);
-                break;
+            catch (IOException e) {
+                throw new IllegalStateException(String.format("Cannot serve metrics on port %d - %s", options.getMetricsHttpPort(), e.getMessage()), e);
             }
         }
+        reporter.start(options.getMetricsInterval());
+        return reporter;
     }
 
-    private void stopRun(Map<String, Future<Void>> taskFutures) {
-        for (Map.Entry<String, Future<Void>> entry : taskFutures.entrySet()) {
-            String interName = entry.getKey();
-            Future<Void> future = entry.getValue();
-            if (future.isDone()) {
-                try {
-                    future.get();
-                    SystemOutHelper.println(String.format("- Capturing on [%s] has finished!", interName));
-                }
-                catch (Exception e) {
-                    SystemOutHelper.println(String.format("- Capturing on [%s] failed with exception - %s:%s", interName, e.getClass().getCanonicalName(), e.getMessage()));
-                }
+    /**
+     * One pcapng file for all sources, with the interface ids in the iteration order of {@code sources}.
+     */
+    private MergingPacketSink openMergedSink(Map<String, PacketSource> sources, File file) {
+        if (options.getMergeWindow() < 0) {
+            throw new IllegalArgumentException("Merge window must not be negative, but was " + options.getMergeWindow());
+        }
+        boolean nanos = true;
+        for (PacketSource source : sources.values()) {
+            nanos &= source.isNanoPrecision();
+        }
+        try {
+            PcapngFileWriter writer = new PcapngFileWriter(file.toPath(), nanos, options.getWriteBufferSize(), options.isMemoryMapped(),
+                    blockCompressor);
+            for (Map.Entry<String, PacketSource> entry : sources.entrySet()) {
+                writer.addInterface(entry.getKey(), entry.getValue().getDataLinkType().value(), entry.getValue().getSnapLen());
             }
-            else {
-                SystemOutHelper.println(String.format("- Capturing on [%s] has not finished, stop it.", interName));
-                entry.getValue().cancel(true);
+            return new MergingPacketSink(writer, TimeUnit.MILLISECONDS.toNanos(options.getMergeWindow()), options.getMergeBuffer());
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(String.format("Cannot open dump file %s - %s", file, e.getMessage()), e);
+        }
+    }
+
+    private PacketSink openFileSink(String interfaceName, PacketSource source, File file) throws PcapNativeException, NotOpenException {
+        if (options.getOutputFormat() == OutputFormat.LIBPCAP) {
+            return new DumperPacketSink(source.openDumper(file.getPath()));
+        }
+
+        RotatingFileWriter.Opener opener = fileOpener(interfaceName, source);
+        try {
+            if (isRotating()) {
+                String suffix = options.getOutputFormat().getSuffix() + (blockCompressor != null ? BlockCompressor.SUFFIX : "");
+                String base = file.getPath().substring(0, file.getPath().length() - suffix.length());
+                // pieces compressed while written need not be compressed again when finished
+                Compression compression = blockCompressor != null ? Compression.NONE : options.getCompression();
+                return new FilePacketSink(new RotatingFileWriter(base, suffix, opener, options.getRotateSize(),
+                        TimeUnit.SECONDS.toNanos(options.getRotateInterval()), options.getRotateFiles(), compression));
             }
+            return new FilePacketSink(opener.open(file.toPath()));
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(String.format("Cannot open dump file %s - %s", file, e.getMessage()), e);
         }
     }
 
-    private static class NetworkPacketListener implements PacketListener {
+    /**
+     * Opens files of the java writer selected by --format for the packets of {@code source}.
+     */
+    private RotatingFileWriter.Opener fileOpener(String interfaceName, PacketSource source) {
+        int linkType = source.getDataLinkType().value();
+        boolean nanos = source.isNanoPrecision();
+        return path -> {
+            if (options.getOutputFormat() == OutputFormat.PCAPNG) {
+                PcapngFileWriter writer = new PcapngFileWriter(path, nanos, options.getWriteBufferSize(), options.isMemoryMapped(),
+                        blockCompressor);
+                writer.addInterface(interfaceName, linkType, source.getSnapLen());
+                return writer;
+            }
+            PcapFileWriter writer = new PcapFileWriter(path, linkType, source.getSnapLen(), nanos, options.getWriteBufferSize(),
+                    options.isMemoryMapped(), blockCompressor);
+            if (!options.isIndex()) {
+                return writer;
+            }
+            try {
+                return new IndexingFileWriter(writer, path, linkType);
+            }
+            catch (IOException | RuntimeException e) {
+                writer.close();
+                throw e;
+            }
+        };
+    }
 
-        private final PcapHandle handle;
-        private final PcapDumper dumper;
-        private final ExecutorService executor;
+    private RecorderTrigger openRecorderTrigger() {
+        if (options.getOutputFormat() == OutputFormat.LIBPCAP || options.isMerge() || isRotating()) {
+            throw new IllegalArgumentException("The flight recorder needs the java pcap or pcapng writer, it cannot be combined with --format libpcap, --merge or rotation.");
+        }
+        if (options.getRecorderSeconds() < 0 || options.getRecorderAfter() < 0 || options.getTriggerHoldOff() < 0) {
+            throw new IllegalArgumentException("Recorder and trigger seconds must not be negative.");
+        }
+        RecorderTrigger trigger = new RecorderTrigger(TimeUnit.SECONDS.toNanos(options.getTriggerHoldOff()));
+        List<String> triggers = new ArrayList<>();
+        if (!StringUtils.isNullOrEmpty(options.getTriggerSignal())) {
+            trigger.watchSignal(options.getTriggerSignal());
+            triggers.add("kill -" + options.getTriggerSignal());
+        }
+        if (!StringUtils.isNullOrEmpty(options.getTriggerFile())) {
+            trigger.watchFile(Paths.get(options.getTriggerFile()));
+            triggers.add("touch " + options.getTriggerFile());
+        }
+        if (!StringUtils.isNullOrEmpty(options.getTriggerFilter())) {
+            triggers.add("packets matching [" + options.getTriggerFilter() + "]");
+        }
+        if (triggers.isEmpty()) {
+            throw new IllegalArgumentException("The flight recorder needs a trigger signal, file or filter.");
+        }
+        SystemOutHelper.println(String.format("Flight recorder keeps %d MB%s, dumping on: %s", options.getRecorderMemory() / 1024 / 1024,
+                options.getRecorderSeconds() > 0 ? " or " + options.getRecorderSeconds() + "s" : "", String.join(", ", triggers)));
+        return trigger;
+    }
 
-        private final CountDownLatch sharedCount;
+    private PacketSink openRecorderSink(String interfaceName, PacketSource source, String base, String suffix,
+                                        RecorderTrigger trigger, int interfaceCount) {
+        BpfFilter triggerFilter = StringUtils.isNullOrEmpty(options.getTriggerFilter()) ? null
+                : BpfFilter.compile(options.getTriggerFilter(), source.getDataLinkType().value(), source.getSnapLen());
+        // a direct buffer is indexed by int
+        int capacity = (int) Math.min(options.getRecorderMemory() / interfaceCount, Integer.MAX_VALUE);
+        return new FlightRecorderSink(interfaceName, capacity, TimeUnit.SECONDS.toNanos(options.getRecorderSeconds()),
+                fileOpener(interfaceName, source), base, suffix, trigger, triggerFilter, TimeUnit.SECONDS.toNanos(options.getRecorderAfter()));
+    }
 
-        private final AtomicLong count = new AtomicLong(0);
+    private boolean isRotating() {
+        return options.getRotateSize() > 0 || options.getRotateInterval() > 0
+                || (options.getCompression() != Compression.NONE && options.getCompressThreads() == 0);
+    }
 
-        private NetworkPacketListener(PcapHandle handle, PcapDumper dumper, ExecutorService executor, CountDownLatch sharedCount) {
-            this.handle = handle;
-            this.dumper = dumper;
-            this.executor = executor;
-            this.sharedCount = sharedCount;
+    private SnmpMatcher openSnmpMatcher() {
+        if (options.getSnmpMemory() <= 0 || options.getSnmpTimeout() <= 0 || options.getSnmpInterval() <= 0) {
+            throw new IllegalArgumentException("SNMP memory, timeout and interval must be positive.");
         }
+        SnmpMatcher matcher = new SnmpMatcher(options.getSnmpMemory(), TimeUnit.SECONDS.toNanos(options.getSnmpTimeout()));
+        SystemOutHelper.println(String.format("Matching SNMP requests, at most %d outstanding, timeout %d seconds.",
+                matcher.capacity(), options.getSnmpTimeout()));
+        return matcher;
+    }
 
-        @Override
-        public void gotPacket(Packet packet) {
-            count.incrementAndGet();
-            sharedCount.countDown();
+    private PacketSink openStreamSink() {
+        return new StreamPacketSink(StreamPacketSink.openReassembler(options));
+    }
 
-            DumpPacketTask dumpPacketTask = new DumpPacketTask(dumper, packet, handle.getTimestamp());
-            if (executor == null) {
-                dumpPacketTask.run();
-            }
-            else {
-                executor.submit(dumpPacketTask);
-            }
+    /**
+     * Check the sampling options and start adaptive sampling if asked for.
+     *
+     * @return null unless adaptive
+     */
+    private AdaptiveSampler openAdaptiveSampler(List<PacketSampler> samplers, PacketRingBuffer ringBuffer,
+                                                Collection<PacketSource> sources) {
+        if (options.getSampleRate() < 1 || options.getSampleMaxRate() < 1) {
+            throw new IllegalArgumentException("Sample rates must be at least 1.");
+        }
+        if (options.getSampleQueuePercent() < 1 || options.getSampleQueuePercent() > 100) {
+            throw new IllegalArgumentException("Sample queue threshold must be a percentage between 1 and 100.");
+        }
+        if (samplers.isEmpty()) {
+            return null;
+        }
+        SystemOutHelper.println(String.format("Sampling 1 in %d %s%s.", options.getSampleRate(),
+                options.getSamplingMode() == SamplingMode.FLOW ? "flows" : "packets",
+                options.isSampleAdaptive() ? String.format(", adaptive up to 1 in %d", options.getSampleMaxRate()) : ""));
+        if (!options.isSampleAdaptive()) {
+            return null;
         }
+        AdaptiveSampler sampler = new AdaptiveSampler(samplers, ringBuffer, sources, options.getSampleRate(),
+                options.getSampleMaxRate(), options.getSampleQueuePercent());
+        sampler.start();
+        return sampler;
+    }
 
-        public long getCount() {
-            return count.get();
+    private void validateRotateOptions() {
+        if (options.getRotateSize() < 0 || options.getRotateInterval() < 0 || options.getRotateFiles() < 0) {
+            throw new IllegalArgumentException("Rotation size, interval and file count must not be negative.");
+        }
+        if (!isRotating()) {
+            return;
+        }
+        if (options.getOutputFormat() == OutputFormat.LIBPCAP || options.isMerge()) {
+            throw new IllegalArgumentException("Rotation needs the java pcap or pcapng writer, it cannot be combined with --format libpcap or --merge.");
+        }
+        if (!options.getCompression().isAvailable()) {
+            throw new IllegalArgumentException(String.format("Cannot compress with %s, its command is not on the PATH.",
+                    options.getCompression().name().toLowerCase()));
         }
     }
 
+    private void validateCompressOptions() {
+        if (options.getCompressThreads() < 0) {
+            throw new IllegalArgumentException("Compression threads must not be negative, but was " + options.getCompressThreads());
+        }
+        if (options.getCompressThreads() == 0) {
+            return;
+        }
+        if (options.getCompression() != Compression.NONE && options.getCompression() != Compression.GZIP) {
+            throw new IllegalArgumentException("--compress-threads writes gzip, it cannot be combined with --compress zstd or lz4.");
+        }
+        if (options.getOutputFormat() == OutputFormat.LIBPCAP || options.isMemoryMapped()) {
+            throw new IllegalArgumentException("--compress-threads needs the buffered java pcap or pcapng writer, it cannot be combined with --format libpcap or --mmap.");
+        }
+    }
 
+    /**
+     * Start the workers the flow accounting is sharded over, each updating its own table of every interface.
+     */
+    private ShardedStage openShardedStage(Map<String, PacketSource> sources, Map<String, List<FlowTable>> flowTables) {
+        int workers = options.getWorkers();
+        int[] linkTypes = new int[sources.size()];
+        FlowTable[][] tables = new FlowTable[sources.size()][];
+        int input = 0;
+        for (String interfaceName : sources.keySet()) {
+            linkTypes[input] = sources.get(interfaceName).getDataLinkType().value();
+            tables[input] = flowTables.get(interfaceName).toArray(new FlowTable[0]);
+            input++;
+        }
+        ShardedStage stage = new ShardedStage(linkTypes, workers, Math.max(1024, options.getQueueCapacity() / workers),
+                options.getOverflowPolicy() == OverflowPolicy.BLOCK,
+                worker -> (from, view, originalLength, timestampNanos, sampleRate) ->
+                        tables[from][worker].update(view, originalLength, timestampNanos, sampleRate));
+        stage.start();
+        SystemOutHelper.println(String.format("Accounting flows on %d worker threads.", workers));
+        return stage;
+    }
 
-    private static class DumpPacketTask implements Runnable {
+    private void validateIndexOptions() {
+        if (options.isIndex() && (options.getOutputFormat() != OutputFormat.PCAP || options.isMerge()
+                || options.getCompression() != Compression.NONE || options.getCompressThreads() > 0)) {
+            throw new IllegalArgumentException("The index needs uncompressed files of the java pcap writer, it cannot be combined with --format pcapng or libpcap, --merge or compression.");
+        }
+    }
 
-        private final PcapDumper dumper;
-        private final Packet packet;
-        private final Timestamp timestamp;
+    /**
+     * Start all tasks and block until the first of: the packet budget is used up, a task ends, the duration
+     * passes or the caller is interrupted. Then stop every source and wait for the tasks to return.
+     *
+     * @return whether all tasks returned
+     */
+    private boolean execute(final ExecutorService taskExecutor, final Map<String, Callable<Void>> capturingTasks,
+                            final Collection<PacketSource> sources, final StopSignal stopSignal) {
+        Map<String, Future<Void>> futures = new HashMap<>();
+        for (String interfacename : capturingTasks.keySet()) {
+            futures.put(interfacename, taskExecutor.submit(capturingTasks.get(interfacename)));
+        }
 
-        private DumpPacketTask(PcapDumper dumper, Packet packet, Timestamp timestamp) {
-            this.dumper = dumper;
-            this.packet = packet;
-            this.timestamp = timestamp;
+        try {
+            long durationInMs = options.getDuration() * 1000;
+            if (durationInMs > 0) {
+                if (!stopSignal.await(durationInMs)) {
+                    stopSignal.stop("Capturing exceeds given timeout, stop all tasks.");
+                }
+            }
+            else {
+                stopSignal.await();
+            }
+        }
+        catch (InterruptedException e) {
+            stopSignal.stop("Interrupted.");
+            Thread.currentThread().interrupt();
         }
+        SystemOutHelper.println(stopSignal.getReason());
 
+        for (PacketSource source : sources) {
+            source.stop();
+        }
+        return stopRun(futures);
+    }
 
-        @Override
-        public void run() {
+    private boolean stopRun(Map<String, Future<Void>> taskFutures) {
+        boolean allStopped = true;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STOP_TIMEOUT_SECONDS);
+        for (Map.Entry<String, Future<Void>> entry : taskFutures.entrySet()) {
+            String interName = entry.getKey();
+            Future<Void> future = entry.getValue();
             try {
-                if (dumper != null) {
-                    dumper.dump(packet, timestamp);
-                }
-                else {
-                    // print to std io
-                    SystemOutHelper.println(packet);
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                SystemOutHelper.println(String.format("- Capturing on [%s] has finished!", interName));
+            }
+            catch (TimeoutException e) {
+                SystemOutHelper.println(String.format("- Capturing on [%s] has not finished, stop it.", interName));
+                future.cancel(true);
+                allStopped = false;
+            }
+            catch (InterruptedException e) {
+                future.cancel(true);
+                allStopped = false;
+                Thread.currentThread().interrupt();
+            }
+            catch (Exception e) {
+                SystemOutHelper.println(String.format("- Capturing on [%s] failed with exception - %s:%s", interName, e.getClass().getCanonicalName(), e.getMessage()));
+            }
+        }
+        return allStopped;
+    }
+
+    /**
+     * Receives the captured bytes only: no source decodes packets, and nothing downstream needs a decoded
+     * {@link org.pcap4j.packet.Packet} except printing to stdout.
+     */
+    private static class NetworkPacketListener implements PacketHandler {
+
+        private final PacketSink sink;
+        private final FlowTable flowTable;
+        private final ShardedStage.Input shardInput;
+        private final SnmpMatcher snmpMatcher;
+        private final PacketView view = new PacketView();
+        private final DataLinkType dataLinkType;
+        private final PacketRingBuffer ringBuffer;
+        private final PayloadFilter.Matcher matcher;
+        private final DuplicateFilter duplicateFilter;
+        private final PacketSampler sampler;
+
+        /**
+         * packets still to capture over all interfaces, null for no limit
+         */
+        private final AtomicLong budget;
+        private final StopSignal stopSignal;
+
+        private final InterfaceMetrics metrics;
+
+        /**
+         * @param flowTable if not null, packets are accounted there instead of being passed to the sink
+         * @param shardInput if not null, packets are handed to the workers accounting them instead
+         * @param snmpMatcher if not null, packets are matched there instead of being passed to the sink
+         * @param matcher   null unless --match keeps only some payloads
+         * @param duplicateFilter null to keep duplicates
+         * @param sampler   null to keep every packet
+         */
+        private NetworkPacketListener(PacketSource source, PacketSink sink, FlowTable flowTable, ShardedStage.Input shardInput,
+                                      SnmpMatcher snmpMatcher, PacketRingBuffer ringBuffer, PayloadFilter.Matcher matcher,
+                                      DuplicateFilter duplicateFilter, PacketSampler sampler, InterfaceMetrics metrics,
+                                      AtomicLong budget, StopSignal stopSignal) {
+            this.sink = sink;
+            this.flowTable = flowTable;
+            this.shardInput = shardInput;
+            this.snmpMatcher = snmpMatcher;
+            this.dataLinkType = source.getDataLinkType();
+            this.ringBuffer = ringBuffer;
+            this.matcher = matcher;
+            this.duplicateFilter = duplicateFilter;
+            this.sampler = sampler;
+            this.metrics = metrics;
+            this.budget = budget;
+            this.stopSignal = stopSignal;
+        }
+
+        @Override
+        public void handle(byte[] packet, int originalLength, long timestampNanos) {
+            // the second stage of the kernel filter, a packet it drops is not captured at all
+            if (matcher != null && !matcher.matches(view.wrap(packet, packet.length, dataLinkType.value()))) {
+                return;
+            }
+            metrics.record(originalLength);
+            // before sampling, so that copies neither take the place of other packets nor count against the budget
+            if (duplicateFilter != null && duplicateFilter.isDuplicate(
+                    DuplicateFilter.fingerprint(view.wrap(packet, packet.length, dataLinkType.value())), timestampNanos)) {
+                metrics.recordDuplicate();
+                return;
+            }
+            int sampleRate = 1;
+            if (sampler != null) {
+                if (!sampler.sample(packet, dataLinkType.value())) {
+                    metrics.recordSampledOut();
+                    return;
                 }
+                sampleRate = sampler.getLastRate();
+            }
+
+            // the count limit applies to the packets kept
+            long left = budget != null ? budget.decrementAndGet() : 1;
+            if (left < 0) {
+                // another interface took the last packet of the budget, the sources are being stopped
+                return;
+            }
+            if (shardInput != null) {
+                shardInput.offer(packet, originalLength, timestampNanos, sampleRate);
             }
-            catch (NotOpenException e) {
-                //ignored
+            else if (flowTable != null) {
+                view.wrap(packet, packet.length, dataLinkType.value());
+                flowTable.update(view, originalLength, timestampNanos, sampleRate);
             }
+            else if (snmpMatcher != null) {
+                view.wrap(packet, packet.length, dataLinkType.value());
+                snmpMatcher.update(view, timestampNanos);
+            }
+            else {
+                ringBuffer.offer(sink, packet, dataLinkType, originalLength, timestampNanos, sampleRate);
+            }
+
+            if (left == 0) {
+                stopSignal.stop("Reached the packet count limit, stop all tasks.");
+            }
+        }
+
+        public long getCount() {
+            return metrics.getPackets();
         }
     }
 
@@ -263,49 +915,83 @@ public class NetworkCapture {
     private static class CapturingTask implements Callable<Void> {
 
         private final String interfaceName;
-        private final PcapHandle handle;
+        private final PacketSource source;
         private final NetworkPacketListener listener;
-        private final int count;
-        private final long durationInMs;
+        private final StopSignal stopSignal;
 
-
-        private CapturingTask(String interfaceName, PcapHandle handle, NetworkPacketListener listener, int count, long durationInS) {
+        private CapturingTask(String interfaceName, PacketSource source, NetworkPacketListener listener, StopSignal stopSignal) {
             this.interfaceName = interfaceName;
-            this.handle = handle;
+            this.source = source;
             this.listener = listener;
-            this.count = count == 0? Integer.MAX_VALUE : count;
-            this.durationInMs = durationInS * 1000;
+            this.stopSignal = stopSignal;
         }
 
-
         @Override
         public Void call() throws Exception {
-            while (true) {
-                try {
-                    SystemOutHelper.println(String.format("Start loop for [%s], count=%d, duration=%dms", interfaceName, count, durationInMs));
-                    handle.loop(count, listener);
-                }
-                catch (InterruptedException e) {
-                    SystemOutHelper.println(String.format("Capturing [%s] interrupted, captured %d packets.", interfaceName, listener.getCount()));
-                    break;
-                }
+            try {
+                SystemOutHelper.println(String.format("Start loop for [%s]", interfaceName));
+                source.run(listener);
+                SystemOutHelper.println(String.format("Capturing [%s] ended, captured %d packets.", interfaceName, listener.getCount()));
+            }
+            finally {
+                stopSignal.stop(String.format("Capturing on [%s] ended, stop all tasks.", interfaceName));
+            }
+            return null;
+        }
+    }
 
-                if (count != Integer.MAX_VALUE) {
-                    SystemOutHelper.println(String.format("Capturing [%s] reach count limit, captured %d packets.", interfaceName, listener.getCount()));
-                    break;
-                }
+    private static class EventLoopTask implements Callable<Void> {
 
-                if (durationInMs <= 0) {
-                    break;
-                }
-                else if (System.currentTimeMillis() >= System.currentTimeMillis() + durationInMs) {
-                    SystemOutHelper.println(String.format("Capturing [%s] reach running time limit, captured %d packets.", interfaceName, listener.getCount()));
-                    break;
-                }
-            }
+        private final String loopName;
+        private final PacketMultiplexer multiplexer;
+        private final StopSignal stopSignal;
+
+        private EventLoopTask(String loopName, PacketMultiplexer multiplexer, StopSignal stopSignal) {
+            this.loopName = loopName;
+            this.multiplexer = multiplexer;
+            this.stopSignal = stopSignal;
+        }
 
+        @Override
+        public Void call() throws Exception {
+            try {
+                SystemOutHelper.println(String.format("Start [%s] for %d interfaces", loopName, multiplexer.size()));
+                multiplexer.run();
+            }
+            finally {
+                stopSignal.stop(String.format("Capturing on [%s] ended, stop all tasks.", loopName));
+            }
             return null;
         }
     }
 
+    /**
+     * Fires once, on the first reason to stop capturing, and remembers that reason.
+     */
+    private static class StopSignal {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final AtomicReference<String> reason = new AtomicReference<>();
+
+        private void stop(String why) {
+            if (reason.compareAndSet(null, why)) {
+                latch.countDown();
+            }
+        }
+
+        private void await() throws InterruptedException {
+            latch.await();
+        }
+
+        /**
+         * @return false if the time passed without a stop
+         */
+        private boolean await(long timeoutInMs) throws InterruptedException {
+            return latch.await(timeoutInMs, TimeUnit.MILLISECONDS);
+        }
+
+        private String getReason() {
+            return reason.get();
+        }
+    }
 }
@@ -3,6 +3,9 @@ package cc.databus.netool.utils;
 import org.pcap4j.core.*;
 import org.pcap4j.util.LinkLayerAddress;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
@@ -13,10 +16,34 @@ public class NetworkUtils {
         return Pcaps.getDevByName(name);
     }
 
+    /**
+     * @param pattern an interface name, or a glob such as {@code veth*} matching any number of interfaces
+     */
+    public static List<PcapNetworkInterface> getNetworkInterfaces(String pattern) throws PcapNativeException {
+        Objects.requireNonNull(pattern, "Interface name cannot be null.");
+        if (!pattern.contains("*")) {
+            PcapNetworkInterface networkInterface = getNetworkInterfance(pattern);
+            return networkInterface != null ? Collections.singletonList(networkInterface) : Collections.emptyList();
+        }
+
+        String regex = "\\Q" + pattern.replace("*", "\\E.*\\Q") + "\\E";
+        List<PcapNetworkInterface> matched = new ArrayList<>();
+        for (PcapNetworkInterface networkInterface : Pcaps.findAllDevs()) {
+            if (networkInterface.getName().matches(regex)) {
+                matched.add(networkInterface);
+            }
+        }
+        return matched;
+    }
+
     public static void capturePackets(CaptureOptions captureOptions) throws PcapNativeException, NotOpenException {
         NetworkCapture.startCapturing(captureOptions);
     }
 
+    public static void readPackets(CaptureOptions captureOptions) throws IOException {
+        OfflineCapture.startReading(captureOptions);
+    }
+
     public static String listInterfaces() throws PcapNativeException {
 
         List<PcapNetworkInterface> inters = Pcaps.findAllDevs();
@@ -0,0 +1,125 @@
+package cc.databus.netool.utils;
+
+import cc.databus.netool.pcap.CaptureFileWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The most recent packets in one preallocated direct buffer, oldest evicted first.
+ *
+ * Records are laid out back to back as captured length, original length, timestamp and the captured bytes.
+ * A record that does not fit before the end of the buffer starts over at offset 0, with a {@link #WRAP}
+ * marker left behind if there is room for one. Adding a record copies its bytes and allocates nothing.
+ * Not thread safe, the writer thread owns it.
+ */
+class OffHeapPacketRing {
+
+    static final int HEADER_LENGTH = 16;
+    private static final int WRAP = -1;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final long maxAgeNanos;
+
+    /**
+     * offset of the oldest record, or {@link #tail} when empty
+     */
+    private int head = 0;
+    /**
+     * offset the next record goes to
+     */
+    private int tail = 0;
+    private int count = 0;
+    private long newestTimestamp = Long.MIN_VALUE;
+
+    /**
+     * @param maxAgeNanos records older than this relative to the newest one are evicted, 0 for no limit
+     */
+    OffHeapPacketRing(int capacity, long maxAgeNanos) {
+        if (capacity < HEADER_LENGTH * 2) {
+            throw new IllegalArgumentException("Recorder buffer too small: " + capacity);
+        }
+        this.buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        this.capacity = capacity;
+        this.maxAgeNanos = maxAgeNanos;
+    }
+
+    void add(byte[] data, int originalLength, long timestampNanos) {
+        int length = Math.min(data.length, capacity - HEADER_LENGTH);
+        int need = HEADER_LENGTH + length;
+
+        if (tail + need > capacity) {
+            // everything between tail and the end is older than what lies before tail
+            while (count > 0 && head >= tail) {
+                evict();
+            }
+            if (capacity - tail >= 4) {
+                buffer.putInt(tail, WRAP);
+            }
+            tail = 0;
+        }
+        while (count > 0 && head >= tail && head < tail + need) {
+            evict();
+        }
+        if (count == 0) {
+            head = tail;
+        }
+
+        buffer.putInt(tail, length);
+        buffer.putInt(tail + 4, originalLength);
+        buffer.putLong(tail + 8, timestampNanos);
+        buffer.position(tail + HEADER_LENGTH);
+        buffer.put(data, 0, length);
+        tail += need;
+        count++;
+
+        newestTimestamp = Math.max(newestTimestamp, timestampNanos);
+        if (maxAgeNanos > 0) {
+            while (count > 1 && newestTimestamp - buffer.getLong(head + 8) > maxAgeNanos) {
+                evict();
+            }
+        }
+    }
+
+    /**
+     * Write all records, oldest first. The ring is left unchanged.
+     *
+     * @return number of records written
+     */
+    int writeTo(CaptureFileWriter writer) throws IOException {
+        ByteBuffer view = buffer.duplicate();
+        int at = head;
+        for (int i = 0; i < count; i++) {
+            at = skipWrap(at);
+            int length = buffer.getInt(at);
+            view.limit(at + HEADER_LENGTH + length).position(at + HEADER_LENGTH);
+            writer.write(view, buffer.getInt(at + 4), buffer.getLong(at + 8));
+            at += HEADER_LENGTH + length;
+        }
+        return count;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    private void evict() {
+        head += HEADER_LENGTH + buffer.getInt(head);
+        count--;
+        // keep head on a record, never on a wrap marker
+        head = count == 0 ? tail : skipWrap(head);
+    }
+
+    private int skipWrap(int at) {
+        if (capacity - at < HEADER_LENGTH || buffer.getInt(at) == WRAP) {
+            return 0;
+        }
+        return at;
+    }
+}
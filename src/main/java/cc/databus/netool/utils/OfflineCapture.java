@@ -0,0 +1,330 @@
+package cc.databus.netool.utils;
+
+import cc.databus.netool.analysis.CaptureSummary;
+import cc.databus.netool.analysis.ParallelPcapAnalyzer;
+import cc.databus.netool.filter.PayloadFilter;
+import cc.databus.netool.index.CaptureIndex;
+import cc.databus.netool.index.CaptureIndexWriter;
+import cc.databus.netool.index.IndexQuery;
+import cc.databus.netool.index.IndexingFileWriter;
+import cc.databus.netool.packet.PacketSummaryFormatter;
+import cc.databus.netool.packet.PacketView;
+import cc.databus.netool.pcap.BlockCompressor;
+import cc.databus.netool.pcap.BpfFilter;
+import cc.databus.netool.pcap.CaptureFileWriter;
+import cc.databus.netool.pcap.PcapFileReader;
+import cc.databus.netool.pcap.PcapFileWriter;
+import cc.databus.netool.pcap.PcapngFileWriter;
+import org.pcap4j.packet.Packet;
+import org.pcap4j.packet.factory.PacketFactories;
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a pcap file (-r), applies the -f filter and writes the matching records to -w or prints them,
+ * one summary line each or, with --verbose, fully decoded. With --streams or --tls the records are reassembled
+ * into TCP streams instead, as in a live capture.
+ * --from, --to and --flow restrict the records read; if the file has a sidecar {@link CaptureIndex}, only the
+ * blocks that may hold matching records are read, everything else is skipped without touching it.
+ * Records are streamed from a {@link PcapFileReader} straight into the writer, so memory use does not
+ * depend on the file size.
+ */
+public class OfflineCapture {
+
+    private static final int STDOUT_BUFFER_SIZE = 1024 * 1024;
+
+    private static final long[] WHOLE_FILE = {PcapFileReader.FIRST_RECORD_OFFSET, Long.MAX_VALUE};
+
+    private final CaptureOptions options;
+
+    /**
+     * gzips the -w file while it is written, if asked for
+     */
+    private BlockCompressor blockCompressor;
+
+    public OfflineCapture(CaptureOptions options) {
+        this.options = options;
+    }
+
+    public static void startReading(CaptureOptions options) throws IOException {
+        new OfflineCapture(options).run();
+    }
+
+    private void run() throws IOException {
+        validateWriteOptions();
+        if (options.isSummary()) {
+            summarize();
+            return;
+        }
+        if (options.isIndex() && StringUtils.isNullOrEmpty(options.getFilePath())) {
+            buildIndex();
+            return;
+        }
+        IndexQuery query = null;
+        if (options.getFrom() != null || options.getTo() != null || options.getFlow() != null) {
+            query = new IndexQuery(options.getFrom(), options.getTo(), options.getFlow());
+        }
+
+        long startedAt = System.nanoTime();
+        long read = 0;
+        long matched = 0;
+        PayloadFilter.Matcher matcher = null;
+        try (PcapFileReader reader = new PcapFileReader(Paths.get(options.getReadFilePath()))) {
+            String bpf = options.getFilter();
+            if (!StringUtils.isNullOrEmpty(options.getMatch())) {
+                PayloadFilter payloadFilter = PayloadFilter.compile(options.getMatch());
+                // the prefilter skips most records before they are decoded, as the kernel does for a capture
+                bpf = payloadFilter.combine(bpf);
+                matcher = payloadFilter.newMatcher();
+            }
+            BpfFilter filter = null;
+            if (!StringUtils.isNullOrEmpty(bpf)) {
+                filter = BpfFilter.compile(bpf, reader.getLinkType(), reader.getSnapLen());
+            }
+
+            CaptureFileWriter writer = null;
+            if (!StringUtils.isNullOrEmpty(options.getFilePath())) {
+                writer = openWriter(reader);
+            }
+            StreamPacketSink streams = null;
+            if (writer == null && (options.isStreams() || options.isTls())) {
+                streams = new StreamPacketSink(StreamPacketSink.openReassembler(options));
+            }
+            DataLinkType dataLinkType = DataLinkType.getInstance(reader.getLinkType());
+            boolean verbose = writer == null && streams == null && options.isVerbose();
+            byte[] scratch = verbose ? new byte[reader.getSnapLen() > 0 ? reader.getSnapLen() : 65536] : null;
+            PacketView view = new PacketView();
+            PacketSummaryFormatter formatter = new PacketSummaryFormatter(reader.isNanos());
+            StdoutChannel out = writer == null && streams == null && !verbose ? new StdoutChannel(STDOUT_BUFFER_SIZE) : null;
+
+            long limit = options.getCount() > 0 ? options.getCount() : Long.MAX_VALUE;
+            long[] ranges = query != null ? select(reader, query) : WHOLE_FILE;
+            try {
+                for (int range = 0; range < ranges.length && matched < limit; range += 2) {
+                    reader.seek(ranges[range], ranges[range + 1]);
+                    while (matched < limit && reader.next()) {
+                        read++;
+                        if (query != null && !query.matchesTime(reader.timestampNanos())) {
+                            continue;
+                        }
+                        if (query != null && query.hasFlow() && view.wrap(reader.buffer(), reader.dataOffset(), reader.capturedLength(),
+                                reader.getLinkType()).flowHash() != query.getFlowHash()) {
+                            continue;
+                        }
+                        if (filter != null
+                                && !filter.matches(reader.buffer(), reader.dataOffset(), reader.capturedLength(), reader.originalLength())) {
+                            continue;
+                        }
+                        if (matcher != null
+                                && !matcher.matches(view.wrap(reader.buffer(), reader.dataOffset(), reader.capturedLength(), reader.getLinkType()))) {
+                            continue;
+                        }
+                        matched++;
+
+                        if (writer != null) {
+                            writer.write(reader.data(), reader.originalLength(), reader.timestampNanos());
+                        }
+                        else if (streams != null) {
+                            streams.write(reader.buffer(), reader.dataOffset(), reader.capturedLength(), reader.getLinkType(),
+                                    reader.timestampNanos());
+                        }
+                        else if (!verbose) {
+                            view.wrap(reader.buffer(), reader.dataOffset(), reader.capturedLength(), reader.getLinkType());
+                            out.write(formatter.line(), 0, formatter.format(view, reader.originalLength(), reader.timestampNanos(), 1));
+                        }
+                        else {
+                            if (scratch.length < reader.capturedLength()) {
+                                scratch = new byte[reader.capturedLength()];
+                            }
+                            int length = reader.copyTo(scratch);
+                            Packet packet = PacketFactories.getFactory(Packet.class, DataLinkType.class)
+                                    .newInstance(scratch, 0, length, dataLinkType);
+                            SystemOutHelper.println(packet);
+                        }
+                    }
+                }
+            }
+            finally {
+                if (writer != null) {
+                    writer.close();
+                }
+                if (blockCompressor != null) {
+                    blockCompressor.close();
+                    SystemOutHelper.println(String.format("Compressed %d MB into %d MB.", blockCompressor.getBytesIn() / 1024 / 1024,
+                            blockCompressor.getBytesOut() / 1024 / 1024));
+                }
+                if (out != null) {
+                    out.flush();
+                }
+                if (streams != null) {
+                    streams.close();
+                }
+            }
+
+            if (reader.isTruncated()) {
+                SystemOutHelper.println(String.format("%s is truncated, the last record is incomplete.", options.getReadFilePath()));
+            }
+        }
+
+        SystemOutHelper.println(String.format("Read %d packets, %d matched%s, in %d ms.", read, matched,
+                matcher != null ? String.format(", %d passed the BPF but not --match", matcher.getRejected()) : "",
+                (System.nanoTime() - startedAt) / 1000000L));
+    }
+
+    private void summarize() throws IOException {
+        long startedAt = System.nanoTime();
+        BpfFilter filter = null;
+        if (!StringUtils.isNullOrEmpty(options.getFilter())) {
+            try (PcapFileReader reader = new PcapFileReader(Paths.get(options.getReadFilePath()), 0)) {
+                filter = BpfFilter.compile(options.getFilter(), reader.getLinkType(), reader.getSnapLen());
+            }
+        }
+
+        ParallelPcapAnalyzer analyzer = new ParallelPcapAnalyzer(Paths.get(options.getReadFilePath()), filter,
+                TimeUnit.SECONDS.toNanos(options.getSummaryInterval()), options.getThreads());
+        CaptureSummary summary = analyzer.analyze();
+        SystemOutHelper.println(summary.format());
+        SystemOutHelper.println(String.format("Summarized with %d threads in %d ms%s.", options.getThreads(),
+                (System.nanoTime() - startedAt) / 1000000L,
+                analyzer.getResyncFailures() > 0 ? String.format(", %d chunks rescanned", analyzer.getResyncFailures()) : ""));
+    }
+
+    /**
+     * Find the parts of the file that may hold records matching {@code query}, through the index of the file if
+     * there is one. Leaves the reader on the first record, whose time resolves times of day in the query.
+     *
+     * @return start and end offset pairs
+     */
+    private long[] select(PcapFileReader reader, IndexQuery query) throws IOException {
+        if (!reader.next()) {
+            return new long[0];
+        }
+        query.resolve(reader.timestampNanos());
+
+        Path indexPath = CaptureIndex.sidecar(Paths.get(options.getReadFilePath()));
+        if (!Files.exists(indexPath)) {
+            SystemOutHelper.println(String.format("No index %s, reading the whole file.", indexPath));
+            return WHOLE_FILE;
+        }
+        CaptureIndex index = CaptureIndex.load(indexPath);
+        if (index.getIndexedEnd() > reader.getFileSize()) {
+            SystemOutHelper.println(String.format("Index %s is beyond the end of the file, it belongs to another one, reading the whole file.", indexPath));
+            return WHOLE_FILE;
+        }
+        long[] ranges = index.select(query.getFromNanos(), query.getToNanos(), query.getFlowHash());
+        long selected = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            selected += ranges[i + 1] - ranges[i];
+        }
+        long indexedEnd = Math.max(index.getIndexedEnd(), PcapFileReader.FIRST_RECORD_OFFSET);
+        if (indexedEnd < reader.getFileSize()) {
+            // records written after the index stopped, such as those of a capture still running
+            selected += reader.getFileSize() - indexedEnd;
+            if (ranges.length > 0 && ranges[ranges.length - 1] == indexedEnd) {
+                ranges[ranges.length - 1] = Long.MAX_VALUE;
+            }
+            else {
+                ranges = Arrays.copyOf(ranges, ranges.length + 2);
+                ranges[ranges.length - 2] = indexedEnd;
+                ranges[ranges.length - 1] = Long.MAX_VALUE;
+            }
+        }
+        SystemOutHelper.println(String.format("Index %s of %d packets: reading %.1f of %.1f MB in %d ranges.", indexPath, index.getRecords(),
+                selected / 1048576.0, reader.getFileSize() / 1048576.0, ranges.length / 2));
+        return ranges;
+    }
+
+    /**
+     * Write the sidecar index of the file read, for instance one captured without --index.
+     */
+    private void buildIndex() throws IOException {
+        long startedAt = System.nanoTime();
+        Path path = Paths.get(options.getReadFilePath());
+        Path indexPath = CaptureIndex.sidecar(path);
+        long records = 0;
+        long blocks;
+        try (PcapFileReader reader = new PcapFileReader(path)) {
+            PacketView view = new PacketView();
+            CaptureIndexWriter index = new CaptureIndexWriter(indexPath);
+            try {
+                while (reader.next()) {
+                    records++;
+                    view.wrap(reader.buffer(), reader.dataOffset(), reader.capturedLength(), reader.getLinkType());
+                    index.add(reader.recordOffset(), (int) (reader.nextOffset() - reader.recordOffset()), reader.timestampNanos(),
+                            view.flowHash());
+                }
+            }
+            finally {
+                index.close();
+            }
+            blocks = index.getBlocks();
+            if (reader.isTruncated()) {
+                SystemOutHelper.println(String.format("%s is truncated, the last record is incomplete.", options.getReadFilePath()));
+            }
+        }
+        SystemOutHelper.println(String.format("Indexed %d packets in %d blocks into %s (%d bytes) in %d ms.", records, blocks,
+                indexPath, Files.size(indexPath), (System.nanoTime() - startedAt) / 1000000L));
+    }
+
+    /**
+     * Rotation, compression of rotated files, merging and the flight recorder are done by the capture writer
+     * only, a read file is written to one file as it is read. Reject them rather than ignore them.
+     */
+    private void validateWriteOptions() {
+        if (options.getRotateSize() != 0 || options.getRotateInterval() != 0 || options.getRotateFiles() != 0) {
+            throw new IllegalArgumentException("-r writes a single file, it cannot be combined with --rotate-size, --rotate-interval or --rotate-files.");
+        }
+        if (options.getCompression() != Compression.NONE) {
+            throw new IllegalArgumentException("--compress applies to rotated capture files, it cannot be combined with -r; --compress-threads gzips the -w file.");
+        }
+        if (options.isMerge() || options.isRecorder()) {
+            throw new IllegalArgumentException("--merge and --recorder apply to captures and --replay, they cannot be combined with -r.");
+        }
+    }
+
+    private CaptureFileWriter openWriter(PcapFileReader reader) throws IOException {
+        String path = options.getFilePath();
+        if (options.isIndex() && options.getOutputFormat() == OutputFormat.PCAPNG) {
+            throw new IllegalArgumentException("The index needs pcap files, it cannot be combined with --format pcapng.");
+        }
+        if (options.getCompressThreads() > 0) {
+            if (options.isIndex() || options.isMemoryMapped()) {
+                throw new IllegalArgumentException("--compress-threads cannot be combined with --index or --mmap.");
+            }
+            // a gzip stream is never written under a bare .pcap or .pcapng name
+            if (!path.toLowerCase().endsWith(BlockCompressor.SUFFIX)) {
+                path += BlockCompressor.SUFFIX;
+            }
+            blockCompressor = new BlockCompressor(options.getCompressThreads(), options.getCompressLevel());
+            SystemOutHelper.println(String.format("Compressing %s with gzip level %d on %d threads.",
+                    path, options.getCompressLevel(), options.getCompressThreads()));
+        }
+        File file = new File(path);
+        if (options.getOutputFormat() == OutputFormat.PCAPNG) {
+            PcapngFileWriter writer = new PcapngFileWriter(file.toPath(), reader.isNanos(), options.getWriteBufferSize(), options.isMemoryMapped(),
+                    blockCompressor);
+            writer.addInterface(new File(options.getReadFilePath()).getName(), reader.getLinkType(), reader.getSnapLen());
+            return writer;
+        }
+        // libpcap cannot dump records it did not read itself, the java writer produces the same file
+        PcapFileWriter writer = new PcapFileWriter(file.toPath(), reader.getLinkType(), reader.getSnapLen(), reader.isNanos(),
+                options.getWriteBufferSize(), options.isMemoryMapped(), blockCompressor);
+        if (!options.isIndex()) {
+            return writer;
+        }
+        try {
+            return new IndexingFileWriter(writer, file.toPath(), reader.getLinkType());
+        }
+        catch (IOException | RuntimeException e) {
+            writer.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package cc.databus.netool.utils;
+
+/**
+ * Format and writer used for the -w files.
+ */
+public enum OutputFormat {
+    /**
+     * pcap written through libpcap's pcap_dump, one native call per packet
+     */
+    LIBPCAP(".pcap"),
+    /**
+     * pcap written in java through a large buffer
+     */
+    PCAP(".pcap"),
+    /**
+     * pcapng written in java through a large buffer
+     */
+    PCAPNG(".pcapng");
+
+    private final String suffix;
+
+    OutputFormat(String suffix) {
+        this.suffix = suffix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    public static OutputFormat parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Unknown output format [%s], expect one of libpcap, pcap, pcapng", name));
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package cc.databus.netool.utils;
+
+/**
+ * What a capture thread does when the writer queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * wait until the writer frees a slot, pushing the back pressure into the kernel buffer
+     */
+    BLOCK,
+    /**
+     * discard the packet being offered
+     */
+    DROP_NEWEST,
+    /**
+     * discard the oldest queued packet to make room for the new one
+     */
+    DROP_OLDEST;
+
+    /**
+     * parse command line style names, eg: "drop-oldest"
+     */
+    public static OverflowPolicy parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Unknown overflow policy [%s], expect one of block, drop-newest, drop-oldest", name));
+        }
+    }
+}
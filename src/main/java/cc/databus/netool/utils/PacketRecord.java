@@ -0,0 +1,96 @@
+package cc.databus.netool.utils;
+
+import org.pcap4j.packet.Packet;
+import org.pcap4j.packet.factory.PacketFactories;
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+/**
+ * A reusable holder of one captured packet travelling from the capture threads to the writer.
+ * Instances are preallocated by {@link PacketRingBuffer} and never escape it, so sinks must not
+ * keep a reference to a record after {@link PacketSink#write(PacketRecord)} returns.
+ *
+ * Only the captured bytes are kept; the pcap4j {@link Packet} is decoded on the first call of {@link #getPacket()}.
+ */
+public class PacketRecord {
+
+    private byte[] data;
+
+    private DataLinkType dataLinkType;
+
+    private Packet packet;
+
+    private int originalLength;
+
+    /**
+     * capture time in nanoseconds since epoch
+     */
+    private long timestampNanos;
+
+    /**
+     * the packet stands for this many captured packets, see {@link PacketSampler}
+     */
+    private int sampleRate;
+
+    private PacketSink sink;
+
+    /**
+     * @return the captured bytes of the packet, the whole array
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public DataLinkType getDataLinkType() {
+        return dataLinkType;
+    }
+
+    /**
+     * @return the decoded packet, decoding it now if nobody asked before
+     */
+    public Packet getPacket() {
+        if (packet == null && data != null) {
+            packet = PacketFactories.getFactory(Packet.class, DataLinkType.class).newInstance(data, 0, data.length, dataLinkType);
+        }
+        return packet;
+    }
+
+    public int getOriginalLength() {
+        return originalLength;
+    }
+
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * @return 1 if every packet was kept, N if this is one of every N packets, multiply counts by it
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public PacketSink getSink() {
+        return sink;
+    }
+
+    void set(PacketSink sink, byte[] data, DataLinkType dataLinkType, int originalLength, long timestampNanos, int sampleRate) {
+        this.sink = sink;
+        this.data = data;
+        this.dataLinkType = dataLinkType;
+        this.packet = null;
+        this.originalLength = originalLength;
+        this.timestampNanos = timestampNanos;
+        this.sampleRate = sampleRate;
+    }
+
+    void copyFrom(PacketRecord other) {
+        set(other.sink, other.data, other.dataLinkType, other.originalLength, other.timestampNanos, other.sampleRate);
+        this.packet = other.packet;
+    }
+
+    void clear() {
+        this.sink = null;
+        this.data = null;
+        this.packet = null;
+    }
+}
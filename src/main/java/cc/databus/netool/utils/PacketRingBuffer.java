@@ -0,0 +1,198 @@
+package cc.databus.netool.utils;
+
+import org.pcap4j.packet.namednumber.DataLinkType;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, preallocated queue between the capture threads and the writer thread.
+ *
+ * It is a sequence-per-slot ring (Vyukov style): producers and consumers only CAS their own cursor
+ * and never take a lock, and the record objects are allocated once up front. Any thread may
+ * consume, which is what lets a producer evict the oldest entry under {@link OverflowPolicy#DROP_OLDEST}.
+ */
+public class PacketRingBuffer {
+
+    private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long EMPTY_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final PacketRecord[] records;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final OverflowPolicy overflowPolicy;
+
+    private final AtomicLong tail = new AtomicLong(0);
+    private final AtomicLong head = new AtomicLong(0);
+
+    private final LongAdder offered = new LongAdder();
+    private final LongAdder droppedNewest = new LongAdder();
+    private final LongAdder droppedOldest = new LongAdder();
+
+    private volatile Thread waitingConsumer;
+    private volatile boolean closed = false;
+
+    public PacketRingBuffer(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive, but was " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.overflowPolicy = overflowPolicy;
+        this.records = new PacketRecord[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            records[i] = new PacketRecord();
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Queue one packet for the writer. The queue keeps {@code data} until it is written and only reads it, the same
+     * array may be queued more than once, see {@link cc.databus.netool.source.PacketHandler}.
+     *
+     * @param sampleRate 1, or N if the packet was kept as one of every N, see {@link PacketRecord#getSampleRate()}
+     * @return false if the packet was dropped because the queue is full or closed
+     */
+    public boolean offer(PacketSink sink, byte[] data, DataLinkType dataLinkType, int originalLength, long timestampNanos,
+                         int sampleRate) {
+        offered.increment();
+        while (!closed) {
+            long pos = tail.get();
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    records[index].set(sink, data, dataLinkType, originalLength, timestampNanos, sampleRate);
+                    // volatile store, so that the read of waitingConsumer below cannot be reordered before it
+                    sequences.set(index, pos + 1);
+                    wakeConsumer();
+                    return true;
+                }
+            }
+            else if (diff < 0) {
+                // full
+                switch (overflowPolicy) {
+                    case DROP_NEWEST:
+                        droppedNewest.increment();
+                        return false;
+                    case DROP_OLDEST:
+                        if (poll(null)) {
+                            droppedOldest.increment();
+                        }
+                        break;
+                    default:
+                        wakeConsumer();
+                        LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+                        break;
+                }
+            }
+        }
+        droppedNewest.increment();
+        return false;
+    }
+
+    /**
+     * Move up to {@code batch.length} queued records into {@code batch}.
+     *
+     * @return number of records moved
+     */
+    public int drainTo(PacketRecord[] batch) {
+        int n = 0;
+        while (n < batch.length && poll(batch[n])) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Park the calling consumer until a producer publishes something, the queue is closed or a short timeout passes.
+     */
+    public void awaitRecords() {
+        waitingConsumer = Thread.currentThread();
+        if (isEmpty() && !closed) {
+            LockSupport.parkNanos(this, EMPTY_PARK_NANOS);
+        }
+        waitingConsumer = null;
+    }
+
+    /**
+     * Reject any further offers and wake everyone up. Already queued records can still be drained.
+     */
+    public void close() {
+        closed = true;
+        wakeConsumer();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return records.length;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public long getOfferedCount() {
+        return offered.sum();
+    }
+
+    public long getDroppedNewestCount() {
+        return droppedNewest.sum();
+    }
+
+    public long getDroppedOldestCount() {
+        return droppedOldest.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedNewest.sum() + droppedOldest.sum();
+    }
+
+    private boolean poll(PacketRecord target) {
+        while (true) {
+            long pos = head.get();
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    PacketRecord record = records[index];
+                    if (target != null) {
+                        target.copyFrom(record);
+                    }
+                    record.clear();
+                    sequences.lazySet(index, pos + mask + 1);
+                    return true;
+                }
+            }
+            else if (diff < 0) {
+                // empty, or the producer of this slot has not published yet
+                return false;
+            }
+        }
+    }
+
+    private void wakeConsumer() {
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package cc.databus.netool.utils;
+
+import cc.databus.netool.packet.PacketView;
+
+/**
+ * Decides which packets of one interface are kept at a sample rate of 1 in N. Called by the capture thread
+ * of the interface only; the rate itself may be changed from any thread, see {@link AdaptiveSampler}.
+ *
+ * In {@link SamplingMode#FLOW} mode a flow is kept if its hash is a multiple of the rate. Rates only ever
+ * change by doubling or halving, so the flows kept at 2N are a subset of those kept at N and a flow is not
+ * cut into pieces by a rate change, only dropped or resumed. Non IP packets are sampled by count.
+ */
+public class PacketSampler {
+
+    private final SamplingMode mode;
+    private final PacketView view = new PacketView();
+
+    private volatile int rate;
+    private int lastRate;
+    private long counter = 0;
+
+    public PacketSampler(SamplingMode mode, int rate) {
+        if (rate < 1) {
+            throw new IllegalArgumentException("Sample rate must be at least 1, but was " + rate);
+        }
+        this.mode = mode;
+        this.rate = rate;
+        this.lastRate = rate;
+    }
+
+    /**
+     * @return true to keep the packet
+     */
+    public boolean sample(byte[] packet, int linkType) {
+        int rate = this.rate;
+        lastRate = rate;
+        if (rate == 1) {
+            return true;
+        }
+        if (mode == SamplingMode.FLOW) {
+            view.wrap(packet, packet.length, linkType);
+            if (view.isIp()) {
+                return Long.remainderUnsigned(view.flowHash(), rate) == 0;
+            }
+        }
+        return ++counter % rate == 0;
+    }
+
+    /**
+     * @return the rate the last {@link #sample(byte[], int)} decided with, to be stored with the packet
+     */
+    public int getLastRate() {
+        return lastRate;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public void setRate(int rate) {
+        this.rate = rate;
+    }
+}
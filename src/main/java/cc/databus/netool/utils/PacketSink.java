@@ -0,0 +1,24 @@
+package cc.databus.netool.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Final stage of the capture pipeline. Sinks are only called from the writer thread.
+ */
+public interface PacketSink extends Closeable {
+
+    void write(PacketRecord record) throws IOException;
+
+    /**
+     * called by the writer whenever it runs out of queued packets
+     */
+    void flush() throws IOException;
+
+    /**
+     * @return true if the sink holds back packets that only a later {@link #flush()} or {@link #close()} writes
+     */
+    default boolean hasPending() {
+        return false;
+    }
+}
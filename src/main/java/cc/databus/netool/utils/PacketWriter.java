@@ -0,0 +1,157 @@
+package cc.databus.netool.utils;
+
+import cc.databus.netool.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The writer stage: a single thread draining {@link PacketRingBuffer} in batches into the {@link PacketSink}s.
+ * Sinks are flushed whenever the queue runs dry, not per packet, and as long as they hold packets back.
+ */
+public class PacketWriter implements Runnable {
+
+    private final PacketRingBuffer ringBuffer;
+    private final List<PacketSink> sinks;
+    private final PacketRecord[] batch;
+
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    private Thread thread;
+    private long written = 0;
+    private long failed = 0;
+    /**
+     * copies of the counters for other threads, published once per batch
+     */
+    private volatile long publishedWritten = 0;
+    private volatile long publishedFailed = 0;
+
+    public PacketWriter(PacketRingBuffer ringBuffer, Collection<? extends PacketSink> sinks, int batchSize) {
+        this.ringBuffer = ringBuffer;
+        this.sinks = new ArrayList<>(sinks);
+        this.batch = new PacketRecord[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            batch[i] = new PacketRecord();
+        }
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Writer already started.");
+        }
+        thread = new Thread(this, "netools-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        boolean dirty = false;
+        while (true) {
+            int n = ringBuffer.drainTo(batch);
+            if (n > 0) {
+                writeBatch(n);
+                dirty = true;
+                continue;
+            }
+
+            if (dirty) {
+                flushSinks();
+                // keep flushing while a sink holds packets back, they are due after a while even without new ones
+                dirty = hasPendingSinks();
+            }
+            if (ringBuffer.isClosed() && ringBuffer.isEmpty()) {
+                break;
+            }
+            ringBuffer.awaitRecords();
+        }
+    }
+
+    /**
+     * Stop accepting packets, wait until everything queued so far is written, then flush and close all sinks.
+     */
+    public void close() throws InterruptedException {
+        ringBuffer.close();
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t != null) {
+            t.join();
+        }
+        else {
+            // never started, drain on the caller thread
+            run();
+        }
+
+        for (PacketSink sink : sinks) {
+            try {
+                sink.close();
+            }
+            catch (IOException e) {
+                SystemOutHelper.println(String.format("Failed to close %s - %s", sink, e.getMessage()));
+            }
+        }
+    }
+
+    public long getWrittenCount() {
+        return publishedWritten;
+    }
+
+    public long getFailedCount() {
+        return publishedFailed;
+    }
+
+    /**
+     * @return time each packet took to be written to its sink
+     */
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    private void writeBatch(int n) {
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            PacketRecord record = batch[i];
+            try {
+                record.getSink().write(record);
+                written++;
+            }
+            catch (IOException e) {
+                if (failed++ == 0) {
+                    SystemOutHelper.println(String.format("Failed to write packet - %s", e.getMessage()));
+                }
+            }
+            finally {
+                record.clear();
+            }
+            long now = System.nanoTime();
+            writeLatency.record(now - startedAt);
+            startedAt = now;
+        }
+        publishedWritten = written;
+        publishedFailed = failed;
+    }
+
+    private boolean hasPendingSinks() {
+        for (PacketSink sink : sinks) {
+            if (sink.hasPending()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void flushSinks() {
+        for (PacketSink sink : sinks) {
+            try {
+                sink.flush();
+            }
+            catch (IOException e) {
+                SystemOutHelper.println(String.format("Failed to flush %s - %s", sink, e.getMessage()));
+            }
+        }
+    }
+}
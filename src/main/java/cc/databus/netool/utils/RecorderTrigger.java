@@ -0,0 +1,146 @@
+package cc.databus.netool.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells the {@link FlightRecorderSink}s to dump their buffers. Any thread may fire it; every firing bumps a
+ * generation number the recorders compare against the last one they served, so firing is lock free and a
+ * burst of firings while a dump is running results in one more dump, not many.
+ */
+public class RecorderTrigger implements Closeable {
+
+    private static final long FILE_POLL_MILLIS = 200;
+
+    private final AtomicLong generation = new AtomicLong(0);
+    private volatile String reason = "";
+
+    private final long holdOffNanos;
+    private final AtomicLong lastPacketFiring = new AtomicLong(Long.MIN_VALUE);
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param holdOffNanos minimum time between two firings by {@link #fireOnPacket(String)}
+     */
+    public RecorderTrigger(long holdOffNanos) {
+        this.holdOffNanos = holdOffNanos;
+    }
+
+    public void fire(String reason) {
+        this.reason = reason;
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Fire unless a packet already fired within the hold-off.
+     */
+    public void fireOnPacket(String reason) {
+        long now = System.nanoTime();
+        long last = lastPacketFiring.get();
+        if (last != Long.MIN_VALUE && now - last < holdOffNanos) {
+            return;
+        }
+        if (lastPacketFiring.compareAndSet(last, now)) {
+            fire(reason);
+        }
+    }
+
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return why the trigger fired last
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * Fire on the given signal, eg: "USR2". sun.misc.Signal is looked up by reflection, it is not part of every
+     * JVM and compiling against it warns of a proprietary API.
+     *
+     * @throws IllegalArgumentException if the JVM cannot handle signals or not this one
+     */
+    public void watchSignal(String name) {
+        Class<?> signalClass;
+        Class<?> handlerClass;
+        try {
+            signalClass = Class.forName("sun.misc.Signal");
+            handlerClass = Class.forName("sun.misc.SignalHandler");
+        }
+        catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("This JVM cannot handle signals, --trigger-signal is not supported; use --trigger-file instead.");
+        }
+        String reason = "signal SIG" + name;
+        Object handler = Proxy.newProxyInstance(handlerClass.getClassLoader(), new Class<?>[]{handlerClass}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "handle":
+                    fire(reason);
+                    return null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return reason;
+            }
+        });
+        try {
+            Object signal = signalClass.getConstructor(String.class).newInstance(name);
+            Method handle = signalClass.getMethod("handle", signalClass, handlerClass);
+            handle.invoke(null, signal, handler);
+        }
+        catch (InvocationTargetException e) {
+            // an unknown signal, or one the JVM uses itself
+            if (e.getCause() instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) e.getCause();
+            }
+            throw new IllegalArgumentException("Cannot handle signal " + name + ": " + e.getCause(), e.getCause());
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("This JVM cannot handle signals, --trigger-signal is not supported; use --trigger-file instead.", e);
+        }
+    }
+
+    /**
+     * Fire whenever {@code path} appears. The file is deleted, so creating it again fires again.
+     */
+    public synchronized void watchFile(Path path) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "netools-trigger");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        scheduler.scheduleWithFixedDelay(() -> {
+            if (Files.exists(path)) {
+                try {
+                    Files.deleteIfExists(path);
+                }
+                catch (IOException e) {
+                    // fire anyway, it is up to whoever created it
+                }
+                fire("file " + path);
+            }
+        }, FILE_POLL_MILLIS, FILE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
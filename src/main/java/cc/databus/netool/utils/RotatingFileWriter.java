@@ -0,0 +1,204 @@
+package cc.databus.netool.utils;
+
+import cc.databus.netool.index.CaptureIndex;
+import cc.databus.netool.pcap.CaptureFileWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A capture file cut into numbered pieces, {@code <base>_00000<suffix>}, {@code <base>_00001<suffix>}, ...
+ *
+ * A new piece starts before a record that would go past the size limit or that lies a whole interval after
+ * the first record of the current piece, by capture time as tcpdump does. Finished pieces are compressed
+ * and, beyond the last {@code maxFiles}, deleted on a background thread, strictly in order, so the writer
+ * thread only closes one piece and opens the next. Like every sink this runs on the writer thread only, the
+ * capture threads never wait for it.
+ */
+public class RotatingFileWriter implements CaptureFileWriter {
+
+    /**
+     * Opens one piece.
+     */
+    public interface Opener {
+        CaptureFileWriter open(Path path) throws IOException;
+    }
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+    private final String base;
+    private final String suffix;
+    private final Opener opener;
+    private final long maxBytes;
+    private final long intervalNanos;
+    private final int maxFiles;
+    private final Compression compression;
+
+    private final ExecutorService background;
+    /**
+     * finished pieces still on disk, oldest first
+     */
+    private final Deque<Path> finished = new ArrayDeque<>();
+    /**
+     * pieces dropped from the ring, the background thread need not compress them any more
+     */
+    private final Set<Path> dropped = ConcurrentHashMap.newKeySet();
+
+    private CaptureFileWriter current;
+    private Path currentPath;
+    private int sequence = 0;
+    private long firstTimestamp;
+    private boolean empty = true;
+    private long previousSize = 0;
+
+    /**
+     * @param base          path of the pieces without sequence number and suffix
+     * @param maxBytes      size limit of one piece, 0 for none
+     * @param intervalNanos capture time covered by one piece, 0 for no limit
+     * @param maxFiles      pieces to keep, 0 to keep all
+     */
+    public RotatingFileWriter(String base, String suffix, Opener opener, long maxBytes, long intervalNanos, int maxFiles,
+                              Compression compression) throws IOException {
+        this.base = base;
+        this.suffix = suffix;
+        this.opener = opener;
+        this.maxBytes = maxBytes;
+        this.intervalNanos = intervalNanos;
+        this.maxFiles = maxFiles;
+        this.compression = compression;
+        this.background = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "netools-rotate");
+            thread.setDaemon(true);
+            return thread;
+        });
+        openNext();
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length, int originalLength, long timestampNanos) throws IOException {
+        rotateIfNeeded(length, timestampNanos);
+        current.write(data, offset, length, originalLength, timestampNanos);
+    }
+
+    @Override
+    public void write(ByteBuffer data, int originalLength, long timestampNanos) throws IOException {
+        rotateIfNeeded(data.remaining(), timestampNanos);
+        current.write(data, originalLength, timestampNanos);
+    }
+
+    /**
+     * @return bytes written into all pieces so far
+     */
+    @Override
+    public long size() {
+        return previousSize + current.size();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        current.flush();
+    }
+
+    /**
+     * Close the current piece, then wait until the background thread has compressed it and all before it.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish(true);
+        }
+        finally {
+            background.shutdown();
+            try {
+                if (!background.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    SystemOutHelper.println(String.format("Gave up waiting for the compression of %s%s pieces.", base, suffix));
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return base + "_*" + suffix;
+    }
+
+    private void rotateIfNeeded(int length, long timestampNanos) throws IOException {
+        if (empty) {
+            firstTimestamp = timestampNanos;
+            empty = false;
+            return;
+        }
+        boolean full = maxBytes > 0 && current.size() + length > maxBytes;
+        boolean expired = intervalNanos > 0 && timestampNanos - firstTimestamp >= intervalNanos;
+        if (full || expired) {
+            finish(false);
+            openNext();
+            firstTimestamp = timestampNanos;
+            empty = false;
+        }
+    }
+
+    private void openNext() throws IOException {
+        currentPath = Paths.get(String.format("%s_%05d%s", base, sequence++, suffix));
+        current = opener.open(currentPath);
+        empty = true;
+    }
+
+    /**
+     * @param last true if no piece follows, otherwise the next one counts against {@code maxFiles} already
+     */
+    private void finish(boolean last) throws IOException {
+        previousSize += current.size();
+        current.close();
+
+        Path path = currentPath;
+        finished.addLast(path);
+        background.execute(() -> compress(path));
+        int keep = last ? maxFiles : maxFiles - 1;
+        while (maxFiles > 0 && finished.size() > keep) {
+            Path oldest = finished.removeFirst();
+            dropped.add(oldest);
+            background.execute(() -> delete(oldest));
+        }
+    }
+
+    private void compress(Path path) {
+        if (dropped.contains(path)) {
+            return;
+        }
+        try {
+            compression.compress(path);
+        }
+        catch (IOException e) {
+            SystemOutHelper.println(String.format("Failed to compress %s - %s", path, e.getMessage()));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void delete(Path path) {
+        dropped.remove(path);
+        try {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(path.resolveSibling(path.getFileName() + compression.getSuffix()));
+            Files.deleteIfExists(CaptureIndex.sidecar(path));
+        }
+        catch (IOException e) {
+            SystemOutHelper.println(String.format("Failed to delete %s - %s", path, e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package cc.databus.netool.utils;
+
+/**
+ * Which packets a sample rate of 1 in N keeps.
+ */
+public enum SamplingMode {
+    /**
+     * every N-th packet of each interface
+     */
+    PACKET,
+    /**
+     * every packet of the flows whose hash falls into 1 of N buckets, both directions alike, so sampled
+     * flows stay complete
+     */
+    FLOW;
+
+    public static SamplingMode parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Unknown sampling mode [%s], expect one of packet, flow", name));
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package cc.databus.netool.utils;
+
+import cc.databus.netool.packet.PacketView;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+/**
+ * Spreads the per-packet analysis of the capture threads over several worker threads.
+ *
+ * Each input, the capture thread of one interface, hashes the packet with {@link PacketView#flowHash()}, which
+ * is the same for both directions, and hands it to the worker owning that hash through an {@link SpscPacketRing}.
+ * There is one ring per input and worker, so every ring has a single producer and a single consumer and
+ * nothing on the path takes a lock. All packets of a flow reach the same worker in capture order, so a worker
+ * can keep per-flow state of its own without synchronizing with the others; results are merged when reported.
+ */
+public class ShardedStage implements Closeable {
+
+    /**
+     * Analysis of one worker, called on its thread only.
+     */
+    public interface Handler {
+
+        /**
+         * @param input index of the input the packet came from
+         * @param view  the packet, already wrapped
+         */
+        void handle(int input, PacketView view, int originalLength, long timestampNanos, int sampleRate);
+    }
+
+    private static final int DRAIN_BATCH_SIZE = 256;
+    private static final int IDLE_SPINS = 64;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final int[] linkTypes;
+    private final boolean block;
+    private final Input[] inputs;
+    private final Worker[] workers;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param linkTypes    link type of each input
+     * @param workers      number of worker threads
+     * @param ringCapacity packets each ring holds
+     * @param block        wait for a full ring to drain, instead of dropping the packet
+     * @param handlers     creates the handler of each worker
+     */
+    public ShardedStage(int[] linkTypes, int workers, int ringCapacity, boolean block, IntFunction<Handler> handlers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Worker count must be positive, but was " + workers);
+        }
+        this.linkTypes = linkTypes.clone();
+        this.block = block;
+        this.workers = new Worker[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = new Worker(i, handlers.apply(i));
+        }
+        this.inputs = new Input[linkTypes.length];
+        for (int i = 0; i < inputs.length; i++) {
+            SpscPacketRing[] rings = new SpscPacketRing[workers];
+            for (int w = 0; w < workers; w++) {
+                rings[w] = new SpscPacketRing(ringCapacity);
+                this.workers[w].rings[i] = rings[w];
+            }
+            inputs[i] = new Input(i, rings);
+        }
+    }
+
+    public void start() {
+        for (Worker worker : workers) {
+            Thread thread = new Thread(worker, "netools-shard-" + worker.index);
+            thread.setDaemon(true);
+            worker.thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * @return the producer side of input {@code index}, to be used by one thread only
+     */
+    public Input input(int index) {
+        return inputs[index];
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    /**
+     * @return packets handled by worker {@code index} so far
+     */
+    public long getHandled(int index) {
+        return workers[index].handled.get();
+    }
+
+    /**
+     * @return times an input found a ring full
+     */
+    public long getStalls() {
+        long stalls = 0;
+        for (Input input : inputs) {
+            stalls += input.stalls.sum();
+        }
+        return stalls;
+    }
+
+    public long getDropped() {
+        long dropped = 0;
+        for (Input input : inputs) {
+            dropped += input.dropped.sum();
+        }
+        return dropped;
+    }
+
+    /**
+     * Let the workers handle what is queued, then stop them. The inputs must no longer be used.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Worker worker : workers) {
+            if (worker.thread == null) {
+                continue;
+            }
+            LockSupport.unpark(worker.thread);
+            try {
+                worker.thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Producer side of one capture thread.
+     */
+    public final class Input {
+
+        private final int index;
+        private final SpscPacketRing[] rings;
+        private final PacketView view = new PacketView();
+
+        // written by the capture thread, read by reports
+        private final LongAdder stalls = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+
+        private Input(int index, SpscPacketRing[] rings) {
+            this.index = index;
+            this.rings = rings;
+        }
+
+        /**
+         * Queue a packet for the worker owning its flow. The stage keeps {@code packet} and only reads it.
+         *
+         * @return false if it was dropped because the ring is full and the stage does not block, or closed
+         */
+        public boolean offer(byte[] packet, int originalLength, long timestampNanos, int sampleRate) {
+            long hash = view.wrap(packet, packet.length, linkTypes[index]).flowHash();
+            // the high bits, scaled to the worker count without a division
+            int worker = (int) (((hash >>> 32) * rings.length) >>> 32);
+            SpscPacketRing ring = rings[worker];
+            if (ring.offer(packet, originalLength, timestampNanos, sampleRate)) {
+                return true;
+            }
+            // once per full ring, however long it takes to drain
+            stalls.increment();
+            while (block && !closed) {
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+                if (ring.offer(packet, originalLength, timestampNanos, sampleRate)) {
+                    return true;
+                }
+            }
+            dropped.increment();
+            return false;
+        }
+    }
+
+    private final class Worker implements Runnable, SpscPacketRing.Consumer {
+
+        private final int index;
+        private final Handler handler;
+        private final SpscPacketRing[] rings = new SpscPacketRing[linkTypes.length];
+        private final PacketView view = new PacketView();
+        private final AtomicLong handled = new AtomicLong(0);
+
+        private volatile Thread thread;
+        private int input;
+
+        private Worker(int index, Handler handler) {
+            this.index = index;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (true) {
+                // read before draining: once the stage is closed, a pass finding nothing means all is handled
+                boolean last = closed;
+                int drained = 0;
+                for (input = 0; input < rings.length; input++) {
+                    drained += rings[input].drain(this, DRAIN_BATCH_SIZE);
+                }
+                if (drained > 0) {
+                    handled.lazySet(handled.get() + drained);
+                    idle = 0;
+                }
+                else if (last) {
+                    return;
+                }
+                else if (++idle < IDLE_SPINS) {
+                    Thread.yield();
+                }
+                else {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        }
+
+        @Override
+        public void accept(byte[] packet, int originalLength, long timestampNanos, int sampleRate) {
+            view.wrap(packet, packet.length, linkTypes[input]);
+            try {
+                handler.handle(input, view, originalLength, timestampNanos, sampleRate);
+            }
+            catch (RuntimeException e) {
+                // one bad packet must not stop the worker and, with it, its share of the traffic
+                SystemOutHelper.println(String.format("Shard %d failed to handle a packet - %s:%s", index,
+                        e.getClass().getCanonicalName(), e.getMessage()));
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package cc.databus.netool.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of packets from exactly one producer thread to exactly one consumer thread.
+ *
+ * With a single thread on each side neither needs a CAS: each side owns its cursor and publishes it with an
+ * ordered store, the other side reads it only when the copy it cached no longer tells it there is room or data.
+ * Slots are parallel preallocated arrays and the packet arrays are handed over, not copied.
+ */
+final class SpscPacketRing {
+
+    /**
+     * Receives the packets drained from a ring.
+     */
+    interface Consumer {
+
+        void accept(byte[] packet, int originalLength, long timestampNanos, int sampleRate);
+    }
+
+    private final byte[][] packets;
+    private final int[] originalLengths;
+    private final long[] timestamps;
+    private final int[] sampleRates;
+    private final int mask;
+
+    /**
+     * next slot to read, only advanced by the consumer
+     */
+    private final AtomicLong head = new AtomicLong(0);
+    /**
+     * next slot to write, only advanced by the producer
+     */
+    private final AtomicLong tail = new AtomicLong(0);
+
+    /**
+     * producer side: its own cursor and the last head it read
+     */
+    private long producerTail;
+    private long cachedHead;
+    /**
+     * consumer side: its own cursor and the last tail it read
+     */
+    private long consumerHead;
+    private long cachedTail;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    SpscPacketRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.packets = new byte[size][];
+        this.originalLengths = new int[size];
+        this.timestamps = new long[size];
+        this.sampleRates = new int[size];
+    }
+
+    /**
+     * Producer only. The ring keeps {@code packet} and only reads it.
+     *
+     * @return false if the ring is full
+     */
+    boolean offer(byte[] packet, int originalLength, long timestampNanos, int sampleRate) {
+        long position = producerTail;
+        if (position - cachedHead > mask) {
+            cachedHead = head.get();
+            if (position - cachedHead > mask) {
+                return false;
+            }
+        }
+        int index = (int) position & mask;
+        packets[index] = packet;
+        originalLengths[index] = originalLength;
+        timestamps[index] = timestampNanos;
+        sampleRates[index] = sampleRate;
+        producerTail = position + 1;
+        // ordered store, the slot is written before the consumer can see it
+        tail.lazySet(producerTail);
+        return true;
+    }
+
+    /**
+     * Consumer only. Pass up to {@code max} packets to {@code consumer}, oldest first.
+     *
+     * @return number of packets drained
+     */
+    int drain(Consumer consumer, int max) {
+        long position = consumerHead;
+        if (position >= cachedTail) {
+            cachedTail = tail.get();
+            if (position >= cachedTail) {
+                return 0;
+            }
+        }
+        int n = (int) Math.min(max, cachedTail - position);
+        for (int i = 0; i < n; i++) {
+            int index = (int) (position + i) & mask;
+            byte[] packet = packets[index];
+            packets[index] = null;
+            consumer.accept(packet, originalLengths[index], timestamps[index], sampleRates[index]);
+        }
+        consumerHead = position + n;
+        head.lazySet(consumerHead);
+        return n;
+    }
+
+    /**
+     * @return packets waiting, exact only when called from one of the two threads while the other is idle
+     */
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
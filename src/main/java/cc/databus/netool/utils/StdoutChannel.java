@@ -0,0 +1,45 @@
+package cc.databus.netool.utils;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The original stdout as a channel written through one large direct buffer, so printing many lines costs
+ * one system call per buffer instead of a synchronized, autoflushing {@link java.io.PrintStream} call per line.
+ *
+ * Lines printed by {@link SystemOutHelper} go to the same file descriptor and may land between two buffers,
+ * never inside a line. Not thread safe, the writer thread owns it.
+ */
+public class StdoutChannel implements Flushable {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    public StdoutChannel(int bufferSize) {
+        this.channel = new FileOutputStream(FileDescriptor.out).getChannel();
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flush();
+        }
+        buffer.put(data, offset, length);
+    }
+
+    /**
+     * Write out the buffered lines. The descriptor stays open, it is stdout.
+     */
+    @Override
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
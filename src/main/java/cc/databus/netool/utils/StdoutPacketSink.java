@@ -0,0 +1,22 @@
+package cc.databus.netool.utils;
+
+/**
+ * Prints packets to the original stdout.
+ */
+public class StdoutPacketSink implements PacketSink {
+
+    @Override
+    public void write(PacketRecord record) {
+        SystemOutHelper.println(record.getPacket());
+    }
+
+    @Override
+    public void flush() {
+        SystemOutHelper.getOriginSystemOut().flush();
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+}
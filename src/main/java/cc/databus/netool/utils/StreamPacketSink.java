@@ -0,0 +1,80 @@
+package cc.databus.netool.utils;
+
+import cc.databus.netool.packet.PacketView;
+import cc.databus.netool.tcp.StreamConsumer;
+import cc.databus.netool.tcp.StreamSummaryPrinter;
+import cc.databus.netool.tcp.TcpReassembler;
+import cc.databus.netool.tls.TlsHandshakeAnalyzer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the packets of all interfaces into one {@link TcpReassembler} on the writer thread, or the records of
+ * a file read with -r.
+ */
+public class StreamPacketSink implements PacketSink {
+
+    private final TcpReassembler reassembler;
+    private final PacketView view = new PacketView();
+
+    public StreamPacketSink(TcpReassembler reassembler) {
+        this.reassembler = reassembler;
+    }
+
+    /**
+     * Check the stream options and create a reassembler feeding the consumers asked for: a line per connection
+     * for --streams, the handshakes for --tls.
+     */
+    static TcpReassembler openReassembler(CaptureOptions options) {
+        if (options.getStreamsMemory() <= 0 || options.getStreamsFlowMemory() <= 0 || options.getStreamsIdleTimeout() <= 0) {
+            throw new IllegalArgumentException("Stream memory and idle timeout must be positive.");
+        }
+        List<StreamConsumer> consumers = new ArrayList<>();
+        if (options.isStreams()) {
+            consumers.add(new StreamSummaryPrinter());
+        }
+        if (options.isTls()) {
+            consumers.add(new TlsHandshakeAnalyzer());
+        }
+        // a connection costs about a kilobyte of heap, allow as many as the off-heap memory in kilobytes
+        int maxConnections = (int) Math.min(Integer.MAX_VALUE, Math.max(1024, options.getStreamsMemory() / 1024));
+        TcpReassembler reassembler = new TcpReassembler(consumers, options.getStreamsMemory(), options.getStreamsFlowMemory(),
+                TimeUnit.SECONDS.toNanos(options.getStreamsIdleTimeout()), maxConnections);
+        SystemOutHelper.println(String.format("Reassembling TCP streams in %d MB, %d KB per direction, at most %d connections.",
+                options.getStreamsMemory() / 1024 / 1024, options.getStreamsFlowMemory() / 1024, maxConnections));
+        return reassembler;
+    }
+
+    @Override
+    public void write(PacketRecord record) {
+        byte[] data = record.getData();
+        view.wrap(data, data.length, record.getDataLinkType().value());
+        reassembler.process(view, record.getTimestampNanos());
+    }
+
+    /**
+     * Feed a packet read from a file, {@code length} bytes at {@code offset} of {@code buffer}.
+     */
+    void write(ByteBuffer buffer, int offset, int length, int linkType, long timestampNanos) {
+        view.wrap(buffer, offset, length, linkType);
+        reassembler.process(view, timestampNanos);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Close the connections still open and report the totals.
+     */
+    @Override
+    public void close() {
+        reassembler.close();
+        SystemOutHelper.println(String.format("Reassembled %d connections, gaps of %d bytes, %d bytes lost, %d connections evicted.",
+                reassembler.getConnectionsOpened(), reassembler.getGapBytes(), reassembler.getLostBytes(),
+                reassembler.getConnectionsEvicted()));
+    }
+}
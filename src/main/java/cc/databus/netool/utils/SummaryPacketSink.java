@@ -0,0 +1,53 @@
+package cc.databus.netool.utils;
+
+import cc.databus.netool.packet.PacketSummaryFormatter;
+import cc.databus.netool.packet.PacketView;
+
+import java.io.IOException;
+
+/**
+ * Prints one tcpdump style line per packet to stdout, see {@link PacketSummaryFormatter}. The lines are
+ * collected in a {@link StdoutChannel} and written out whenever the writer runs out of queued packets, so
+ * a busy capture prints in large batches while an idle one still shows every packet at once.
+ */
+public class SummaryPacketSink implements PacketSink {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final PacketView view = new PacketView();
+    private final PacketSummaryFormatter formatter;
+    private final StdoutChannel out = new StdoutChannel(BUFFER_SIZE);
+    /**
+     * the packet bytes, copied so the view wraps the same array every time instead of a new buffer per packet
+     */
+    private byte[] data = new byte[2048];
+
+    /**
+     * @param nanos print nanosecond timestamps
+     */
+    public SummaryPacketSink(boolean nanos) {
+        this.formatter = new PacketSummaryFormatter(nanos);
+    }
+
+    @Override
+    public void write(PacketRecord record) throws IOException {
+        byte[] packet = record.getData();
+        if (packet.length > data.length) {
+            data = new byte[Math.max(packet.length, data.length * 2)];
+        }
+        System.arraycopy(packet, 0, data, 0, packet.length);
+        view.wrap(data, packet.length, record.getDataLinkType().value());
+        int length = formatter.format(view, record.getOriginalLength(), record.getTimestampNanos(), record.getSampleRate());
+        out.write(formatter.line(), 0, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
@@ -0,0 +1,121 @@
+package cc.databus.netool.filter;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Each case is {pattern, value, expected}. The value lies between bytes of {@link #PADDING}, which would change
+ * the outcome of a pattern reading past either end of it.
+ */
+public class TestBytePattern {
+
+    private static final String PADDING = "aXa";
+
+    private static final Object[][] GLOBS = {
+            // the empty pattern and only stars
+            {"", "", true},
+            {"", "a", false},
+            {"*", "", true},
+            {"*", "anything", true},
+            {"**", "", true},
+            {"**", "a", true},
+            // no star, the whole value
+            {"abc", "abc", true},
+            {"abc", "abcd", false},
+            {"abc", "xabc", false},
+            {"abc", "ab", false},
+            // anchored at one end
+            {"abc*", "abcd", true},
+            {"abc*", "abc", true},
+            {"abc*", "xabc", false},
+            {"*abc", "xabc", true},
+            {"*abc", "abc", true},
+            {"*abc", "abcx", false},
+            // anchored at both ends, the trailing segment must not overlap the leading one
+            {"a*a", "a", false},
+            {"a*a", "aa", true},
+            {"a*a", "aXa", true},
+            {"a*a", "aXb", false},
+            {"ab*ba", "aba", false},
+            {"ab*ba", "abba", true},
+            {"ab*ba", "abXba", true},
+            {"aa*aa", "aaa", false},
+            {"aa*aa", "aaaa", true},
+            // segments between stars, in order
+            {"*b*", "abc", true},
+            {"*b*", "ac", false},
+            {"a*b*c", "aXbYc", true},
+            {"a*b*c", "abc", true},
+            {"a*b*c", "acb", false},
+            {"*a*b*", "bXa", false},
+            {"a**c", "abc", true},
+            {"*.example.com", "www.example.com", true},
+            {"*.example.com", "example.com", false},
+    };
+
+    /**
+     * {pattern, value, expected when case matters, expected ignoring case}
+     */
+    private static final Object[][] GLOBS_OF_CASE = {
+            {"*.Example.COM", "www.example.com", false, true},
+            {"*.example.com", "WWW.EXAMPLE.COM", false, true},
+            {"ABC", "abc", false, true},
+            {"abc", "abc", true, true},
+            // only ASCII letters fold, [ and { are 0x20 apart as well
+            {"[", "{", false, false},
+            {"{", "[", false, false},
+    };
+
+    private static final Object[][] LITERALS = {
+            {"", "", true},
+            {"", "abc", true},
+            {"b", "abc", true},
+            {"abc", "abc", true},
+            {"abcd", "abc", false},
+            {"bd", "abcd", false},
+            // stars are bytes
+            {"*", "a*b", true},
+            {"*", "ab", false},
+            {"a*b", "xa*by", true},
+            {"a*b", "axb", false},
+    };
+
+    @Test
+    public void glob() {
+        for (Object[] row : GLOBS) {
+            check(BytePattern.glob(bytes((String) row[0]), false), row[0], row[1], row[2]);
+            // no letter of the table patterns has another case in its values
+            check(BytePattern.glob(bytes((String) row[0]), true), row[0], row[1], row[2]);
+        }
+    }
+
+    @Test
+    public void globOfCase() {
+        for (Object[] row : GLOBS_OF_CASE) {
+            check(BytePattern.glob(bytes((String) row[0]), false), row[0], row[1], row[2]);
+            check(BytePattern.glob(bytes((String) row[0]), true), row[0], row[1], row[3]);
+        }
+    }
+
+    @Test
+    public void literal() {
+        for (Object[] row : LITERALS) {
+            check(BytePattern.literal(bytes((String) row[0]), false), row[0], row[1], row[2]);
+        }
+        check(BytePattern.literal(bytes("HOST"), true), "HOST", "the host", true);
+        check(BytePattern.literal(bytes("HOST"), false), "HOST", "the host", false);
+    }
+
+    private static void check(BytePattern pattern, Object shown, Object value, Object expected) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes(PADDING + value + PADDING));
+        assertEquals(shown + " against " + value, expected, pattern.matches(buffer, PADDING.length(), ((String) value).length()));
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,188 @@
+package cc.databus.netool.filter;
+
+import cc.databus.netool.packet.PacketView;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Expressions compiled and matched against crafted Ethernet, IPv4 and TCP or UDP packets, and the BPF derived
+ * from them.
+ */
+public class TestPayloadFilter {
+
+    private static final String HTTP_REQUEST = "GET /index.html HTTP/1.1\r\nUser-Agent: test\r\nHost: WWW.Example.com:8080\r\n\r\n";
+
+    private static final byte[] BINARY = {(byte) 0xde, (byte) 0xad, (byte) 0xbe, (byte) 0xef, 0, 1, '"', '\\'};
+
+    /**
+     * {expression, matches the HTTP request over TCP port 80, matches {@link #BINARY} over UDP port 53}
+     */
+    private static final Object[][] MATCHES = {
+            {"http.host == www.example.com", true, false},
+            {"http.host == *.EXAMPLE.COM", true, false},
+            {"http.host == www.example.com:8080", false, false},
+            {"http.host != other.com", true, false},
+            // method and path keep their case
+            {"http.method == GET and http.path == /index*", true, false},
+            {"http.method == get", false, false},
+            {"http.path == /index", false, false},
+            {"payload contains Host:", true, false},
+            {"payload contains host:", false, false},
+            {"tcp and port 80", true, false},
+            {"udp and port 53", false, true},
+            {"port 53 or port 80", true, true},
+            {"not tcp", false, true},
+            {"!(udp || http.method == POST)", true, false},
+            {"tls.sni == *", false, false},
+            {"snmp.community == *", false, false},
+            // quoted values with \xNN, \" and \\
+            {"payload == \"\\xde\\xad*\"", false, true},
+            {"payload == \"\\xDE\\xAD\\xBE\\xEF\\x00\\x01\\\"\\\\\"", false, true},
+            {"payload contains \"\\x00\\x01\"", false, true},
+            {"payload contains \"\\x01\\x00\"", false, false},
+            {"payload contains \"\\\"\\\\\"", false, true},
+            {"payload contains \"1\\x0d\\x0aUser\"", true, false},
+            {"payload contains \"*\"", false, false},
+    };
+
+    /**
+     * {expression, BPF passing every packet it can match, null for all packets}
+     */
+    private static final Object[][] PREFILTERS = {
+            {"tls.sni == *.example.com", Field.Prefilters.TLS},
+            {"http.host == example.com", Field.Prefilters.HTTP},
+            {"snmp.community != public", "udp port 161 or udp port 162"},
+            {"payload contains x", "tcp or udp"},
+            {"port 53", "port 53"},
+            {"tcp", "tcp"},
+            {"tcp and port 80", "(tcp) and (port 80)"},
+            {"tcp or udp", "(tcp) or (udp)"},
+            // the same BPF once
+            {"http.host == a and http.path == /b", Field.Prefilters.HTTP},
+            {"http.host == a or http.method == POST", Field.Prefilters.HTTP},
+            // an and passes what either side passes, an or only what both sides narrow
+            {"not tcp", null},
+            {"not http.method == GET and port 80", "port 80"},
+            {"tcp or not udp", null},
+            {"(tcp or port 53) and snmp.community == x", "((tcp) or (port 53)) and (udp port 161 or udp port 162)"},
+            {"tls.sni == a or snmp.community == b", "(" + Field.Prefilters.TLS + ") or (udp port 161 or udp port 162)"},
+    };
+
+    private static final String[] INVALID = {
+            "",
+            "tcp and",
+            "(tcp",
+            "tcp)",
+            "port",
+            "port 65536",
+            "port \"80\"",
+            "http.host",
+            "http.host = a",
+            "http.host ==",
+            "http.host == a b",
+            "\"http.host\" == a",
+            "unknown == a",
+            "payload == \"abc",
+            "payload == \"\\x4\"",
+            "payload == \"\\xzz\"",
+    };
+
+    private final PacketView view = new PacketView();
+
+    @Test
+    public void matches() {
+        byte[] http = packet(PacketView.PROTO_TCP, 40000, 80, HTTP_REQUEST.getBytes(StandardCharsets.US_ASCII));
+        byte[] binary = packet(PacketView.PROTO_UDP, 40000, 53, BINARY);
+        for (Object[] row : MATCHES) {
+            PayloadFilter.Matcher matcher = PayloadFilter.compile((String) row[0]).newMatcher();
+            assertEquals(row[0] + " on http", row[1], matcher.matches(view.wrap(http, http.length, PacketView.LINKTYPE_ETHERNET)));
+            assertEquals(row[0] + " on binary", row[2], matcher.matches(view.wrap(binary, binary.length, PacketView.LINKTYPE_ETHERNET)));
+        }
+    }
+
+    @Test
+    public void hexEscapesAreBytes() {
+        // \xNN is the byte, other characters their UTF-8 bytes
+        byte[] payload = {(byte) 0xc3, (byte) 0xa9, (byte) 0xe9, 'x'};
+        byte[] packet = packet(PacketView.PROTO_UDP, 40000, 53, payload);
+        String[][] cases = {
+                {"payload == \"\u00e9\\xe9x\"", "true"},
+                {"payload == \"\\xc3\\xa9\\xe9x\"", "true"},
+                {"payload == \"\u00e9\u00e9x\"", "false"},
+                {"payload == \"\\xc3\\xa9\\xe9\\x78\"", "true"},
+                {"payload == \"\\xc3\\xa9\\xe9X\"", "false"},
+        };
+        for (String[] row : cases) {
+            PayloadFilter.Matcher matcher = PayloadFilter.compile(row[0]).newMatcher();
+            assertEquals(row[0], Boolean.parseBoolean(row[1]), matcher.matches(view.wrap(packet, packet.length, PacketView.LINKTYPE_ETHERNET)));
+        }
+    }
+
+    @Test
+    public void prefilter() {
+        for (Object[] row : PREFILTERS) {
+            assertEquals((String) row[0], row[1], PayloadFilter.compile((String) row[0]).getPrefilter());
+        }
+    }
+
+    @Test
+    public void httpPrefilterChecksTheMethods() {
+        // "GET " and "POST" as the first word of the payload behind an IPv4 TCP header
+        String http = Field.Prefilters.HTTP;
+        assertTrue(http.startsWith("tcp and (ip6 or "));
+        assertTrue(http.contains("tcp[((tcp[12:1] & 0xf0) >> 2):4] = 0x47455420"));
+        assertTrue(http.contains("tcp[((tcp[12:1] & 0xf0) >> 2):4] = 0x504f5354"));
+    }
+
+    @Test
+    public void combine() {
+        PayloadFilter port = PayloadFilter.compile("port 53");
+        assertEquals("port 53", port.combine(null));
+        assertEquals("port 53", port.combine("  "));
+        assertEquals("(host 10.0.0.1) and (port 53)", port.combine("host 10.0.0.1"));
+        PayloadFilter any = PayloadFilter.compile("not tcp");
+        assertEquals(null, any.combine(null));
+        assertEquals("host 10.0.0.1", any.combine("host 10.0.0.1"));
+    }
+
+    @Test
+    public void invalidExpressions() {
+        for (String expression : INVALID) {
+            try {
+                PayloadFilter.compile(expression);
+                fail(expression);
+            }
+            catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * @return an Ethernet frame with IPv4 from 10.0.0.1 to 10.0.0.2 and a TCP or UDP header before {@code payload}
+     */
+    private static byte[] packet(int protocol, int sourcePort, int destinationPort, byte[] payload) {
+        int transport = protocol == PacketView.PROTO_TCP ? 20 : 8;
+        ByteBuffer frame = ByteBuffer.allocate(14 + 20 + transport + payload.length);
+        frame.put(new byte[12]).putShort((short) PacketView.ETHERTYPE_IPV4);
+        frame.put((byte) 0x45).put((byte) 0).putShort((short) (20 + transport + payload.length));
+        frame.putShort((short) 0).putShort((short) 0x4000).put((byte) 64).put((byte) protocol).putShort((short) 0);
+        frame.putInt(0x0a000001).putInt(0x0a000002);
+        frame.putShort((short) sourcePort).putShort((short) destinationPort);
+        if (protocol == PacketView.PROTO_TCP) {
+            // sequence and acknowledgment numbers, header of 20 bytes, PSH and ACK, window, checksum and urgent pointer
+            frame.putInt(1000).putInt(5000).put((byte) 0x50).put((byte) 0x18).putShort((short) 65535).putInt(0);
+        }
+        else {
+            frame.putShort((short) (8 + payload.length)).putShort((short) 0);
+        }
+        frame.put(payload);
+        return frame.array();
+    }
+}
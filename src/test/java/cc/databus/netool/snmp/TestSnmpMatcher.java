@@ -0,0 +1,233 @@
+package cc.databus.netool.snmp;
+
+import cc.databus.netool.packet.PacketView;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SNMPv2c between manager 10.0.0.1:50000 and agent 10.0.0.2:161, through the smallest table of 16 slots.
+ */
+public class TestSnmpMatcher {
+
+    private static final int MANAGER = 0x0a000001;
+    private static final int AGENT = 0x0a000002;
+    private static final int MANAGER_PORT = 50000;
+    private static final int CAPACITY = 16;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long T0 = TimeUnit.SECONDS.toNanos(1700000000L);
+
+    private final PacketView view = new PacketView();
+
+    @Test
+    public void responseAfterTheTimeoutIsLostAndUnmatched() {
+        SnmpMatcher matcher = new SnmpMatcher(0, TIMEOUT_NANOS);
+        request(matcher, 1, T0);
+        request(matcher, 2, T0);
+        response(matcher, 1, T0 + TimeUnit.SECONDS.toNanos(1));
+        // no expire() ran in between, the outcome must not depend on it
+        response(matcher, 2, T0 + TimeUnit.SECONDS.toNanos(6));
+        assertStats(matcher, 2, 0, 1, 1, 1);
+        assertEquals(0, matcher.getOutstanding());
+    }
+
+    @Test
+    public void retryAfterTheTimeoutIsANewRequest() {
+        SnmpMatcher matcher = new SnmpMatcher(0, TIMEOUT_NANOS);
+        request(matcher, 1, T0);
+        request(matcher, 1, T0 + TimeUnit.SECONDS.toNanos(2));
+        request(matcher, 1, T0 + TimeUnit.SECONDS.toNanos(8));
+        response(matcher, 1, T0 + TimeUnit.SECONDS.toNanos(9));
+        assertStats(matcher, 2, 1, 1, 1, 0);
+        assertEquals(0, matcher.getOutstanding());
+    }
+
+    @Test
+    public void deleteShiftsEntriesBackAcrossTheWrap() {
+        // five requests homed at the last slot occupy 15, 0, 1, 2 and 3; one homed at 1 goes to 4
+        List<Integer> ids = idsHomedAt(CAPACITY - 1, 5);
+        int homedAtOne = idsHomedAt(1, 1).get(0);
+        for (int first = 0; first < ids.size(); first++) {
+            SnmpMatcher matcher = new SnmpMatcher(0, TIMEOUT_NANOS);
+            for (int id : ids) {
+                request(matcher, id, T0);
+            }
+            request(matcher, homedAtOne, T0);
+            // answering one in the middle of the cluster shifts the following ones back, some over the wrap
+            response(matcher, ids.get(first), T0 + 1);
+            for (int id : ids) {
+                response(matcher, id, T0 + 2);
+            }
+            response(matcher, homedAtOne, T0 + 2);
+            assertStats(matcher, 6, 0, 6, 0, 1);
+            assertEquals(0, matcher.getOutstanding());
+        }
+    }
+
+    @Test
+    public void expireWhileEntriesAreShiftedAcrossTheWrap() {
+        List<Integer> homedAt14 = idsHomedAt(14, 2);
+        int a = homedAt14.get(0);
+        int b = homedAt14.get(1);
+        int c = idsHomedAt(15, 1).get(0);
+        int d = idsHomedAt(0, 1).get(0);
+        int e = idsHomedAt(1, 1).get(0);
+        SnmpMatcher matcher = new SnmpMatcher(0, TIMEOUT_NANOS);
+        long recent = T0 + TimeUnit.SECONDS.toNanos(10);
+        // slots 14 and 15 then 0, 1 and 2: the old c sits in slot 0, the old a in slot 14
+        request(matcher, a, T0);
+        request(matcher, b, recent);
+        request(matcher, c, T0);
+        request(matcher, d, recent);
+        request(matcher, e, recent);
+        assertEquals(2, matcher.expire());
+        assertEquals(3, matcher.getOutstanding());
+        response(matcher, b, recent + 1);
+        response(matcher, d, recent + 1);
+        response(matcher, e, recent + 1);
+        response(matcher, a, recent + 1);
+        response(matcher, c, recent + 1);
+        assertStats(matcher, 5, 0, 3, 2, 2);
+        assertEquals(0, matcher.getOutstanding());
+    }
+
+    @Test
+    public void matchesAModelOfTheOutstandingRequests() {
+        // 100 ms apart and a timeout between two of them, so the wall time expire() adds cannot matter
+        long timeout = TimeUnit.MILLISECONDS.toNanos(5050);
+        Random random = new Random(11);
+        SnmpMatcher matcher = new SnmpMatcher(0, timeout);
+        int maxOutstanding = matcher.capacity();
+        Map<Integer, Long> outstanding = new HashMap<>();
+        long requests = 0;
+        long retries = 0;
+        long responses = 0;
+        long lost = 0;
+        long unmatched = 0;
+        long untracked = 0;
+        long now = T0;
+        for (int i = 0; i < 200000; i++) {
+            int id = random.nextInt(CAPACITY);
+            int action = random.nextInt(10);
+            if (action < 9) {
+                // the capture clock only moves with the packets
+                now += TimeUnit.MILLISECONDS.toNanos(100 * random.nextInt(8));
+            }
+            if (action < 5) {
+                request(matcher, id, now);
+                Long sent = outstanding.get(id);
+                if (sent != null && now - sent > timeout) {
+                    lost++;
+                    requests++;
+                    outstanding.put(id, now);
+                }
+                else if (sent != null) {
+                    retries++;
+                    outstanding.put(id, Math.max(sent, now));
+                }
+                else if (outstanding.size() >= maxOutstanding) {
+                    untracked++;
+                }
+                else {
+                    requests++;
+                    outstanding.put(id, now);
+                }
+            }
+            else if (action < 9) {
+                response(matcher, id, now);
+                Long sent = outstanding.remove(id);
+                if (sent == null) {
+                    unmatched++;
+                }
+                else if (now - sent > timeout) {
+                    lost++;
+                    unmatched++;
+                }
+                else {
+                    responses++;
+                }
+            }
+            else {
+                int expired = 0;
+                Iterator<Long> sent = outstanding.values().iterator();
+                while (sent.hasNext()) {
+                    if (now - sent.next() > timeout) {
+                        sent.remove();
+                        expired++;
+                    }
+                }
+                lost += expired;
+                assertEquals("step " + i, expired, matcher.expire());
+            }
+            assertEquals("step " + i, outstanding.size(), matcher.getOutstanding());
+        }
+        assertStats(matcher, requests, retries, responses, lost, unmatched);
+        assertEquals(untracked, matcher.getUntracked());
+        assertTrue(lost > 0 && untracked > 0);
+    }
+
+    /**
+     * @return the first {@code n} request-ids whose probe sequence starts at {@code slot}
+     */
+    private static List<Integer> idsHomedAt(int slot, int n) {
+        // the key of the first agent: occupied, agent index 0, manager port and agent port
+        long key = 1L << 62 | (long) MANAGER_PORT << 16 | 161;
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 1; ids.size() < n; id++) {
+            if ((SnmpMatcher.hash(0, MANAGER, AGENT, key, id) & (CAPACITY - 1)) == slot) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private static void assertStats(SnmpMatcher matcher, long requests, long retries, long responses, long lost, long unmatched) {
+        String line = matcher.top(1).get(0);
+        assertTrue(line, line.contains(String.format("requests %d, retries %d, responses %d, lost %d ", requests, retries, responses, lost)));
+        assertTrue(line, line.contains(String.format("unmatched %d,", unmatched)));
+    }
+
+    private void request(SnmpMatcher matcher, int requestId, long timestampNanos) {
+        matcher.update(wrap(true, 0xa0, requestId), timestampNanos);
+    }
+
+    private void response(SnmpMatcher matcher, int requestId, long timestampNanos) {
+        matcher.update(wrap(false, 0xa2, requestId), timestampNanos);
+    }
+
+    /**
+     * Ethernet, IPv4, UDP and an SNMPv2c message with community public and no variable bindings.
+     */
+    private PacketView wrap(boolean toAgent, int pduTag, int requestId) {
+        ByteBuffer snmp = ByteBuffer.allocate(29);
+        snmp.put((byte) 0x30).put((byte) 27);
+        snmp.put((byte) 0x02).put((byte) 1).put((byte) 1);
+        snmp.put((byte) 0x04).put((byte) 6).put("public".getBytes(StandardCharsets.US_ASCII));
+        snmp.put((byte) pduTag).put((byte) 14);
+        snmp.put((byte) 0x02).put((byte) 4).putInt(requestId);
+        snmp.put((byte) 0x02).put((byte) 1).put((byte) 0);
+        snmp.put((byte) 0x02).put((byte) 1).put((byte) 0);
+        snmp.put((byte) 0x30).put((byte) 0);
+
+        ByteBuffer frame = ByteBuffer.allocate(14 + 20 + 8 + snmp.capacity());
+        frame.put(new byte[12]).putShort((short) PacketView.ETHERTYPE_IPV4);
+        frame.put((byte) 0x45).put((byte) 0).putShort((short) (20 + 8 + snmp.capacity()));
+        frame.putShort((short) 0).putShort((short) 0x4000).put((byte) 64).put((byte) PacketView.PROTO_UDP).putShort((short) 0);
+        frame.putInt(toAgent ? MANAGER : AGENT).putInt(toAgent ? AGENT : MANAGER);
+        frame.putShort((short) (toAgent ? MANAGER_PORT : 161)).putShort((short) (toAgent ? 161 : MANAGER_PORT));
+        frame.putShort((short) (8 + snmp.capacity())).putShort((short) 0);
+        frame.put(snmp.array());
+        return view.wrap(frame.array(), frame.capacity(), PacketView.LINKTYPE_ETHERNET);
+    }
+}
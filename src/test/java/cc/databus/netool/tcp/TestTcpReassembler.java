@@ -0,0 +1,278 @@
+package cc.databus.netool.tcp;
+
+import cc.databus.netool.packet.PacketView;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Crafted segments of client port 40000 and up to server port 80, recorded as events per connection:
+ * {@code >abc} and {@code <abc} for bytes of the client and the server, {@code >~6} for a gap of 6 bytes and
+ * {@code close FIN} for the end. Bytes of consecutive calls are joined, how a segment is split between calls
+ * is not part of the contract.
+ */
+public class TestTcpReassembler {
+
+    private static final int CLIENT_ISN = 1000;
+    private static final int SERVER_ISN = 5000;
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final Map<Integer, List<String>> events = new TreeMap<>();
+    private final PacketView view = new PacketView();
+    private long now = TimeUnit.SECONDS.toNanos(1700000000L);
+
+    private final StreamConsumer recorder = connection -> {
+        List<String> log = new ArrayList<>();
+        events.put(connection.getClientPort(), log);
+        return new StreamListener() {
+            @Override
+            public void onData(TcpConnection connection, boolean fromClient, ByteBuffer data, long timestampNanos) {
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                String text = new String(bytes, StandardCharsets.US_ASCII);
+                String prefix = fromClient ? ">" : "<";
+                int last = log.size() - 1;
+                if (last >= 0 && log.get(last).startsWith(prefix) && !log.get(last).startsWith(prefix + "~")) {
+                    log.set(last, log.get(last) + text);
+                }
+                else {
+                    log.add(prefix + text);
+                }
+            }
+
+            @Override
+            public void onGap(TcpConnection connection, boolean fromClient, long length) {
+                log.add((fromClient ? ">~" : "<~") + length);
+            }
+
+            @Override
+            public void onClose(TcpConnection connection, TcpConnection.CloseReason reason) {
+                log.add("close " + reason);
+            }
+        };
+    };
+
+    @Test
+    public void inOrderSegmentsAreDelivered() {
+        TcpReassembler reassembler = reassembler(1 << 20, 65536, 16);
+        handshake(reassembler, 40000);
+        client(reassembler, 40000, 1, "GET /");
+        server(reassembler, 40000, 1, "200 OK");
+        client(reassembler, 40000, 6, " HTTP");
+        assertEvents(40000, ">GET /", "<200 OK", "> HTTP");
+        assertEquals(1, reassembler.getConnectionCount());
+    }
+
+    @Test
+    public void outOfOrderSegmentsWaitForTheHole() {
+        TcpReassembler reassembler = reassembler(1 << 20, 65536, 16);
+        handshake(reassembler, 40000);
+        client(reassembler, 40000, 7, "ghi");
+        client(reassembler, 40000, 4, "def");
+        assertEvents(40000);
+        assertEquals(2 * TcpReassembler.CHUNK_SIZE, reassembler.getBufferedBytes());
+        client(reassembler, 40000, 1, "abc");
+        assertEvents(40000, ">abcdefghi");
+        assertEquals(0, reassembler.getBufferedBytes());
+        assertEquals(0, reassembler.getGapBytes());
+    }
+
+    @Test
+    public void retransmitsAreIgnored() {
+        TcpReassembler reassembler = reassembler(1 << 20, 65536, 16);
+        handshake(reassembler, 40000);
+        client(reassembler, 40000, 1, "abc");
+        client(reassembler, 40000, 1, "abc");
+        client(reassembler, 40000, 7, "ghi");
+        client(reassembler, 40000, 7, "ghi");
+        client(reassembler, 40000, 4, "def");
+        client(reassembler, 40000, 1, "abcdef");
+        assertEvents(40000, ">abcdefghi");
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+
+    @Test
+    public void overlapsKeepTheFirstCopy() {
+        TcpReassembler reassembler = reassembler(1 << 20, 65536, 16);
+        handshake(reassembler, 40000);
+        // in order, then overlapping the delivered bytes
+        client(reassembler, 40000, 1, "abcd");
+        client(reassembler, 40000, 3, "CDef");
+        // pending, then overlapping the pending bytes on both sides
+        client(reassembler, 40000, 11, "KL");
+        client(reassembler, 40000, 9, "ijklmn");
+        client(reassembler, 40000, 7, "gh");
+        assertEvents(40000, ">abcdefghijKLmn");
+    }
+
+    @Test
+    public void snapLengthCutIsAGap() {
+        TcpReassembler reassembler = reassembler(1 << 20, 65536, 16);
+        handshake(reassembler, 40000);
+        reassembler.process(wrap(40000, true, CLIENT_ISN + 1, PacketView.TCP_ACK, "abcdefghij", 4), now);
+        client(reassembler, 40000, 11, "klm");
+        // a cut segment ahead of a hole is buffered as far as it was captured
+        reassembler.process(wrap(40000, true, CLIENT_ISN + 20, PacketView.TCP_ACK, "tuvwxyz", 2), now);
+        client(reassembler, 40000, 14, "nopqrs");
+        assertEvents(40000, ">abcd", ">~6", ">klmnopqrstu");
+        // the rest of the cut segment is a hole like any other
+        client(reassembler, 40000, 27, "!");
+        reassembler.close();
+        assertEvents(40000, ">abcd", ">~6", ">klmnopqrstu", ">~5", ">!", "close END");
+        assertEquals(11, reassembler.getGapBytes());
+    }
+
+    @Test
+    public void pendingLimitGivesUpTheOldestHole() {
+        TcpReassembler reassembler = reassembler(1 << 20, 8, 16);
+        handshake(reassembler, 40000);
+        client(reassembler, 40000, 9, "ijkl");
+        // 4 pending and 8 more exceed the limit of 8
+        client(reassembler, 40000, 13, "mnopqrst");
+        assertEvents(40000, ">~8", ">ijklmnopqrst");
+        // ahead of a hole and alone longer than the limit
+        client(reassembler, 40000, 31, "0123456789");
+        assertEvents(40000, ">~8", ">ijklmnopqrst", ">~10", ">0123456789");
+        assertEquals(0, reassembler.getBufferedBytes());
+        assertEquals(18, reassembler.getGapBytes());
+    }
+
+    @Test
+    public void exhaustedPoolGivesUpOtherConnectionsFirst() {
+        // two chunks, each pending segment needs one and asks for one spare
+        TcpReassembler reassembler = reassembler(2 * TcpReassembler.CHUNK_SIZE, 65536, 16);
+        handshake(reassembler, 40000);
+        handshake(reassembler, 40001);
+        client(reassembler, 40000, 4, "def");
+        client(reassembler, 40001, 4, "DEF");
+        assertEvents(40000, ">~3", ">def");
+        assertEvents(40001);
+        client(reassembler, 40001, 1, "ABC");
+        assertEvents(40001, ">ABCDEF");
+        assertEquals(0, reassembler.getLostBytes());
+    }
+
+    @Test
+    public void exhaustedPoolGivesUpTheOwnHoles() {
+        TcpReassembler reassembler = reassembler(2 * TcpReassembler.CHUNK_SIZE, 65536, 16);
+        handshake(reassembler, 40000);
+        client(reassembler, 40000, 4, "def");
+        client(reassembler, 40000, 10, "jkl");
+        assertEvents(40000, ">~3", ">def", ">~3", ">jkl");
+    }
+
+    @Test
+    public void finOfBothSidesClosesOnceAllIsDelivered() {
+        TcpReassembler reassembler = reassembler(1 << 20, 65536, 16);
+        handshake(reassembler, 40000);
+        reassembler.process(wrap(40000, true, CLIENT_ISN + 4, PacketView.TCP_ACK | PacketView.TCP_FIN, "def", 3), now);
+        server(reassembler, 40000, 1, "ok");
+        reassembler.process(wrap(40000, false, SERVER_ISN + 3, PacketView.TCP_ACK | PacketView.TCP_FIN, "", 0), now);
+        // the client data before its FIN is still missing
+        assertEquals(1, reassembler.getConnectionCount());
+        client(reassembler, 40000, 1, "abc");
+        assertEvents(40000, "<ok", ">abcdef", "close FIN");
+        assertEquals(0, reassembler.getConnectionCount());
+    }
+
+    @Test
+    public void resetDeliversWhatIsBuffered() {
+        TcpReassembler reassembler = reassembler(1 << 20, 65536, 16);
+        handshake(reassembler, 40000);
+        client(reassembler, 40000, 4, "def");
+        reassembler.process(wrap(40000, false, SERVER_ISN + 1, PacketView.TCP_RST, "", 0), now);
+        assertEvents(40000, ">~3", ">def", "close RESET");
+        assertEquals(0, reassembler.getConnectionCount());
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+
+    @Test
+    public void idleConnectionsCloseByCaptureTime() {
+        TcpReassembler reassembler = reassembler(1 << 20, 65536, 16);
+        handshake(reassembler, 40000);
+        client(reassembler, 40000, 4, "def");
+        now += IDLE_NANOS / 2;
+        handshake(reassembler, 40001);
+        now += IDLE_NANOS / 2 + TimeUnit.SECONDS.toNanos(1);
+        handshake(reassembler, 40002);
+        assertEvents(40000, ">~3", ">def", "close IDLE");
+        assertEvents(40001);
+        assertEquals(2, reassembler.getConnectionCount());
+    }
+
+    @Test
+    public void connectionLimitEvictsTheLeastRecentlyActive() {
+        TcpReassembler reassembler = reassembler(1 << 20, 65536, 2);
+        handshake(reassembler, 40000);
+        handshake(reassembler, 40001);
+        client(reassembler, 40000, 1, "a");
+        handshake(reassembler, 40002);
+        assertEvents(40000, ">a");
+        assertEvents(40001, "close EVICTED");
+        assertEquals(1, reassembler.getConnectionsEvicted());
+        assertEquals(3, reassembler.getConnectionsOpened());
+    }
+
+    @Test
+    public void closeDeliversWithGaps() {
+        TcpReassembler reassembler = reassembler(1 << 20, 65536, 16);
+        handshake(reassembler, 40000);
+        client(reassembler, 40000, 4, "def");
+        server(reassembler, 40000, 1, "ok");
+        reassembler.close();
+        assertEvents(40000, "<ok", ">~3", ">def", "close END");
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+
+    private TcpReassembler reassembler(long memory, int maxPendingBytes, int maxConnections) {
+        return new TcpReassembler(Collections.singletonList(recorder), memory, maxPendingBytes, IDLE_NANOS, maxConnections);
+    }
+
+    private void handshake(TcpReassembler reassembler, int clientPort) {
+        reassembler.process(wrap(clientPort, true, CLIENT_ISN, PacketView.TCP_SYN, "", 0), now);
+        reassembler.process(wrap(clientPort, false, SERVER_ISN, PacketView.TCP_SYN | PacketView.TCP_ACK, "", 0), now);
+    }
+
+    /**
+     * @param offset of the first byte in the stream, 1 for the first after the SYN
+     */
+    private void client(TcpReassembler reassembler, int clientPort, int offset, String payload) {
+        reassembler.process(wrap(clientPort, true, CLIENT_ISN + offset, PacketView.TCP_ACK, payload, payload.length()), now);
+    }
+
+    private void server(TcpReassembler reassembler, int clientPort, int offset, String payload) {
+        reassembler.process(wrap(clientPort, false, SERVER_ISN + offset, PacketView.TCP_ACK, payload, payload.length()), now);
+    }
+
+    private void assertEvents(int clientPort, String... expected) {
+        assertEquals(Arrays.asList(expected), events.get(clientPort));
+    }
+
+    /**
+     * Ethernet, IPv4 and a TCP header without options, with only {@code captured} bytes of the payload.
+     */
+    private PacketView wrap(int clientPort, boolean fromClient, int seq, int flags, String payload, int captured) {
+        byte[] bytes = payload.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer frame = ByteBuffer.allocate(14 + 20 + 20 + bytes.length);
+        frame.put(new byte[12]).putShort((short) PacketView.ETHERTYPE_IPV4);
+        frame.put((byte) 0x45).put((byte) 0).putShort((short) (20 + 20 + bytes.length));
+        frame.putShort((short) 0).putShort((short) 0x4000).put((byte) 64).put((byte) PacketView.PROTO_TCP).putShort((short) 0);
+        int client = 0x0a000001;
+        int server = 0x0a000002;
+        frame.putInt(fromClient ? client : server).putInt(fromClient ? server : client);
+        frame.putShort((short) (fromClient ? clientPort : 80)).putShort((short) (fromClient ? 80 : clientPort));
+        frame.putInt(seq).putInt(0).put((byte) 0x50).put((byte) flags).putShort((short) 65535).putInt(0);
+        frame.put(bytes);
+        return view.wrap(frame.array(), 14 + 20 + 20 + captured, PacketView.LINKTYPE_ETHERNET);
+    }
+}
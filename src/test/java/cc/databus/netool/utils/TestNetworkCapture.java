@@ -0,0 +1,107 @@
+package cc.databus.netool.utils;
+
+import cc.databus.netool.packet.PacketView;
+import cc.databus.netool.pcap.PcapFileReader;
+import cc.databus.netool.pcap.PcapFileWriter;
+import cc.databus.netool.source.SyntheticPacketSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the whole capture pipeline, source, queue, writer thread and java pcap writer, without an interface.
+ */
+public class TestNetworkCapture {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayIsWrittenUnchanged() throws Exception {
+        Path in = folder.getRoot().toPath().resolve("in.pcap");
+        List<byte[]> packets = new ArrayList<>();
+        List<Long> timestamps = new ArrayList<>();
+        Random random = new Random(7);
+        try (PcapFileWriter writer = new PcapFileWriter(in, PacketView.LINKTYPE_ETHERNET, 65536, true, 64 * 1024, false)) {
+            long timestamp = 1700000000123456789L;
+            for (int i = 0; i < 5000; i++) {
+                byte[] packet = new byte[60 + random.nextInt(1455)];
+                random.nextBytes(packet);
+                timestamp += random.nextInt(1000000);
+                writer.write(packet, 0, packet.length, packet.length + i % 3, timestamp);
+                packets.add(packet);
+                timestamps.add(timestamp);
+            }
+        }
+
+        NetworkCapture.startCapturing(CaptureOptions.newBuilder()
+                .replayFilePath(in.toString())
+                .replaySpeed(0)
+                .filePath(new File(folder.getRoot(), "out.pcap").getPath())
+                .build());
+
+        try (PcapFileReader reader = new PcapFileReader(folder.getRoot().toPath().resolve("out_in.pcap"))) {
+            assertTrue(reader.isNanos());
+            assertEquals(PacketView.LINKTYPE_ETHERNET, reader.getLinkType());
+            byte[] data = new byte[65536];
+            for (int i = 0; i < packets.size(); i++) {
+                assertTrue("record " + i, reader.next());
+                byte[] packet = packets.get(i);
+                assertEquals(packet.length, reader.copyTo(data));
+                assertArrayEquals("record " + i, packet, Arrays.copyOf(data, reader.capturedLength()));
+                assertEquals(packet.length + i % 3, reader.originalLength());
+                assertEquals((long) timestamps.get(i), reader.timestampNanos());
+            }
+            assertFalse(reader.next());
+            assertFalse(reader.isTruncated());
+        }
+    }
+
+    @Test
+    public void syntheticPacketsAreCountedAndWritten() throws Exception {
+        int count = 10000;
+        NetworkCapture.startCapturing(CaptureOptions.newBuilder()
+                .synthetic(true)
+                .syntheticSize("128")
+                .syntheticFlows(16)
+                .count(count)
+                .filePath(new File(folder.getRoot(), "out.pcap").getPath())
+                .build());
+
+        // the generator is seeded, a second one produces the same frames
+        List<byte[]> expected = new ArrayList<>();
+        SyntheticPacketSource source = new SyntheticPacketSource("128", 16, 0);
+        source.run((data, originalLength, timestampNanos) -> {
+            expected.add(data.clone());
+            if (expected.size() == count) {
+                source.stop();
+            }
+        });
+
+        try (PcapFileReader reader = new PcapFileReader(folder.getRoot().toPath().resolve("out_synthetic.pcap"))) {
+            byte[] data = new byte[65536];
+            long lastTimestamp = Long.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                assertTrue("record " + i, reader.next());
+                assertEquals(128, reader.originalLength());
+                assertEquals(128, reader.copyTo(data));
+                assertArrayEquals("record " + i, expected.get(i), Arrays.copyOf(data, 128));
+                assertTrue(reader.timestampNanos() >= lastTimestamp);
+                lastTimestamp = reader.timestampNanos();
+            }
+            assertFalse(reader.next());
+        }
+    }
+}
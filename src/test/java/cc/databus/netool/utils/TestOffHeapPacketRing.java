@@ -0,0 +1,207 @@
+package cc.databus.netool.utils;
+
+import cc.databus.netool.pcap.CaptureFileWriter;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records of {@code HEADER_LENGTH} plus their captured bytes, through rings small enough to wrap every few
+ * records. Some records are all 0xff bytes, which read as wrap markers wherever a header is looked for by mistake.
+ */
+public class TestOffHeapPacketRing {
+
+    private static final int HEADER = OffHeapPacketRing.HEADER_LENGTH;
+
+    /**
+     * {capacity, captured lengths added in turn, records kept at the end}; the comments give the offsets
+     */
+    private static final Object[][] LAYOUTS = {
+            // 0..36, 36..56, then 8 bytes left at the end: a marker that is too short for a header
+            {64, new int[]{20, 4, 4}, 2},
+            // 0..45, 45..61, then 3 bytes left at the end: no room for a marker
+            {64, new int[]{29, 0, 0}, 2},
+            // 0..64, nothing left at the end
+            {64, new int[]{48, 0}, 1},
+            // 0..40, 40..80, then 20 bytes left at the end: a marker
+            {100, new int[]{24, 24, 8}, 2},
+            // as before, then a lap with a marker at 72 and one whose last record covers the stale marker at 80
+            {100, new int[]{24, 24, 8, 8, 8, 20, 28, 4, 4}, 3},
+            // a record of the whole buffer evicts all others
+            {100, new int[]{4, 4, 84, 4}, 1},
+    };
+
+    @Test
+    public void layouts() throws Exception {
+        for (Object[] row : LAYOUTS) {
+            int capacity = (Integer) row[0];
+            int[] lengths = (int[]) row[1];
+            OffHeapPacketRing ring = new OffHeapPacketRing(capacity, 0);
+            List<Record> added = new ArrayList<>();
+            for (int i = 0; i < lengths.length; i++) {
+                added.add(add(ring, record(i, lengths[i], i)));
+            }
+            String name = capacity + " " + Arrays.toString(lengths);
+            assertEquals(name, row[2], ring.size());
+            assertNewest(name, added, ring);
+        }
+    }
+
+    @Test
+    public void longRecordsAreTruncatedToTheBuffer() throws Exception {
+        OffHeapPacketRing ring = new OffHeapPacketRing(64, 0);
+        add(ring, record(0, 8, 0));
+        Record record = record(1, 100, 1);
+        ring.add(record.data, record.originalLength, record.timestampNanos);
+        List<Record> written = writeTo(ring);
+        assertEquals(1, written.size());
+        assertArrayEquals(Arrays.copyOf(record.data, 64 - HEADER), written.get(0).data);
+        assertEquals(record.originalLength, written.get(0).originalLength);
+    }
+
+    @Test
+    public void keepsTheNewestRecordsThatFit() throws Exception {
+        for (int capacity : new int[]{64, 100, 257, 1024}) {
+            for (long seed = 0; seed < 20; seed++) {
+                run(capacity, 0, seed);
+            }
+        }
+    }
+
+    @Test
+    public void evictsRecordsOlderThanTheMaximumAge() throws Exception {
+        for (int capacity : new int[]{100, 1024}) {
+            for (long seed = 0; seed < 20; seed++) {
+                run(capacity, 1000, seed);
+            }
+        }
+    }
+
+    /**
+     * Adds records of random lengths, every one a tail room left at the end of the buffer, for many laps and
+     * compares the ring with what was added after each of them.
+     */
+    private static void run(int capacity, long maxAgeNanos, long seed) throws Exception {
+        Random random = new Random(seed);
+        OffHeapPacketRing ring = new OffHeapPacketRing(capacity, maxAgeNanos);
+        List<Record> added = new ArrayList<>();
+        long timestamp = 0;
+        long bytes = 0;
+        // biased towards short records, so small tail rooms are frequent
+        int maxLength = Math.min(capacity - HEADER, 80);
+        while (bytes < capacity * 50L) {
+            int length = random.nextInt(4) == 0 ? random.nextInt(maxLength + 1) : random.nextInt(Math.min(maxLength, 12) + 1);
+            timestamp += random.nextInt(200);
+            added.add(add(ring, record(added.size(), length, timestamp)));
+            bytes += HEADER + length;
+            String name = "capacity " + capacity + ", seed " + seed + ", record " + added.size();
+            List<Record> kept = assertNewest(name, added, ring);
+
+            int keptBytes = 0;
+            for (Record record : kept) {
+                keptBytes += HEADER + record.data.length;
+            }
+            assertTrue(name, keptBytes <= capacity);
+            if (maxAgeNanos > 0 && kept.size() > 1) {
+                assertTrue(name, timestamp - kept.get(0).timestampNanos <= maxAgeNanos);
+            }
+            if (kept.size() < added.size()) {
+                // the record before the oldest kept one was too old or in the way of a newer one, which
+                // leaves at most one longest record of room and one of unused room at the end of the buffer
+                Record evicted = added.get(added.size() - kept.size() - 1);
+                boolean tooOld = maxAgeNanos > 0 && timestamp - evicted.timestampNanos > maxAgeNanos;
+                assertTrue(name, tooOld || keptBytes + HEADER + evicted.data.length + 2 * (HEADER + maxLength) > capacity);
+            }
+        }
+    }
+
+    /**
+     * Asserts that the ring holds the newest of {@code added}, oldest first, and that writing does not change it.
+     *
+     * @return the records written
+     */
+    private static List<Record> assertNewest(String name, List<Record> added, OffHeapPacketRing ring) throws Exception {
+        List<Record> written = writeTo(ring);
+        assertEquals(name, written.size(), writeTo(ring).size());
+        assertTrue(name, !written.isEmpty());
+        int first = added.size() - written.size();
+        for (int i = 0; i < written.size(); i++) {
+            Record expected = added.get(first + i);
+            Record actual = written.get(i);
+            assertArrayEquals(name, expected.data, actual.data);
+            assertEquals(name, expected.originalLength, actual.originalLength);
+            assertEquals(name, expected.timestampNanos, actual.timestampNanos);
+        }
+        return written;
+    }
+
+    private static Record add(OffHeapPacketRing ring, Record record) {
+        ring.add(record.data, record.originalLength, record.timestampNanos);
+        return record;
+    }
+
+    /**
+     * @return every other record all 0xff, the others numbered bytes
+     */
+    private static Record record(int sequence, int length, long timestampNanos) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = sequence % 2 == 0 ? (byte) 0xff : (byte) (sequence + i);
+        }
+        return new Record(data, length + sequence % 7, timestampNanos);
+    }
+
+    private static List<Record> writeTo(OffHeapPacketRing ring) throws Exception {
+        List<Record> records = new ArrayList<>();
+        int written = ring.writeTo(new CaptureFileWriter() {
+            @Override
+            public void write(byte[] data, int offset, int length, int originalLength, long timestampNanos) {
+                records.add(new Record(Arrays.copyOfRange(data, offset, offset + length), originalLength, timestampNanos));
+            }
+
+            @Override
+            public void write(ByteBuffer data, int originalLength, long timestampNanos) {
+                byte[] bytes = new byte[data.remaining()];
+                data.duplicate().get(bytes);
+                records.add(new Record(bytes, originalLength, timestampNanos));
+            }
+
+            @Override
+            public long size() {
+                return 0;
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        assertEquals(records.size(), written);
+        assertEquals(ring.size(), written);
+        return records;
+    }
+
+    private static final class Record {
+
+        final byte[] data;
+        final int originalLength;
+        final long timestampNanos;
+
+        Record(byte[] data, int originalLength, long timestampNanos) {
+            this.data = data;
+            this.originalLength = originalLength;
+            this.timestampNanos = timestampNanos;
+        }
+    }
+}